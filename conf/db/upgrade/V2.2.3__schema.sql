@@ -27,4 +27,22 @@ ALTER TABLE VmInstanceEO ADD COLUMN `affinityGroupUuid` VARCHAR(32) DEFAULT NULL
 SET FOREIGN_KEY_CHECKS = 0;
 ALTER TABLE AliyunSnapshotVO DROP FOREIGN KEY fkAliyunSnapshotVOAliyunDiskVO;
 ALTER TABLE AliyunSnapshotVO ADD CONSTRAINT fkAliyunSnapshotVOAliyunDiskVO FOREIGN KEY (diskUuid) REFERENCES AliyunDiskVO (uuid) ON DELETE SET NULL;
-SET FOREIGN_KEY_CHECKS = 1;
\ No newline at end of file
+SET FOREIGN_KEY_CHECKS = 1;
+
+# leases of distributed locks taken by GLock when GLock.backend is lease
+CREATE TABLE IF NOT EXISTS `DistributedLockLeaseVO` (
+    `name` VARCHAR(255) NOT NULL,
+    `owner` VARCHAR(32) DEFAULT NULL,
+    `managementNodeId` VARCHAR(32) DEFAULT NULL,
+    `fencingToken` BIGINT UNSIGNED NOT NULL DEFAULT 0,
+    `expireDate` timestamp NULL DEFAULT NULL,
+    `lastOpDate` timestamp NOT NULL DEFAULT '0000-00-00 00:00:00' ON UPDATE CURRENT_TIMESTAMP,
+    `createDate` timestamp NOT NULL DEFAULT '0000-00-00 00:00:00',
+    PRIMARY KEY (`name`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+CREATE INDEX idxDistributedLockLeaseVOmanagementNodeId ON DistributedLockLeaseVO (managementNodeId);
+
+# access recency and hit counts of image caches, for evicting image caches by LRU/LFU
+ALTER TABLE `zstack`.`ImageCacheVO` ADD COLUMN `lastAccessDate` timestamp NULL DEFAULT NULL;
+ALTER TABLE `zstack`.`ImageCacheVO` ADD COLUMN `hitCount` bigint unsigned NOT NULL DEFAULT 0;
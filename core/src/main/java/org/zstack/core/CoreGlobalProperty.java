@@ -36,6 +36,16 @@ public class CoreGlobalProperty {
     public static int REST_FACADE_CONNECT_TIMEOUT;
     @GlobalProperty(name = "RESTFacade.echoTimeout", defaultValue = "60")
     public static int REST_FACADE_ECHO_TIMEOUT;
+    @GlobalProperty(name = "RESTFacade.asyncJsonPostTransport", defaultValue = "RestTemplate")
+    public static String REST_FACADE_ASYNC_TRANSPORT;
+    @GlobalProperty(name = "RESTFacade.nioMaxConnectionsPerHost", defaultValue = "10")
+    public static int REST_FACADE_NIO_MAX_CONNECTIONS_PER_HOST;
+    @GlobalProperty(name = "RESTFacade.nioKeepAliveTimeout", defaultValue = "5000")
+    public static long REST_FACADE_NIO_KEEP_ALIVE_TIMEOUT;
+    @GlobalProperty(name = "RESTFacade.asyncRetryTimes", defaultValue = "5")
+    public static int REST_FACADE_ASYNC_RETRY_TIMES;
+    @GlobalProperty(name = "RESTFacade.asyncRetryInterval", defaultValue = "500")
+    public static long REST_FACADE_ASYNC_RETRY_INTERVAL;
     @GlobalProperty(name = "upgradeStartOn", defaultValue = "false")
     public static boolean IS_UPGRADE_START;
     @GlobalProperty(name = "shadowEntityOn", defaultValue = "false")
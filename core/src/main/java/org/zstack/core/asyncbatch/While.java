@@ -6,6 +6,7 @@ import org.zstack.utils.DebugUtils;
 
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -89,32 +90,63 @@ public class While<T> {
 
     private void runStep(NoErrorCompletion completion) {
         int s = Math.min(step, items.size());
+        if (s == 0) {
+            completion.done();
+            return;
+        }
 
-        Iterator<T> it = items.iterator();
+        StepState state = new StepState(items.iterator(), s, completion);
         for (int i=0; i<s; i++) {
-            runStep(it, completion);
+            runStep(state);
         }
     }
 
-    private void runStep(Iterator<T> it, NoErrorCompletion completion) {
-        T t;
-        synchronized (it) {
-            if (!it.hasNext()) {
+    // each of the workers takes items until none left or allDone() is called, the completion is called once,
+    // when the last worker stops or allDone() is called
+    private class StepState {
+        final Iterator<T> it;
+        final AtomicInteger workers;
+        final AtomicBoolean stopped = new AtomicBoolean(false);
+        final NoErrorCompletion completion;
+
+        StepState(Iterator<T> it, int workers, NoErrorCompletion completion) {
+            this.it = it;
+            this.workers = new AtomicInteger(workers);
+            this.completion = completion;
+        }
+
+        void workerDone() {
+            if (workers.decrementAndGet() == 0 && !stopped.get()) {
                 completion.done();
+            }
+        }
+
+        void stop() {
+            if (stopped.compareAndSet(false, true)) {
+                completion.done();
+            }
+        }
+    }
+
+    private void runStep(StepState state) {
+        T t;
+        synchronized (state.it) {
+            if (state.stopped.get() || !state.it.hasNext()) {
+                state.workerDone();
                 return;
             }
 
-            t = it.next();
+            t = state.it.next();
         }
 
-        consumer.accept(t, new WhileCompletion(completion) {
+        consumer.accept(t, new WhileCompletion(state.completion) {
             @Override
             public void allDone() {
-                completion.done();
+                state.stop();
             }
             @Override
             public void done() {
-                runStep(it, completion);
+                runStep(state);
             }
         });
     }
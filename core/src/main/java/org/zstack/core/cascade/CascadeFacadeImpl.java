@@ -2,13 +2,13 @@ package org.zstack.core.cascade;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.zstack.core.componentloader.PluginRegistry;
+import org.zstack.core.errorcode.ErrorFacade;
 import org.zstack.core.workflow.*;
 import org.zstack.header.Component;
 import org.zstack.header.core.Completion;
 import org.zstack.header.core.workflow.*;
 import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.exception.CloudRuntimeException;
-import org.zstack.utils.Bucket;
 import org.zstack.utils.DebugUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
@@ -66,8 +66,37 @@ public class CascadeFacadeImpl implements CascadeFacade, Component {
         }
     }
 
+    /**
+     * the cascade of a node of the traversing tree, it runs after the cascades of the node's leafs
+     */
+    private static class CascadeTask {
+        final Node node;
+        final CascadeAction action;
+        final List<CascadeTask> leafs = new ArrayList<>();
+        // the resources cascaded by this task and the tasks of its leafs
+        final Set<String> resourceNames = new HashSet<>();
+        // the position in the serial cascade
+        int index;
+
+        // the tasks waiting for this task, and the number of tasks this task is waiting for
+        final List<CascadeTask> dependents = new ArrayList<>();
+        int dependencyNum;
+
+        CascadeTask(Node node, CascadeAction action) {
+            this.node = node;
+            this.action = action;
+            resourceNames.add(node.getName());
+        }
+
+        boolean conflictsWith(CascadeTask other) {
+            return resourceNames.contains(other.node.getName()) || other.resourceNames.contains(node.getName());
+        }
+    }
+
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private ErrorFacade errf;
 
     private Map<String, Node> nodes = new HashMap<>();
     private Map<String, TreeNode> cascadeTree = new HashMap<>();
@@ -136,7 +165,7 @@ public class CascadeFacadeImpl implements CascadeFacade, Component {
         }
     }
 
-    private void collectPathsForAsyncCascade(TreeNode treeNode, boolean init, boolean fullTraverse, CascadeAction action, List<Bucket> result) {
+    private CascadeTask collectPathsForAsyncCascade(TreeNode treeNode, boolean init, boolean fullTraverse, CascadeAction action, List<CascadeTask> result) {
         CascadeAction currentAction;
         Node node = treeNode.node;
         if (!init) {
@@ -145,6 +174,7 @@ public class CascadeFacadeImpl implements CascadeFacade, Component {
             currentAction = action;
         }
 
+        List<CascadeTask> leafs = new ArrayList<>();
         if (fullTraverse) {
             if (currentAction == null) {
                 currentAction = new CascadeAction();
@@ -156,19 +186,24 @@ public class CascadeFacadeImpl implements CascadeFacade, Component {
             }
 
             for (TreeNode tn : treeNode.leafs) {
-                collectPathsForAsyncCascade(tn, false, true, currentAction, result);
+                leafs.add(collectPathsForAsyncCascade(tn, false, true, currentAction, result));
             }
         } else {
             if (currentAction != null) {
                 checkForNullElement(node, currentAction);
 
                 for (TreeNode tn : treeNode.leafs) {
-                    collectPathsForAsyncCascade(tn, false, false, currentAction, result);
+                    leafs.add(collectPathsForAsyncCascade(tn, false, false, currentAction, result));
                 }
             }
         }
 
-        result.add(Bucket.newBucket(node, action));
+        CascadeTask task = new CascadeTask(node, action);
+        task.leafs.addAll(leafs);
+        leafs.forEach(l -> task.resourceNames.addAll(l.resourceNames));
+        task.index = result.size();
+        result.add(task);
+        return task;
     }
 
     @Override
@@ -203,12 +238,19 @@ public class CascadeFacadeImpl implements CascadeFacade, Component {
 
         TreeNode root = cascadeTree.get(action.getRootIssuer());
         DebugUtils.Assert(root != null, String.format("found no CascadeExtension for %s", action.getRootIssuer()));
-        List<Bucket> paths = new ArrayList<>();
+        List<CascadeTask> paths = new ArrayList<>();
         collectPathsForAsyncCascade(root, true, action.isFullTraverse(), action, paths);
+
+        int parallelism = CascadeGlobalConfig.PARALLELISM.value(Integer.class);
+        if (parallelism > 1) {
+            new ParallelCascade(paths, parallelism, completion).start();
+            return;
+        }
+
         FlowChain chain = FlowChainBuilder.newSimpleFlowChain();
-        for (Bucket path : paths) {
-            final Node node = path.get(0);
-            final CascadeAction caction = path.get(1);
+        for (CascadeTask path : paths) {
+            final Node node = path.node;
+            final CascadeAction caction = path.action;
             chain.then(new NoRollbackFlow() {
                 @Override
                 public void run(final FlowTrigger trigger, Map data) {
@@ -243,6 +285,132 @@ public class CascadeFacadeImpl implements CascadeFacade, Component {
         }).setName(String.format("Cascade: %s", action.getActionCode())).start();
     }
 
+    /**
+     * runs the cascade tasks collected in post-order concurrently, a task runs after the tasks of its
+     * leafs and the earlier tasks of the same resource as the serial cascade does, and never at the
+     * same time with a task cascading the resource of the task or any resource under it.
+     *
+     * so all resources under a node are cascaded before the node like the serial cascade, only
+     * branches cascading unrelated resource types run at the same time. After a failure no more
+     * tasks are started, the cascade fails once the running tasks complete.
+     */
+    private class ParallelCascade {
+        private final List<CascadeTask> tasks;
+        private final int parallelism;
+        private final Completion completion;
+
+        // in the order of the serial cascade
+        private final TreeSet<CascadeTask> ready = new TreeSet<>(Comparator.comparingInt(t -> t.index));
+        private final List<CascadeTask> running = new ArrayList<>();
+        private int doneNum;
+        private ErrorCode error;
+        private boolean finished;
+
+        ParallelCascade(List<CascadeTask> tasks, int parallelism, Completion completion) {
+            this.tasks = tasks;
+            this.parallelism = parallelism;
+            this.completion = completion;
+        }
+
+        void start() {
+            // tasks are in post-order, the tasks a task depends on are always before it
+            Map<String, CascadeTask> lastTasks = new HashMap<>();
+            for (CascadeTask task : tasks) {
+                for (CascadeTask leaf : task.leafs) {
+                    leaf.dependents.add(task);
+                    task.dependencyNum++;
+                }
+
+                CascadeTask last = lastTasks.put(task.node.getName(), task);
+                if (last != null && !task.leafs.contains(last)) {
+                    last.dependents.add(task);
+                    task.dependencyNum++;
+                }
+
+                if (task.dependencyNum == 0) {
+                    ready.add(task);
+                }
+            }
+
+            schedule();
+        }
+
+        private void schedule() {
+            List<CascadeTask> toRun = new ArrayList<>();
+            boolean finish = false;
+            synchronized (this) {
+                for (Iterator<CascadeTask> it = ready.iterator(); error == null && running.size() < parallelism && it.hasNext(); ) {
+                    CascadeTask task = it.next();
+                    if (running.stream().noneMatch(task::conflictsWith)) {
+                        it.remove();
+                        running.add(task);
+                        toRun.add(task);
+                    }
+                }
+
+                if (!finished && running.isEmpty() && (error != null || doneNum == tasks.size())) {
+                    finished = finish = true;
+                }
+            }
+
+            for (CascadeTask task : toRun) {
+                run(task);
+            }
+
+            if (!finish) {
+                return;
+            }
+
+            if (error == null) {
+                completion.success();
+            } else {
+                completion.fail(error);
+            }
+        }
+
+        private void done(CascadeTask task, ErrorCode errorCode) {
+            synchronized (this) {
+                running.remove(task);
+                if (errorCode != null) {
+                    if (error == null) {
+                        error = errorCode;
+                    }
+                } else {
+                    doneNum++;
+                    for (CascadeTask d : task.dependents) {
+                        if (--d.dependencyNum == 0) {
+                            ready.add(d);
+                        }
+                    }
+                }
+            }
+
+            schedule();
+        }
+
+        private void run(CascadeTask task) {
+            logger.debug(String.format("[Async cascade (%s)]: %s --> %s",
+                    task.action.getActionCode(), task.action.getParentIssuer(), task.node.getName()));
+
+            try {
+                runNode(task.node, task.action, new Completion(completion) {
+                    @Override
+                    public void success() {
+                        done(task, null);
+                    }
+
+                    @Override
+                    public void fail(ErrorCode errorCode) {
+                        done(task, errorCode);
+                    }
+                });
+            } catch (Throwable t) {
+                logger.warn(String.format("unhandled exception when cascading %s", task.node.getName()), t);
+                done(task, errf.throwableToInternalError(t));
+            }
+        }
+    }
+
     private void runNode(Node node, CascadeAction caction, Completion completion) {
         List<AsyncBranchCascadeExtensionPoint> branches = asyncBranchCascadeExtensionPoints.get(node.getName());
         boolean skipNode = false;
@@ -0,0 +1,15 @@
+package org.zstack.core.cascade;
+
+import org.zstack.core.config.GlobalConfig;
+import org.zstack.core.config.GlobalConfigDefinition;
+import org.zstack.core.config.GlobalConfigValidation;
+
+/**
+ */
+@GlobalConfigDefinition
+public class CascadeGlobalConfig {
+    public static final String CATEGORY = "cascade";
+
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig PARALLELISM = new GlobalConfig(CATEGORY, "parallelism");
+}
@@ -0,0 +1,529 @@
+package org.zstack.core.cloudbus;
+
+import com.google.gson.internal.UnsafeAllocator;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.message.GsonTransient;
+import org.zstack.header.message.Message;
+import org.zstack.utils.gson.JSONObjectUtil;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * a compact, self-describing binary codec for messages.
+ *
+ * every value is prefixed with a type tag and every object carries its runtime class,
+ * so unlike the JSON codec it doesn't need the "schema" header to restore polymorphic
+ * fields. Class names and field names are written once per payload and referred by
+ * index afterwards. Field accessors are resolved once per class and cached; fields are
+ * written with their names so peers having different versions of a class can still
+ * decode it (unknown fields are skipped).
+ *
+ * fields are selected the same way as the JSON codec: static, transient, synthetic
+ * and @GsonTransient fields are skipped, objects of anonymous and local classes are
+ * written as null. JDK types not handled natively are embedded as JSON.
+ */
+public class BinaryMessageCodec implements MessageCodec {
+    public static final String CONTENT_TYPE = "application/x-zstack-binary";
+
+    private static final byte VERSION = 1;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte BOOLEAN = 4;
+    private static final byte DOUBLE = 5;
+    private static final byte FLOAT = 6;
+    private static final byte SHORT = 7;
+    private static final byte BYTE = 8;
+    private static final byte CHARACTER = 9;
+    private static final byte ENUM = 10;
+    private static final byte COLLECTION = 11;
+    private static final byte MAP = 12;
+    private static final byte OBJECT = 13;
+    private static final byte DATE = 14;
+    private static final byte BYTES = 15;
+    private static final byte ARRAY = 16;
+    private static final byte BIG_DECIMAL = 17;
+    private static final byte BIG_INTEGER = 18;
+    private static final byte JSON = 19;
+
+    private static final Map<String, Class> primitiveClasses = new HashMap<>();
+
+    static {
+        for (Class c : new Class[]{int.class, long.class, boolean.class, double.class, float.class,
+                short.class, byte.class, char.class}) {
+            primitiveClasses.put(c.getName(), c);
+        }
+    }
+
+    private final Map<Class, ClassDescriptor> descriptors = new ConcurrentHashMap<>();
+    private final Map<String, Class> classes = new ConcurrentHashMap<>();
+    private final Map<Class, Boolean> standardContainers = new ConcurrentHashMap<>();
+    private final UnsafeAllocator allocator = UnsafeAllocator.create();
+
+    private static class FieldDescriptor {
+        final String name;
+        final Field field;
+
+        FieldDescriptor(Field field) {
+            this.name = field.getName();
+            this.field = field;
+            field.setAccessible(true);
+        }
+    }
+
+    private class ClassDescriptor {
+        final Class clazz;
+        final boolean skipped;
+        final List<FieldDescriptor> fields = new ArrayList<>();
+        final Map<String, FieldDescriptor> fieldsByName = new HashMap<>();
+        Constructor constructor;
+
+        ClassDescriptor(Class clazz) {
+            this.clazz = clazz;
+            skipped = clazz.isAnonymousClass() || clazz.isLocalClass();
+
+            // the field declared by the super class is written first, like Gson does
+            LinkedList<Class> hierarchy = new LinkedList<>();
+            for (Class c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+                hierarchy.addFirst(c);
+            }
+
+            for (Class c : hierarchy) {
+                for (Field f : c.getDeclaredFields()) {
+                    int mod = f.getModifiers();
+                    if (Modifier.isStatic(mod) || Modifier.isTransient(mod) || f.isSynthetic()
+                            || f.isAnnotationPresent(GsonTransient.class)) {
+                        continue;
+                    }
+
+                    FieldDescriptor fd = new FieldDescriptor(f);
+                    fields.add(fd);
+                    // a field of the sub class hides the one of the super class
+                    fieldsByName.put(fd.name, fd);
+                }
+            }
+
+            try {
+                constructor = clazz.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                constructor = null;
+            }
+        }
+
+        Object newInstance() throws Exception {
+            if (constructor != null) {
+                return constructor.newInstance();
+            }
+
+            return allocator.newInstance(clazz);
+        }
+    }
+
+    private ClassDescriptor getDescriptor(Class clazz) {
+        return descriptors.computeIfAbsent(clazz, ClassDescriptor::new);
+    }
+
+    private Class getClass(String name) throws ClassNotFoundException {
+        Class clz = classes.get(name);
+        if (clz == null) {
+            clz = primitiveClasses.get(name);
+            if (clz == null) {
+                clz = Class.forName(name);
+            }
+            classes.put(name, clz);
+        }
+
+        return clz;
+    }
+
+    private static boolean isJdkClass(Class clazz) {
+        String name = clazz.getName();
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("com.google.gson.");
+    }
+
+    // public java.util classes that can be re-created by their public no-arg constructors,
+    // others(e.g. Arrays.asList(), Collections.unmodifiableMap()) are decoded as
+    // ArrayList, LinkedHashSet or LinkedHashMap
+    private boolean isStandardContainer(Class clazz) {
+        return standardContainers.computeIfAbsent(clazz, clz -> {
+            if (!clz.getName().startsWith("java.util.") || !Modifier.isPublic(clz.getModifiers())
+                    || Modifier.isAbstract(clz.getModifiers())) {
+                return false;
+            }
+
+            try {
+                clz.getConstructor();
+                return true;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        });
+    }
+
+    private class Writer {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        final Map<String, Integer> symbols = new HashMap<>();
+
+        void writeVarInt(int v) throws IOException {
+            while ((v & ~0x7F) != 0) {
+                out.writeByte((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            out.writeByte(v);
+        }
+
+        void writeString(String s) throws IOException {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(b.length);
+            out.write(b);
+        }
+
+        void writeSymbol(String s) throws IOException {
+            Integer index = symbols.get(s);
+            if (index != null) {
+                writeVarInt(index + 1);
+                return;
+            }
+
+            writeVarInt(0);
+            writeString(s);
+            symbols.put(s, symbols.size());
+        }
+
+        void writeValue(Object v) throws IOException {
+            if (v == null) {
+                out.writeByte(NULL);
+            } else if (v instanceof String) {
+                out.writeByte(STRING);
+                writeString((String) v);
+            } else if (v instanceof Integer) {
+                out.writeByte(INTEGER);
+                out.writeInt((Integer) v);
+            } else if (v instanceof Long) {
+                out.writeByte(LONG);
+                out.writeLong((Long) v);
+            } else if (v instanceof Boolean) {
+                out.writeByte(BOOLEAN);
+                out.writeBoolean((Boolean) v);
+            } else if (v instanceof Double) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) v);
+            } else if (v instanceof Float) {
+                out.writeByte(FLOAT);
+                out.writeFloat((Float) v);
+            } else if (v instanceof Short) {
+                out.writeByte(SHORT);
+                out.writeShort((Short) v);
+            } else if (v instanceof Byte) {
+                out.writeByte(BYTE);
+                out.writeByte((Byte) v);
+            } else if (v instanceof Character) {
+                out.writeByte(CHARACTER);
+                out.writeChar((Character) v);
+            } else if (v instanceof Enum) {
+                out.writeByte(ENUM);
+                writeSymbol(((Enum) v).getDeclaringClass().getName());
+                writeSymbol(((Enum) v).name());
+            } else if (v instanceof Collection) {
+                writeCollection((Collection) v);
+            } else if (v instanceof Map) {
+                writeMap((Map) v);
+            } else if (v instanceof Date) {
+                writeDate((Date) v);
+            } else if (v instanceof byte[]) {
+                out.writeByte(BYTES);
+                writeVarInt(((byte[]) v).length);
+                out.write((byte[]) v);
+            } else if (v.getClass().isArray()) {
+                writeArray(v);
+            } else if (v instanceof BigDecimal) {
+                out.writeByte(BIG_DECIMAL);
+                writeString(v.toString());
+            } else if (v instanceof BigInteger) {
+                out.writeByte(BIG_INTEGER);
+                writeString(v.toString());
+            } else if (isJdkClass(v.getClass())) {
+                out.writeByte(JSON);
+                writeSymbol(v.getClass().getName());
+                writeString(JSONObjectUtil.toJsonString(v));
+            } else {
+                writeObject(v);
+            }
+        }
+
+        void writeCollection(Collection c) throws IOException {
+            out.writeByte(COLLECTION);
+            Class clz = c.getClass();
+            if (isStandardContainer(clz)) {
+                writeSymbol(clz.getName());
+            } else {
+                writeSymbol(c instanceof Set ? LinkedHashSet.class.getName() : ArrayList.class.getName());
+            }
+
+            writeVarInt(c.size());
+            for (Object o : c) {
+                writeValue(o);
+            }
+        }
+
+        void writeMap(Map m) throws IOException {
+            out.writeByte(MAP);
+            Class clz = m.getClass();
+            writeSymbol(isStandardContainer(clz) ? clz.getName() : LinkedHashMap.class.getName());
+            writeVarInt(m.size());
+            for (Object o : m.entrySet()) {
+                Map.Entry e = (Map.Entry) o;
+                writeValue(e.getKey());
+                writeValue(e.getValue());
+            }
+        }
+
+        void writeDate(Date d) throws IOException {
+            out.writeByte(DATE);
+            writeSymbol(d.getClass().getName());
+            out.writeLong(d.getTime());
+            out.writeInt(d instanceof java.sql.Timestamp ? ((java.sql.Timestamp) d).getNanos() : 0);
+        }
+
+        void writeArray(Object array) throws IOException {
+            out.writeByte(ARRAY);
+            writeSymbol(array.getClass().getComponentType().getName());
+            int len = Array.getLength(array);
+            writeVarInt(len);
+            for (int i = 0; i < len; i++) {
+                writeValue(Array.get(array, i));
+            }
+        }
+
+        void writeObject(Object v) throws IOException {
+            ClassDescriptor d = getDescriptor(v.getClass());
+            if (d.skipped) {
+                out.writeByte(NULL);
+                return;
+            }
+
+            out.writeByte(OBJECT);
+            writeSymbol(d.clazz.getName());
+
+            int count = 0;
+            Object[] values = new Object[d.fields.size()];
+            for (int i = 0; i < values.length; i++) {
+                try {
+                    values[i] = d.fields.get(i).field.get(v);
+                } catch (IllegalAccessException e) {
+                    throw new CloudRuntimeException(e);
+                }
+
+                if (values[i] != null) {
+                    count++;
+                }
+            }
+
+            // null fields are omitted like the JSON codec does
+            writeVarInt(count);
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    writeSymbol(d.fields.get(i).name);
+                    writeValue(values[i]);
+                }
+            }
+        }
+    }
+
+    private class Reader {
+        final DataInputStream in;
+        final List<String> symbols = new ArrayList<>();
+
+        Reader(byte[] data) {
+            in = new DataInputStream(new ByteArrayInputStream(data));
+        }
+
+        int readVarInt() throws IOException {
+            int v = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = in.readUnsignedByte();
+                v |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return v;
+        }
+
+        String readString() throws IOException {
+            byte[] b = new byte[readVarInt()];
+            in.readFully(b);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+
+        String readSymbol() throws IOException {
+            int index = readVarInt();
+            if (index != 0) {
+                return symbols.get(index - 1);
+            }
+
+            String s = readString();
+            symbols.add(s);
+            return s;
+        }
+
+        Object readValue() throws Exception {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case STRING:
+                    return readString();
+                case INTEGER:
+                    return in.readInt();
+                case LONG:
+                    return in.readLong();
+                case BOOLEAN:
+                    return in.readBoolean();
+                case DOUBLE:
+                    return in.readDouble();
+                case FLOAT:
+                    return in.readFloat();
+                case SHORT:
+                    return in.readShort();
+                case BYTE:
+                    return in.readByte();
+                case CHARACTER:
+                    return in.readChar();
+                case ENUM: {
+                    Class clz = BinaryMessageCodec.this.getClass(readSymbol());
+                    return Enum.valueOf(clz, readSymbol());
+                }
+                case COLLECTION:
+                    return readCollection();
+                case MAP:
+                    return readMap();
+                case DATE:
+                    return readDate();
+                case BYTES: {
+                    byte[] b = new byte[readVarInt()];
+                    in.readFully(b);
+                    return b;
+                }
+                case ARRAY:
+                    return readArray();
+                case BIG_DECIMAL:
+                    return new BigDecimal(readString());
+                case BIG_INTEGER:
+                    return new BigInteger(readString());
+                case JSON: {
+                    Class clz = BinaryMessageCodec.this.getClass(readSymbol());
+                    return JSONObjectUtil.toObject(readString(), clz);
+                }
+                case OBJECT:
+                    return readObject();
+                default:
+                    throw new CloudRuntimeException(String.format("unknown type tag[%s] in binary message", tag));
+            }
+        }
+
+        Collection readCollection() throws Exception {
+            Collection c = (Collection) BinaryMessageCodec.this.getClass(readSymbol()).newInstance();
+            int size = readVarInt();
+            for (int i = 0; i < size; i++) {
+                c.add(readValue());
+            }
+            return c;
+        }
+
+        Map readMap() throws Exception {
+            Map m = (Map) BinaryMessageCodec.this.getClass(readSymbol()).newInstance();
+            int size = readVarInt();
+            for (int i = 0; i < size; i++) {
+                Object k = readValue();
+                m.put(k, readValue());
+            }
+            return m;
+        }
+
+        Date readDate() throws Exception {
+            Class clz = BinaryMessageCodec.this.getClass(readSymbol());
+            long time = in.readLong();
+            int nanos = in.readInt();
+            if (clz == java.sql.Timestamp.class) {
+                java.sql.Timestamp ts = new java.sql.Timestamp(time);
+                ts.setNanos(nanos);
+                return ts;
+            }
+
+            return (Date) clz.getConstructor(long.class).newInstance(time);
+        }
+
+        Object readArray() throws Exception {
+            Class component = BinaryMessageCodec.this.getClass(readSymbol());
+            int len = readVarInt();
+            Object array = Array.newInstance(component, len);
+            for (int i = 0; i < len; i++) {
+                Array.set(array, i, readValue());
+            }
+            return array;
+        }
+
+        Object readObject() throws Exception {
+            ClassDescriptor d = getDescriptor(BinaryMessageCodec.this.getClass(readSymbol()));
+            Object obj = d.newInstance();
+            int count = readVarInt();
+            for (int i = 0; i < count; i++) {
+                FieldDescriptor fd = d.fieldsByName.get(readSymbol());
+                Object value = readValue();
+                if (fd != null) {
+                    fd.field.set(obj, value);
+                }
+            }
+            return obj;
+        }
+    }
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public byte[] encode(Message msg) {
+        try {
+            Writer w = new Writer();
+            w.out.writeByte(VERSION);
+            w.writeValue(msg);
+            w.out.flush();
+            return w.bytes.toByteArray();
+        } catch (IOException e) {
+            throw new CloudRuntimeException(e);
+        }
+    }
+
+    @Override
+    public Message decode(byte[] data) {
+        try {
+            Reader r = new Reader(data);
+            byte version = r.in.readByte();
+            if (version != VERSION) {
+                throw new CloudRuntimeException(String.format("unsupported binary message version[%s], expected %s", version, VERSION));
+            }
+
+            return (Message) r.readValue();
+        } catch (CloudRuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CloudRuntimeException(e);
+        }
+    }
+}
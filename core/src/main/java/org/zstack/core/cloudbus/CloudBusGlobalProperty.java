@@ -41,4 +41,20 @@ public class CloudBusGlobalProperty {
     public static int CHANNEL_POOL_SIZE;
     @GlobalProperty(name="CloudBus.messageTTL", defaultValue = "300")
     public static int MESSAGE_TTL;
+    @GlobalProperty(name="CloudBus.binaryCodec", defaultValue = "false")
+    public static boolean BINARY_CODEC;
+    @GlobalProperty(name="CloudBus.publishingPipeline", defaultValue = "false")
+    public static boolean PUBLISHING_PIPELINE;
+    @GlobalProperty(name="CloudBus.publisherThreadNum", defaultValue = "4")
+    public static int PUBLISHER_THREAD_NUM;
+    @GlobalProperty(name="CloudBus.publishBatchSize", defaultValue = "100")
+    public static int PUBLISH_BATCH_SIZE;
+    @GlobalProperty(name="CloudBus.publishRetryTimes", defaultValue = "3")
+    public static int PUBLISH_RETRY_TIMES;
+    @GlobalProperty(name="CloudBus.publishQueueSize", defaultValue = "10000")
+    public static int PUBLISH_QUEUE_SIZE;
+    @GlobalProperty(name="CloudBus.publishQueueTimeoutInSeconds", defaultValue = "30")
+    public static int PUBLISH_QUEUE_TIMEOUT;
+    @GlobalProperty(name="CloudBus.localDelivery", defaultValue = "false")
+    public static boolean LOCAL_DELIVERY;
 }
@@ -46,6 +46,7 @@ import java.sql.Timestamp;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.zstack.core.Platform.argerr;
 import static org.zstack.utils.BeanUtils.getProperty;
@@ -62,6 +63,8 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
     private Connection conn;
     private BusQueue outboundQueue;
     private ChannelPool channelPool;
+    private PublishingPipeline publishingPipeline;
+    private final MessageReturnListener returnListener = new MessageReturnListener();
 
     @Autowired
     private ResourceDestinationMaker destMaker;
@@ -108,6 +111,12 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
     private final String TASK_CONTEXT = "task-context";
 
     private final String AMQP_PROPERTY_HEADER__COMPRESSED = "compressed";
+    private final String AMQP_PROPERTY_HEADER__CODECS = "codecs";
+    private final String AMQP_PROPERTY_HEADER__SENDER_NODE = "sender-node";
+
+    private final BinaryMessageCodec binaryCodec = new BinaryMessageCodec();
+    // management nodes that announced they can decode the binary codec
+    private final Set<String> binaryCodecNodes = ConcurrentHashMap.newKeySet();
 
     private String SERVICE_ID = makeLocalServiceId("cloudbus");
 
@@ -141,22 +150,32 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
 
     @Override
     public void nodeLeft(String nodeId) {
+        binaryCodecNodes.remove(nodeId);
         tracker.managementNodeLeft(nodeId);
     }
 
     @Override
     public void iAmDead(String nodeId) {
+        binaryCodecNodes.remove(nodeId);
         tracker.managementNodeLeft(nodeId);
     }
 
+    // service ids and reply-to keys of messages sent to a specific management node
+    // end with the uuid of the node
+    private boolean isBinaryCodecAcceptedBy(String serviceId) {
+        if (!CloudBusGlobalProperty.BINARY_CODEC || serviceId == null) {
+            return false;
+        }
+
+        return binaryCodecNodes.contains(serviceId.substring(serviceId.lastIndexOf(".") + 1));
+    }
+
     @Override
     public void iJoin(String nodeId) {
     }
 
 
-    private class ChannelPool {
-        BlockingQueue<Channel> pool;
-
+    private class MessageReturnListener implements ReturnListener {
         @AsyncThread
         private void retry(Message msg) {
             try {
@@ -172,39 +191,43 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             }
         }
 
+        @Override
+        public void handleReturn(int i, String s, String s2, String s3, AMQP.BasicProperties basicProperties, byte[] bytes) throws IOException {
+            try {
+                Message msg = wire.toMessage(bytes, basicProperties);
+                if (msg instanceof NeedReplyMessage) {
+                    Envelope e = envelopes.get(msg.getId());
+                    if (e == null) {
+                        retry(msg);
+                        logger.warn(String.format("unable to deliver the message; the destination service[%s] is dead; please use rabbitmqctl to check if the queue is existing and if there is any consumers on that queue; message dump:\n%s",
+                                msg.getServiceId(), wire.dumpMessage(msg)));
+                    } else {
+                        MessageReply reply = new MessageReply();
+                        reply.setError(errf.instantiateErrorCode(SysErrors.UNDELIVERABLE_ERROR,
+                                String.format("unable to deliver the message; the destination service[%s] is dead; please use rabbitmqctl to check if the queue is existing and if any consumers on that queue", msg.getServiceId())));
+                        e.ack(reply);
+                    }
+                } else {
+                    retry(msg);
+                    logger.warn(String.format("unable to deliver an event; please use rabbitmqctl to check if the queue is existing and if there is any consumers on that queue; message dump:\n%s",
+                            wire.dumpMessage(msg)));
+                }
+            } catch (Throwable t) {
+                logger.warn("unhandled throwable", t);
+            }
+        }
+    }
+
+    private class ChannelPool {
+        BlockingQueue<Channel> pool;
+
         ChannelPool(int size, Connection connection) {
             try {
                 pool = new ArrayBlockingQueue<Channel>(size);
                 for (int i = 0; i < size; i++) {
                     Channel chan = connection.createChannel();
                     pool.add(chan);
-                    chan.addReturnListener(new ReturnListener() {
-                        @Override
-                        public void handleReturn(int i, String s, String s2, String s3, AMQP.BasicProperties basicProperties, byte[] bytes) throws IOException {
-                            try {
-                                Message msg = wire.toMessage(bytes, basicProperties);
-                                if (msg instanceof NeedReplyMessage) {
-                                    Envelope e = envelopes.get(msg.getId());
-                                    if (e == null) {
-                                        retry(msg);
-                                        logger.warn(String.format("unable to deliver the message; the destination service[%s] is dead; please use rabbitmqctl to check if the queue is existing and if there is any consumers on that queue; message dump:\n%s",
-                                                msg.getServiceId(), wire.dumpMessage(msg)));
-                                    } else {
-                                        MessageReply reply = new MessageReply();
-                                        reply.setError(errf.instantiateErrorCode(SysErrors.UNDELIVERABLE_ERROR,
-                                                String.format("unable to deliver the message; the destination service[%s] is dead; please use rabbitmqctl to check if the queue is existing and if any consumers on that queue", msg.getServiceId())));
-                                        e.ack(reply);
-                                    }
-                                } else {
-                                    retry(msg);
-                                    logger.warn(String.format("unable to deliver an event; please use rabbitmqctl to check if the queue is existing and if there is any consumers on that queue; message dump:\n%s",
-                                            wire.dumpMessage(msg)));
-                                }
-                            } catch (Throwable t) {
-                                logger.warn("unhandled throwable", t);
-                            }
-                        }
-                    });
+                    chan.addReturnListener(returnListener);
                 }
                 logger.debug(String.format("created channel pool with size[%s]", CloudBusGlobalProperty.CHANNEL_POOL_SIZE));
             } catch (Exception e) {
@@ -237,10 +260,343 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
         }
     }
 
+    // publishes messages asynchronously on channels dedicated to publisher threads,
+    // messages to the same exchange and routing key always go to the same publisher
+    // so their order is kept, and are published back to back in a batch. Channels are in
+    // confirm mode, nacked messages are republished. A publisher rebuilds its channel
+    // whenever the channel shuts down and publishes the unconfirmed messages again.
+    // At most PUBLISH_QUEUE_SIZE messages are queued or unconfirmed per publisher,
+    // publish() waits for room when the broker is unreachable and fails at last.
+    private class PublishingPipeline {
+        private final List<Publisher> publishers = new ArrayList<>();
+        private final AtomicLong publishedNum = new AtomicLong(0);
+        private final AtomicLong batchNum = new AtomicLong(0);
+        private final AtomicLong maxBatchSize = new AtomicLong(0);
+        private final AtomicLong confirmedNum = new AtomicLong(0);
+        private final AtomicLong nackedNum = new AtomicLong(0);
+
+        private class PendingPublish {
+            final String exchange;
+            final String routingKey;
+            final AMQP.BasicProperties props;
+            final byte[] data;
+            final Message msg;
+            int retryTimes;
+
+            PendingPublish(String exchange, String routingKey, AMQP.BasicProperties props, byte[] data, Message msg) {
+                this.exchange = exchange;
+                this.routingKey = routingKey;
+                this.props = props;
+                this.data = data;
+                this.msg = msg;
+            }
+        }
+
+        private class Publisher implements Runnable, ConfirmListener {
+            // messages to send again are put at the head, before new ones
+            final BlockingDeque<PendingPublish> queue = new LinkedBlockingDeque<>();
+            final ConcurrentNavigableMap<Long, PendingPublish> unconfirmed = new ConcurrentSkipListMap<>();
+            // permits of messages queued or unconfirmed, released when they are confirmed or dropped
+            final Semaphore room = new Semaphore(CloudBusGlobalProperty.PUBLISH_QUEUE_SIZE);
+            final Thread thread;
+            volatile Channel chan;
+            // set when the channel shuts down, e.g. the connection is lost or the channel
+            // is closed by the broker; the connection recovery doesn't restart publish
+            // sequence numbers where they were, and doesn't repair a channel-level close
+            volatile boolean broken;
+
+            Publisher(int index) throws IOException {
+                openChannel();
+                thread = new Thread(this, String.format("cloudbus-publisher-%s", index));
+                thread.setDaemon(true);
+            }
+
+            private void openChannel() throws IOException {
+                Channel c = conn.createChannel();
+                chan = c;
+                broken = false;
+                // called at once if the channel is already closed
+                c.addShutdownListener(cause -> {
+                    if (c == chan && !stopped.get()) {
+                        logger.warn(String.format("the publishing channel is shut down, %s", cause.getMessage()));
+                        broken = true;
+                    }
+                });
+                c.addReturnListener(returnListener);
+                c.addConfirmListener(this);
+                c.confirmSelect();
+            }
+
+            private boolean rebuildChannel() {
+                Channel old = chan;
+                try {
+                    // an aborted channel is not recovered with the connection
+                    old.abort();
+                } catch (Throwable t) {
+                    logger.trace(t.getMessage(), t);
+                }
+
+                if (!conn.isOpen()) {
+                    return false;
+                }
+
+                try {
+                    openChannel();
+                } catch (IOException | ShutdownSignalException e) {
+                    logger.warn(String.format("failed to rebuild the publishing channel, %s", e.getMessage()));
+                    broken = true;
+                    return false;
+                }
+
+                // confirms of the old channel never come, the sequence numbers of the new one start from 1
+                requeueUnconfirmed();
+                logger.debug(String.format("rebuilt the publishing channel of %s", thread.getName()));
+                return true;
+            }
+
+            private Collection<PendingPublish> removeConfirmed(long seq, boolean multiple) {
+                if (!multiple) {
+                    PendingPublish p = unconfirmed.remove(seq);
+                    return p == null ? Collections.emptyList() : Collections.singletonList(p);
+                }
+
+                Map<Long, PendingPublish> confirmed = unconfirmed.headMap(seq, true);
+                List<PendingPublish> ret = new ArrayList<>(confirmed.values());
+                confirmed.clear();
+                return ret;
+            }
+
+            @Override
+            public void handleAck(long seq, boolean multiple) throws IOException {
+                int num = removeConfirmed(seq, multiple).size();
+                confirmedNum.addAndGet(num);
+                room.release(num);
+            }
+
+            private void requeue(List<PendingPublish> ps) {
+                // keep the order of the messages put back
+                for (int i = ps.size() - 1; i >= 0; i--) {
+                    queue.offerFirst(ps.get(i));
+                }
+            }
+
+            private void drop(PendingPublish p) {
+                room.release();
+                logger.warn(String.format("rabbitmq nacked message[%s] to %s/%s %s times, drop it",
+                        p.msg.getClass().getName(), p.exchange, p.routingKey, p.retryTimes));
+
+                if (!(p.msg instanceof NeedReplyMessage)) {
+                    return;
+                }
+
+                Envelope e = envelopes.get(p.msg.getId());
+                if (e != null) {
+                    MessageReply reply = new MessageReply();
+                    reply.setError(errf.instantiateErrorCode(SysErrors.UNDELIVERABLE_ERROR,
+                            String.format("unable to deliver the message; rabbitmq nacked it %s times", p.retryTimes)));
+                    e.ack(reply);
+                }
+            }
+
+            @Override
+            public void handleNack(long seq, boolean multiple) throws IOException {
+                List<PendingPublish> retries = new ArrayList<>();
+                for (PendingPublish p : removeConfirmed(seq, multiple)) {
+                    nackedNum.incrementAndGet();
+                    if (p.retryTimes++ < CloudBusGlobalProperty.PUBLISH_RETRY_TIMES) {
+                        retries.add(p);
+                    } else {
+                        drop(p);
+                    }
+                }
+
+                requeue(retries);
+            }
+
+            // messages not confirmed before the channel was broken are sent again before new ones
+            private void requeueUnconfirmed() {
+                List<PendingPublish> ps = new ArrayList<>(unconfirmed.values());
+                unconfirmed.clear();
+                requeue(ps);
+            }
+
+            private void publishBatch(List<PendingPublish> pending) {
+                // coalesce messages per exchange and routing key, the order of messages to the same key is kept
+                Map<String, List<PendingPublish>> groups = new LinkedHashMap<>();
+                for (PendingPublish p : pending) {
+                    groups.computeIfAbsent(p.exchange + "/" + p.routingKey, k -> new ArrayList<>()).add(p);
+                }
+
+                List<PendingPublish> batch = new ArrayList<>(pending.size());
+                groups.values().forEach(batch::addAll);
+
+                batchNum.incrementAndGet();
+                maxBatchSize.accumulateAndGet(batch.size(), Math::max);
+
+                Channel c = chan;
+                for (int i = 0; i < batch.size(); i++) {
+                    PendingPublish p = batch.get(i);
+                    long seq = c.getNextPublishSeqNo();
+                    try {
+                        unconfirmed.put(seq, p);
+                        c.basicPublish(p.exchange, p.routingKey, true, p.props, p.data);
+                        publishedNum.incrementAndGet();
+                    } catch (IOException | ShutdownSignalException e) {
+                        if (stopped.get()) {
+                            return;
+                        }
+
+                        logger.warn(String.format("failed to publish a batch of %s messages, publish them after the" +
+                                " channel is rebuilt; %s", batch.size() - i, e.getMessage()));
+                        unconfirmed.remove(seq, p);
+                        // the unconfirmed ones are put before them when the channel is rebuilt
+                        requeue(batch.subList(i, batch.size()));
+                        broken = true;
+                        return;
+                    }
+                }
+            }
+
+            @Override
+            public void run() {
+                List<PendingPublish> batch = new ArrayList<>(CloudBusGlobalProperty.PUBLISH_BATCH_SIZE);
+                while (!stopped.get()) {
+                    try {
+                        if (broken && !rebuildChannel()) {
+                            TimeUnit.SECONDS.sleep(CloudBusGlobalProperty.RABBITMQ_NETWORK_RECOVER_INTERVAL);
+                            continue;
+                        }
+
+                        // wake up periodically to find the channel broken while idle
+                        PendingPublish p = queue.poll(1, TimeUnit.SECONDS);
+                        if (p == null) {
+                            continue;
+                        }
+                        batch.add(p);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+
+                    queue.drainTo(batch, CloudBusGlobalProperty.PUBLISH_BATCH_SIZE - 1);
+
+                    try {
+                        publishBatch(batch);
+                    } catch (Throwable t) {
+                        logger.warn("unhandled throwable when publishing messages", t);
+                    } finally {
+                        batch.clear();
+                    }
+                }
+            }
+        }
+
+        PublishingPipeline(int publisherNum) throws IOException {
+            for (int i = 0; i < publisherNum; i++) {
+                publishers.add(new Publisher(i));
+            }
+
+            publishers.forEach(p -> p.thread.start());
+            logger.debug(String.format("created publishing pipeline with %s publishers", publisherNum));
+        }
+
+        void publish(Message msg, String exchange, String routingKey, byte[] data) {
+            Publisher publisher = publishers.get(Math.abs((exchange + routingKey).hashCode() % publishers.size()));
+            try {
+                if (!publisher.room.tryAcquire(CloudBusGlobalProperty.PUBLISH_QUEUE_TIMEOUT, TimeUnit.SECONDS)) {
+                    throw new CloudRuntimeException(String.format("unable to publish the message[%s], %s messages are" +
+                                    " waiting for rabbitmq to confirm after %s seconds", msg.getClass().getName(),
+                            CloudBusGlobalProperty.PUBLISH_QUEUE_SIZE, CloudBusGlobalProperty.PUBLISH_QUEUE_TIMEOUT));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CloudRuntimeException(e);
+            }
+
+            publisher.queue.offer(new PendingPublish(exchange, routingKey, msg.getAMQPProperties(), data, msg));
+        }
+
+        PublishingStatistic getStatistic() {
+            long queued = 0;
+            long unconfirmed = 0;
+            for (Publisher p : publishers) {
+                queued += p.queue.size();
+                unconfirmed += p.unconfirmed.size();
+            }
+
+            long batches = batchNum.get();
+            return new PublishingStatistic(
+                    publishers.size(),
+                    queued,
+                    publishedNum.get(),
+                    batches,
+                    batches == 0 ? 0 : publishedNum.get() / batches,
+                    maxBatchSize.get(),
+                    unconfirmed,
+                    confirmedNum.get(),
+                    nackedNum.get()
+            );
+        }
+
+        void destruct() throws IOException {
+            for (Publisher p : publishers) {
+                p.thread.interrupt();
+                try {
+                    p.chan.close();
+                } catch (IOException e) {
+                    p.chan.abort();
+                }
+            }
+        }
+    }
+
     private static abstract class MessageMetaData implements Serializable {
         String className;
         String serviceId;
         String messageName;
+
+        // AMQP returns strings in headers as LongString
+        static String headerString(Map<String, Object> table, String key) {
+            Object v = table.get(key);
+            return v == null ? null : v.toString();
+        }
+
+        static void putIfNotNull(Map<String, Object> table, String key, Object value) {
+            if (value != null) {
+                table.put(key, value);
+            }
+        }
+
+        // encode as an AMQP field table, used instead of JSON for management nodes supporting the binary codec
+        Map<String, Object> toHeaderTable() {
+            Map<String, Object> table = new HashMap<>();
+            putIfNotNull(table, "className", className);
+            putIfNotNull(table, "serviceId", serviceId);
+            putIfNotNull(table, "messageName", messageName);
+            return table;
+        }
+
+        static MessageMetaData fromHeaderTable(Map<String, Object> table) {
+            String className = headerString(table, "className");
+            MessageMetaData metaData;
+            if (LockMessageMetaData.class.getName().equals(className)) {
+                metaData = new LockMessageMetaData();
+            } else if (RequestMessageMetaData.class.getName().equals(className)) {
+                metaData = new RequestMessageMetaData();
+            } else if (ResponseMessageMetaData.class.getName().equals(className)) {
+                metaData = new ResponseMessageMetaData();
+            } else {
+                throw new CloudRuntimeException(String.format("unknown message meta data class[%s]", className));
+            }
+
+            metaData.readHeaderTable(table);
+            return metaData;
+        }
+
+        void readHeaderTable(Map<String, Object> table) {
+            className = headerString(table, "className");
+            serviceId = headerString(table, "serviceId");
+            messageName = headerString(table, "messageName");
+        }
     }
 
     private static class RequestMessageMetaData extends MessageMetaData {
@@ -248,17 +604,76 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
         Long timeout;
         String msgId;
         boolean needApiEvent;
+
+        @Override
+        Map<String, Object> toHeaderTable() {
+            Map<String, Object> table = super.toHeaderTable();
+            putIfNotNull(table, "replyTo", replyTo);
+            putIfNotNull(table, "timeout", timeout);
+            putIfNotNull(table, "msgId", msgId);
+            table.put("needApiEvent", needApiEvent);
+            return table;
+        }
+
+        @Override
+        void readHeaderTable(Map<String, Object> table) {
+            super.readHeaderTable(table);
+            replyTo = headerString(table, "replyTo");
+            timeout = table.get("timeout") == null ? null : ((Number) table.get("timeout")).longValue();
+            msgId = headerString(table, "msgId");
+            needApiEvent = Boolean.TRUE.equals(table.get("needApiEvent"));
+        }
     }
 
     private static class ResponseMessageMetaData extends MessageMetaData {
         boolean isApiEvent;
         String correlationId;
+
+        @Override
+        Map<String, Object> toHeaderTable() {
+            Map<String, Object> table = super.toHeaderTable();
+            table.put("isApiEvent", isApiEvent);
+            putIfNotNull(table, "correlationId", correlationId);
+            return table;
+        }
+
+        @Override
+        void readHeaderTable(Map<String, Object> table) {
+            super.readHeaderTable(table);
+            isApiEvent = Boolean.TRUE.equals(table.get("isApiEvent"));
+            correlationId = headerString(table, "correlationId");
+        }
     }
 
     private static class LockMessageMetaData extends RequestMessageMetaData {
         String unlockKey;
         String reason;
         String senderManagementUuid;
+
+        @Override
+        Map<String, Object> toHeaderTable() {
+            Map<String, Object> table = super.toHeaderTable();
+            putIfNotNull(table, "unlockKey", unlockKey);
+            putIfNotNull(table, "reason", reason);
+            putIfNotNull(table, "senderManagementUuid", senderManagementUuid);
+            return table;
+        }
+
+        @Override
+        void readHeaderTable(Map<String, Object> table) {
+            super.readHeaderTable(table);
+            unlockKey = headerString(table, "unlockKey");
+            reason = headerString(table, "reason");
+            senderManagementUuid = headerString(table, "senderManagementUuid");
+        }
+    }
+
+    private void putMessageMetaData(Message msg, MessageMetaData metaData) {
+        if (isBinaryCodecAcceptedBy(msg.getServiceId())) {
+            msg.getAMQPHeaders().put(MESSAGE_META_DATA, metaData.toHeaderTable());
+        } else {
+            msg.getAMQPHeaders().put(MESSAGE_META_DATA, JSONObjectUtil.toJsonString(metaData));
+        }
     }
 
 
@@ -339,10 +754,10 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
 
     private NoRouteEndPoint noRouteEndPoint = new NoRouteEndPoint();
 
-    private Consumer consumer = new AbstractConsumer() {
+    private class OutboundConsumer extends AbstractConsumer {
         @AsyncThread
         @MessageSafe
-        private void handle(Message msg) {
+        void handle(Message msg) {
             setThreadLoggingContext(msg);
 
             if (logger.isTraceEnabled() && wire.logMessage(msg))  {
@@ -376,7 +791,23 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                 logger.warn("unhandled throwable", t);
             }
         }
-    };
+    }
+
+    private OutboundConsumer consumer = new OutboundConsumer();
+
+    // receivers of messages that can be delivered without going through RabbitMQ,
+    // keyed by the queue name(routing key) of a service or of the reply queue
+    private interface LocalEndPoint {
+        void deliver(Message msg);
+    }
+
+    private Map<String, LocalEndPoint> localEndPoints = new ConcurrentHashMap<>();
+    private AtomicLong locallyDeliveredNum = new AtomicLong(0);
+
+    // a queue of a service id made by makeLocalServiceId()
+    private boolean isNodeLocalQueueName(String queueName) {
+        return queueName.endsWith("." + Platform.getManagementServerId());
+    }
 
 
     private class Wire implements GsonTypeCoder<Message> {
@@ -412,8 +843,8 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             Message msg;
             BusExchange exchange;
 
-            RecoverableSend(Channel chan, Message msg, String serviceId, BusExchange exchange) throws IOException {
-                data = compressMessageIfNeeded(msg);
+            RecoverableSend(Channel chan, Message msg, String serviceId, BusExchange exchange, MessageCodec codec) throws IOException {
+                data = compressMessageIfNeeded(msg, codec);
                 this.chan = chan;
                 this.serviceId = serviceId;
                 this.msg = msg;
@@ -439,13 +870,22 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                 }
             }
 
-            private byte[] compressMessageIfNeeded(Message msg) throws IOException {
-                if (!CloudBusGlobalProperty.COMPRESS_NON_API_MESSAGE || msg instanceof APIEvent || msg instanceof APIMessage) {
+            private byte[] encode(Message msg, MessageCodec codec) {
+                if (codec == null) {
                     return gson.toJson(msg, Message.class).getBytes();
                 }
 
+                msg.setAMQPProperties(msg.getAMQPProperties().builder().contentType(codec.getContentType()).build());
+                return codec.encode(msg);
+            }
+
+            private byte[] compressMessageIfNeeded(Message msg, MessageCodec codec) throws IOException {
+                if (!CloudBusGlobalProperty.COMPRESS_NON_API_MESSAGE || msg instanceof APIEvent || msg instanceof APIMessage) {
+                    return encode(msg, codec);
+                }
+
                 msg.getAMQPHeaders().put(AMQP_PROPERTY_HEADER__COMPRESSED, "true");
-                return Compresser.deflate(gson.toJson(msg, Message.class).getBytes());
+                return Compresser.deflate(encode(msg, codec));
             }
 
             private boolean recoverSend() throws IOException {
@@ -547,6 +987,27 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             }
         }
 
+        private void announceCodecs(Message msg) {
+            if (!CloudBusGlobalProperty.BINARY_CODEC) {
+                return;
+            }
+
+            msg.getAMQPHeaders().put(AMQP_PROPERTY_HEADER__CODECS, binaryCodec.getContentType());
+            msg.getAMQPHeaders().put(AMQP_PROPERTY_HEADER__SENDER_NODE, Platform.getManagementServerId());
+        }
+
+        private void learnCodecs(AMQP.BasicProperties basicProperties) {
+            if (!CloudBusGlobalProperty.BINARY_CODEC || basicProperties.getHeaders() == null) {
+                return;
+            }
+
+            Object codecs = basicProperties.getHeaders().get(AMQP_PROPERTY_HEADER__CODECS);
+            Object sender = basicProperties.getHeaders().get(AMQP_PROPERTY_HEADER__SENDER_NODE);
+            if (codecs != null && sender != null && codecs.toString().contains(binaryCodec.getContentType())) {
+                binaryCodecNodes.add(sender.toString());
+            }
+        }
+
         private void buildSchema(Message msg) {
             try {
                 msg.putHeaderEntry("schema", new JsonSchemaBuilder(msg).build());
@@ -555,6 +1016,39 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             }
         }
 
+        // a request may still be touched by the sender after sending(e.g. sent again or kept in
+        // the envelope), deliver a copy to keep the same isolation as going through RabbitMQ.
+        // A reply is not touched any more by the replier after being replied
+        private Message copyForLocalDelivery(Message msg) {
+            AMQP.BasicProperties props = msg.getAMQPProperties();
+            props = props.builder().headers(props.getHeaders() == null ? null : new HashMap<>(props.getHeaders())).build();
+            if (msg instanceof MessageReply) {
+                msg.setAMQPProperties(props);
+                return msg;
+            }
+
+            Message copy = binaryCodec.decode(binaryCodec.encode(msg));
+            copy.setAMQPProperties(props);
+            return copy;
+        }
+
+        private boolean deliverLocallyIfPossible(Message msg, String queueName) {
+            LocalEndPoint ep = localEndPoints.get(queueName);
+            if (ep == null) {
+                return false;
+            }
+
+            evalThreadContextToMessage(msg);
+
+            if (logger.isTraceEnabled() && logMessage(msg)) {
+                logger.trace(String.format("[msg send locally]: %s", wire.dumpMessage(msg)));
+            }
+
+            ep.deliver(copyForLocalDelivery(msg));
+            locallyDeliveredNum.incrementAndGet();
+            return true;
+        }
+
         public void send(final Message msg, boolean makeQueueName) {
             /*
             StopWatch watch = new StopWatch();
@@ -565,18 +1059,37 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                 serviceId = makeMessageQueueName(serviceId);
             }
 
-            buildSchema(msg);
+            if (deliverLocallyIfPossible(msg, serviceId)) {
+                return;
+            }
+
+            MessageCodec codec = isBinaryCodecAcceptedBy(serviceId) ? binaryCodec : null;
+            if (codec == null) {
+                // the binary codec carries runtime types itself
+                buildSchema(msg);
+            }
 
             evalThreadContextToMessage(msg);
+            announceCodecs(msg);
 
             if (logger.isTraceEnabled() && logMessage(msg)) {
                 logger.trace(String.format("[msg send]: %s", wire.dumpMessage(msg)));
             }
 
 
+            if (publishingPipeline != null) {
+                try {
+                    RecoverableSend rs = new RecoverableSend(null, msg, serviceId, outboundQueue.getBusExchange(), codec);
+                    publishingPipeline.publish(msg, rs.exchange.toString(), rs.serviceId, rs.data);
+                } catch (IOException e) {
+                    throw new CloudRuntimeException(e);
+                }
+                return;
+            }
+
             Channel chan = channelPool.acquire();
             try {
-                new RecoverableSend(chan, msg, serviceId, outboundQueue.getBusExchange()).send();
+                new RecoverableSend(chan, msg, serviceId, outboundQueue.getBusExchange(), codec).send();
                 /*
                 watch.stop();
                 logger.debug(String.mediaType("sending %s cost %sms", msg.getClass().getName(), watch.getTime()));
@@ -594,17 +1107,29 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             watch.start();
             */
 
+            // events are broadcast to all management nodes, always use JSON
             buildSchema(evt);
 
             evalThreadContextToMessage(evt);
+            announceCodecs(evt);
 
             if (logger.isTraceEnabled() && logMessage(evt)) {
                 logger.trace(String.format("[event publish]: %s", wire.dumpMessage(evt)));
             }
 
+            if (publishingPipeline != null) {
+                try {
+                    RecoverableSend rs = new RecoverableSend(null, evt, evt.getType().toString(), BusExchange.BROADCAST, null);
+                    publishingPipeline.publish(evt, rs.exchange.toString(), rs.serviceId, rs.data);
+                } catch (IOException e) {
+                    throw new CloudRuntimeException(e);
+                }
+                return;
+            }
+
             Channel chan = channelPool.acquire();
             try {
-                new RecoverableSend(chan, evt, evt.getType().toString(), BusExchange.BROADCAST).send();
+                new RecoverableSend(chan, evt, evt.getType().toString(), BusExchange.BROADCAST, null).send();
                 /*
                 watch.stop();
                 logger.debug(String.mediaType("sending %s cost %sms", evt.getClass().getName(), watch.getTime()));
@@ -683,6 +1208,14 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                     data = binary;
                 }
 
+                learnCodecs(basicProperties);
+
+                if (binaryCodec.getContentType().equals(basicProperties.getContentType())) {
+                    Message msg = binaryCodec.decode(data);
+                    msg.setAMQPProperties(basicProperties);
+                    return msg;
+                }
+
                 Message msg = gson.fromJson(new String(data), Message.class);
                 msg.setAMQPProperties(basicProperties);
 
@@ -1020,8 +1553,13 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                     return;
                 }
 
-                LongString metaData = (LongString) headers.get(MESSAGE_META_DATA);
-                Map m = JSONObjectUtil.toObject(new String(metaData.getBytes()), LinkedHashMap.class);
+                Object metaData = headers.get(MESSAGE_META_DATA);
+                if (metaData instanceof Map) {
+                    trackMessage(MessageMetaData.fromHeaderTable((Map<String, Object>) metaData));
+                    return;
+                }
+
+                Map m = JSONObjectUtil.toObject(new String(((LongString) metaData).getBytes()), LinkedHashMap.class);
                 trackMessage((MessageMetaData) JSONObjectUtil.rehashObject(m, metaDataClassCache.get(m.get("className"))));
             } catch (Throwable t) {
                 logger.warn("unhandled throwable", t);
@@ -1204,7 +1742,14 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                 }
             });
 
+            if (CloudBusGlobalProperty.BINARY_CODEC) {
+                binaryCodecNodes.add(Platform.getManagementServerId());
+            }
+
             channelPool = new ChannelPool(CloudBusGlobalProperty.CHANNEL_POOL_SIZE, conn);
+            if (CloudBusGlobalProperty.PUBLISHING_PIPELINE) {
+                publishingPipeline = new PublishingPipeline(CloudBusGlobalProperty.PUBLISHER_THREAD_NUM);
+            }
             createExchanges();
             outboundQueue = new BusQueue(makeMessageQueueName(SERVICE_ID), BusExchange.P2P);
             Channel chan = channelPool.acquire();
@@ -1212,6 +1757,9 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             chan.basicConsume(outboundQueue.getName(), true, consumer);
             chan.queueBind(outboundQueue.getName(), outboundQueue.getBusExchange().toString(), outboundQueue.getBindingKey());
             channelPool.returnChannel(chan);
+            if (CloudBusGlobalProperty.LOCAL_DELIVERY) {
+                localEndPoints.put(outboundQueue.getBindingKey(), consumer::handle);
+            }
             maid.construct();
             noRouteEndPoint.construct();
             tracker.construct();
@@ -1279,7 +1827,7 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             metaData.serviceId = msg.getServiceId();
             metaData.messageName = msg.getClass().getName();
             metaData.className = metaData.getClass().getName();
-            msg.getAMQPHeaders().put(MESSAGE_META_DATA, JSONObjectUtil.toJsonString(metaData));
+            putMessageMetaData(msg, metaData);
         }
     }
 
@@ -1688,7 +2236,7 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
         metaData.serviceId = metaData.isApiEvent ? null : msg.getServiceId();
         metaData.className = metaData.getClass().getName();
         metaData.correlationId = metaData.isApiEvent ? ((APIEvent)msg).getApiId() : (String) msg.getHeaderEntry(CORRELATION_ID);
-        msg.getAMQPHeaders().put(MESSAGE_META_DATA, JSONObjectUtil.toJsonString(metaData));
+        putMessageMetaData(msg, metaData);
     }
 
     @Override
@@ -1985,81 +2533,83 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                     @Override
                     public void handleDelivery(String s, com.rabbitmq.client.Envelope envelope, AMQP.BasicProperties basicProperties, byte[] bytes) throws IOException {
                         try {
-                            final Message msg = wire.toMessage(bytes, basicProperties);
+                            dispatch(wire.toMessage(bytes, basicProperties));
+                        } catch (Throwable t) {
+                            logger.warn("unhandled throwable", t);
+                        }
+                    }
+                };
+            }
 
-                            if (logger.isTraceEnabled() && wire.logMessage(msg)) {
-                                logger.trace(String.format("[msg received]: %s", wire.dumpMessage(msg)));
-                            }
+            private void dispatch(final Message msg) {
+                if (logger.isTraceEnabled() && wire.logMessage(msg)) {
+                    logger.trace(String.format("[msg received]: %s", wire.dumpMessage(msg)));
+                }
 
-                            SyncTask<Void> task = new SyncTask<Void>() {
-                                @Override
-                                public String getSyncSignature() {
-                                    return serv.getId();
-                                }
+                SyncTask<Void> task = new SyncTask<Void>() {
+                    @Override
+                    public String getSyncSignature() {
+                        return serv.getId();
+                    }
 
-                                @Override
-                                public int getSyncLevel() {
-                                    return syncLevel;
-                                }
+                    @Override
+                    public int getSyncLevel() {
+                        return syncLevel;
+                    }
 
-                                @Override
-                                public String getName() {
-                                    return String.format("CloudBus EndPoint[%s]", serv.getId());
-                                }
+                    @Override
+                    public String getName() {
+                        return String.format("CloudBus EndPoint[%s]", serv.getId());
+                    }
+
+                    @Override
+                    public Void call() throws Exception {
+                        setThreadLoggingContext(msg);
 
-                                @Override
-                                public Void call() throws Exception {
-                                    setThreadLoggingContext(msg);
-
-                                    try {
-                                        List<BeforeDeliveryMessageInterceptor> is = beforeDeliveryMessageInterceptors.get(msg.getClass());
-                                        if (is != null) {
-                                            for (BeforeDeliveryMessageInterceptor i : is) {
-                                                i.intercept(msg);
-
-                                                /*
-                                                if (logger.isTraceEnabled()) {
-                                                    logger.trace(String.format("called BeforeDeliveryMessageInterceptor[%s] for message[%s]", i.getClass(), msg.getClass()));
-                                                }
-                                                */
-                                            }
-                                        }
-
-                                        for (BeforeDeliveryMessageInterceptor i : beforeDeliveryMessageInterceptorsForAll) {
-                                            i.intercept(msg);
-
-                                            /*
-                                            if (logger.isTraceEnabled()) {
-                                                logger.trace(String.format("called BeforeDeliveryMessageInterceptor[%s] for message[%s]", i.getClass(), msg.getClass()));
-                                            }
-                                            */
-                                        }
-
-                                        serv.handleMessage(msg);
-                                    } catch (Throwable t) {
-                                        logExceptionWithMessageDump(msg, t);
-
-                                        if (t instanceof OperationFailureException) {
-                                            replyErrorByMessageType(msg, ((OperationFailureException) t).getErrorCode());
-                                        } else {
-                                            replyErrorByMessageType(msg, errf.stringToInternalError(t.getMessage()));
-                                        }
+                        try {
+                            List<BeforeDeliveryMessageInterceptor> is = beforeDeliveryMessageInterceptors.get(msg.getClass());
+                            if (is != null) {
+                                for (BeforeDeliveryMessageInterceptor i : is) {
+                                    i.intercept(msg);
+
+                                    /*
+                                    if (logger.isTraceEnabled()) {
+                                        logger.trace(String.format("called BeforeDeliveryMessageInterceptor[%s] for message[%s]", i.getClass(), msg.getClass()));
                                     }
+                                    */
+                                }
+                            }
+
+                            for (BeforeDeliveryMessageInterceptor i : beforeDeliveryMessageInterceptorsForAll) {
+                                i.intercept(msg);
 
-                                    return null;
+                                /*
+                                if (logger.isTraceEnabled()) {
+                                    logger.trace(String.format("called BeforeDeliveryMessageInterceptor[%s] for message[%s]", i.getClass(), msg.getClass()));
                                 }
-                            };
+                                */
+                            }
+
+                            serv.handleMessage(msg);
+                        } catch (Throwable t) {
+                            logExceptionWithMessageDump(msg, t);
 
-                            if (syncLevel == 0) {
-                                thdf.submit(task);
+                            if (t instanceof OperationFailureException) {
+                                replyErrorByMessageType(msg, ((OperationFailureException) t).getErrorCode());
                             } else {
-                                thdf.syncSubmit(task);
+                                replyErrorByMessageType(msg, errf.stringToInternalError(t.getMessage()));
                             }
-                        } catch (Throwable t) {
-                            logger.warn("unhandled throwable", t);
                         }
+
+                        return null;
                     }
                 };
+
+                if (syncLevel == 0) {
+                    thdf.submit(task);
+                } else {
+                    thdf.syncSubmit(task);
+                }
             }
 
             @Override
@@ -2078,10 +2628,26 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                 } catch (IOException e1) {
                     throw new CloudRuntimeException(e1);
                 }
+
+                if (CloudBusGlobalProperty.LOCAL_DELIVERY) {
+                    // a queue shared by the service on all management nodes(e.g. the API portal) is
+                    // consumed by all of them through RabbitMQ, only take over the node-local queues
+                    if (isNodeLocalQueueName(baseName)) {
+                        localEndPoints.put(baseName, this::dispatch);
+                    }
+                    for (String aliasName : aliasNames) {
+                        if (isNodeLocalQueueName(aliasName)) {
+                            localEndPoints.put(aliasName, this::dispatch);
+                        }
+                    }
+                }
             }
 
             @Override
             public void inactive() {
+                localEndPoints.remove(baseName);
+                aliasNames.forEach(localEndPoints::remove);
+
                 try {
                     echan.queueUnbind(baseName, BusExchange.P2P.toString(), baseName);
                     for (String aliasName: aliasNames) {
@@ -2487,6 +3053,15 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
 
         tracker.destruct();
 
+        if (publishingPipeline != null) {
+            throwableSafe(new ExceptionDSL.RunnableWithThrowable() {
+                @Override
+                public void run() throws Throwable {
+                    publishingPipeline.destruct();
+                }
+            });
+        }
+
         throwableSafe(new Runnable() {
             @Override
             public void run() {
@@ -2528,6 +3103,16 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
         return statistics;
     }
 
+    @Override
+    public long getLocallyDeliveredMessageNum() {
+        return locallyDeliveredNum.get();
+    }
+
+    @Override
+    public PublishingStatistic getPublishingStatistic() {
+        return publishingPipeline == null ? null : publishingPipeline.getStatistic();
+    }
+
     @Override
     public List<WaitingReplyMessageStatistic> getWaitingReplyMessageStatistic() {
         List<WaitingReplyMessageStatistic> ret = new ArrayList<WaitingReplyMessageStatistic>();
@@ -19,7 +19,6 @@ import org.zstack.utils.gson.JSONObjectUtil;
 import static org.zstack.core.Platform.argerr;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
@@ -35,8 +34,8 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
     @Autowired
     private CloudBus bus;
 
-    private final Map<String, CallbackWrapper> global = Collections.synchronizedMap(new HashMap<>());
-    private final Map<String, CallbackWrapper> local =  new ConcurrentHashMap<>();
+    private final EventSubscriptionIndex<CallbackWrapper> global = new EventSubscriptionIndex<>();
+    private final EventSubscriptionIndex<CallbackWrapper> local = new EventSubscriptionIndex<>();
 
     private EventSubscriberReceipt unsubscriber;
 
@@ -70,34 +69,21 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
     }
 
     private class CallbackWrapper {
-        String path;
-        String glob;
         AbstractEventFacadeCallback callback;
         AtomicBoolean hasRun;
 
-        CallbackWrapper(String path, AbstractEventFacadeCallback callback) {
-            this.path = path;
-            this.glob = createRegexFromGlob(path.replaceAll("\\{.*\\}", ".*"));
+        CallbackWrapper(AbstractEventFacadeCallback callback) {
             this.callback = callback;
             if (callback instanceof AutoOffEventCallback) {
                 hasRun = new AtomicBoolean(false);
             }
         }
 
-        Object getIdentity() {
-            return callback;
-        }
-
-        public String getGlob() {
-            return glob;
-        }
-
         @AsyncThread
-        void call(CanonicalEvent e) {
+        void call(CanonicalEvent e, Map<String, String> tokens) {
             if (callback instanceof EventRunnable) {
                 ((EventRunnable) callback).run();
             } else {
-                Map<String, String> tokens = tokenize(e.getPath(), path);
                 tokens.put(EventFacade.META_DATA_MANAGEMENT_NODE_ID, e.getManagementNodeId());
                 tokens.put(EventFacade.META_DATA_PATH, e.getPath());
                 Object data = null;
@@ -139,46 +125,19 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
         return out;
     }
 
-    private Map<String, String> tokenize(String str1, String str2) {
-        StringTokenizer token = new StringTokenizer(str1, "/");
-        List<String> origins =  new ArrayList<String>();
-        while (token.hasMoreElements()) {
-            origins.add(token.nextToken());
-        }
-
-        token = new StringTokenizer(str2, "/");
-        List<String> t = new ArrayList<String>();
-        while (token.hasMoreElements()) {
-            t.add(token.nextToken());
-        }
-
-        Map ret = new HashMap();
-        for (int i=0;i<t.size(); i++) {
-            String key = t.get(i);
-            if (!key.startsWith("{") || !key.endsWith("}")) {
-                continue;
-            }
-
-            key = key.replaceAll("\\{", "").replaceAll("\\}", "");
-            ret.put(key, origins.get(i));
-        }
-
-        return ret;
-    }
-
     @Override
     public void on(String path, AutoOffEventCallback cb) {
-        global.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        global.add(cb.uniqueIdentity, path, new CallbackWrapper(cb));
     }
 
     @Override
     public void on(String path, final EventCallback cb) {
-        global.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        global.add(cb.uniqueIdentity, path, new CallbackWrapper(cb));
     }
 
     @Override
     public void on(String path, EventRunnable cb) {
-        global.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        global.add(cb.uniqueIdentity, path, new CallbackWrapper(cb));
     }
 
     @Override
@@ -189,17 +148,17 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
 
     @Override
     public void onLocal(String path, AutoOffEventCallback cb) {
-        local.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        local.add(cb.uniqueIdentity, path, new CallbackWrapper(cb));
     }
 
     @Override
     public void onLocal(String path, EventCallback cb) {
-        local.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        local.add(cb.uniqueIdentity, path, new CallbackWrapper(cb));
     }
 
     @Override
     public void onLocal(String path, EventRunnable cb) {
-        local.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        local.add(cb.uniqueIdentity, path, new CallbackWrapper(cb));
     }
 
     @Override
@@ -243,13 +202,8 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
     }
 
     private void fireLocal(CanonicalEvent cevt) {
-        Map<String, CallbackWrapper> wrappers = new HashMap<>();
-        wrappers.putAll(local);
-
-        for (CallbackWrapper w : wrappers.values()) {
-            if (cevt.getPath().matches(w.getGlob())) {
-                w.call(cevt);
-            }
+        for (EventSubscriptionIndex.Match<CallbackWrapper> m : local.match(cevt.getPath())) {
+            m.getSubscriber().call(cevt, m.getTokens());
         }
     }
 
@@ -265,12 +219,8 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
         }
 
         CanonicalEvent cevt = (CanonicalEvent)evt;
-        Map<String, CallbackWrapper> wrappers = new HashMap<>();
-        wrappers.putAll(global);
-        for (CallbackWrapper w : wrappers.values()) {
-            if (cevt.getPath().matches(w.getGlob())) {
-                w.call(cevt);
-            }
+        for (EventSubscriptionIndex.Match<CallbackWrapper> m : global.match(cevt.getPath())) {
+            m.getSubscriber().call(cevt, m.getTokens());
         }
 
         return false;
@@ -0,0 +1,266 @@
+package org.zstack.core.cloudbus;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Indexes canonical event subscriptions by path.
+ *
+ * A subscription path is split by '/' into segments, a segment may have wildcards '*' and '?' or a token
+ * '{name}' matching a whole segment. Subscriptions to literal paths are found by the event path directly,
+ * the others are compiled to a regular expression once and put in a trie by their segments before the
+ * first one having wildcards or tokens, an event is only matched against the subscriptions on the trie
+ * nodes of its leading segments, and the tokens are captured while matching.
+ *
+ * The subscriptions of a path or a trie node are kept in an array which is replaced on every change,
+ * events are dispatched to the array read at the time without copying or locking.
+ */
+public class EventSubscriptionIndex<T> {
+    private static final Subscription[] EMPTY = new Subscription[0];
+
+    private static class Subscription<T> {
+        final String path;
+        final T subscriber;
+        // null for literal paths
+        final Pattern pattern;
+        final List<String> tokenNames;
+        final List<String> trieSegments;
+
+        Subscription(String path, T subscriber) {
+            this.path = path;
+            this.subscriber = subscriber;
+
+            List<String> segments = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            StringBuilder regex = new StringBuilder();
+            boolean literal = true;
+            int start = 0;
+            for (int i = 0; i <= path.length(); i++) {
+                if (i < path.length() && path.charAt(i) != '/') {
+                    continue;
+                }
+
+                String seg = path.substring(start, i);
+                if (literal && isLiteral(seg)) {
+                    if (!seg.isEmpty()) {
+                        segments.add(seg);
+                    }
+                } else {
+                    literal = false;
+                }
+
+                appendSegmentRegex(regex, seg, names);
+                if (i < path.length()) {
+                    regex.append('/');
+                }
+                start = i + 1;
+            }
+
+            pattern = literal ? null : Pattern.compile(regex.toString(), Pattern.DOTALL);
+            tokenNames = names;
+            trieSegments = segments;
+        }
+
+        private static boolean isLiteral(String seg) {
+            return seg.indexOf('*') < 0 && seg.indexOf('?') < 0 && !(seg.startsWith("{") && seg.endsWith("}"));
+        }
+
+        private static void appendSegmentRegex(StringBuilder regex, String seg, List<String> names) {
+            if (seg.length() > 1 && seg.startsWith("{") && seg.endsWith("}")) {
+                names.add(seg.substring(1, seg.length() - 1));
+                regex.append("([^/]+)");
+                return;
+            }
+
+            StringBuilder literal = new StringBuilder();
+            for (int i = 0; i < seg.length(); i++) {
+                char c = seg.charAt(i);
+                if (c != '*' && c != '?') {
+                    literal.append(c);
+                    continue;
+                }
+
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            }
+
+            if (literal.length() > 0) {
+                regex.append(Pattern.quote(literal.toString()));
+            }
+        }
+
+        /**
+         * @return the tokens of the path, or null if the path doesn't match
+         */
+        Map<String, String> match(String evtPath) {
+            if (pattern == null) {
+                return path.equals(evtPath) ? new HashMap<>() : null;
+            }
+
+            Matcher m = pattern.matcher(evtPath);
+            if (!m.matches()) {
+                return null;
+            }
+
+            Map<String, String> tokens = new HashMap<>();
+            for (int i = 0; i < tokenNames.size(); i++) {
+                tokens.put(tokenNames.get(i), m.group(i + 1));
+            }
+            return tokens;
+        }
+    }
+
+    private static class Node {
+        final Map<String, Node> children = new ConcurrentHashMap<>();
+        volatile Subscription[] subscriptions = EMPTY;
+    }
+
+    public static class Match<T> {
+        private final T subscriber;
+        private final Map<String, String> tokens;
+
+        Match(T subscriber, Map<String, String> tokens) {
+            this.subscriber = subscriber;
+            this.tokens = tokens;
+        }
+
+        public T getSubscriber() {
+            return subscriber;
+        }
+
+        public Map<String, String> getTokens() {
+            return tokens;
+        }
+    }
+
+    private final Map<Object, Subscription<T>> subscriptions = new HashMap<>();
+    private final Map<String, Subscription[]> literals = new ConcurrentHashMap<>();
+    private final Node root = new Node();
+
+    private static Subscription[] add(Subscription[] subs, Subscription s) {
+        Subscription[] ret = Arrays.copyOf(subs, subs.length + 1);
+        ret[subs.length] = s;
+        return ret;
+    }
+
+    private static Subscription[] remove(Subscription[] subs, Subscription s) {
+        for (int i = 0; i < subs.length; i++) {
+            if (subs[i] == s) {
+                Subscription[] ret = new Subscription[subs.length - 1];
+                System.arraycopy(subs, 0, ret, 0, i);
+                System.arraycopy(subs, i + 1, ret, i, subs.length - i - 1);
+                return ret;
+            }
+        }
+
+        return subs;
+    }
+
+    /**
+     * subscribes the path, replacing the subscription of the same identity
+     */
+    public synchronized void add(Object identity, String path, T subscriber) {
+        remove(identity);
+
+        Subscription<T> s = new Subscription<>(path, subscriber);
+        subscriptions.put(identity, s);
+        if (s.pattern == null) {
+            literals.put(path, add(literals.getOrDefault(path, EMPTY), s));
+            return;
+        }
+
+        Node node = root;
+        for (String seg : s.trieSegments) {
+            node = node.children.computeIfAbsent(seg, k -> new Node());
+        }
+        node.subscriptions = add(node.subscriptions, s);
+    }
+
+    /**
+     * @return the subscriber removed, or null if the identity is not subscribed
+     */
+    public synchronized T remove(Object identity) {
+        Subscription<T> s = subscriptions.remove(identity);
+        if (s == null) {
+            return null;
+        }
+
+        if (s.pattern == null) {
+            Subscription[] subs = remove(literals.get(s.path), s);
+            if (subs.length == 0) {
+                literals.remove(s.path);
+            } else {
+                literals.put(s.path, subs);
+            }
+            return s.subscriber;
+        }
+
+        Deque<Node> nodes = new ArrayDeque<>();
+        Node node = root;
+        for (String seg : s.trieSegments) {
+            nodes.push(node);
+            node = node.children.get(seg);
+        }
+        node.subscriptions = remove(node.subscriptions, s);
+
+        // prune empty nodes
+        for (int i = s.trieSegments.size() - 1; i >= 0 && node.subscriptions.length == 0 && node.children.isEmpty(); i--) {
+            Node parent = nodes.pop();
+            parent.children.remove(s.trieSegments.get(i));
+            node = parent;
+        }
+
+        return s.subscriber;
+    }
+
+    public synchronized int size() {
+        return subscriptions.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void match(Subscription[] subs, String path, List<Match<T>> ret) {
+        for (Subscription s : subs) {
+            Map<String, String> tokens = s.match(path);
+            if (tokens != null) {
+                ret.add(new Match<>((T) s.subscriber, tokens));
+            }
+        }
+    }
+
+    /**
+     * @return the subscribers whose paths match the event path, with the tokens of the path
+     */
+    public List<Match<T>> match(String path) {
+        List<Match<T>> ret = new ArrayList<>();
+
+        Subscription[] subs = literals.get(path);
+        if (subs != null) {
+            match(subs, path, ret);
+        }
+
+        Node node = root;
+        int start = 0;
+        while (node != null) {
+            match(node.subscriptions, path, ret);
+
+            while (start < path.length() && path.charAt(start) == '/') {
+                start++;
+            }
+            if (start == path.length() || node.children.isEmpty()) {
+                break;
+            }
+
+            int end = path.indexOf('/', start);
+            end = end < 0 ? path.length() : end;
+            node = node.children.get(path.substring(start, end));
+            start = end;
+        }
+
+        return ret;
+    }
+}
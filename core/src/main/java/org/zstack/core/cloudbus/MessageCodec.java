@@ -0,0 +1,18 @@
+package org.zstack.core.cloudbus;
+
+import org.zstack.header.message.Message;
+
+/**
+ * encodes messages to/decodes messages from the payload of AMQP messages.
+ *
+ * the codec of a payload is identified by the AMQP content type, a receiver
+ * always decodes with the codec named by the content type while a sender only
+ * uses a non-JSON codec if the receiving management node has announced it.
+ */
+public interface MessageCodec {
+    String getContentType();
+
+    byte[] encode(Message msg);
+
+    Message decode(byte[] data);
+}
@@ -0,0 +1,69 @@
+package org.zstack.core.cloudbus;
+
+import java.beans.ConstructorProperties;
+
+/**
+ */
+public class PublishingStatistic {
+    private int publisherNum;
+    private long queuedMessageNum;
+    private long publishedMessageNum;
+    private long batchNum;
+    private long averageBatchSize;
+    private long maxBatchSize;
+    private long unconfirmedMessageNum;
+    private long confirmedMessageNum;
+    private long nackedMessageNum;
+
+    @ConstructorProperties({"publisherNum", "queuedMessageNum", "publishedMessageNum", "batchNum", "averageBatchSize",
+            "maxBatchSize", "unconfirmedMessageNum", "confirmedMessageNum", "nackedMessageNum"})
+    public PublishingStatistic(int publisherNum, long queuedMessageNum, long publishedMessageNum, long batchNum,
+                               long averageBatchSize, long maxBatchSize, long unconfirmedMessageNum,
+                               long confirmedMessageNum, long nackedMessageNum) {
+        this.publisherNum = publisherNum;
+        this.queuedMessageNum = queuedMessageNum;
+        this.publishedMessageNum = publishedMessageNum;
+        this.batchNum = batchNum;
+        this.averageBatchSize = averageBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.unconfirmedMessageNum = unconfirmedMessageNum;
+        this.confirmedMessageNum = confirmedMessageNum;
+        this.nackedMessageNum = nackedMessageNum;
+    }
+
+    public int getPublisherNum() {
+        return publisherNum;
+    }
+
+    public long getQueuedMessageNum() {
+        return queuedMessageNum;
+    }
+
+    public long getPublishedMessageNum() {
+        return publishedMessageNum;
+    }
+
+    public long getBatchNum() {
+        return batchNum;
+    }
+
+    public long getAverageBatchSize() {
+        return averageBatchSize;
+    }
+
+    public long getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getUnconfirmedMessageNum() {
+        return unconfirmedMessageNum;
+    }
+
+    public long getConfirmedMessageNum() {
+        return confirmedMessageNum;
+    }
+
+    public long getNackedMessageNum() {
+        return nackedMessageNum;
+    }
+}
@@ -19,4 +19,8 @@ public class DatabaseGlobalProperty {
     public static String DbIdleConnectionTestPeriod;
     @GlobalProperty(name="DB.maxIdleTime")
     public static String DbMaxIdleTime;
+    @GlobalProperty(name="GLock.backend", defaultValue = "mysql")
+    public static String GLockBackend;
+    @GlobalProperty(name="GLock.leaseTimeoutInSeconds", defaultValue = "30")
+    public static long GLockLeaseTimeoutInSeconds;
 }
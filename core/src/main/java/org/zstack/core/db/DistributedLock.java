@@ -0,0 +1,19 @@
+package org.zstack.core.db;
+
+/**
+ * A lock acquired from a {@link DistributedLockBackend}
+ */
+public interface DistributedLock {
+    String getName();
+
+    /**
+     * @return a number increasing every time the lock is acquired, a resource guarded by the lock can reject
+     * writes carrying a smaller token than it has seen. 0 if the backend doesn't support fencing tokens
+     */
+    long getFencingToken();
+
+    /**
+     * @return true if the lock was held by others when acquiring it
+     */
+    boolean isContended();
+}
@@ -0,0 +1,16 @@
+package org.zstack.core.db;
+
+/**
+ * The SPI of distributed locks used by {@link GLock}, the backend is chosen by the
+ * global property GLock.backend
+ */
+public interface DistributedLockBackend {
+    String getType();
+
+    /**
+     * @throws DistributedLockTimeoutException if the lock is not acquired in timeoutInSeconds
+     */
+    DistributedLock acquire(String name, long timeoutInSeconds);
+
+    void release(DistributedLock lock);
+}
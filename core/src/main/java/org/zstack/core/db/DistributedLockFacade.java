@@ -0,0 +1,11 @@
+package org.zstack.core.db;
+
+/**
+ */
+public interface DistributedLockFacade {
+    DistributedLock acquire(String name, long timeoutInSeconds);
+
+    void release(DistributedLock lock);
+
+    DistributedLockBackend getBackend();
+}
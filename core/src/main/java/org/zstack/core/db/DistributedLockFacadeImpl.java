@@ -0,0 +1,114 @@
+package org.zstack.core.db;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Acquires distributed locks from the backend chosen by GLock.backend, and counts the wait time and
+ * contention of every lock name.
+ */
+public class DistributedLockFacadeImpl implements DistributedLockFacade, DistributedLockMXBean {
+    private static final CLogger logger = Utils.getLogger(DistributedLockFacadeImpl.class);
+
+    @Autowired
+    private List<DistributedLockBackend> backends;
+    @Autowired
+    private JmxFacade jmxf;
+
+    private DistributedLockBackend backend;
+
+    private static class LockCounter {
+        final LongAdder acquireNum = new LongAdder();
+        final LongAdder contentionNum = new LongAdder();
+        final LongAdder timeoutNum = new LongAdder();
+        final LongAdder totalWaitTime = new LongAdder();
+        final AtomicLong maxWaitTime = new AtomicLong();
+        volatile long lastFencingToken;
+    }
+
+    private final Map<String, LockCounter> counters = new ConcurrentHashMap<>();
+
+    public void init() {
+        backend = createBackend(DatabaseGlobalProperty.GLockBackend);
+        jmxf.registerBean("DistributedLock", this);
+    }
+
+    private DistributedLockBackend createBackend(String type) {
+        DistributedLockBackend mysql = null;
+        for (DistributedLockBackend b : backends) {
+            if (b.getType().equalsIgnoreCase(type)) {
+                logger.debug(String.format("use the distributed lock backend[%s]", b.getType()));
+                return b;
+            }
+
+            if (MysqlGetLockBackend.TYPE.equals(b.getType())) {
+                mysql = b;
+            }
+        }
+
+        logger.warn(String.format("unknown GLock.backend[%s], use the distributed lock backend[%s]", type, MysqlGetLockBackend.TYPE));
+        return mysql;
+    }
+
+    @Override
+    public DistributedLockBackend getBackend() {
+        return backend;
+    }
+
+    @Override
+    public DistributedLock acquire(String name, long timeoutInSeconds) {
+        LockCounter counter = counters.computeIfAbsent(name, k -> new LockCounter());
+        long start = System.nanoTime();
+        try {
+            DistributedLock lock = backend.acquire(name, timeoutInSeconds);
+            counter.acquireNum.increment();
+            if (lock.isContended()) {
+                counter.contentionNum.increment();
+            }
+            counter.lastFencingToken = lock.getFencingToken();
+            return lock;
+        } catch (DistributedLockTimeoutException e) {
+            counter.contentionNum.increment();
+            counter.timeoutNum.increment();
+            throw e;
+        } finally {
+            long wait = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            counter.totalWaitTime.add(wait);
+            counter.maxWaitTime.accumulateAndGet(wait, Math::max);
+        }
+    }
+
+    @Override
+    public void release(DistributedLock lock) {
+        backend.release(lock);
+    }
+
+    @Override
+    public String getBackendType() {
+        return backend.getType();
+    }
+
+    @Override
+    public Map<String, DistributedLockStatistic> getDistributedLockStatistics() {
+        Map<String, DistributedLockStatistic> ret = new HashMap<>();
+        counters.forEach((name, c) -> {
+            long acquireNum = c.acquireNum.sum();
+            long timeoutNum = c.timeoutNum.sum();
+            long totalWaitTime = c.totalWaitTime.sum();
+            long tries = acquireNum + timeoutNum;
+            ret.put(name, new DistributedLockStatistic(acquireNum, c.contentionNum.sum(), timeoutNum, totalWaitTime,
+                    tries == 0 ? 0 : totalWaitTime / tries, c.maxWaitTime.get(), c.lastFencingToken));
+        });
+        return ret;
+    }
+}
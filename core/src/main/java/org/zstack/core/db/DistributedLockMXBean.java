@@ -0,0 +1,11 @@
+package org.zstack.core.db;
+
+import java.util.Map;
+
+/**
+ */
+public interface DistributedLockMXBean {
+    String getBackendType();
+
+    Map<String, DistributedLockStatistic> getDistributedLockStatistics();
+}
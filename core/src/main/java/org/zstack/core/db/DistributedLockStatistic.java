@@ -0,0 +1,56 @@
+package org.zstack.core.db;
+
+import java.beans.ConstructorProperties;
+
+/**
+ */
+public class DistributedLockStatistic {
+    private long acquireNum;
+    private long contentionNum;
+    private long timeoutNum;
+    private long totalWaitTimeInMillis;
+    private long averageWaitTimeInMillis;
+    private long maxWaitTimeInMillis;
+    private long lastFencingToken;
+
+    @ConstructorProperties({"acquireNum", "contentionNum", "timeoutNum", "totalWaitTimeInMillis",
+            "averageWaitTimeInMillis", "maxWaitTimeInMillis", "lastFencingToken"})
+    public DistributedLockStatistic(long acquireNum, long contentionNum, long timeoutNum, long totalWaitTimeInMillis,
+                                    long averageWaitTimeInMillis, long maxWaitTimeInMillis, long lastFencingToken) {
+        this.acquireNum = acquireNum;
+        this.contentionNum = contentionNum;
+        this.timeoutNum = timeoutNum;
+        this.totalWaitTimeInMillis = totalWaitTimeInMillis;
+        this.averageWaitTimeInMillis = averageWaitTimeInMillis;
+        this.maxWaitTimeInMillis = maxWaitTimeInMillis;
+        this.lastFencingToken = lastFencingToken;
+    }
+
+    public long getAcquireNum() {
+        return acquireNum;
+    }
+
+    public long getContentionNum() {
+        return contentionNum;
+    }
+
+    public long getTimeoutNum() {
+        return timeoutNum;
+    }
+
+    public long getTotalWaitTimeInMillis() {
+        return totalWaitTimeInMillis;
+    }
+
+    public long getAverageWaitTimeInMillis() {
+        return averageWaitTimeInMillis;
+    }
+
+    public long getMaxWaitTimeInMillis() {
+        return maxWaitTimeInMillis;
+    }
+
+    public long getLastFencingToken() {
+        return lastFencingToken;
+    }
+}
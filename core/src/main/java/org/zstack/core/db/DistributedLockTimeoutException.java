@@ -0,0 +1,11 @@
+package org.zstack.core.db;
+
+import org.zstack.header.exception.CloudRuntimeException;
+
+/**
+ */
+public class DistributedLockTimeoutException extends CloudRuntimeException {
+    public DistributedLockTimeoutException(String name, long timeoutInSeconds) {
+        super(String.format("lock[%s] failed, timeout after %s seconds", name, timeoutInSeconds));
+    }
+}
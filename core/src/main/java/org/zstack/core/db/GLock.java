@@ -8,29 +8,24 @@ import org.zstack.utils.DebugUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
-import javax.sql.DataSource;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
+ * A global lock across management nodes, acquired from the {@link DistributedLockBackend} chosen by GLock.backend
  */
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
 public class GLock {
     private static final CLogger logger = Utils.getLogger(GLock.class);
 
-    private static final Map<String, ReentrantLock> memLocks = new HashMap<String, ReentrantLock>();
+    private static final Map<String, ReentrantLock> memLocks = new ConcurrentHashMap<String, ReentrantLock>();
 
-    private DataSource dataSource;
-    private Connection conn;
     private final String name;
     private final long timeout;
+    private DistributedLock lock;
     private boolean success = false;
     private static final ThreadLocal<List<String>> isLocked = new ThreadLocal<List<String>>() {
         @Override
@@ -43,12 +38,11 @@ public class GLock {
     private boolean separateThreadEnabled;
 
     @Autowired
-    private DatabaseFacade dbf;
+    private DistributedLockFacade lockf;
 
     public GLock(String name, long timeout) {
         this.name = name;
         this.timeout = timeout;
-        dataSource = dbf.getDataSource();
     }
 
     public boolean isSeparateThreadEnabled() {
@@ -59,6 +53,14 @@ public class GLock {
         this.separateThreadEnabled = separateThreadEnabled;
     }
 
+    /**
+     * @return the fencing token of the lock held, 0 if the backend doesn't support fencing tokens
+     */
+    public long getFencingToken() {
+        DebugUtils.Assert(success, String.format("GLock[%s] is not held", name));
+        return lock.getFencingToken();
+    }
+
     private void checkInThread() {
         List<String> locks = isLocked.get();
         if (locks.contains(name)) {
@@ -80,16 +82,9 @@ public class GLock {
 
         ReentrantLock mlock = null;
         if (separateThreadEnabled) {
-            synchronized (memLocks) {
-                mlock = memLocks.get(name);
-                if (mlock == null) {
-                    mlock = new ReentrantLock();
-                    memLocks.put(name, mlock);
-                }
-
-                if (memLocks.size() > 100) {
-                    logger.warn(String.format("there are more than 100 GLocks[num:%s] are created, something must be wrong in our program", memLocks.size()));
-                }
+            mlock = memLocks.computeIfAbsent(name, k -> new ReentrantLock());
+            if (memLocks.size() > 100) {
+                logger.warn(String.format("there are more than 100 GLocks[num:%s] are created, something must be wrong in our program", memLocks.size()));
             }
         }
 
@@ -105,43 +100,13 @@ public class GLock {
                 }
             }
 
-            PreparedStatement pstmt = null;
-            try {
-                conn = dataSource.getConnection();
-                conn.setAutoCommit(true);
-                pstmt = conn.prepareStatement(String.format("select get_lock('%s', %s)", name, timeout));
-                ResultSet rs = pstmt.executeQuery();
-                if (rs == null) {
-                    String err = "Unable to get DB lock: " + name + ", internal database error happened";
-                    throw new CloudRuntimeException(err);
-                } else if (rs.first() && rs.getInt(1) == 0) {
-                    throw new CloudRuntimeException(String.format("lock[%s] failed, timeout after %s seconds", name, timeout));
-                }
+            lock = lockf.acquire(name, timeout);
 
-                if (logger.isTraceEnabled()) {
-                    logger.trace(String.format("[GLock DB Lock]: thread: %s got DB lock[%s], during timeout[%s secs]", Thread.currentThread().getName(), name, timeout));
-                }
-            } catch (SQLException e) {
-                throw new CloudRuntimeException(String.format("[GLock Error]: cannon get DB connection for lock[%s]", name), e);
-            } finally {
-                if (pstmt != null) {
-                    try {
-                        pstmt.close();
-                    } catch (SQLException e) {
-                        logger.warn("Unable to close PreparedStatement for lock: " + name, e);
-                    }
-                }
+            if (logger.isTraceEnabled()) {
+                logger.trace(String.format("[GLock DB Lock]: thread: %s got DB lock[%s], during timeout[%s secs]", Thread.currentThread().getName(), name, timeout));
             }
             success = true;
         } catch (Throwable t) {
-            if (conn != null) {
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                    logger.warn(e.getMessage(), e);
-                }
-            }
-
             if (separateThreadEnabled) {
                 mlock.unlock();
             }
@@ -170,57 +135,29 @@ public class GLock {
             return;
         }
 
-        ReentrantLock lock = null;
+        ReentrantLock mlock = null;
         if (separateThreadEnabled) {
-            synchronized (memLocks) {
-                lock = memLocks.get(name);
-            }
+            mlock = memLocks.get(name);
         }
 
         try {
             if (separateThreadEnabled) {
-                DebugUtils.Assert(lock != null, String.format("cannot find LockWrapper for GLock[%s], is unlock mistakenly called twice???", name));
+                DebugUtils.Assert(mlock != null, String.format("cannot find LockWrapper for GLock[%s], is unlock mistakenly called twice???", name));
             }
 
             if (logger.isTraceEnabled()) {
                 logger.trace(String.format("[GLock]: thread[%s] is releasing lock[%s]", Thread.currentThread().getName(), name));
             }
 
-            PreparedStatement pstmt = null;
-            try {
-                pstmt = conn.prepareStatement(String.format("select release_lock('%s')", name));
-                ResultSet rs = pstmt.executeQuery();
-                if (rs == null) {
-                    throw new CloudRuntimeException("Mysql cannot find lock: " + name);
-                } else if (rs.first() && rs.getInt(1) == 0) {
-                    String err = "Unable to release DB lock: " + name + ", lock: " + name + " is not held by this connection, internal error";
-                    throw new CloudRuntimeException(err);
-                }
+            lockf.release(lock);
 
-                if (logger.isTraceEnabled()) {
-                    logger.trace(String.format("[GLock Release DB Lock] thread[%s] released DB lock[%s]", Thread.currentThread().getName(), name));
-                }
-            } catch (SQLException e) {
-                throw new CloudRuntimeException("Unable to release lock: " + name, e);
-            } finally {
-                if (pstmt != null) {
-                    try {
-                        pstmt.close();
-                    } catch (SQLException e) {
-                        logger.warn("Unable to close PreparedStatement for lock: " + name, e);
-                    }
-                }
-
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                    logger.warn(e.getMessage(), e);
-                }
+            if (logger.isTraceEnabled()) {
+                logger.trace(String.format("[GLock Release DB Lock] thread[%s] released DB lock[%s]", Thread.currentThread().getName(), name));
             }
         } finally {
             if (separateThreadEnabled) {
-                if (lock != null) {
-                    lock.unlock();
+                if (mlock != null) {
+                    mlock.unlock();
                 }
             }
 
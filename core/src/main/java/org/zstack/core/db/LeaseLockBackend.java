@@ -0,0 +1,316 @@
+package org.zstack.core.db;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.Platform;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Locks by leases in DistributedLockLeaseVO.
+ *
+ * A lease is taken by a conditional update when it's released or expired, and the fencing token of
+ * the lock is increased on every take. Threads of this management node waiting for the same lock queue
+ * on a local semaphore, so only one of them polls the database. No database connection is held while
+ * holding the lock, the leases held by this management node are renewed together by one update
+ * periodically, and expire after GLock.leaseTimeoutInSeconds if the node dies.
+ */
+public class LeaseLockBackend implements DistributedLockBackend {
+    private static final CLogger logger = Utils.getLogger(LeaseLockBackend.class);
+
+    public static final String TYPE = "lease";
+
+    private static final long MIN_POLL_INTERVAL_IN_MILLIS = 10;
+    private static final long MAX_POLL_INTERVAL_IN_MILLIS = 500;
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private ThreadFacade thdf;
+
+    private static class LocalLock {
+        final Semaphore semaphore = new Semaphore(1, true);
+        int refs;
+    }
+
+    private class LeaseLock implements DistributedLock {
+        final String name;
+        final String owner;
+        final long fencingToken;
+        final boolean contended;
+        final LocalLock local;
+
+        LeaseLock(String name, String owner, long fencingToken, boolean contended, LocalLock local) {
+            this.name = name;
+            this.owner = owner;
+            this.fencingToken = fencingToken;
+            this.contended = contended;
+            this.local = local;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public long getFencingToken() {
+            return fencingToken;
+        }
+
+        @Override
+        public boolean isContended() {
+            return contended;
+        }
+    }
+
+    private final Map<String, LocalLock> localLocks = new ConcurrentHashMap<>();
+    private final Set<LeaseLock> heldLocks = ConcurrentHashMap.newKeySet();
+    private volatile boolean started;
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    private Connection getConnection() throws SQLException {
+        Connection conn = dbf.getDataSource().getConnection();
+        conn.setAutoCommit(true);
+        return conn;
+    }
+
+    /**
+     * @return the fencing token if the lease is taken, or null if it's held by others
+     */
+    protected Long takeLease(String name, String owner, long leaseTimeout) {
+        try (Connection conn = getConnection()) {
+            try (PreparedStatement pstmt = conn.prepareStatement("update DistributedLockLeaseVO" +
+                    " set owner = ?, managementNodeId = ?, fencingToken = fencingToken + 1, expireDate = date_add(now(), interval ? second)" +
+                    " where name = ? and (owner is null or expireDate < now())")) {
+                pstmt.setString(1, owner);
+                pstmt.setString(2, Platform.getManagementServerId());
+                pstmt.setLong(3, leaseTimeout);
+                pstmt.setString(4, name);
+                if (pstmt.executeUpdate() == 1) {
+                    try (PreparedStatement q = conn.prepareStatement("select fencingToken from DistributedLockLeaseVO where name = ? and owner = ?")) {
+                        q.setString(1, name);
+                        q.setString(2, owner);
+                        try (ResultSet rs = q.executeQuery()) {
+                            if (!rs.next()) {
+                                throw new CloudRuntimeException(String.format("the lease of lock[%s] is lost right after taken", name));
+                            }
+                            return rs.getLong(1);
+                        }
+                    }
+                }
+            }
+
+            try (PreparedStatement pstmt = conn.prepareStatement("insert ignore into DistributedLockLeaseVO" +
+                    " (name, owner, managementNodeId, fencingToken, expireDate, lastOpDate, createDate)" +
+                    " values (?, ?, ?, 1, date_add(now(), interval ? second), now(), now())")) {
+                pstmt.setString(1, name);
+                pstmt.setString(2, owner);
+                pstmt.setString(3, Platform.getManagementServerId());
+                pstmt.setLong(4, leaseTimeout);
+                return pstmt.executeUpdate() == 1 ? 1L : null;
+            }
+        } catch (SQLException e) {
+            throw new CloudRuntimeException(String.format("unable to take the lease of lock[%s]", name), e);
+        }
+    }
+
+    /**
+     * @return false if the lease is no longer held by the owner
+     */
+    protected boolean releaseLease(String name, String owner) {
+        try (Connection conn = getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("update DistributedLockLeaseVO" +
+                     " set owner = null, managementNodeId = null, expireDate = null where name = ? and owner = ?")) {
+            pstmt.setString(1, name);
+            pstmt.setString(2, owner);
+            return pstmt.executeUpdate() == 1;
+        } catch (SQLException e) {
+            throw new CloudRuntimeException(String.format("unable to release the lease of lock[%s]", name), e);
+        }
+    }
+
+    /**
+     * renews all leases held by this management node
+     *
+     * @return the number of leases renewed
+     */
+    protected int renewLeases(long leaseTimeout) {
+        try (Connection conn = getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("update DistributedLockLeaseVO" +
+                     " set expireDate = date_add(now(), interval ? second) where managementNodeId = ?")) {
+            pstmt.setLong(1, leaseTimeout);
+            pstmt.setString(2, Platform.getManagementServerId());
+            return pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("unable to renew leases of distributed locks", e);
+        }
+    }
+
+    /**
+     * releases leases left by the previous run of this management node
+     */
+    protected void releaseStaleLeases() {
+        try (Connection conn = getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("update DistributedLockLeaseVO" +
+                     " set owner = null, managementNodeId = null, expireDate = null where managementNodeId = ?")) {
+            pstmt.setString(1, Platform.getManagementServerId());
+            int num = pstmt.executeUpdate();
+            if (num > 0) {
+                logger.debug(String.format("released %s stale leases of distributed locks held by this management node", num));
+            }
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("unable to release stale leases of distributed locks", e);
+        }
+    }
+
+    private long getLeaseTimeout() {
+        return Math.max(DatabaseGlobalProperty.GLockLeaseTimeoutInSeconds, 3);
+    }
+
+    protected void startRenewTask() {
+        thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return getLeaseTimeout() / 3;
+            }
+
+            @Override
+            public String getName() {
+                return "renew-distributed-lock-leases";
+            }
+
+            @Override
+            public void run() {
+                renewHeldLeases();
+            }
+        });
+    }
+
+    protected void renewHeldLeases() {
+        int held = heldLocks.size();
+        if (held == 0) {
+            return;
+        }
+
+        try {
+            int renewed = renewLeases(getLeaseTimeout());
+            if (renewed < held) {
+                logger.warn(String.format("only %s of %s leases of distributed locks held by this management node are renewed," +
+                        " some leases are expired and taken by others", renewed, held));
+            }
+        } catch (Throwable t) {
+            logger.warn(t.getMessage(), t);
+        }
+    }
+
+    private void start() {
+        if (started) {
+            return;
+        }
+
+        synchronized (this) {
+            if (!started) {
+                releaseStaleLeases();
+                startRenewTask();
+                started = true;
+            }
+        }
+    }
+
+    private LocalLock refLocalLock(String name) {
+        return localLocks.compute(name, (k, v) -> {
+            v = v == null ? new LocalLock() : v;
+            v.refs++;
+            return v;
+        });
+    }
+
+    private void unrefLocalLock(String name) {
+        localLocks.computeIfPresent(name, (k, v) -> --v.refs == 0 ? null : v);
+    }
+
+    @Override
+    public DistributedLock acquire(String name, long timeoutInSeconds) {
+        start();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutInSeconds);
+        LocalLock local = refLocalLock(name);
+        boolean locallyAcquired = false;
+        boolean success = false;
+        try {
+            boolean contended = !local.semaphore.tryAcquire();
+            if (contended && !local.semaphore.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                throw new DistributedLockTimeoutException(name, timeoutInSeconds);
+            }
+            locallyAcquired = true;
+
+            String owner = Platform.getUuid();
+            long interval = MIN_POLL_INTERVAL_IN_MILLIS;
+            while (true) {
+                Long token = takeLease(name, owner, getLeaseTimeout());
+                if (token != null) {
+                    LeaseLock lock = new LeaseLock(name, owner, token, contended, local);
+                    heldLocks.add(lock);
+                    success = true;
+                    return lock;
+                }
+
+                contended = true;
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new DistributedLockTimeoutException(name, timeoutInSeconds);
+                }
+
+                TimeUnit.NANOSECONDS.sleep(Math.min(TimeUnit.MILLISECONDS.toNanos(interval), remaining));
+                interval = Math.min(interval * 2, MAX_POLL_INTERVAL_IN_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CloudRuntimeException(String.format("interrupted while acquiring lock[%s]", name), e);
+        } finally {
+            if (!success) {
+                if (locallyAcquired) {
+                    local.semaphore.release();
+                }
+                unrefLocalLock(name);
+            }
+        }
+    }
+
+    @Override
+    public void release(DistributedLock lock) {
+        LeaseLock llock = (LeaseLock) lock;
+        heldLocks.remove(llock);
+        try {
+            if (!releaseLease(llock.name, llock.owner)) {
+                logger.warn(String.format("the lease of lock[%s, fencing token:%s] has expired and been taken by others before released",
+                        llock.name, llock.fencingToken));
+            }
+        } finally {
+            llock.local.semaphore.release();
+            unrefLocalLock(llock.name);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.zstack.core.db;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Locks by MySQL GET_LOCK(), a lock is held by a dedicated database connection until it's released.
+ * Fencing tokens are not supported.
+ */
+public class MysqlGetLockBackend implements DistributedLockBackend {
+    private static final CLogger logger = Utils.getLogger(MysqlGetLockBackend.class);
+
+    public static final String TYPE = "mysql";
+
+    @Autowired
+    private DatabaseFacade dbf;
+
+    private static class MysqlLock implements DistributedLock {
+        final String name;
+        final Connection conn;
+        final boolean contended;
+
+        MysqlLock(String name, Connection conn, boolean contended) {
+            this.name = name;
+            this.conn = conn;
+            this.contended = contended;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public long getFencingToken() {
+            return 0;
+        }
+
+        @Override
+        public boolean isContended() {
+            return contended;
+        }
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    /**
+     * @return the result of GET_LOCK(), 1 if the lock is acquired, 0 if timeout
+     */
+    private int getLock(Connection conn, String name, long timeout) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("select get_lock(?, ?)")) {
+            pstmt.setString(1, name);
+            pstmt.setLong(2, timeout);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.first()) {
+                    throw new CloudRuntimeException(String.format("Unable to get DB lock: %s, internal database error happened", name));
+                }
+
+                int ret = rs.getInt(1);
+                if (rs.wasNull()) {
+                    throw new CloudRuntimeException(String.format("Unable to get DB lock: %s, internal database error happened", name));
+                }
+                return ret;
+            }
+        }
+    }
+
+    @Override
+    public DistributedLock acquire(String name, long timeoutInSeconds) {
+        Connection conn = null;
+        try {
+            conn = dbf.getDataSource().getConnection();
+            conn.setAutoCommit(true);
+
+            // try without waiting first to tell whether the lock is contended
+            boolean contended = getLock(conn, name, 0) == 0;
+            if (contended && getLock(conn, name, timeoutInSeconds) == 0) {
+                throw new DistributedLockTimeoutException(name, timeoutInSeconds);
+            }
+
+            MysqlLock lock = new MysqlLock(name, conn, contended);
+            conn = null;
+            return lock;
+        } catch (SQLException e) {
+            throw new CloudRuntimeException(String.format("[GLock Error]: cannon get DB connection for lock[%s]", name), e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    logger.warn(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void release(DistributedLock lock) {
+        MysqlLock mlock = (MysqlLock) lock;
+        try (PreparedStatement pstmt = mlock.conn.prepareStatement("select release_lock(?)")) {
+            pstmt.setString(1, mlock.name);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.first()) {
+                    throw new CloudRuntimeException("Mysql cannot find lock: " + mlock.name);
+                } else if (rs.getInt(1) == 0) {
+                    throw new CloudRuntimeException(String.format("Unable to release DB lock: %s, the lock is not held by this connection, internal error", mlock.name));
+                }
+            }
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("Unable to release lock: " + mlock.name, e);
+        } finally {
+            try {
+                mlock.conn.close();
+            } catch (SQLException e) {
+                logger.warn(e.getMessage(), e);
+            }
+        }
+    }
+}
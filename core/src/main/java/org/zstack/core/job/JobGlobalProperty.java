@@ -17,4 +17,6 @@ public class JobGlobalProperty {
     public static String QUARTZ_DB_PASSWORD;
     @GlobalProperty(name = "QuartzJdbcJobFacade.maxDbConnection", defaultValue = "10")
     public static int QUARTZ_DB_MAX_CONNECTIONS;
+    @GlobalProperty(name = "JobQueueFacade.engine", defaultValue = "Database")
+    public static String JOB_QUEUE_ENGINE;
 }
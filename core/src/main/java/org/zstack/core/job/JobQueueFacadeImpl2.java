@@ -11,6 +11,7 @@ import org.zstack.core.db.*;
 import org.zstack.core.errorcode.ErrorFacade;
 import org.zstack.header.errorcode.SysErrors;
 import org.zstack.core.thread.AsyncThread;
+import org.zstack.core.thread.ThreadFacade;
 import org.zstack.header.Component;
 import org.zstack.header.core.Completion;
 import org.zstack.header.core.NopeCompletion;
@@ -40,6 +41,8 @@ public class JobQueueFacadeImpl2 implements JobQueueFacade, CloudBusEventListene
     private static final String LOCK_NAME = "JobQueueFacade.lock";
     private static final String ORPHAN_JOB_LOCK_NAME = "JobQueueFacade.orphanJobLock";
     private static final int LOCK_TIMEOUT = 60;
+    public static final String DATABASE_ENGINE = "Database";
+    public static final String MEMORY_ENGINE = "Memory";
 
     private Map<Long, JobWrapper> wrappers = Collections.synchronizedMap(new HashMap<Long, JobWrapper>());
 
@@ -49,9 +52,21 @@ public class JobQueueFacadeImpl2 implements JobQueueFacade, CloudBusEventListene
     private CloudBus bus;
     @Autowired
     private ErrorFacade errf;
+    @Autowired
+    private ThreadFacade thdf;
 
     private volatile boolean stopped = false;
     private EventSubscriberReceipt unsubscriber;
+    private MemoryJobQueueEngine memoryEngine;
+
+    public void init() {
+        if (MEMORY_ENGINE.equalsIgnoreCase(JobGlobalProperty.JOB_QUEUE_ENGINE)) {
+            logger.debug("use the in-memory job queue engine");
+            memoryEngine = new MemoryJobQueueEngine(dbf, thdf, errf);
+        } else if (!DATABASE_ENGINE.equalsIgnoreCase(JobGlobalProperty.JOB_QUEUE_ENGINE)) {
+            logger.warn(String.format("unknown JobQueueFacade.engine[%s], use the database job queue engine", JobGlobalProperty.JOB_QUEUE_ENGINE));
+        }
+    }
 
     @Override
     public boolean handleEvent(Event e) {
@@ -85,6 +100,9 @@ public class JobQueueFacadeImpl2 implements JobQueueFacade, CloudBusEventListene
     @Override
     public boolean stop() {
         stopped = true;
+        if (memoryEngine != null) {
+            memoryEngine.stop();
+        }
         if (unsubscriber != null) {
             unsubscriber.unsubscribeAll();
         }
@@ -96,6 +114,12 @@ public class JobQueueFacadeImpl2 implements JobQueueFacade, CloudBusEventListene
         q.select(JobQueueEntryVO_.id, JobQueueEntryVO_.name);
         q.add(JobQueueEntryVO_.jobQueueId, SimpleQuery.Op.EQ, qvo.getId());
         q.add(JobQueueEntryVO_.issuerManagementNodeId, SimpleQuery.Op.NULL);
+        // the jobs written ahead by the in-memory engine are issued by the left worker node itself,
+        // restart the restartable ones even if their issuer is gone
+        boolean walQueue = qvo.getName().endsWith(String.format("@%s", mgmtId));
+        if (walQueue) {
+            q.add(JobQueueEntryVO_.restartable, SimpleQuery.Op.EQ, false);
+        }
         List<Tuple> ts = q.listTuple();
         for (Tuple t : ts) {
             logger.debug(String.format("[Job Removed]: job[id:%s, name:%s] because its issuer management node[id:%s] became available", t.get(0), t.get(1), mgmtId));
@@ -109,6 +133,15 @@ public class JobQueueFacadeImpl2 implements JobQueueFacade, CloudBusEventListene
         long count = q.count();
         if (count == 0) {
             logger.debug(String.format("[JobQueue Removed]: id:%s, no Pending or Processing job remaining in this queue, remove it", qvo.getId()));
+            if (walQueue) {
+                GLock lock = new GLock(LOCK_NAME, LOCK_TIMEOUT);
+                lock.lock();
+                try {
+                    dbf.remove(qvo);
+                } finally {
+                    lock.unlock();
+                }
+            }
             return;
         }
 
@@ -384,6 +417,17 @@ public class JobQueueFacadeImpl2 implements JobQueueFacade, CloudBusEventListene
 
     @Override
     public <T> void execute(final String queueName, final String owner, final Job job, final ReturnValueCompletion<T> completion, final Class<? extends T> returnType) {
+        if (memoryEngine != null) {
+            if (stopped) {
+                logger.warn(String.format("[Job Facade Stopped]: skip to run job[queueName:%s, owner:%s, name:%s]",
+                        queueName, owner, job.getClass().getName()));
+                return;
+            }
+
+            memoryEngine.submit(queueName, owner, job, (ReturnValueCompletion<Object>) completion);
+            return;
+        }
+
         try {
             JobQueueEntryVO e = new JobQueueEntryVO();
             JobContextObject ctx = new JobContextObject(job);
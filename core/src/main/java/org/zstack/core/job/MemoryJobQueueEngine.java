@@ -0,0 +1,207 @@
+package org.zstack.core.job;
+
+import org.zstack.core.Platform;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.core.thread.Task;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.serializable.SerializableHelper;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the jobs of a queue one by one in memory of the management node issuing them, instead of taking
+ * them from JobQueueEntryVO under a global lock.
+ *
+ * Only jobs annotated by {@link RestartableJob} are written ahead to JobQueueEntryVO, in a JobQueueVO
+ * owned by this management node as the worker, and removed after they complete. If this management node
+ * dies, the queue becomes orphan and other management nodes restart the jobs by taking over it.
+ */
+public class MemoryJobQueueEngine {
+    private static final CLogger logger = Utils.getLogger(MemoryJobQueueEngine.class);
+
+    private final DatabaseFacade dbf;
+    private final ThreadFacade thdf;
+    private final ErrorFacade errf;
+
+    private class QueuedJob {
+        final String queueName;
+        final Job job;
+        final ReturnValueCompletion<Object> completion;
+        final AtomicBoolean done = new AtomicBoolean(false);
+        Long walId;
+
+        QueuedJob(String queueName, Job job, ReturnValueCompletion<Object> completion) {
+            this.queueName = queueName;
+            this.job = job;
+            this.completion = completion;
+        }
+    }
+
+    // the first job of a queue is the one running
+    private final Map<String, Deque<QueuedJob>> queues = new ConcurrentHashMap<>();
+    private final Map<String, Long> walQueueIds = new ConcurrentHashMap<>();
+    private volatile boolean stopped;
+
+    public MemoryJobQueueEngine(DatabaseFacade dbf, ThreadFacade thdf, ErrorFacade errf) {
+        this.dbf = dbf;
+        this.thdf = thdf;
+        this.errf = errf;
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    public int getQueueNumber() {
+        return queues.size();
+    }
+
+    public void submit(String queueName, String owner, Job job, ReturnValueCompletion<Object> completion) {
+        QueuedJob qj = new QueuedJob(queueName, job, completion);
+        if (job.getClass().isAnnotationPresent(RestartableJob.class)) {
+            qj.walId = writeAheadRecord(queueName, owner, job);
+        }
+
+        boolean[] first = {false};
+        queues.compute(queueName, (k, q) -> {
+            q = q == null ? new ArrayDeque<>() : q;
+            q.add(qj);
+            first[0] = q.size() == 1;
+            return q;
+        });
+
+        if (first[0]) {
+            runAsync(() -> run(qj));
+        }
+    }
+
+    private void run(QueuedJob qj) {
+        if (stopped) {
+            logger.warn(String.format("[Job Facade Stopped]: skip to run job[queueName:%s, name:%s]",
+                    qj.queueName, qj.job.getClass().getName()));
+            return;
+        }
+
+        if (logger.isTraceEnabled()) {
+            logger.trace(String.format("[Job Start] start executing job[name:%s] in queue[%s]", qj.job.getClass().getName(), qj.queueName));
+        }
+
+        try {
+            qj.job.run(new ReturnValueCompletion<Object>(null) {
+                @Override
+                public void success(Object returnValue) {
+                    done(qj, returnValue, null);
+                }
+
+                @Override
+                public void fail(ErrorCode errorCode) {
+                    done(qj, null, errorCode);
+                }
+            });
+        } catch (Throwable t) {
+            logger.warn(String.format("unhandled exception happened when calling %s", qj.job.getClass().getName()), t);
+            done(qj, null, errf.throwableToInternalError(t));
+        }
+    }
+
+    private void done(QueuedJob qj, Object returnValue, ErrorCode err) {
+        if (!qj.done.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            if (qj.walId != null) {
+                removeWriteAheadRecord(qj.walId);
+            }
+        } catch (Throwable t) {
+            logger.warn(String.format("unable to remove the write-ahead record[id:%s] of job[name:%s]", qj.walId, qj.job.getClass().getName()), t);
+        }
+
+        try {
+            if (err == null) {
+                qj.completion.success(returnValue);
+            } else {
+                qj.completion.fail(err);
+            }
+        } catch (Throwable t) {
+            logger.warn(String.format("unhandled exception happened when completing job[name:%s]", qj.job.getClass().getName()), t);
+        }
+
+        QueuedJob[] next = {null};
+        queues.computeIfPresent(qj.queueName, (k, q) -> {
+            q.poll();
+            next[0] = q.peek();
+            return q.isEmpty() ? null : q;
+        });
+
+        if (next[0] != null) {
+            runAsync(() -> run(next[0]));
+        }
+    }
+
+    protected void runAsync(Runnable runnable) {
+        thdf.submit(new Task<Void>() {
+            @Override
+            public String getName() {
+                return "memory-job-queue";
+            }
+
+            @Override
+            public Void call() {
+                runnable.run();
+                return null;
+            }
+        });
+    }
+
+    private Long findOrCreateWalQueue(String queueName, String owner) {
+        String name = String.format("%s@%s", queueName, Platform.getManagementServerId());
+        SimpleQuery<JobQueueVO> q = dbf.createQuery(JobQueueVO.class);
+        q.select(JobQueueVO_.id);
+        q.add(JobQueueVO_.name, SimpleQuery.Op.EQ, name);
+        Long id = q.findValue();
+        if (id != null) {
+            return id;
+        }
+
+        JobQueueVO qvo = new JobQueueVO(name, owner);
+        qvo.setWorkerManagementNodeId(Platform.getManagementServerId());
+        return dbf.persistAndRefresh(qvo).getId();
+    }
+
+    /**
+     * @return the id of the JobQueueEntryVO written
+     */
+    protected Long writeAheadRecord(String queueName, String owner, Job job) {
+        Long queueId = walQueueIds.computeIfAbsent(queueName, k -> findOrCreateWalQueue(queueName, owner));
+
+        JobQueueEntryVO e = new JobQueueEntryVO();
+        try {
+            e.setContext(SerializableHelper.writeObject(new JobContextObject(job)));
+        } catch (IOException e1) {
+            throw new CloudRuntimeException(String.format("unable to serialize job: %s", job.getClass().getName()), e1);
+        }
+        e.setName(job.getClass().getName());
+        e.setRestartable(true);
+        e.setJobQueueId(queueId);
+        e.setIssuerManagementNodeId(Platform.getManagementServerId());
+        e.setState(JobState.Pending);
+        return dbf.persistAndRefresh(e).getId();
+    }
+
+    protected void removeWriteAheadRecord(long id) {
+        dbf.removeByPrimaryKey(id, JobQueueEntryVO.class);
+    }
+}
@@ -0,0 +1,657 @@
+package org.zstack.core.rest;
+
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A HTTP/1.1 client posting requests to agents on one selector thread, no thread is held while a request
+ * is on the wire.
+ *
+ * Connections to a host are kept alive and reused, at most maxConnectionsPerHost of them are opened to a host
+ * and requests more than that wait for a connection released. A request failing on a reused connection before
+ * any response arrives is sent again on a new connection, as the agent may have closed the idle connection.
+ * Handlers and scheduled tasks are called in the callback executor, never in the selector thread.
+ */
+public class NioHttpClient {
+    private static final CLogger logger = Utils.getLogger(NioHttpClient.class);
+
+    public interface ResponseHandler {
+        /**
+         * @param headers response headers, names are in lower case
+         */
+        void response(int status, Map<String, String> headers, String body);
+
+        void fail(IOException e);
+    }
+
+    private static final long SCAN_INTERVAL = 100;
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] HEADER_END = {'\r', '\n', '\r', '\n'};
+
+    private final int maxConnectionsPerHost;
+    private final long keepAliveTimeout;
+    private final long connectTimeout;
+    private final Executor callbackExecutor;
+    private final Selector selector;
+    private final Thread loop;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger requestNum = new AtomicInteger();
+    private final AtomicInteger connectionNum = new AtomicInteger();
+    private volatile boolean stopped;
+
+    // accessed by the selector thread only
+    private final Map<String, HostPool> pools = new HashMap<>();
+    private final Set<Connection> busy = new HashSet<>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>(Comparator.comparingLong(t -> t.time));
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+    private long lastScan;
+
+    private static class Timer {
+        long time;
+        Runnable runnable;
+    }
+
+    private class Request {
+        final String host;
+        final int port;
+        final byte[] bytes;
+        final long deadline;
+        final ResponseHandler handler;
+        boolean resent;
+
+        Request(String host, int port, byte[] bytes, long deadline, ResponseHandler handler) {
+            this.host = host;
+            this.port = port;
+            this.bytes = bytes;
+            this.deadline = deadline;
+            this.handler = handler;
+        }
+
+        String hostKey() {
+            return host + ":" + port;
+        }
+    }
+
+    private class HostPool {
+        final Deque<Connection> idle = new ArrayDeque<>();
+        final Deque<Request> waiting = new ArrayDeque<>();
+        int open;
+    }
+
+    private class Connection {
+        final HostPool pool;
+        final SocketChannel channel;
+        final SelectionKey key;
+        final long connectDeadline;
+        boolean connected;
+        boolean reused;
+        long idleSince;
+        Request request;
+        ByteBuffer out;
+        ResponseParser parser;
+
+        Connection(HostPool pool, SocketChannel channel, SelectionKey key, long connectDeadline) {
+            this.pool = pool;
+            this.channel = channel;
+            this.key = key;
+            this.connectDeadline = connectDeadline;
+        }
+    }
+
+    private static class ResponseParser {
+        private byte[] buf = new byte[1024];
+        private int len;
+        private int bodyStart = -1;
+        private int status;
+        private boolean http10;
+        private boolean chunked;
+        private long contentLength = -1;
+        private final Map<String, String> headers = new HashMap<>();
+        private final ByteArrayOutputStream chunkedBody = new ByteArrayOutputStream();
+        private int chunkPos;
+        private boolean complete;
+        private String body;
+
+        void feed(ByteBuffer b) throws IOException {
+            int n = b.remaining();
+            if (len + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+            }
+            b.get(buf, len, n);
+            len += n;
+            parse();
+        }
+
+        boolean received() {
+            return len > 0;
+        }
+
+        private int indexOf(byte[] pattern, int from) {
+            outer:
+            for (int i = from; i <= len - pattern.length; i++) {
+                for (int j = 0; j < pattern.length; j++) {
+                    if (buf[i + j] != pattern[j]) {
+                        continue outer;
+                    }
+                }
+                return i;
+            }
+            return -1;
+        }
+
+        private void parse() throws IOException {
+            while (bodyStart < 0) {
+                int end = indexOf(HEADER_END, 0);
+                if (end < 0) {
+                    return;
+                }
+
+                String[] lines = new String(buf, 0, end, StandardCharsets.ISO_8859_1).split("\r\n");
+                String[] statusLine = lines[0].split(" ");
+                if (statusLine.length < 2 || !statusLine[0].startsWith("HTTP/")) {
+                    throw new IOException(String.format("invalid http status line: %s", lines[0]));
+                }
+
+                try {
+                    status = Integer.parseInt(statusLine[1]);
+                } catch (NumberFormatException e) {
+                    throw new IOException(String.format("invalid http status line: %s", lines[0]));
+                }
+
+                if (status >= 100 && status < 200) {
+                    // skip informational responses
+                    System.arraycopy(buf, end + 4, buf, 0, len - end - 4);
+                    len -= end + 4;
+                    continue;
+                }
+
+                http10 = "HTTP/1.0".equals(statusLine[0]);
+                for (int i = 1; i < lines.length; i++) {
+                    int colon = lines[i].indexOf(':');
+                    if (colon > 0) {
+                        headers.put(lines[i].substring(0, colon).trim().toLowerCase(), lines[i].substring(colon + 1).trim());
+                    }
+                }
+
+                chunked = "chunked".equalsIgnoreCase(headers.get("transfer-encoding"));
+                if (!chunked && headers.containsKey("content-length")) {
+                    try {
+                        contentLength = Long.parseLong(headers.get("content-length"));
+                    } catch (NumberFormatException e) {
+                        throw new IOException(String.format("invalid content-length: %s", headers.get("content-length")));
+                    }
+                } else if (!chunked && (status == 204 || status == 304)) {
+                    contentLength = 0;
+                }
+
+                bodyStart = end + 4;
+                chunkPos = bodyStart;
+            }
+
+            if (chunked) {
+                parseChunks();
+            } else if (contentLength >= 0 && len - bodyStart >= contentLength) {
+                body = new String(buf, bodyStart, (int) contentLength, StandardCharsets.UTF_8);
+                complete = true;
+            }
+        }
+
+        private void parseChunks() throws IOException {
+            while (!complete) {
+                int lineEnd = indexOf(CRLF, chunkPos);
+                if (lineEnd < 0) {
+                    return;
+                }
+
+                String sizeLine = new String(buf, chunkPos, lineEnd - chunkPos, StandardCharsets.ISO_8859_1);
+                int semicolon = sizeLine.indexOf(';');
+                int size;
+                try {
+                    size = Integer.parseInt((semicolon < 0 ? sizeLine : sizeLine.substring(0, semicolon)).trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException(String.format("invalid chunk size: %s", sizeLine));
+                }
+
+                if (size == 0) {
+                    // the last chunk, followed by optional trailers and an empty line
+                    int trailerStart = lineEnd + 2;
+                    if (len - trailerStart >= 2 && buf[trailerStart] == '\r' && buf[trailerStart + 1] == '\n') {
+                        complete = true;
+                    } else if (indexOf(HEADER_END, lineEnd) >= 0) {
+                        complete = true;
+                    } else {
+                        return;
+                    }
+
+                    body = new String(chunkedBody.toByteArray(), StandardCharsets.UTF_8);
+                    return;
+                }
+
+                if (len - lineEnd - 2 < size + 2) {
+                    return;
+                }
+
+                chunkedBody.write(buf, lineEnd + 2, size);
+                chunkPos = lineEnd + 2 + size + 2;
+            }
+        }
+
+        /**
+         * @return true if the response is complete when the connection is closed
+         */
+        boolean eof() {
+            if (complete) {
+                return true;
+            }
+
+            if (bodyStart >= 0 && !chunked && contentLength < 0) {
+                body = new String(buf, bodyStart, len - bodyStart, StandardCharsets.UTF_8);
+                complete = true;
+            }
+
+            return complete;
+        }
+
+        boolean keepAlive() {
+            String conn = headers.get("connection");
+            if (http10) {
+                return "keep-alive".equalsIgnoreCase(conn) && (chunked || contentLength >= 0);
+            }
+
+            return !"close".equalsIgnoreCase(conn) && (chunked || contentLength >= 0);
+        }
+    }
+
+    /**
+     * @param keepAliveTimeout the time an idle connection is kept, in milliseconds
+     * @param connectTimeout   in milliseconds
+     */
+    public NioHttpClient(int maxConnectionsPerHost, long keepAliveTimeout, long connectTimeout, Executor callbackExecutor) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.keepAliveTimeout = keepAliveTimeout;
+        this.connectTimeout = connectTimeout;
+        this.callbackExecutor = callbackExecutor;
+
+        try {
+            selector = Selector.open();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        loop = new Thread(this::loop, "nio-http-client");
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    public void stop() {
+        stopped = true;
+        selector.wakeup();
+    }
+
+    /**
+     * @return the number of requests not completed yet
+     */
+    public int getRequestNumber() {
+        return requestNum.get();
+    }
+
+    /**
+     * @return the number of connections opened, busy or idle
+     */
+    public int getConnectionNumber() {
+        return connectionNum.get();
+    }
+
+    /**
+     * posts the body to the url, the handler is called with the response however the status is
+     *
+     * @param timeout the time to wait for the response, in milliseconds
+     */
+    public void post(String url, Map<String, String> headers, String body, long timeout, ResponseHandler handler) {
+        URI uri = URI.create(url);
+        if (!"http".equalsIgnoreCase(uri.getScheme())) {
+            throw new IllegalArgumentException(String.format("unsupported url: %s", url));
+        }
+
+        int port = uri.getPort() == -1 ? 80 : uri.getPort();
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        if (uri.getRawQuery() != null) {
+            path = path + "?" + uri.getRawQuery();
+        }
+
+        byte[] content = body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+        StringBuilder sb = new StringBuilder();
+        sb.append("POST ").append(path).append(" HTTP/1.1\r\n");
+        sb.append("Host: ").append(uri.getHost()).append(":").append(port).append("\r\n");
+        if (headers != null) {
+            for (Map.Entry<String, String> e : headers.entrySet()) {
+                if (!"content-length".equalsIgnoreCase(e.getKey()) && !"connection".equalsIgnoreCase(e.getKey())
+                        && !"host".equalsIgnoreCase(e.getKey())) {
+                    sb.append(e.getKey()).append(": ").append(e.getValue()).append("\r\n");
+                }
+            }
+        }
+        sb.append("Content-Length: ").append(content.length).append("\r\n");
+        sb.append("Connection: keep-alive\r\n\r\n");
+
+        byte[] head = sb.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = Arrays.copyOf(head, head.length + content.length);
+        System.arraycopy(content, 0, bytes, head.length, content.length);
+
+        Request req = new Request(uri.getHost(), port, bytes, System.currentTimeMillis() + timeout, handler);
+        requestNum.incrementAndGet();
+        execute(() -> dispatch(req));
+    }
+
+    /**
+     * runs the runnable in the callback executor after the delay, no thread is held while waiting
+     */
+    public void schedule(Runnable runnable, long delay, TimeUnit unit) {
+        Timer t = new Timer();
+        t.time = System.currentTimeMillis() + unit.toMillis(delay);
+        t.runnable = runnable;
+        execute(() -> timers.add(t));
+    }
+
+    private void execute(Runnable r) {
+        tasks.add(r);
+        selector.wakeup();
+    }
+
+    private void loop() {
+        while (!stopped) {
+            try {
+                long wait = SCAN_INTERVAL;
+                Timer next = timers.peek();
+                if (next != null) {
+                    wait = Math.max(Math.min(wait, next.time - System.currentTimeMillis()), 1);
+                }
+
+                selector.select(wait);
+
+                Runnable r;
+                while ((r = tasks.poll()) != null) {
+                    r.run();
+                }
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    handle(key);
+                }
+
+                long now = System.currentTimeMillis();
+                while (!timers.isEmpty() && timers.peek().time <= now) {
+                    callback(timers.poll().runnable);
+                }
+
+                if (now - lastScan >= SCAN_INTERVAL) {
+                    lastScan = now;
+                    scan(now);
+                }
+            } catch (Throwable t) {
+                logger.warn("unhandled exception happened in the nio http client", t);
+            }
+        }
+
+        Runnable r;
+        while ((r = tasks.poll()) != null) {
+            r.run();
+        }
+        for (SelectionKey key : selector.keys()) {
+            close((Connection) key.attachment());
+        }
+        for (HostPool p : pools.values()) {
+            for (Request req : p.waiting) {
+                fail(req, new IOException("the nio http client is stopped"));
+            }
+        }
+        for (Connection c : new ArrayList<>(busy)) {
+            if (c.request != null) {
+                fail(c.request, new IOException("the nio http client is stopped"));
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.warn(e.getMessage(), e);
+        }
+    }
+
+    private void callback(Runnable r) {
+        try {
+            callbackExecutor.execute(r);
+        } catch (Throwable t) {
+            logger.warn("unable to run the callback of the nio http client", t);
+        }
+    }
+
+    private void fail(Request req, IOException e) {
+        requestNum.decrementAndGet();
+        callback(() -> req.handler.fail(e));
+    }
+
+    private void dispatch(Request req) {
+        if (stopped) {
+            fail(req, new IOException("the nio http client is stopped"));
+            return;
+        }
+
+        HostPool pool = pools.computeIfAbsent(req.hostKey(), k -> new HostPool());
+        Connection c;
+        // a request resent goes to a new connection
+        while (!req.resent && (c = pool.idle.pollLast()) != null) {
+            if (c.channel.isOpen()) {
+                c.reused = true;
+                send(c, req);
+                return;
+            }
+        }
+
+        if (pool.open >= maxConnectionsPerHost) {
+            pool.waiting.add(req);
+            return;
+        }
+
+        try {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            boolean connected = channel.connect(new InetSocketAddress(req.host, req.port));
+            SelectionKey key = channel.register(selector, connected ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT);
+            c = new Connection(pool, channel, key, System.currentTimeMillis() + connectTimeout);
+            c.connected = connected;
+            key.attach(c);
+            pool.open++;
+            connectionNum.incrementAndGet();
+        } catch (IOException e) {
+            fail(req, e);
+            return;
+        }
+
+        c.request = req;
+        c.out = ByteBuffer.wrap(req.bytes);
+        c.parser = new ResponseParser();
+        busy.add(c);
+    }
+
+    private void send(Connection c, Request req) {
+        c.request = req;
+        c.out = ByteBuffer.wrap(req.bytes);
+        c.parser = new ResponseParser();
+        c.key.interestOps(SelectionKey.OP_WRITE);
+        busy.add(c);
+    }
+
+    private void handle(SelectionKey key) {
+        Connection c = (Connection) key.attachment();
+        if (!key.isValid()) {
+            return;
+        }
+
+        try {
+            if (c.request == null) {
+                // an idle connection is closed by the peer
+                readBuffer.clear();
+                if (c.channel.read(readBuffer) != 0) {
+                    release(c, false);
+                }
+                return;
+            }
+
+            if (key.isConnectable()) {
+                c.channel.finishConnect();
+                c.connected = true;
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+
+            if (key.isValid() && key.isWritable()) {
+                c.channel.write(c.out);
+                if (!c.out.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            }
+
+            if (key.isValid() && key.isReadable()) {
+                read(c);
+            }
+        } catch (IOException e) {
+            if (c.request == null) {
+                release(c, false);
+            } else {
+                error(c, e);
+            }
+        }
+    }
+
+    private void read(Connection c) throws IOException {
+        while (true) {
+            readBuffer.clear();
+            int n = c.channel.read(readBuffer);
+            if (n == 0) {
+                return;
+            }
+
+            if (n < 0) {
+                if (c.parser.eof()) {
+                    complete(c, false);
+                } else {
+                    error(c, new IOException("connection closed before the response is complete"));
+                }
+                return;
+            }
+
+            readBuffer.flip();
+            c.parser.feed(readBuffer);
+            if (c.parser.complete) {
+                complete(c, c.parser.keepAlive());
+                return;
+            }
+        }
+    }
+
+    private void complete(Connection c, boolean keepAlive) {
+        Request req = c.request;
+        ResponseParser p = c.parser;
+        release(c, keepAlive);
+        requestNum.decrementAndGet();
+        callback(() -> req.handler.response(p.status, p.headers, p.body));
+    }
+
+    private void error(Connection c, IOException e) {
+        Request req = c.request;
+        boolean resend = c.reused && !req.resent && !c.parser.received() && !(e instanceof SocketTimeoutException);
+        release(c, false);
+        if (resend) {
+            // the peer may have closed the idle connection while we reused it
+            req.resent = true;
+            dispatch(req);
+        } else {
+            fail(req, e);
+        }
+    }
+
+    private void release(Connection c, boolean keepAlive) {
+        busy.remove(c);
+        c.request = null;
+        c.out = null;
+        c.parser = null;
+
+        if (keepAlive && !stopped) {
+            c.idleSince = System.currentTimeMillis();
+            c.key.interestOps(SelectionKey.OP_READ);
+            c.pool.idle.add(c);
+        } else {
+            close(c);
+        }
+
+        Request next = c.pool.waiting.poll();
+        if (next != null) {
+            dispatch(next);
+        }
+    }
+
+    private void close(Connection c) {
+        if (!c.channel.isOpen()) {
+            return;
+        }
+
+        c.pool.open--;
+        c.pool.idle.remove(c);
+        connectionNum.decrementAndGet();
+        c.key.cancel();
+        try {
+            c.channel.close();
+        } catch (IOException e) {
+            logger.trace(e.getMessage(), e);
+        }
+    }
+
+    private void scan(long now) {
+        for (Connection c : new ArrayList<>(busy)) {
+            if (!c.connected && c.connectDeadline < now) {
+                error(c, new ConnectException(String.format("connect to %s timeout after %sms", c.request.hostKey(), connectTimeout)));
+            } else if (c.request.deadline < now) {
+                error(c, new SocketTimeoutException(String.format("no response from %s in time", c.request.hostKey())));
+            }
+        }
+
+        for (HostPool p : pools.values()) {
+            for (Iterator<Request> it = p.waiting.iterator(); it.hasNext(); ) {
+                Request req = it.next();
+                if (req.deadline < now) {
+                    it.remove();
+                    fail(req, new SocketTimeoutException(String.format("no connection to %s in time", req.hostKey())));
+                }
+            }
+
+            List<Connection> expired = new ArrayList<>();
+            for (Connection c : p.idle) {
+                if (now - c.idleSince > keepAliveTimeout) {
+                    expired.add(c);
+                }
+            }
+            expired.forEach(this::close);
+        }
+
+        pools.values().removeIf(p -> p.open == 0 && p.waiting.isEmpty());
+    }
+}
@@ -17,6 +17,7 @@ import org.zstack.core.retry.Retry;
 import org.zstack.core.retry.RetryCondition;
 import org.zstack.core.thread.AsyncThread;
 import org.zstack.core.thread.CancelablePeriodicTask;
+import org.zstack.core.thread.Task;
 import org.zstack.core.thread.ThreadFacade;
 import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
 import org.zstack.core.timeout.ApiTimeoutManager;
@@ -49,6 +50,8 @@ import static org.zstack.core.Platform.operr;
 
 public class RESTFacadeImpl implements RESTFacade {
     private static final CLogger logger = Utils.getLogger(RESTFacadeImpl.class);
+    private static final String REST_TEMPLATE_TRANSPORT = "RestTemplate";
+    private static final String NIO_TRANSPORT = "Nio";
     
     @Autowired
     private ThreadFacade thdf;
@@ -64,6 +67,7 @@ public class RESTFacadeImpl implements RESTFacade {
     private String path;
     private String callbackUrl;
     private TimeoutRestTemplate template;
+    private NioHttpClient nioClient;
     private String baseUrl;
     private String sendCommandUrl;
 
@@ -114,6 +118,31 @@ public class RESTFacadeImpl implements RESTFacade {
 
         logger.debug(String.format("RESTFacade built callback url: %s", callbackUrl));
         template = RESTFacade.createRestTemplate(CoreGlobalProperty.REST_FACADE_READ_TIMEOUT, CoreGlobalProperty.REST_FACADE_CONNECT_TIMEOUT);
+
+        if (NIO_TRANSPORT.equalsIgnoreCase(CoreGlobalProperty.REST_FACADE_ASYNC_TRANSPORT)) {
+            logger.debug("use the nio transport for async json post");
+            nioClient = new NioHttpClient(CoreGlobalProperty.REST_FACADE_NIO_MAX_CONNECTIONS_PER_HOST,
+                    CoreGlobalProperty.REST_FACADE_NIO_KEEP_ALIVE_TIMEOUT, CoreGlobalProperty.REST_FACADE_CONNECT_TIMEOUT,
+                    this::runNioCallback);
+        } else if (!REST_TEMPLATE_TRANSPORT.equalsIgnoreCase(CoreGlobalProperty.REST_FACADE_ASYNC_TRANSPORT)) {
+            logger.warn(String.format("unknown RESTFacade.asyncJsonPostTransport[%s], use the RestTemplate transport",
+                    CoreGlobalProperty.REST_FACADE_ASYNC_TRANSPORT));
+        }
+    }
+
+    private void runNioCallback(Runnable runnable) {
+        thdf.submit(new Task<Void>() {
+            @Override
+            public Void call() {
+                runnable.run();
+                return null;
+            }
+
+            @Override
+            public String getName() {
+                return "nio-http-callback";
+            }
+        });
     }
 
     void notifyCallback(HttpServletRequest req, HttpServletResponse rsp) {
@@ -340,6 +369,17 @@ public class RESTFacadeImpl implements RESTFacade {
             }
         };
 
+        if (nioClient != null && !CoreGlobalProperty.UNIT_TEST_ON && url.startsWith("http://")) {
+            wrappers.put(taskUuid, wrapper);
+
+            if (logger.isTraceEnabled()) {
+                logger.trace(String.format("json post[%s], %s", url, req.toString()));
+            }
+
+            nioJsonPost(url, req, taskUuid, unit.toMillis(timeout), wrapper, 0);
+            return;
+        }
+
         try {
             wrappers.put(taskUuid, wrapper);
 
@@ -372,6 +412,61 @@ public class RESTFacadeImpl implements RESTFacade {
         }
     }
 
+    /**
+     * posts the request without holding a thread, the request failing by IO errors or http errors is posted
+     * again after an interval doubled every time, until the task completes or times out
+     */
+    private void nioJsonPost(String url, HttpEntity<String> req, String taskUuid, long timeout, AsyncHttpWrapper wrapper, int retried) {
+        try {
+            nioClient.post(url, req.getHeaders().toSingleValueMap(), req.getBody(), timeout, new NioHttpClient.ResponseHandler() {
+                @Override
+                public void response(int status, Map<String, String> headers, String body) {
+                    if (status == HttpStatus.SC_OK) {
+                        return;
+                    }
+
+                    String err = String.format("http status: %s, response body:%s", status, body);
+                    if (status >= HttpStatus.SC_BAD_REQUEST && retry(err)) {
+                        return;
+                    }
+
+                    logger.warn(err);
+                    wrapper.fail(errf.instantiateErrorCode(SysErrors.HTTP_ERROR, err));
+                }
+
+                @Override
+                public void fail(IOException e) {
+                    if (retry(e.getMessage())) {
+                        return;
+                    }
+
+                    logger.warn(String.format("Unable to post to %s", url), e);
+                    wrapper.fail(errf.instantiateErrorCode(SysErrors.IO_ERROR, e.getMessage()));
+                }
+
+                private boolean retry(String reason) {
+                    if (!wrappers.containsKey(taskUuid)) {
+                        // the task has completed or timed out
+                        return true;
+                    }
+
+                    if (retried >= CoreGlobalProperty.REST_FACADE_ASYNC_RETRY_TIMES) {
+                        return false;
+                    }
+
+                    long interval = CoreGlobalProperty.REST_FACADE_ASYNC_RETRY_INTERVAL << Math.min(retried, 4);
+                    logger.debug(String.format("posting to %s encounters an error[%s], will retry after %sms, %s times retried",
+                            url, reason, interval, retried));
+                    nioClient.schedule(() -> nioJsonPost(url, req, taskUuid, timeout, wrapper, retried + 1), interval, TimeUnit.MILLISECONDS);
+                    return true;
+                }
+            });
+        } catch (Throwable t) {
+            logger.warn(String.format("Unable to post to %s", url), t);
+            wrapper.fail(errf.throwableToInternalError(t));
+        }
+    }
+
     @Override
     public void asyncJsonPost(String url, Object body, Map<String, String> headers, AsyncRESTCallback callback) {
         Long timeout = timeoutMgr.getTimeout(body.getClass());
@@ -24,7 +24,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE, dependencyCheck = true)
-class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
+public class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     private static final CLogger logger = Utils.getLogger(DispatchQueueImpl.class);
 
     @Autowired
@@ -74,7 +74,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
         logger.debug(sb.toString());
     }
 
-    private String getChainContext(ChainTask task) {
+    static String getChainContext(ChainTask task) {
         List<String> context = new ArrayList<>();
         for (AsyncBackup backup : task.getBackups()) {
             if (backup instanceof Message) {
@@ -93,12 +93,12 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
         DebugManager.registerDebugSignalHandler(DUMP_TASK_DEBUG_SINGAL, this);
     }
 
-    private class SyncTaskFuture<T> extends AbstractFuture<T> {
+    static class SyncTaskFuture<T> extends AbstractFuture<T> {
         public SyncTaskFuture(SyncTask<T> task) {
             super(task);
         }
 
-        private SyncTask getTask() {
+        SyncTask getTask() {
             return (SyncTask) task;
         }
 
@@ -222,7 +222,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     }
 
 
-    class ChainFuture extends AbstractFuture {
+    static class ChainFuture extends AbstractFuture {
         private AtomicBoolean isNextCalled = new AtomicBoolean(false);
         // in running queue: means execution time
         // in pending queue: means pending time
@@ -236,7 +236,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
             super(task);
         }
 
-        private ChainTask getTask() {
+        ChainTask getTask() {
             return (ChainTask) task;
         }
 
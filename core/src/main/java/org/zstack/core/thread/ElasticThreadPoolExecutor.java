@@ -0,0 +1,37 @@
+package org.zstack.core.thread;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * executor used by ThreadFacade when ThreadFacade.executorMode is "Elastic", or "Virtual" on a JVM
+ * without virtual threads.
+ *
+ * threads are created on demand up to maxPoolSize and reaped after being idle for
+ * keepAliveSeconds, so tasks blocking on IO don't starve others the way they do in the
+ * fixed size scheduled pool. ThreadAroundHooks registered to the scheduled pool are
+ * also called around tasks of this executor.
+ */
+public class ElasticThreadPoolExecutor extends ThreadPoolExecutor {
+    private final ScheduledThreadPoolExecutorExt hookSource;
+
+    public ElasticThreadPoolExecutor(int maxPoolSize, long keepAliveSeconds, ThreadFactory threadFactory,
+                                     RejectedExecutionHandler handler, ScheduledThreadPoolExecutorExt hookSource) {
+        super(maxPoolSize, maxPoolSize, keepAliveSeconds, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory, handler);
+        allowCoreThreadTimeOut(true);
+        this.hookSource = hookSource;
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        hookSource.runBeforeExecuteHooks(t, r);
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        hookSource.runAfterExecuteHooks(r, t);
+    }
+}
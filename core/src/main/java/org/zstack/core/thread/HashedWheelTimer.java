@@ -0,0 +1,291 @@
+package org.zstack.core.thread;
+
+import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A hashed timing wheel for one-shot timeouts.
+ *
+ * A timeout is hashed into one of wheelSize buckets by its deadline tick and linked into
+ * the bucket's doubly linked list; a timeout longer than one revolution of the wheel carries
+ * the number of rounds it still has to wait. Scheduling and cancelling only put the timeout
+ * into lock-free queues which the worker thread drains on every tick, so both are O(1) and
+ * never wait for a lock, while a cancelled timeout is unlinked from its bucket right on the
+ * next tick instead of staying in a timer heap until being purged.
+ *
+ * The worker thread never runs an expired task itself, it hands the task to the executor.
+ */
+public class HashedWheelTimer {
+    private static final CLogger logger = Utils.getLogger(HashedWheelTimer.class);
+
+    // bound the work of one tick when a burst of timeouts are scheduled
+    private static final int MAX_TRANSFERRED_TIMEOUTS_PER_TICK = 100000;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Executor executor;
+    private final Thread workerThread;
+    private final long startTime;
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private volatile boolean stopped;
+    // only accessed by the worker thread
+    private long tick;
+
+    private final AtomicLong pendingTimeoutNum = new AtomicLong(0);
+    private final AtomicLong scheduledTimeoutNum = new AtomicLong(0);
+    private final AtomicLong expiredTimeoutNum = new AtomicLong(0);
+    private final AtomicLong cancelledTimeoutNum = new AtomicLong(0);
+
+    public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int wheelSize, Executor executor) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException(String.format("tickDuration must be greater than 0, but got %s", tickDuration));
+        }
+        if (wheelSize <= 0) {
+            throw new IllegalArgumentException(String.format("wheelSize must be greater than 0, but got %s", wheelSize));
+        }
+
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.executor = executor;
+
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        mask = size - 1;
+
+        startTime = System.nanoTime();
+        workerThread = new Thread(new Worker(), name);
+        workerThread.setDaemon(true);
+        workerThread.start();
+    }
+
+    public TimeoutTaskReceipt newTimeout(Runnable task, TimeUnit unit, long delay) {
+        long deadline = System.nanoTime() + unit.toNanos(Math.max(delay, 0)) - startTime;
+        Timeout timeout = new Timeout(task, deadline);
+        pendingTimeoutNum.incrementAndGet();
+        scheduledTimeoutNum.incrementAndGet();
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    public void stop() {
+        stopped = true;
+        workerThread.interrupt();
+    }
+
+    public TimingWheelStatistic getStatistic() {
+        int occupied = 0;
+        int max = 0;
+        for (Bucket b : wheel) {
+            int size = b.size;
+            if (size > 0) {
+                occupied++;
+                max = Math.max(max, size);
+            }
+        }
+
+        return new TimingWheelStatistic(
+                TimeUnit.NANOSECONDS.toMillis(tickNanos),
+                wheel.length,
+                pendingTimeoutNum.get(),
+                newTimeouts.size(),
+                occupied,
+                max,
+                scheduledTimeoutNum.get(),
+                expiredTimeoutNum.get(),
+                cancelledTimeoutNum.get()
+        );
+    }
+
+    private static final int ST_INIT = 0;
+    private static final int ST_CANCELLED = 1;
+    private static final int ST_EXPIRED = 2;
+
+    private static final AtomicIntegerFieldUpdater<Timeout> STATE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+    private class Timeout implements TimeoutTaskReceipt {
+        final Runnable task;
+        final long deadline;
+        volatile int state = ST_INIT;
+
+        // below are only accessed by the worker thread
+        long remainingRounds;
+        Timeout next;
+        Timeout prev;
+        Bucket bucket;
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+
+            pendingTimeoutNum.decrementAndGet();
+            cancelledTimeoutNum.incrementAndGet();
+            cancelledTimeouts.add(this);
+            return true;
+        }
+
+        boolean isCancelled() {
+            return state == ST_CANCELLED;
+        }
+
+        void expire() {
+            if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_EXPIRED)) {
+                return;
+            }
+
+            pendingTimeoutNum.decrementAndGet();
+            expiredTimeoutNum.incrementAndGet();
+            try {
+                executor.execute(task);
+            } catch (Throwable t) {
+                logger.warn(String.format("unable to run the expired timeout task %s", task.getClass().getName()), t);
+            }
+        }
+    }
+
+    // only accessed by the worker thread except size which is read for statistics
+    private static class Bucket {
+        Timeout head;
+        Timeout tail;
+        volatile int size;
+
+        void add(Timeout t) {
+            t.bucket = this;
+            if (head == null) {
+                head = tail = t;
+            } else {
+                tail.next = t;
+                t.prev = tail;
+                tail = t;
+            }
+            size++;
+        }
+
+        Timeout remove(Timeout t) {
+            Timeout next = t.next;
+            if (t.prev != null) {
+                t.prev.next = next;
+            }
+            if (t.next != null) {
+                t.next.prev = t.prev;
+            }
+
+            if (t == head) {
+                head = next;
+            }
+            if (t == tail) {
+                tail = t.prev;
+            }
+
+            t.prev = null;
+            t.next = null;
+            t.bucket = null;
+            size--;
+            return next;
+        }
+
+        void expire(long deadline) {
+            Timeout t = head;
+            while (t != null) {
+                if (t.isCancelled()) {
+                    t = remove(t);
+                } else if (t.remainingRounds <= 0 && t.deadline <= deadline) {
+                    Timeout next = remove(t);
+                    t.expire();
+                    t = next;
+                } else {
+                    t.remainingRounds--;
+                    t = t.next;
+                }
+            }
+        }
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            while (!stopped) {
+                long deadline = waitForNextTick();
+                if (deadline < 0) {
+                    break;
+                }
+
+                removeCancelledTimeouts();
+                transferNewTimeouts();
+                wheel[(int) (tick & mask)].expire(deadline);
+                tick++;
+            }
+        }
+
+        // returns the elapsed nanos since start, or -1 if the timer is stopped
+        private long waitForNextTick() {
+            long deadline = tickNanos * (tick + 1);
+            while (true) {
+                long now = System.nanoTime() - startTime;
+                long sleepMillis = TimeUnit.NANOSECONDS.toMillis(deadline - now + 999999);
+                if (sleepMillis <= 0) {
+                    return now;
+                }
+
+                try {
+                    Thread.sleep(sleepMillis);
+                } catch (InterruptedException e) {
+                    if (stopped) {
+                        return -1;
+                    }
+                }
+            }
+        }
+
+        private void removeCancelledTimeouts() {
+            Timeout t;
+            while ((t = cancelledTimeouts.poll()) != null) {
+                // a timeout cancelled before being transferred is not in any bucket
+                if (t.bucket != null) {
+                    t.bucket.remove(t);
+                }
+            }
+        }
+
+        private void transferNewTimeouts() {
+            for (int i = 0; i < MAX_TRANSFERRED_TIMEOUTS_PER_TICK; i++) {
+                Timeout t = newTimeouts.poll();
+                if (t == null) {
+                    return;
+                }
+
+                if (t.isCancelled()) {
+                    continue;
+                }
+
+                long expectedTick = t.deadline / tickNanos;
+                t.remainingRounds = (expectedTick - tick) / wheel.length;
+                // a timeout already passed is expired on the current tick
+                long ticks = Math.max(expectedTick, tick);
+                wheel[(int) (ticks & mask)].add(t);
+            }
+        }
+    }
+}
@@ -35,6 +35,15 @@ public class ScheduledThreadPoolExecutorExt extends ScheduledThreadPoolExecutor
     
     @Override
     protected void beforeExecute(Thread t, Runnable r) {
+        runBeforeExecuteHooks(t, r);
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        runAfterExecuteHooks(r, t);
+    }
+
+    void runBeforeExecuteHooks(Thread t, Runnable r) {
         ThreadContext.clearMap();
         ThreadContext.clearStack();
 
@@ -54,8 +63,7 @@ public class ScheduledThreadPoolExecutorExt extends ScheduledThreadPoolExecutor
         }
     }
     
-    @Override
-    protected void afterExecute(Runnable r, Throwable t) {
+    void runAfterExecuteHooks(Runnable r, Throwable t) {
         ThreadContext.clearMap();
         ThreadContext.clearStack();
 
@@ -0,0 +1,288 @@
+package org.zstack.core.thread;
+
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowire;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Configurable;
+import org.zstack.core.debug.DebugManager;
+import org.zstack.core.debug.DebugSignalHandler;
+import org.zstack.core.thread.DispatchQueueImpl.ChainFuture;
+import org.zstack.core.thread.DispatchQueueImpl.SyncTaskFuture;
+import org.zstack.utils.DebugUtils;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A DispatchQueue that doesn't serialize all submissions on one global monitor.
+ *
+ * Queue wrappers are kept in ConcurrentHashMaps and all state transitions of a wrapper
+ * (adding a task, starting a worker, a worker quitting and the wrapper being removed)
+ * happen inside compute() of the wrapper's sync signature, so contention only happens
+ * between tasks sharing the same signature (or the same hash bin). Running chain tasks
+ * are tracked in a concurrent set so removing a finished task is O(1).
+ *
+ * Enabled by setting ThreadFacade.dispatchQueueType to "Sharded"
+ */
+@Configurable(preConstruction = true, autowire = Autowire.BY_TYPE, dependencyCheck = true)
+public class ShardedDispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
+    private static final CLogger logger = Utils.getLogger(ShardedDispatchQueueImpl.class);
+
+    @Autowired
+    ThreadFacade _threadFacade;
+
+    private final ConcurrentHashMap<String, SyncTaskQueueWrapper> syncTasks = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ChainTaskQueueWrapper> chainTasks = new ConcurrentHashMap<>();
+
+    public ShardedDispatchQueueImpl() {
+        DebugManager.registerDebugSignalHandler(DispatchQueueImpl.DUMP_TASK_DEBUG_SINGAL, this);
+    }
+
+    @Override
+    public void handleDebugSignal() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("\n================= BEGIN TASK QUEUE DUMP ================");
+        sb.append("\nASYNC TASK QUEUE DUMP:");
+        sb.append(String.format("\nTASK QUEUE NUMBER: %s\n", chainTasks.size()));
+        List<String> asyncTasks = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, ChainTaskQueueWrapper> e : chainTasks.entrySet()) {
+            StringBuilder tb = new StringBuilder(String.format("\nQUEUE SYNC SIGNATURE: %s", e.getKey()));
+            ChainTaskQueueWrapper w = e.getValue();
+            tb.append(String.format("\nRUNNING TASK NUMBER: %s", w.runningQueue.size()));
+            tb.append(String.format("\nPENDING TASK NUMBER: %s", w.pendingQueue.size()));
+            int index = 0;
+            for (ChainFuture cf : w.runningQueue) {
+                tb.append(String.format("\nRUNNING TASK[NAME: %s, CLASS: %s EXECUTION TIME: %s secs, INDEX: %s] %s",
+                        cf.getTask().getName(), cf.getTask().getClass(),
+                        TimeUnit.MILLISECONDS.toSeconds(now - cf.getTimestamp()), index++,
+                        DispatchQueueImpl.getChainContext(cf.getTask())
+                ));
+            }
+
+            for (ChainFuture cf : w.pendingQueue) {
+                tb.append(String.format("\nPENDING TASK[NAME: %s, CLASS: %s EXECUTION TIME: %s secs, INDEX: %s] %s",
+                        cf.getTask().getName(), cf.getTask().getClass(),
+                        TimeUnit.MILLISECONDS.toSeconds(now - cf.getTimestamp()), index++,
+                        DispatchQueueImpl.getChainContext(cf.getTask())
+                ));
+            }
+            asyncTasks.add(tb.toString());
+        }
+        sb.append(StringUtils.join(asyncTasks, "\n"));
+        sb.append("\n================= END TASK QUEUE DUMP ==================\n");
+        logger.debug(sb.toString());
+    }
+
+    private class SyncTaskQueueWrapper {
+        final ConcurrentLinkedQueue<SyncTaskFuture> queue = new ConcurrentLinkedQueue<>();
+        // only modified inside syncTasks.compute() of syncSignature
+        final AtomicInteger counter = new AtomicInteger(0);
+        final int maxThreadNum;
+        final String syncSignature;
+
+        SyncTaskQueueWrapper(String syncSignature, int maxThreadNum) {
+            this.syncSignature = syncSignature;
+            this.maxThreadNum = maxThreadNum;
+        }
+
+        // must be called inside syncTasks.compute() of syncSignature
+        void startThreadIfNeeded() {
+            if (counter.get() >= maxThreadNum) {
+                return;
+            }
+
+            counter.incrementAndGet();
+            _threadFacade.submit(new Task<Void>() {
+                @Override
+                public String getName() {
+                    return syncSignature;
+                }
+
+                private boolean quitIfQueueEmpty() {
+                    boolean[] quit = {false};
+                    syncTasks.computeIfPresent(syncSignature, (k, w) -> {
+                        if (!queue.isEmpty()) {
+                            return w;
+                        }
+
+                        quit[0] = true;
+                        return counter.decrementAndGet() == 0 ? null : w;
+                    });
+
+                    return quit[0];
+                }
+
+                void run() {
+                    SyncTaskFuture stask;
+                    do {
+                        while ((stask = queue.poll()) != null) {
+                            stask.run();
+                        }
+                    } while (!quitIfQueueEmpty());
+                }
+
+                @Override
+                public Void call() throws Exception {
+                    run();
+                    return null;
+                }
+            });
+        }
+    }
+
+    private <T> Future<T> doSyncSubmit(final SyncTask<T> syncTask) {
+        assert syncTask.getSyncSignature() != null : "How can you submit a sync task without sync signature ???";
+
+        SyncTaskFuture<T> f = new SyncTaskFuture<>(syncTask);
+        syncTasks.compute(syncTask.getSyncSignature(), (k, wrapper) -> {
+            if (wrapper == null) {
+                wrapper = new SyncTaskQueueWrapper(k, syncTask.getSyncLevel());
+            }
+
+            wrapper.queue.offer(f);
+            wrapper.startThreadIfNeeded();
+            return wrapper;
+        });
+
+        return f;
+    }
+
+    @Override
+    public <T> Future<T> syncSubmit(SyncTask<T> task) {
+        if (task.getSyncLevel() <= 0) {
+            return _threadFacade.submit(task);
+        } else {
+            return doSyncSubmit(task);
+        }
+    }
+
+    private class ChainTaskQueueWrapper {
+        final ConcurrentLinkedQueue<ChainFuture> pendingQueue = new ConcurrentLinkedQueue<>();
+        final Set<ChainFuture> runningQueue = ConcurrentHashMap.newKeySet();
+        // only modified inside chainTasks.compute() of syncSignature
+        final AtomicInteger counter = new AtomicInteger(0);
+        final int maxThreadNum;
+        final String syncSignature;
+
+        ChainTaskQueueWrapper(String syncSignature, int maxThreadNum) {
+            this.syncSignature = syncSignature;
+            this.maxThreadNum = maxThreadNum;
+        }
+
+        // returns null and retires the worker if there is no pending task
+        private ChainFuture takeNextOrQuit() {
+            ChainFuture[] next = {null};
+            chainTasks.computeIfPresent(syncSignature, (k, w) -> {
+                next[0] = pendingQueue.poll();
+                if (next[0] != null) {
+                    return w;
+                }
+
+                return counter.decrementAndGet() == 0 ? null : w;
+            });
+
+            return next[0];
+        }
+
+        // must be called inside chainTasks.compute() of syncSignature
+        void startThreadIfNeeded() {
+            if (counter.get() >= maxThreadNum) {
+                return;
+            }
+
+            counter.incrementAndGet();
+            _threadFacade.submit(new Task<Void>() {
+                @Override
+                public String getName() {
+                    return "sync-chain-thread";
+                }
+
+                // start a new thread every time to avoid stack overflow
+                @AsyncThread
+                private void runQueue() {
+                    ChainFuture cf = takeNextOrQuit();
+                    if (cf == null) {
+                        return;
+                    }
+
+                    runningQueue.add(cf);
+
+                    cf.run(new SyncTaskChain() {
+                        @Override
+                        public void next() {
+                            runningQueue.remove(cf);
+                            runQueue();
+                        }
+                    });
+                }
+
+                @Override
+                public Void call() throws Exception {
+                    runQueue();
+                    return null;
+                }
+            });
+        }
+    }
+
+    private Future<Void> doChainSyncSubmit(final ChainTask task) {
+        assert task.getSyncSignature() != null : "How can you submit a chain task without sync signature ???";
+        DebugUtils.Assert(task.getSyncLevel() >= 1, "getSyncLevel() must return 1 at least ");
+
+        ChainFuture cf = new ChainFuture(task);
+        chainTasks.compute(task.getSyncSignature(), (k, wrapper) -> {
+            if (wrapper == null) {
+                wrapper = new ChainTaskQueueWrapper(k, task.getSyncLevel());
+            }
+
+            wrapper.pendingQueue.offer(cf);
+            wrapper.startThreadIfNeeded();
+            return wrapper;
+        });
+
+        return cf;
+    }
+
+    @Override
+    public Future<Void> chainSubmit(ChainTask task) {
+        return doChainSyncSubmit(task);
+    }
+
+    @Override
+    public Map<String, SyncTaskStatistic> getSyncTaskStatistics() {
+        Map<String, SyncTaskStatistic> ret = new HashMap<>();
+        for (SyncTaskQueueWrapper wrapper : syncTasks.values()) {
+            SyncTaskStatistic statistic = new SyncTaskStatistic(
+                    wrapper.syncSignature,
+                    wrapper.maxThreadNum,
+                    wrapper.counter.intValue(),
+                    wrapper.queue.size()
+            );
+            ret.put(statistic.getSyncSignature(), statistic);
+        }
+
+        return ret;
+    }
+
+    @Override
+    public Map<String, ChainTaskStatistic> getChainTaskStatistics() {
+        Map<String, ChainTaskStatistic> ret = new HashMap<>();
+        for (ChainTaskQueueWrapper wrapper : chainTasks.values()) {
+            ChainTaskStatistic statistic = new ChainTaskStatistic(
+                    wrapper.syncSignature,
+                    wrapper.maxThreadNum,
+                    wrapper.counter.intValue(),
+                    wrapper.pendingQueue.size()
+            );
+            ret.put(statistic.getSyncSignature(), statistic);
+        }
+        return ret;
+    }
+}
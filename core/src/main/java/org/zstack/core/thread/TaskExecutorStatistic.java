@@ -0,0 +1,69 @@
+package org.zstack.core.thread;
+
+import java.beans.ConstructorProperties;
+
+/**
+ */
+public class TaskExecutorStatistic {
+    private String executorMode;
+    private boolean virtualThread;
+    private int totalThreadNum;
+    private int activeThreadNum;
+    private long queuedTaskNum;
+    private int platformThreadNum;
+    private long executedTaskNum;
+    private long averageQueueingTimeInMicros;
+    private long maxQueueingTimeInMicros;
+
+    @ConstructorProperties({"executorMode", "virtualThread", "totalThreadNum", "activeThreadNum", "queuedTaskNum",
+            "platformThreadNum", "executedTaskNum", "averageQueueingTimeInMicros", "maxQueueingTimeInMicros"})
+    public TaskExecutorStatistic(String executorMode, boolean virtualThread, int totalThreadNum, int activeThreadNum,
+                                 long queuedTaskNum, int platformThreadNum, long executedTaskNum,
+                                 long averageQueueingTimeInMicros, long maxQueueingTimeInMicros) {
+        this.executorMode = executorMode;
+        this.virtualThread = virtualThread;
+        this.totalThreadNum = totalThreadNum;
+        this.activeThreadNum = activeThreadNum;
+        this.queuedTaskNum = queuedTaskNum;
+        this.platformThreadNum = platformThreadNum;
+        this.executedTaskNum = executedTaskNum;
+        this.averageQueueingTimeInMicros = averageQueueingTimeInMicros;
+        this.maxQueueingTimeInMicros = maxQueueingTimeInMicros;
+    }
+
+    public String getExecutorMode() {
+        return executorMode;
+    }
+
+    public boolean isVirtualThread() {
+        return virtualThread;
+    }
+
+    public int getTotalThreadNum() {
+        return totalThreadNum;
+    }
+
+    public int getActiveThreadNum() {
+        return activeThreadNum;
+    }
+
+    public long getQueuedTaskNum() {
+        return queuedTaskNum;
+    }
+
+    public int getPlatformThreadNum() {
+        return platformThreadNum;
+    }
+
+    public long getExecutedTaskNum() {
+        return executedTaskNum;
+    }
+
+    public long getAverageQueueingTimeInMicros() {
+        return averageQueueingTimeInMicros;
+    }
+
+    public long getMaxQueueingTimeInMicros() {
+        return maxQueueingTimeInMicros;
+    }
+}
@@ -6,12 +6,11 @@ import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.utils.logging.CLogger;
 import org.zstack.utils.logging.CLoggerImpl;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.lang.management.ManagementFactory;
 import java.util.Map;
-import java.util.Timer;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedExecutionHandler, ThreadFacadeMXBean {
     private static final CLogger _logger = CLoggerImpl.getLogger(ThreadFacadeImpl.class);
@@ -22,58 +21,26 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
     private Map<CancelablePeriodicTask, ScheduledFuture<?>> cancelablePeriodicTasks = new ConcurrentHashMap<CancelablePeriodicTask, ScheduledFuture<?>>();
     private static AtomicInteger seqNum = new AtomicInteger(0);
     private ScheduledThreadPoolExecutorExt _pool;
+    // executes Task, SyncTask, ChainTask and @AsyncThread; it's _pool in the Pool mode
+    private ExecutorService taskExecutor;
+    private String executorMode;
+    private boolean useVirtualThread;
+    private final AtomicLong executedTaskNum = new AtomicLong(0);
+    private final AtomicLong totalQueueingNanos = new AtomicLong(0);
+    private final AtomicLong maxQueueingNanos = new AtomicLong(0);
     private DispatchQueue dpq;
-    private TimerPool timerPool = new TimerPool(5);
+    // schedules timeouts of submitTimeoutTask() and submitTimerTask()
+    private HashedWheelTimer timingWheel;
 
-    @Autowired
-    private JmxFacade jmxf;
+    public static final String DEFAULT_DISPATCH_QUEUE = "Default";
+    public static final String SHARDED_DISPATCH_QUEUE = "Sharded";
 
-    private class TimerWrapper extends Timer {
-        private int cancelledTimerTaskCount = 0;
-        private static final int PURGE_CANCELLED_TIMER_TASK_THRESHOLD = 2000;
-
-        void notifyCancel() {
-            if (cancelledTimerTaskCount++ >= PURGE_CANCELLED_TIMER_TASK_THRESHOLD) {
-                cancelledTimerTaskCount = 0;
-                this.purge();
-            }
-        }
-    }
+    public static final String POOL_EXECUTOR_MODE = "Pool";
+    public static final String ELASTIC_EXECUTOR_MODE = "Elastic";
+    public static final String VIRTUAL_EXECUTOR_MODE = "Virtual";
 
-    private class TimerPool {
-        int poolSize;
-        List<TimerWrapper> pool;
-
-        // never use a long type counter for self increment. two issues
-        // 1) Java will silently overflow a number; even a long will be overflow someday
-        // 2) big number causes extremely bad performance for mod operation
-        // instead, reset the counter when it exceeds COUNTER_RESET_THRESHOLD to maintain
-        // decent performance for mod operation.
-        int counter = 0;
-        static final int COUNTER_RESET_THRESHOLD = 1000000;
-
-        private TimerPool(int poolSize) {
-            this.poolSize = poolSize;
-            pool = new ArrayList<TimerWrapper>(poolSize);
-            for (int i = 0; i < poolSize; i++) {
-                pool.add(new TimerWrapper());
-            }
-        }
-
-        TimerWrapper getTimer() {
-            int index = ++counter % poolSize;
-            if (counter > COUNTER_RESET_THRESHOLD) {
-                counter = 0;
-            }
-            return pool.get(index);
-        }
-
-        void stop() {
-            for (TimerWrapper wrapper : pool) {
-                wrapper.cancel();
-            }
-        }
-    }
+    @Autowired
+    private JmxFacade jmxf;
 
     @Override
     public Map<String, SyncTaskStatistic> getSyncTaskStatistics() {
@@ -85,6 +52,42 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
         return dpq.getChainTaskStatistics();
     }
 
+    @Override
+    public TaskExecutorStatistic getTaskExecutorStatistic() {
+        long executed = executedTaskNum.get();
+        int threadNum;
+        int activeThreadNum;
+        long queuedTaskNum;
+        if (taskExecutor instanceof VirtualThreadExecutor) {
+            VirtualThreadExecutor executor = (VirtualThreadExecutor) taskExecutor;
+            threadNum = executor.getThreadNum();
+            activeThreadNum = executor.getActiveCount();
+            queuedTaskNum = executor.getQueuedTaskNum();
+        } else {
+            ThreadPoolExecutor executor = (ThreadPoolExecutor) taskExecutor;
+            threadNum = executor.getPoolSize();
+            activeThreadNum = executor.getActiveCount();
+            queuedTaskNum = executor.getQueue().size();
+        }
+
+        return new TaskExecutorStatistic(
+                executorMode,
+                useVirtualThread,
+                threadNum,
+                activeThreadNum,
+                queuedTaskNum,
+                ManagementFactory.getThreadMXBean().getThreadCount(),
+                executed,
+                executed == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalQueueingNanos.get() / executed),
+                TimeUnit.NANOSECONDS.toMicros(maxQueueingNanos.get())
+        );
+    }
+
+    @Override
+    public TimingWheelStatistic getTimingWheelStatistic() {
+        return timingWheel.getStatistic();
+    }
+
     @Override
     public ThreadPoolStatistic getThreadPoolStatistic() {
         long completedTask = _pool.getCompletedTaskCount();
@@ -122,6 +125,53 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
 
     }
 
+    private class TimedWorker<T> extends Worker<T> {
+        private final long submitTime = System.nanoTime();
+
+        TimedWorker(Task<T> task) {
+            super(task);
+        }
+
+        @Override
+        public T call() throws Exception {
+            long queueingTime = System.nanoTime() - submitTime;
+            executedTaskNum.incrementAndGet();
+            totalQueueingNanos.addAndGet(queueingTime);
+            maxQueueingNanos.accumulateAndGet(queueingTime, Math::max);
+            return super.call();
+        }
+    }
+
+    private ExecutorService createTaskExecutor() {
+        executorMode = ThreadGlobalProperty.EXECUTOR_MODE;
+        if (POOL_EXECUTOR_MODE.equalsIgnoreCase(executorMode)) {
+            return _pool;
+        }
+
+        int maxThreadNum = Math.max(ThreadGlobalProperty.ELASTIC_MAX_THREAD_NUM, totalThreadNum);
+        if (VIRTUAL_EXECUTOR_MODE.equalsIgnoreCase(executorMode)) {
+            VirtualThreadExecutor executor = VirtualThreadExecutor.create(maxThreadNum, this, _pool);
+            if (executor != null) {
+                useVirtualThread = true;
+                _logger.debug(String.format("create ThreadFacade task executor in mode[%s] running at most %s tasks at the same time",
+                        executorMode, maxThreadNum));
+                return executor;
+            }
+
+            _logger.warn(String.format("virtual threads are not supported by the JVM[%s], use platform threads instead",
+                    System.getProperty("java.version")));
+        } else if (!ELASTIC_EXECUTOR_MODE.equalsIgnoreCase(executorMode)) {
+            _logger.warn(String.format("unknown ThreadFacade.executorMode[%s], use the Pool mode", executorMode));
+            executorMode = POOL_EXECUTOR_MODE;
+            return _pool;
+        }
+
+        _logger.debug(String.format("create ThreadFacade task executor in mode[%s] with max thread number:%s",
+                executorMode, maxThreadNum));
+        return new ElasticThreadPoolExecutor(maxThreadNum, ThreadGlobalProperty.ELASTIC_THREAD_KEEP_ALIVE_SECONDS,
+                r -> new Thread(r, "zs-elastic-thread-" + String.valueOf(seqNum.getAndIncrement())), this, _pool);
+    }
+
     public void init() {
         totalThreadNum = ThreadGlobalProperty.MAX_THREAD_NUM;
         if (totalThreadNum < 10) {
@@ -130,18 +180,38 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
         }
         _pool = new ScheduledThreadPoolExecutorExt(totalThreadNum, this, this);
         _logger.debug(String.format("create ThreadFacade with max thread number:%s", totalThreadNum));
-        dpq = new DispatchQueueImpl();
+        taskExecutor = createTaskExecutor();
+        dpq = createDispatchQueue(ThreadGlobalProperty.DISPATCH_QUEUE_TYPE);
+        timingWheel = new HashedWheelTimer("zs-timing-wheel", ThreadGlobalProperty.TIMING_WHEEL_TICK_MILLIS,
+                TimeUnit.MILLISECONDS, ThreadGlobalProperty.TIMING_WHEEL_SIZE, this::runTimeoutTask);
 
         jmxf.registerBean("ThreadFacade", this);
     }
 
+    private DispatchQueue createDispatchQueue(String type) {
+        if (SHARDED_DISPATCH_QUEUE.equalsIgnoreCase(type)) {
+            _logger.debug("use the sharded dispatch queue");
+            return new ShardedDispatchQueueImpl();
+        }
+
+        if (!DEFAULT_DISPATCH_QUEUE.equalsIgnoreCase(type)) {
+            _logger.warn(String.format("unknown ThreadFacade.dispatchQueueType[%s], use the default dispatch queue", type));
+        }
+
+        return new DispatchQueueImpl();
+    }
+
     public void destroy() {
+        if (taskExecutor != _pool) {
+            taskExecutor.shutdownNow();
+        }
         _pool.shutdownNow();
+        timingWheel.stop();
     }
 
     @Override
     public <T> Future<T> submit(Task<T> task) {
-        return _pool.submit(new Worker<T>(task));
+        return taskExecutor.submit(new TimedWorker<T>(task));
     }
 
     @Override
@@ -224,51 +294,42 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
         boolean cancel();
     }
 
-    @Override
-    public TimeoutTaskReceipt submitTimeoutTask(final Runnable task, TimeUnit unit, long delay) {
-        final TimerWrapper timer = timerPool.getTimer();
-
-        class TimerTaskWorker extends java.util.TimerTask implements TimeoutTaskReceipt {
+    private void runTimeoutTask(final Runnable task) {
+        submit(new Task<Void>() {
             @Override
-            @AsyncThread
-            public void run() {
+            public Void call() throws Exception {
                 try {
                     task.run();
                 } catch (Throwable t) {
                     _logger.warn(String.format("Unhandled exception happened when running %s", task.getClass().getName()), t);
-                } finally {
-                    this.cancel();
                 }
+                return null;
             }
 
             @Override
-            public boolean cancel() {
-                boolean ret = super.cancel();
-                timer.notifyCancel();
-                return ret;
+            public String getName() {
+                return "timeout-task: " + task.getClass().getName();
             }
-        }
+        });
+    }
 
-        TimerTaskWorker worker = new TimerTaskWorker();
-        timer.schedule(worker, unit.toMillis(delay));
-        return worker;
+    @Override
+    public TimeoutTaskReceipt submitTimeoutTask(final Runnable task, TimeUnit unit, long delay) {
+        return timingWheel.newTimeout(task, unit, delay);
     }
 
     @Override
     public void submitTimerTask(final TimerTask task, TimeUnit unit, long delay) {
-        final TimerWrapper timer = timerPool.getTimer();
-        timer.schedule(new java.util.TimerTask() {
+        timingWheel.newTimeout(new Runnable() {
             @Override
             public void run() {
                 try {
-                    if (task.run()) {
-                        cancel();
-                    }
+                    task.run();
                 } catch (Throwable t) {
                     _logger.warn(String.format("Unhandled exception happened when running %s", task.getClass().getName()), t);
                 }
             }
-        }, unit.toMillis(delay));
+        }, unit, delay);
     }
 
     @Override
@@ -278,8 +339,11 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
 
     @Override
     public boolean stop() {
+        if (taskExecutor != _pool) {
+            taskExecutor.shutdown();
+        }
         _pool.shutdown();
-        timerPool.stop();
+        timingWheel.stop();
         return true;
     }
 
@@ -9,4 +9,16 @@ import org.zstack.core.GlobalPropertyDefinition;
 public class ThreadGlobalProperty {
     @GlobalProperty(name="ThreadFacade.maxThreadNum", defaultValue = "100")
     public static int MAX_THREAD_NUM;
+    @GlobalProperty(name="ThreadFacade.dispatchQueueType", defaultValue = "Default")
+    public static String DISPATCH_QUEUE_TYPE;
+    @GlobalProperty(name="ThreadFacade.executorMode", defaultValue = "Pool")
+    public static String EXECUTOR_MODE;
+    @GlobalProperty(name="ThreadFacade.elasticMaxThreadNum", defaultValue = "2000")
+    public static int ELASTIC_MAX_THREAD_NUM;
+    @GlobalProperty(name="ThreadFacade.elasticThreadKeepAliveSeconds", defaultValue = "60")
+    public static int ELASTIC_THREAD_KEEP_ALIVE_SECONDS;
+    @GlobalProperty(name="ThreadFacade.timingWheelTickMillis", defaultValue = "100")
+    public static long TIMING_WHEEL_TICK_MILLIS;
+    @GlobalProperty(name="ThreadFacade.timingWheelSize", defaultValue = "512")
+    public static int TIMING_WHEEL_SIZE;
 }
@@ -0,0 +1,69 @@
+package org.zstack.core.thread;
+
+import java.beans.ConstructorProperties;
+
+/**
+ */
+public class TimingWheelStatistic {
+    private long tickDurationInMillis;
+    private int wheelSize;
+    private long pendingTimeoutNum;
+    private long unscheduledTimeoutNum;
+    private int occupiedBucketNum;
+    private int maxBucketSize;
+    private long scheduledTimeoutNum;
+    private long expiredTimeoutNum;
+    private long cancelledTimeoutNum;
+
+    @ConstructorProperties({"tickDurationInMillis", "wheelSize", "pendingTimeoutNum", "unscheduledTimeoutNum",
+            "occupiedBucketNum", "maxBucketSize", "scheduledTimeoutNum", "expiredTimeoutNum", "cancelledTimeoutNum"})
+    public TimingWheelStatistic(long tickDurationInMillis, int wheelSize, long pendingTimeoutNum, long unscheduledTimeoutNum,
+                                int occupiedBucketNum, int maxBucketSize, long scheduledTimeoutNum,
+                                long expiredTimeoutNum, long cancelledTimeoutNum) {
+        this.tickDurationInMillis = tickDurationInMillis;
+        this.wheelSize = wheelSize;
+        this.pendingTimeoutNum = pendingTimeoutNum;
+        this.unscheduledTimeoutNum = unscheduledTimeoutNum;
+        this.occupiedBucketNum = occupiedBucketNum;
+        this.maxBucketSize = maxBucketSize;
+        this.scheduledTimeoutNum = scheduledTimeoutNum;
+        this.expiredTimeoutNum = expiredTimeoutNum;
+        this.cancelledTimeoutNum = cancelledTimeoutNum;
+    }
+
+    public long getTickDurationInMillis() {
+        return tickDurationInMillis;
+    }
+
+    public int getWheelSize() {
+        return wheelSize;
+    }
+
+    public long getPendingTimeoutNum() {
+        return pendingTimeoutNum;
+    }
+
+    public long getUnscheduledTimeoutNum() {
+        return unscheduledTimeoutNum;
+    }
+
+    public int getOccupiedBucketNum() {
+        return occupiedBucketNum;
+    }
+
+    public int getMaxBucketSize() {
+        return maxBucketSize;
+    }
+
+    public long getScheduledTimeoutNum() {
+        return scheduledTimeoutNum;
+    }
+
+    public long getExpiredTimeoutNum() {
+        return expiredTimeoutNum;
+    }
+
+    public long getCancelledTimeoutNum() {
+        return cancelledTimeoutNum;
+    }
+}
@@ -0,0 +1,129 @@
+package org.zstack.core.thread;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * executor used by ThreadFacade when ThreadFacade.executorMode is "Virtual".
+ *
+ * every task runs in a new virtual thread created by Executors.newThreadPerTaskExecutor(), virtual
+ * threads are cheap to create and block so they are never pooled. At most maxConcurrency tasks run
+ * at the same time, the others wait for a permit in their own virtual threads instead of a queue,
+ * so the resources tasks hold(e.g. database connections) are still bounded like in the other modes.
+ * ThreadAroundHooks registered to the scheduled pool are also called around tasks of this executor.
+ */
+public class VirtualThreadExecutor extends AbstractExecutorService {
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final ScheduledThreadPoolExecutorExt hookSource;
+    private final RejectedExecutionHandler handler;
+    private final AtomicInteger threadNum = new AtomicInteger(0);
+    private final AtomicInteger activeNum = new AtomicInteger(0);
+
+    private VirtualThreadExecutor(ExecutorService executor, int maxConcurrency, RejectedExecutionHandler handler,
+                                  ScheduledThreadPoolExecutorExt hookSource) {
+        this.executor = executor;
+        this.permits = new Semaphore(maxConcurrency);
+        this.handler = handler;
+        this.hookSource = hookSource;
+    }
+
+    /**
+     * virtual threads are only available on JDK 21+ while the code is built for 1.8, so look them up by reflection
+     *
+     * @return null if the JVM doesn't support virtual threads
+     */
+    public static VirtualThreadExecutor create(int maxConcurrency, RejectedExecutionHandler handler,
+                                               ScheduledThreadPoolExecutorExt hookSource) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> ofVirtualClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            builder = ofVirtualClass.getMethod("name", String.class, long.class).invoke(builder, "zs-vthread-", 0L);
+            ThreadFactory factory = (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+            ExecutorService executor = (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+            return new VirtualThreadExecutor(executor, maxConcurrency, handler, hookSource);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private void run(Runnable r) {
+        threadNum.incrementAndGet();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            threadNum.decrementAndGet();
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        activeNum.incrementAndGet();
+        Throwable error = null;
+        try {
+            hookSource.runBeforeExecuteHooks(Thread.currentThread(), r);
+            r.run();
+        } catch (RuntimeException | Error e) {
+            error = e;
+            throw e;
+        } finally {
+            hookSource.runAfterExecuteHooks(r, error);
+            activeNum.decrementAndGet();
+            threadNum.decrementAndGet();
+            permits.release();
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        try {
+            executor.execute(() -> run(command));
+        } catch (RejectedExecutionException e) {
+            handler.rejectedExecution(command, null);
+        }
+    }
+
+    /**
+     * @return the number of virtual threads running or waiting for a permit
+     */
+    public int getThreadNum() {
+        return threadNum.get();
+    }
+
+    public int getActiveCount() {
+        return activeNum.get();
+    }
+
+    /**
+     * @return the number of tasks waiting for a permit
+     */
+    public int getQueuedTaskNum() {
+        return Math.max(threadNum.get() - activeNum.get(), 0);
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return executor.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return executor.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+}
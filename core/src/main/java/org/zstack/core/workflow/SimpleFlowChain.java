@@ -19,7 +19,11 @@ import org.zstack.utils.function.ForEachFunction;
 import org.zstack.utils.function.Function;
 import org.zstack.utils.logging.CLogger;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
@@ -60,6 +64,90 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
 
     private static final Map<String, WorkFlowStatistic> statistics = new ConcurrentHashMap<>();
 
+    /**
+     * the fields of a flow class read by the chain, looked up once per class
+     */
+    private static class FlowMetadata {
+        private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+        final String simpleName;
+        final String fileName;
+        final MethodHandle name;
+        final MethodHandle skip;
+        final List<MethodHandle> afterDone;
+        final List<MethodHandle> afterError;
+        final List<MethodHandle> afterFinal;
+
+        FlowMetadata(Class<?> clazz) {
+            String sname = clazz.getSimpleName();
+            simpleName = sname.equals("") ? clazz.getName() : sname;
+
+            String[] ff = clazz.getName().split("\\.");
+            String filename = ff[ff.length-1];
+            if (filename.contains("$")) {
+                filename = filename.substring(0, filename.indexOf("$"));
+            }
+            fileName = filename;
+
+            name = getter(FieldUtils.getField("__name__", clazz));
+            skip = getter(FieldUtils.getField("__skip__", clazz));
+            afterDone = getters(FieldUtils.getAnnotatedFieldsOnThisClass(AfterDone.class, clazz));
+            afterError = getters(FieldUtils.getAnnotatedFieldsOnThisClass(AfterError.class, clazz));
+            afterFinal = getters(FieldUtils.getAnnotatedFieldsOnThisClass(AfterFinal.class, clazz));
+        }
+
+        private static MethodHandle getter(Field f) {
+            if (f == null) {
+                return null;
+            }
+
+            try {
+                f.setAccessible(true);
+                MethodHandle h = MethodHandles.lookup().unreflectGetter(f);
+                if (Modifier.isStatic(f.getModifiers())) {
+                    h = MethodHandles.dropArguments(h, 0, Object.class);
+                }
+                return h.asType(GETTER_TYPE);
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException(e);
+            }
+        }
+
+        private static List<MethodHandle> getters(List<Field> fields) {
+            if (fields.isEmpty()) {
+                return Collections.emptyList();
+            }
+
+            List<MethodHandle> ret = new ArrayList<>();
+            for (Field f : fields) {
+                ret.add(getter(f));
+            }
+            return ret;
+        }
+
+        static <T> T get(MethodHandle getter, Flow flow) {
+            if (getter == null) {
+                return null;
+            }
+
+            try {
+                return (T) (Object) getter.invokeExact((Object) flow);
+            } catch (Throwable t) {
+                throw new CloudRuntimeException(t);
+            }
+        }
+    }
+
+    private static final Map<Class, FlowMetadata> flowMetadata = new ConcurrentHashMap<>();
+
+    private static FlowMetadata getFlowMetadata(Flow flow) {
+        FlowMetadata m = flowMetadata.get(flow.getClass());
+        if (m == null) {
+            m = flowMetadata.computeIfAbsent(flow.getClass(), FlowMetadata::new);
+        }
+        return m;
+    }
+
     private class FlowStopWatch {
         Map<String, Long> beginTime = new HashMap<>();
         void start(Flow flow) {
@@ -70,8 +158,10 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
                 WorkFlowStatistic stat = statistics.get(cname);
                 stat.addStatistic(btime - stime);
 
-                logger.debug(String.format("[FlowChain(%s):%s, flow:%s] takes %sms to complete",
-                        id, name, cname, stat.getTotalTime()));
+                if (logger.isDebugEnabled()) {
+                    logger.debug(String.format("[FlowChain(%s):%s, flow:%s] takes %sms to complete",
+                            id, name, cname, stat.getTotalTime()));
+                }
             }
 
             String fname = getFlowName(flow);
@@ -248,27 +338,17 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
     }
 
     private void collectAfterRunnable(Flow flow) {
-        List<Field> ad = FieldUtils.getAnnotatedFieldsOnThisClass(AfterDone.class, flow.getClass());
-        for (Field f : ad) {
-            List lst = FieldUtils.getFieldValue(f.getName(), flow);
-            if (lst != null) {
-                afterDone.add(lst);
-            }
-        }
-
-        ad = FieldUtils.getAnnotatedFieldsOnThisClass(AfterError.class, flow.getClass());
-        for (Field f : ad) {
-            List lst = FieldUtils.getFieldValue(f.getName(), flow);
-            if (lst != null) {
-                afterError.add(lst);
-            }
-        }
+        FlowMetadata m = getFlowMetadata(flow);
+        collectAfterRunnable(flow, m.afterDone, afterDone);
+        collectAfterRunnable(flow, m.afterError, afterError);
+        collectAfterRunnable(flow, m.afterFinal, afterFinal);
+    }
 
-        ad = FieldUtils.getAnnotatedFieldsOnThisClass(AfterFinal.class, flow.getClass());
-        for (Field f : ad) {
-            List lst = FieldUtils.getFieldValue(f.getName(), flow);
+    private void collectAfterRunnable(Flow flow, List<MethodHandle> getters, List<List<Runnable>> runnables) {
+        for (MethodHandle getter : getters) {
+            List<Runnable> lst = FlowMetadata.get(getter, flow);
             if (lst != null) {
-                afterFinal.add(lst);
+                runnables.add(lst);
             }
         }
     }
@@ -279,7 +359,7 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
             if (flowMarshaller != null) {
                 toRun = flowMarshaller.marshalTheNextFlow(currentFlow == null ? null : currentFlow.getClass().getName(),
                         flow.getClass().getName(), this, data);
-                if (toRun != null) {
+                if (toRun != null && logger.isDebugEnabled()) {
                     logger.debug(String.format("[FlowChain(%s): %s] FlowMarshaller[%s] replaces the next flow[%s] to the flow[%s]",
                             id, name, flowMarshaller.getClass(), flow.getClass(), toRun.getClass()));
                 }
@@ -295,9 +375,9 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
 
             currentFlow = toRun;
 
-            String flowName = getFlowName(currentFlow);
-            String info = String.format("[FlowChain(%s): %s] start executing flow[%s]", id, name, flowName);
-            logger.debug(info);
+            if (logger.isDebugEnabled()) {
+                logger.debug(String.format("[FlowChain(%s): %s] start executing flow[%s]", id, name, getFlowName(currentFlow)));
+            }
             collectAfterRunnable(toRun);
             toRun.run(this, data);
         } catch (OperationFailureException oe) {
@@ -317,7 +397,9 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
 
     private void rollbackFlow(Flow flow) {
         try {
-            logger.debug(String.format("[FlowChain(%s): %s] start to rollback flow[%s]", id, name, getFlowName(flow)));
+            if (logger.isDebugEnabled()) {
+                logger.debug(String.format("[FlowChain(%s): %s] start to rollback flow[%s]", id, name, getFlowName(flow)));
+            }
             flow.rollback(this, data);
         } catch (Throwable t) {
             logger.warn(String.format("[FlowChain(%s): %s] unhandled exception when rollback flow[%s]," +
@@ -327,7 +409,7 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
     }
 
     private void callErrorHandler(boolean info) {
-        if (info) {
+        if (info && logger.isDebugEnabled()) {
             logger.debug(String.format("[FlowChain(%s): %s] rolled back all flows because error%s", id, name, errorCode));
         }
 
@@ -359,24 +441,14 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
     }
 
     private String getFlowName(Flow flow) {
-        String name = FieldUtils.getFieldValue("__name__", flow);
+        FlowMetadata m = getFlowMetadata(flow);
+        String name = FlowMetadata.get(m.name, flow);
         if (name == null) {
-            name = flow.getClass().getSimpleName();
-            if (name.equals("")) {
-                name = flow.getClass().getName();
-            }
+            name = m.simpleName;
         }
 
         if (logger.isTraceEnabled()) {
-            String className = flow.getClass().getName();
-            String[] ff = className.split("\\.");
-            String filename = ff[ff.length-1];
-            if (filename.contains("$")) {
-                int index = filename.indexOf("$");
-                filename = filename.substring(0, index);
-            }
-
-            name = String.format("%s.java:%s", filename, name);
+            name = String.format("%s.java:%s", m.fileName, name);
         }
 
         return name;
@@ -408,11 +480,13 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
             return;
         }
 
-        if (currentRollbackFlow != null) {
-            logger.debug(String.format("[FlowChain(%s): %s] successfully rolled back flow[%s]",
-                    id, name, getFlowName(currentRollbackFlow)));
-        } else {
-            logger.debug(String.format("[FlowChain(%s): %s] start to rollback", id, name));
+        if (logger.isDebugEnabled()) {
+            if (currentRollbackFlow != null) {
+                logger.debug(String.format("[FlowChain(%s): %s] successfully rolled back flow[%s]",
+                        id, name, getFlowName(currentRollbackFlow)));
+            } else {
+                logger.debug(String.format("[FlowChain(%s): %s] start to rollback", id, name));
+            }
         }
 
         Flow flow = rollBackFlows.pop();
@@ -470,7 +544,9 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
             }
         }
 
-        logger.debug(String.format("[FlowChain(%s): %s] successfully completed", id, name));
+        if (logger.isDebugEnabled()) {
+            logger.debug(String.format("[FlowChain(%s): %s] successfully completed", id, name));
+        }
 
         if (!afterDone.isEmpty()) {
             Collections.reverse(afterDone);
@@ -500,9 +576,9 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
     }
 
     private boolean isSkipFlow(Flow flow) {
-        Boolean skip = FieldUtils.getFieldValue("__skip__", flow);
+        Boolean skip = FlowMetadata.get(getFlowMetadata(flow).skip, flow);
         boolean ret = skip != null && skip;
-        if (ret) {
+        if (ret && logger.isDebugEnabled()) {
             logger.debug(String.format("[FlowChain: %s] skip flow[%s] because it's __skip__ set to true", name, getFlowName(flow)));
         }
         return ret;
@@ -535,7 +611,9 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
 
         rollBackFlows.push(currentFlow);
 
-        logger.debug(String.format("[FlowChain(%s): %s] successfully executed flow[%s]", id, name, getFlowName(currentFlow)));
+        if (logger.isDebugEnabled()) {
+            logger.debug(String.format("[FlowChain(%s): %s] successfully executed flow[%s]", id, name, getFlowName(currentFlow)));
+        }
 
         Flow flow = getFirstNotSkippedFlow();
         if (flow == null) {
@@ -576,7 +654,9 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
             name = "anonymous-chain";
         }
 
-        logger.debug(String.format("[FlowChain(%s): %s] starts", id, name));
+        if (logger.isDebugEnabled()) {
+            logger.debug(String.format("[FlowChain(%s): %s] starts", id, name));
+        }
 
         if (logger.isTraceEnabled()) {
             List<String> names = CollectionUtils.transformToList(flows, new Function<String, Flow>() {
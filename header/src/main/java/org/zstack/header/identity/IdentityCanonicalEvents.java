@@ -10,6 +10,7 @@ import java.util.Date;
 public class IdentityCanonicalEvents {
     public static final String ACCOUNT_DELETED_PATH = "/account/delete";
     public static final String USER_DELETED_PATH = "/user/delete";
+    public static final String POLICY_CHANGED_PATH = "/policy/change";
 
     @NeedJsonSchema
     public static class AccountDeletedData {
@@ -72,4 +73,47 @@ public class IdentityCanonicalEvents {
             this.date = date;
         }
     }
+
+    /**
+     * fired when policies a user gets are changed, only one of the uuids is set
+     */
+    @NeedJsonSchema
+    public static class PolicyChangedData {
+        private String userUuid;
+        private String groupUuid;
+        private String policyUuid;
+        private Date date = new Date();
+
+        public String getUserUuid() {
+            return userUuid;
+        }
+
+        public void setUserUuid(String userUuid) {
+            this.userUuid = userUuid;
+        }
+
+        public String getGroupUuid() {
+            return groupUuid;
+        }
+
+        public void setGroupUuid(String groupUuid) {
+            this.groupUuid = groupUuid;
+        }
+
+        public String getPolicyUuid() {
+            return policyUuid;
+        }
+
+        public void setPolicyUuid(String policyUuid) {
+            this.policyUuid = policyUuid;
+        }
+
+        public Date getDate() {
+            return date;
+        }
+
+        public void setDate(Date date) {
+            this.date = date;
+        }
+    }
 }
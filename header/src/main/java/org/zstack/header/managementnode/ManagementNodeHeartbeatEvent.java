@@ -0,0 +1,42 @@
+package org.zstack.header.managementnode;
+
+import org.zstack.header.message.LocalEvent;
+
+/**
+ * gossiped by management nodes every node.gossipInterval, published on the message bus only
+ * so it neither reaches canonical event webhooks nor queries the database
+ */
+public class ManagementNodeHeartbeatEvent extends LocalEvent {
+    private String nodeUuid;
+    // the heartbeat the node has written to the database, in milliseconds
+    private long heartbeat;
+
+    public ManagementNodeHeartbeatEvent() {
+    }
+
+    public ManagementNodeHeartbeatEvent(String nodeUuid, long heartbeat) {
+        this.nodeUuid = nodeUuid;
+        this.heartbeat = heartbeat;
+    }
+
+    @Override
+    public String getSubCategory() {
+        return ManagementNodeConstant.MANAGEMENT_NODE_EVENT;
+    }
+
+    public String getNodeUuid() {
+        return nodeUuid;
+    }
+
+    public void setNodeUuid(String nodeUuid) {
+        this.nodeUuid = nodeUuid;
+    }
+
+    public long getHeartbeat() {
+        return heartbeat;
+    }
+
+    public void setHeartbeat(long heartbeat) {
+        this.heartbeat = heartbeat;
+    }
+}
@@ -35,6 +35,24 @@ public abstract class APIMessage extends NeedReplyMessage {
     private static class FieldParam {
         Field field;
         APIParam param;
+        // compiled from the param once, instead of for every message
+        List<String> validValues;
+        Pattern validRegex;
+
+        FieldParam(Field field, APIParam param) {
+            this.field = field;
+            this.param = param;
+            field.setAccessible(true);
+
+            validValues = new ArrayList<>();
+            for (String val : param.validValues()) {
+                validValues.add(val.toLowerCase());
+            }
+
+            if (param.validRegexValues() != null && !param.validRegexValues().trim().equals("")) {
+                validRegex = Pattern.compile(param.validRegexValues().trim());
+            }
+        }
     }
 
     @NoJsonSchema
@@ -60,11 +78,7 @@ public abstract class APIMessage extends NeedReplyMessage {
                     continue;
                 }
 
-                f.setAccessible(true);
-                FieldParam fp = new FieldParam();
-                fp.field = f;
-                fp.param = f.getAnnotation(APIParam.class);
-                fmap.put(f.getName(), fp);
+                fmap.put(f.getName(), new FieldParam(f, at));
             }
 
             OverriddenApiParams at = (OverriddenApiParams) clz.getAnnotation(OverriddenApiParams.class);
@@ -76,10 +90,7 @@ public abstract class APIMessage extends NeedReplyMessage {
                                 atp.field(), clz));
                     }
 
-                    FieldParam fp = new FieldParam();
-                    fp.field = f;
-                    fp.param = atp.param();
-                    fmap.put(atp.field(), fp);
+                    fmap.put(atp.field(), new FieldParam(f, atp.param()));
                 }
             }
 
@@ -138,7 +149,6 @@ public abstract class APIMessage extends NeedReplyMessage {
             Field f = fp.field;
             final APIParam at = fp.param;
 
-            f.setAccessible(true);
             Object value = f.get(this);
 
             if (value != null && (value instanceof String) && !at.noTrim()) {
@@ -166,24 +176,18 @@ public abstract class APIMessage extends NeedReplyMessage {
                 throw new InvalidApiMessageException("field[%s] of message[%s] is mandatory, can not be null", f.getName(), getClass().getName());
             }
 
-            if (value != null && at.validValues().length > 0) {
-                List<String> vals = new ArrayList<>();
-                for (String val: at.validValues()) {
-                    vals.add(val.toLowerCase());
-                }
-                if (!vals.contains(value.toString().toLowerCase())) {
+            if (value != null && !fp.validValues.isEmpty()) {
+                if (!fp.validValues.contains(value.toString().toLowerCase())) {
                     throw new InvalidApiMessageException("valid value for field[%s] of message[%s] are %s, but %s found", f.getName(),
-                            getClass().getName(), vals, value);
+                            getClass().getName(), fp.validValues, value);
                 }
             }
 
-            if (value != null && at.validRegexValues() != null && at.validRegexValues().trim().equals("") == false) {
-                String regex = at.validRegexValues().trim();
-                Pattern p = Pattern.compile(regex);
-                Matcher mt = p.matcher(value.toString());
+            if (value != null && fp.validRegex != null) {
+                Matcher mt = fp.validRegex.matcher(value.toString());
                 if (!mt.matches()){
                     throw new InvalidApiMessageException("valid regex value for field[%s] of message[%s] are %s, but %s found", f.getName(),
-                            getClass().getName(), regex, value);
+                            getClass().getName(), fp.validRegex.pattern(), value);
                 }
             }
 
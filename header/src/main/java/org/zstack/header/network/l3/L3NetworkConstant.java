@@ -13,6 +13,10 @@ public interface L3NetworkConstant {
     public static final String FIRST_AVAILABLE_IP_ALLOCATOR_STRATEGY = "FirstAvailableIpAllocatorStrategy";
     @PythonClass
     public static final String RANDOM_IP_ALLOCATOR_STRATEGY = "RandomIpAllocatorStrategy";
+    @PythonClass
+    public static final String BITMAP_IP_ALLOCATOR_STRATEGY = "BitmapIpAllocatorStrategy";
+    @PythonClass
+    public static final String BITMAP_FIRST_AVAILABLE_IP_ALLOCATOR_STRATEGY = "BitmapFirstAvailableIpAllocatorStrategy";
 
     public static final String QUOTA_L3_NUM = "l3.num";
 }
@@ -2,6 +2,7 @@ package org.zstack.header.query;
 
 import org.zstack.header.message.APIParam;
 import org.zstack.header.message.APISyncCallMessage;
+import org.zstack.header.rest.APINoSee;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -18,6 +19,10 @@ public abstract class APIQueryMessage extends APISyncCallMessage {
     @APIParam(required = false, validValues = {"asc", "desc"})
     private String sortDirection = "asc";
     private List<String> fields;
+    // set when paging through a large result, empty for the first page and
+    // APIQueryReply.getCursor() of the previous page for the next ones
+    @APINoSee
+    private String cursor;
 
     public String getGroupBy() {
         return groupBy;
@@ -114,6 +119,14 @@ public abstract class APIQueryMessage extends APISyncCallMessage {
         return fields != null && !fields.isEmpty();
     }
 
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
     public boolean isCount() {
         return count;
     }
@@ -1,6 +1,7 @@
 package org.zstack.header.query;
 
 import org.zstack.header.message.APIReply;
+import org.zstack.header.rest.APINoSee;
 
 /**
  * Created with IntelliJ IDEA.
@@ -10,6 +11,9 @@ import org.zstack.header.message.APIReply;
  */
 public class APIQueryReply extends APIReply {
     private Long total;
+    // the cursor of the next page of a paged query, null if there is no more page
+    @APINoSee
+    private String cursor;
 
     public Long getTotal() {
         return total;
@@ -18,6 +22,14 @@ public class APIQueryReply extends APIReply {
     public void setTotal(long total) {
         this.total = total;
     }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
  
     public static APIQueryReply __example__() {
         APIQueryReply reply = new APIQueryReply();
@@ -6,6 +6,9 @@ import java.util.Map;
 public interface QueryBuilder {
     <T> List<T> query(APIQueryMessage msg, Class<T> inventoryClass);
 
+    // query the page of APIQueryMessage.getCursor(), the cursor of the next page is set to the reply
+    <T> List<T> queryPage(APIQueryMessage msg, Class<T> inventoryClass, APIQueryReply reply);
+
     long count(APIQueryMessage msg, Class inventoryClass);
 
     Map<String, List<String>> populateQueryableFields();
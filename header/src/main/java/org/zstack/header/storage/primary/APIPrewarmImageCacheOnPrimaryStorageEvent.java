@@ -0,0 +1,51 @@
+package org.zstack.header.storage.primary;
+
+import org.zstack.header.message.APIEvent;
+import org.zstack.header.message.DocUtils;
+import org.zstack.header.rest.RestResponse;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ */
+@RestResponse(allTo = "inventories")
+public class APIPrewarmImageCacheOnPrimaryStorageEvent extends APIEvent {
+    private List<ImageCacheInventory> inventories;
+
+    public APIPrewarmImageCacheOnPrimaryStorageEvent() {
+    }
+
+    public APIPrewarmImageCacheOnPrimaryStorageEvent(String apiId) {
+        super(apiId);
+    }
+
+    public List<ImageCacheInventory> getInventories() {
+        return inventories;
+    }
+
+    public void setInventories(List<ImageCacheInventory> inventories) {
+        this.inventories = inventories;
+    }
+ 
+    public static APIPrewarmImageCacheOnPrimaryStorageEvent __example__() {
+        APIPrewarmImageCacheOnPrimaryStorageEvent event = new APIPrewarmImageCacheOnPrimaryStorageEvent();
+        ImageCacheInventory inv = new ImageCacheInventory();
+        inv.setId(1);
+        inv.setPrimaryStorageUuid(uuid());
+        inv.setImageUuid(uuid());
+        inv.setInstallUrl("file:///local_ps/imagecache/template/image.qcow2;hostUuid://" + uuid());
+        inv.setSize(1073741824L);
+        inv.setMd5sum("not calculated");
+        inv.setState(ImageCacheState.ready.toString());
+        inv.setHitCount(0);
+        inv.setCreateDate(new Timestamp(DocUtils.date));
+        inv.setLastOpDate(new Timestamp(DocUtils.date));
+
+        event.setInventories(list(inv));
+        return event;
+    }
+
+}
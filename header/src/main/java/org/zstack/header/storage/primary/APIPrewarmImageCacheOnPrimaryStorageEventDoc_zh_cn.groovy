@@ -0,0 +1,26 @@
+package org.zstack.header.storage.primary
+
+import org.zstack.header.errorcode.ErrorCode
+import org.zstack.header.storage.primary.ImageCacheInventory
+
+doc {
+
+	title "主存储镜像缓存预热结果"
+
+	ref {
+		name "error"
+		path "org.zstack.header.storage.primary.APIPrewarmImageCacheOnPrimaryStorageEvent.error"
+		desc "错误码，若不为null，则表示操作失败, 操作成功时该字段为null",false
+		type "ErrorCode"
+		since "2.2.3"
+		clz ErrorCode.class
+	}
+	ref {
+		name "inventories"
+		path "org.zstack.header.storage.primary.APIPrewarmImageCacheOnPrimaryStorageEvent.inventories"
+		desc "镜像缓存清单列表"
+		type "List"
+		since "2.2.3"
+		clz ImageCacheInventory.class
+	}
+}
\ No newline at end of file
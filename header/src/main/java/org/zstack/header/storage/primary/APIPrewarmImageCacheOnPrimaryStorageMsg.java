@@ -0,0 +1,87 @@
+package org.zstack.header.storage.primary;
+
+import org.springframework.http.HttpMethod;
+import org.zstack.header.host.HostVO;
+import org.zstack.header.image.ImageVO;
+import org.zstack.header.message.APIEvent;
+import org.zstack.header.message.APIMessage;
+import org.zstack.header.message.APIParam;
+import org.zstack.header.notification.ApiNotification;
+import org.zstack.header.rest.RestRequest;
+
+import java.util.List;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * downloads the images to the image cache of the primary storage before they are used; for local storage, the
+ * images are downloaded to the hosts specified, or all connected hosts of the primary storage if no host specified
+ */
+@RestRequest(
+        path = "/primary-storage/{uuid}/actions",
+        isAction = true,
+        method = HttpMethod.PUT,
+        responseClass = APIPrewarmImageCacheOnPrimaryStorageEvent.class
+)
+public class APIPrewarmImageCacheOnPrimaryStorageMsg extends APIMessage implements PrimaryStorageMessage {
+    @APIParam(resourceType = PrimaryStorageVO.class)
+    private String uuid;
+    @APIParam(nonempty = true, resourceType = ImageVO.class)
+    private List<String> imageUuids;
+    @APIParam(required = false, resourceType = HostVO.class)
+    private List<String> hostUuids;
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    public void setUuid(String uuid) {
+        this.uuid = uuid;
+    }
+
+    public List<String> getImageUuids() {
+        return imageUuids;
+    }
+
+    public void setImageUuids(List<String> imageUuids) {
+        this.imageUuids = imageUuids;
+    }
+
+    public List<String> getHostUuids() {
+        return hostUuids;
+    }
+
+    public void setHostUuids(List<String> hostUuids) {
+        this.hostUuids = hostUuids;
+    }
+
+    @Override
+    public String getPrimaryStorageUuid() {
+        return uuid;
+    }
+ 
+    public static APIPrewarmImageCacheOnPrimaryStorageMsg __example__() {
+        APIPrewarmImageCacheOnPrimaryStorageMsg msg = new APIPrewarmImageCacheOnPrimaryStorageMsg();
+
+        msg.setUuid(uuid());
+        msg.setImageUuids(list(uuid()));
+        msg.setHostUuids(list(uuid(), uuid()));
+
+        return msg;
+    }
+
+    public ApiNotification __notification__() {
+        APIMessage that = this;
+
+        return new ApiNotification() {
+            @Override
+            public void after(APIEvent evt) {
+                if (evt.isSuccess()) {
+                    ntfy("Prewarmed image cache").resource(uuid, PrimaryStorageVO.class.getSimpleName())
+                            .messageAndEvent(that, evt).done();
+                }
+            }
+        };
+    }
+
+}
@@ -0,0 +1,82 @@
+package org.zstack.header.storage.primary
+
+import org.zstack.header.storage.primary.APIPrewarmImageCacheOnPrimaryStorageEvent
+
+doc {
+    title "预热主存储镜像缓存(PrewarmImageCacheOnPrimaryStorage)"
+
+    category "storage.primary"
+
+    desc """预先下载镜像到主存储的镜像缓存。对于本地存储，镜像被并行下载到指定的物理机，未指定时下载到该主存储所有已连接的物理机"""
+
+    rest {
+        request {
+			url "PUT /v1/primary-storage/{uuid}/actions"
+
+			header (Authorization: 'OAuth the-session-uuid')
+
+
+            clz APIPrewarmImageCacheOnPrimaryStorageMsg.class
+
+            desc """"""
+            
+			params {
+
+				column {
+					name "uuid"
+					enclosedIn "prewarmImageCacheOnPrimaryStorage"
+					desc "主存储的UUID，唯一标示该资源"
+					location "url"
+					type "String"
+					optional false
+					since "0.6"
+					
+				}
+				column {
+					name "imageUuids"
+					enclosedIn "prewarmImageCacheOnPrimaryStorage"
+					desc "镜像的UUID列表"
+					location "body"
+					type "List"
+					optional false
+					since "2.2.3"
+					
+				}
+				column {
+					name "hostUuids"
+					enclosedIn "prewarmImageCacheOnPrimaryStorage"
+					desc "物理机的UUID列表，仅用于本地存储"
+					location "body"
+					type "List"
+					optional true
+					since "2.2.3"
+					
+				}
+				column {
+					name "systemTags"
+					enclosedIn ""
+					desc "系统标签"
+					location "body"
+					type "List"
+					optional true
+					since "0.6"
+					
+				}
+				column {
+					name "userTags"
+					enclosedIn ""
+					desc "用户标签"
+					location "body"
+					type "List"
+					optional true
+					since "0.6"
+					
+				}
+			}
+        }
+
+        response {
+            clz APIPrewarmImageCacheOnPrimaryStorageEvent.class
+        }
+    }
+}
\ No newline at end of file
@@ -10,6 +10,8 @@ public class ImageCacheInventory {
     private long size;
     private String md5sum;
     private String state;
+    private Timestamp lastAccessDate;
+    private long hitCount;
     private Timestamp createDate;
     private Timestamp lastOpDate;
 
@@ -24,6 +26,8 @@ public class ImageCacheInventory {
         inv.setPrimaryStorageUuid(vo.getPrimaryStorageUuid());
         inv.setSize(vo.getSize());
         inv.setState(vo.getState().toString());
+        inv.setLastAccessDate(vo.getLastAccessDate());
+        inv.setHitCount(vo.getHitCount());
         return inv;
     }
 
@@ -75,6 +79,22 @@ public class ImageCacheInventory {
         this.md5sum = md5sum;
     }
 
+    public Timestamp getLastAccessDate() {
+        return lastAccessDate;
+    }
+
+    public void setLastAccessDate(Timestamp lastAccessDate) {
+        this.lastAccessDate = lastAccessDate;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public void setHitCount(long hitCount) {
+        this.hitCount = hitCount;
+    }
+
     public Timestamp getCreateDate() {
         return createDate;
     }
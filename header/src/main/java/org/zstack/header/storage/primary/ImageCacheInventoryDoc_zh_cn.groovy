@@ -0,0 +1,77 @@
+package org.zstack.header.storage.primary
+
+import java.sql.Timestamp
+import java.sql.Timestamp
+import java.sql.Timestamp
+
+doc {
+
+	title "镜像缓存清单"
+
+	field {
+		name "id"
+		desc "镜像缓存的ID"
+		type "long"
+		since "0.6"
+	}
+	field {
+		name "primaryStorageUuid"
+		desc "主存储UUID"
+		type "String"
+		since "0.6"
+	}
+	field {
+		name "imageUuid"
+		desc "镜像UUID"
+		type "String"
+		since "0.6"
+	}
+	field {
+		name "installUrl"
+		desc "镜像缓存在主存储上的路径"
+		type "String"
+		since "0.6"
+	}
+	field {
+		name "size"
+		desc "镜像缓存的大小"
+		type "long"
+		since "0.6"
+	}
+	field {
+		name "md5sum"
+		desc ""
+		type "String"
+		since "0.6"
+	}
+	field {
+		name "state"
+		desc "镜像缓存的状态"
+		type "String"
+		since "0.6"
+	}
+	field {
+		name "lastAccessDate"
+		desc "最后一次命中时间"
+		type "Timestamp"
+		since "2.2.3"
+	}
+	field {
+		name "hitCount"
+		desc "命中次数"
+		type "long"
+		since "2.2.3"
+	}
+	field {
+		name "createDate"
+		desc "创建时间"
+		type "Timestamp"
+		since "0.6"
+	}
+	field {
+		name "lastOpDate"
+		desc "最后一次修改时间"
+		type "Timestamp"
+		since "0.6"
+	}
+}
\ No newline at end of file
@@ -178,8 +178,9 @@ public class VolumeSnapshotTree {
         private VolumeSnapshotInventory inventory;
         private SnapshotLeaf parent;
         private List<SnapshotLeaf> children = new ArrayList<SnapshotLeaf>();
-        private List<VolumeSnapshotInventory> descendants;
-        private List<VolumeSnapshotInventory> ancestors;
+        // memoized, assigned only when complete
+        private volatile List<VolumeSnapshotInventory> descendants;
+        private volatile List<VolumeSnapshotInventory> ancestors;
 
         public VolumeSnapshotInventory getInventory() {
             return inventory;
@@ -271,36 +272,40 @@ public class VolumeSnapshotTree {
         }
 
         public List<VolumeSnapshotInventory> getDescendants() {
-            if (descendants == null) {
-                descendants = new ArrayList<VolumeSnapshotInventory>();
+            List<VolumeSnapshotInventory> ret = descendants;
+            if (ret == null) {
+                final List<VolumeSnapshotInventory> invs = new ArrayList<VolumeSnapshotInventory>();
                 walkDown(new Function<Boolean, VolumeSnapshotInventory>() {
                     @Override
                     public Boolean call(VolumeSnapshotInventory arg) {
-                        descendants.add(arg);
+                        invs.add(arg);
                         return false;
                     }
                 });
+                descendants = ret = invs;
             }
 
-            return descendants;
+            return ret;
         }
 
 
         public List<VolumeSnapshotInventory> getAncestors() {
-            if (ancestors == null) {
-                ancestors = new ArrayList<VolumeSnapshotInventory>();
+            List<VolumeSnapshotInventory> ret = ancestors;
+            if (ret == null) {
+                final List<VolumeSnapshotInventory> invs = new ArrayList<VolumeSnapshotInventory>();
                 walkUp(new Function<Boolean, VolumeSnapshotInventory>() {
                     @Override
                     public Boolean call(VolumeSnapshotInventory arg) {
-                        ancestors.add(arg);
+                        invs.add(arg);
                         return false;
                     }
                 });
 
-                Collections.reverse(ancestors);
+                Collections.reverse(invs);
+                ancestors = ret = invs;
             }
 
-            return ancestors;
+            return ret;
         }
 
         public SnapshotLeafInventory toLeafInventory() {
@@ -320,10 +325,11 @@ public class VolumeSnapshotTree {
 
     private SnapshotLeaf root;
     private String volumeUuid;
+    private volatile Map<String, SnapshotLeaf> leafs;
 
-    public static VolumeSnapshotTree fromInventories(List<VolumeSnapshotInventory> invs) {
+    public static VolumeSnapshotTree fromInventories(Collection<VolumeSnapshotInventory> invs) {
         VolumeSnapshotTree tree = new VolumeSnapshotTree();
-        Map<String, SnapshotLeaf> map = new HashMap<String, SnapshotLeaf>();
+        Map<String, SnapshotLeaf> map = new HashMap<String, SnapshotLeaf>(invs.size() * 2);
         for (VolumeSnapshotInventory inv : invs) {
             SnapshotLeaf leaf = map.get(inv.getUuid());
             if (leaf == null) {
@@ -365,6 +371,7 @@ public class VolumeSnapshotTree {
 
     public void setRoot(SnapshotLeaf root) {
         this.root = root;
+        this.leafs = null;
     }
 
     public String getVolumeUuid() {
@@ -390,6 +397,29 @@ public class VolumeSnapshotTree {
         return null;
     }
 
+    /**
+     * finds the snapshot by the uuid index of the tree, the index is built by walking the tree once
+     * and is not updated if the tree is changed afterwards
+     */
+    public SnapshotLeaf findSnapshotByUuid(String uuid) {
+        Map<String, SnapshotLeaf> index = leafs;
+        if (index == null) {
+            index = new HashMap<String, SnapshotLeaf>();
+            // walk without recursion, a chain of scheduled snapshots can be very deep
+            Deque<SnapshotLeaf> leafsToIndex = new ArrayDeque<SnapshotLeaf>();
+            leafsToIndex.push(root);
+            while (!leafsToIndex.isEmpty()) {
+                SnapshotLeaf leaf = leafsToIndex.pop();
+                index.put(leaf.getUuid(), leaf);
+                leaf.children.forEach(leafsToIndex::push);
+            }
+            // publish the index only when it's complete, a cached tree is read by several threads
+            leafs = index;
+        }
+
+        return index.get(uuid);
+    }
+
     public SnapshotLeaf findSnapshot(Function<Boolean, VolumeSnapshotInventory> func) {
         if (func.call(root.getInventory())) {
             return root;
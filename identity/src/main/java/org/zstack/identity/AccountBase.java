@@ -24,6 +24,7 @@ import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.errorcode.OperationFailureException;
 import org.zstack.header.identity.*;
 import org.zstack.header.identity.IdentityCanonicalEvents.AccountDeletedData;
+import org.zstack.header.identity.IdentityCanonicalEvents.PolicyChangedData;
 import org.zstack.header.identity.IdentityCanonicalEvents.UserDeletedData;
 import org.zstack.header.message.APIDeleteMessage.DeletionMode;
 import org.zstack.header.message.APIMessage;
@@ -318,20 +319,41 @@ public class AccountBase extends AbstractAccount {
         bus.publish(evt);
     }
 
-    @Transactional
+    private void firePolicyChangedEvent(String userUuid, String groupUuid, String policyUuid) {
+        PolicyChangedData d = new PolicyChangedData();
+        d.setUserUuid(userUuid);
+        d.setGroupUuid(groupUuid);
+        d.setPolicyUuid(policyUuid);
+        evtf.fire(IdentityCanonicalEvents.POLICY_CHANGED_PATH, d);
+    }
+
     private void handle(APIDetachPoliciesFromUserMsg msg) {
+        detachPoliciesFromUser(msg);
+        firePolicyChangedEvent(msg.getUserUuid(), null, null);
+
+        APIDetachPoliciesFromUserEvent evt = new APIDetachPoliciesFromUserEvent(msg.getId());
+        bus.publish(evt);
+    }
+
+    @Transactional
+    private void detachPoliciesFromUser(APIDetachPoliciesFromUserMsg msg) {
         String sql = "delete from UserPolicyRefVO ref where ref.policyUuid in (:puuids) and ref.userUuid = :userUuid";
         Query q = dbf.getEntityManager().createQuery(sql);
         q.setParameter("puuids", msg.getPolicyUuids());
         q.setParameter("userUuid", msg.getUserUuid());
         q.executeUpdate();
+    }
 
-        APIDetachPoliciesFromUserEvent evt = new APIDetachPoliciesFromUserEvent(msg.getId());
+    private void handle(APIAttachPoliciesToUserMsg msg) {
+        attachPoliciesToUser(msg);
+        firePolicyChangedEvent(msg.getUserUuid(), null, null);
+
+        APIAttachPoliciesToUserEvent evt = new APIAttachPoliciesToUserEvent(msg.getId());
         bus.publish(evt);
     }
 
     @Transactional
-    private void handle(APIAttachPoliciesToUserMsg msg) {
+    private void attachPoliciesToUser(APIAttachPoliciesToUserMsg msg) {
         for (String puuid : msg.getPolicyUuids()) {
             try {
                 UserPolicyRefVO refVO = new UserPolicyRefVO();
@@ -347,9 +369,6 @@ public class AccountBase extends AbstractAccount {
                 // the policy is already attached
             }
         }
-
-        APIAttachPoliciesToUserEvent evt = new APIAttachPoliciesToUserEvent(msg.getId());
-        bus.publish(evt);
     }
 
     private void handle(APIGetAccountQuotaUsageMsg msg) {
@@ -553,6 +572,8 @@ public class AccountBase extends AbstractAccount {
         }
         if (update) {
             user = dbf.updateAndRefresh(user);
+            // the user name is cached with the policies
+            firePolicyChangedEvent(user.getUuid(), null, null);
         }
 
         APIUpdateUserEvent evt = new APIUpdateUserEvent(msg.getId());
@@ -567,6 +588,7 @@ public class AccountBase extends AbstractAccount {
         UserGroupUserRefVO ref = q.find();
         if (ref != null) {
             dbf.remove(ref);
+            firePolicyChangedEvent(msg.getUserUuid(), null, null);
         }
 
         bus.publish(new APIRemoveUserFromGroupEvent(msg.getId()));
@@ -579,6 +601,7 @@ public class AccountBase extends AbstractAccount {
         UserGroupPolicyRefVO ref = q.find();
         if (ref != null) {
             dbf.remove(ref);
+            firePolicyChangedEvent(null, msg.getGroupUuid(), null);
         }
 
         bus.publish(new APIDetachPolicyFromUserGroupEvent(msg.getId()));
@@ -591,6 +614,7 @@ public class AccountBase extends AbstractAccount {
         UserPolicyRefVO ref = q.find();
         if (ref != null) {
             dbf.remove(ref);
+            firePolicyChangedEvent(msg.getUserUuid(), null, null);
         }
 
         bus.publish(new APIDetachPolicyFromUserEvent(msg.getId()));
@@ -598,6 +622,7 @@ public class AccountBase extends AbstractAccount {
 
     private void handle(APIDeletePolicyMsg msg) {
         dbf.removeByPrimaryKey(msg.getUuid(), PolicyVO.class);
+        firePolicyChangedEvent(null, null, msg.getUuid());
         APIDeletePolicyEvent evt = new APIDeletePolicyEvent(msg.getId());
         bus.publish(evt);
     }
@@ -620,6 +645,7 @@ public class AccountBase extends AbstractAccount {
 
     private void handle(APIDeleteUserGroupMsg msg) {
         dbf.removeByPrimaryKey(msg.getUuid(), UserGroupVO.class);
+        firePolicyChangedEvent(null, msg.getUuid(), null);
         APIDeleteUserGroupEvent evt = new APIDeleteUserGroupEvent(msg.getId());
         bus.publish(evt);
     }
@@ -629,6 +655,7 @@ public class AccountBase extends AbstractAccount {
         ugvo.setGroupUuid(msg.getGroupUuid());
         ugvo.setUserUuid(msg.getUserUuid());
         dbf.persist(ugvo);
+        firePolicyChangedEvent(msg.getUserUuid(), null, null);
         APIAddUserToGroupEvent evt = new APIAddUserToGroupEvent(msg.getId());
         bus.publish(evt);
     }
@@ -647,6 +674,7 @@ public class AccountBase extends AbstractAccount {
 
             // the policy is already attached
         }
+        firePolicyChangedEvent(null, msg.getGroupUuid(), null);
 
         APIAttachPolicyToUserGroupEvent evt = new APIAttachPolicyToUserGroupEvent(msg.getId());
         bus.publish(evt);
@@ -693,6 +721,7 @@ public class AccountBase extends AbstractAccount {
 
             // the policy is already attached
         }
+        firePolicyChangedEvent(msg.getUserUuid(), null, null);
 
         APIAttachPolicyToUserEvent evt = new APIAttachPolicyToUserEvent(msg.getId());
         bus.publish(evt);
@@ -0,0 +1,392 @@
+package org.zstack.identity;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.Q;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.header.Component;
+import org.zstack.header.identity.*;
+import org.zstack.header.identity.AccountConstant.StatementEffect;
+import org.zstack.header.identity.IdentityCanonicalEvents.PolicyChangedData;
+import org.zstack.header.identity.IdentityCanonicalEvents.UserDeletedData;
+import org.zstack.header.identity.PolicyInventory.Statement;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.TypedQuery;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Decides whether a user is allowed to call an API by the user's policies and then the policies of the
+ * user's groups, the first statement action matching an action of the API decides.
+ *
+ * The statements of a policy are compiled once, actions without regular expression characters and actions
+ * ending with '.*' are put into a prefix trie, only the others are matched as regular expressions. The
+ * compiled policies and the name of a user are cached per user, and dropped when the canonical events tell
+ * the policies of the user, the user's groups, or the policies themselves changed.
+ */
+public class PolicyDecisionEngine implements Component, PolicyDecisionEngineMXBean {
+    private static final CLogger logger = Utils.getLogger(PolicyDecisionEngine.class);
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private EventFacade evtf;
+    @Autowired
+    private JmxFacade jmxf;
+
+    private static final int NO_RULE = Integer.MAX_VALUE;
+    private static final String REGEX_CHARS = "\\^$.|?*+()[]{}";
+
+    public static class Rule {
+        private final PolicyInventory policy;
+        private final Statement statement;
+        private final String actionRule;
+        private Pattern pattern;
+        private PatternSyntaxException error;
+
+        Rule(PolicyInventory policy, Statement statement, String actionRule) {
+            this.policy = policy;
+            this.statement = statement;
+            this.actionRule = actionRule;
+        }
+
+        boolean matches(String action) {
+            if (error != null) {
+                throw error;
+            }
+
+            return pattern.matcher(action).matches();
+        }
+
+        public PolicyInventory getPolicy() {
+            return policy;
+        }
+
+        public Statement getStatement() {
+            return statement;
+        }
+
+        public String getActionRule() {
+            return actionRule;
+        }
+    }
+
+    private static class TrieNode {
+        Map<Character, TrieNode> children;
+        // the lowest index of rules equal to the path of the node
+        int exact = NO_RULE;
+        // the lowest index of rules composed of the path of the node and '.*'
+        int prefix = NO_RULE;
+
+        TrieNode child(char c) {
+            if (children == null) {
+                children = new HashMap<>();
+            }
+
+            return children.computeIfAbsent(c, k -> new TrieNode());
+        }
+    }
+
+    private static boolean isLiteral(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (REGEX_CHARS.indexOf(s.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * the statement actions of a list of policies, matched in the order they appear in the policies
+     */
+    public static class CompiledPolicies {
+        private static final Rule NOT_MATCHED = new Rule(null, null, null);
+
+        private final List<Rule> rules = new ArrayList<>();
+        private final TrieNode root = new TrieNode();
+        private final List<Integer> regexRules = new ArrayList<>();
+        // APIs have a few fixed actions, remember the results of them
+        private final Map<String, Rule> matched = new ConcurrentHashMap<>();
+
+        public CompiledPolicies(List<PolicyInventory> policies) {
+            for (PolicyInventory p : policies) {
+                for (Statement s : p.getStatements()) {
+                    for (String ac : s.getActions()) {
+                        add(new Rule(p, s, ac));
+                    }
+                }
+            }
+        }
+
+        private void add(Rule rule) {
+            int index = rules.size();
+            rules.add(rule);
+
+            String ac = rule.actionRule;
+            boolean prefix = ac.endsWith(".*") && isLiteral(ac.substring(0, ac.length() - 2));
+            if (!prefix && !isLiteral(ac)) {
+                try {
+                    rule.pattern = Pattern.compile(ac);
+                } catch (PatternSyntaxException e) {
+                    // fail the API reaching the rule like matching it without compiling does
+                    rule.error = e;
+                }
+                regexRules.add(index);
+                return;
+            }
+
+            String path = prefix ? ac.substring(0, ac.length() - 2) : ac;
+            TrieNode node = root;
+            for (int i = 0; i < path.length(); i++) {
+                node = node.child(path.charAt(i));
+            }
+
+            if (prefix) {
+                node.prefix = Math.min(node.prefix, index);
+            } else {
+                node.exact = Math.min(node.exact, index);
+            }
+        }
+
+        /**
+         * @return the first rule matching the action, or null if no rule matches
+         */
+        public Rule match(String action) {
+            Rule rule = matched.get(action);
+            if (rule == null) {
+                rule = doMatch(action);
+                matched.put(action, rule == null ? NOT_MATCHED : rule);
+            }
+
+            return rule == NOT_MATCHED ? null : rule;
+        }
+
+        private Rule doMatch(String action) {
+            int best = NO_RULE;
+            TrieNode node = root;
+            for (int i = 0; node != null; i++) {
+                best = Math.min(best, node.prefix);
+                if (i == action.length()) {
+                    best = Math.min(best, node.exact);
+                    break;
+                }
+
+                node = node.children == null ? null : node.children.get(action.charAt(i));
+            }
+
+            for (int index : regexRules) {
+                if (index > best) {
+                    break;
+                }
+
+                if (rules.get(index).matches(action)) {
+                    best = index;
+                    break;
+                }
+            }
+
+            return best == NO_RULE ? null : rules.get(best);
+        }
+
+        public int getRuleNum() {
+            return rules.size();
+        }
+    }
+
+    private static class UserPolicies {
+        String userName;
+        CompiledPolicies userPolicies;
+        CompiledPolicies groupPolicies;
+    }
+
+    public static class Decision {
+        String userName;
+        boolean userPolicy;
+        String action;
+        Rule rule;
+
+        public String getUserName() {
+            return userName;
+        }
+
+        public boolean isUserPolicy() {
+            return userPolicy;
+        }
+
+        public String getAction() {
+            return action;
+        }
+
+        public PolicyInventory getPolicy() {
+            return rule == null ? null : rule.getPolicy();
+        }
+
+        public Statement getStatement() {
+            return rule == null ? null : rule.getStatement();
+        }
+
+        public String getActionRule() {
+            return rule == null ? null : rule.getActionRule();
+        }
+
+        /**
+         * @return null if no policy is set for the actions
+         */
+        public StatementEffect getEffect() {
+            return rule == null ? null : rule.getStatement().getEffect();
+        }
+    }
+
+    private final Map<String, UserPolicies> users = new ConcurrentHashMap<>();
+    // bumped on every invalidation, policies loaded across an invalidation are not cached
+    private final AtomicLong version = new AtomicLong();
+
+    private final AtomicLong decisionNum = new AtomicLong();
+    private final AtomicLong decisionTime = new AtomicLong();
+    private final AtomicLong cacheHitNum = new AtomicLong();
+    private final AtomicLong cacheMissNum = new AtomicLong();
+
+    public Decision decide(String userUuid, List<String> actions) {
+        long start = System.nanoTime();
+        try {
+            UserPolicies up = getUserPolicies(userUuid);
+
+            Decision d = new Decision();
+            d.userName = up.userName;
+            if (match(d, up.userPolicies, actions)) {
+                d.userPolicy = true;
+            } else {
+                match(d, up.groupPolicies, actions);
+            }
+
+            return d;
+        } finally {
+            decisionNum.incrementAndGet();
+            decisionTime.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private boolean match(Decision d, CompiledPolicies policies, List<String> actions) {
+        for (String a : actions) {
+            Rule rule = policies.match(a);
+            if (rule != null) {
+                d.action = a;
+                d.rule = rule;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private UserPolicies getUserPolicies(String userUuid) {
+        UserPolicies up = users.get(userUuid);
+        if (up != null) {
+            cacheHitNum.incrementAndGet();
+            return up;
+        }
+
+        cacheMissNum.incrementAndGet();
+        long v = version.get();
+        up = new UserPolicies();
+        up.userName = Q.New(UserVO.class).select(UserVO_.name).eq(UserVO_.uuid, userUuid).findValue();
+        up.userPolicies = new CompiledPolicies(loadUserPolicies(userUuid));
+        up.groupPolicies = new CompiledPolicies(loadGroupPolicies(userUuid));
+
+        synchronized (users) {
+            if (version.get() == v) {
+                users.put(userUuid, up);
+            }
+        }
+
+        return up;
+    }
+
+    @Transactional(readOnly = true)
+    protected List<PolicyInventory> loadUserPolicies(String userUuid) {
+        String sql = "select p from PolicyVO p, UserPolicyRefVO ref where ref.userUuid = :uuid and ref.policyUuid = p.uuid";
+        TypedQuery<PolicyVO> q = dbf.getEntityManager().createQuery(sql, PolicyVO.class);
+        q.setParameter("uuid", userUuid);
+        return PolicyInventory.valueOf(q.getResultList());
+    }
+
+    @Transactional(readOnly = true)
+    protected List<PolicyInventory> loadGroupPolicies(String userUuid) {
+        String sql = "select p" +
+                " from PolicyVO p, UserGroupUserRefVO ref, UserGroupPolicyRefVO gref" +
+                " where p.uuid = gref.policyUuid" +
+                " and gref.groupUuid = ref.groupUuid" +
+                " and ref.userUuid = :uuid";
+        TypedQuery<PolicyVO> q = dbf.getEntityManager().createQuery(sql, PolicyVO.class);
+        q.setParameter("uuid", userUuid);
+        return PolicyInventory.valueOf(q.getResultList());
+    }
+
+    public void invalidate(String userUuid) {
+        synchronized (users) {
+            version.incrementAndGet();
+            if (userUuid == null) {
+                users.clear();
+            } else {
+                users.remove(userUuid);
+            }
+        }
+    }
+
+    private void setupCanonicalEvents() {
+        evtf.on(IdentityCanonicalEvents.POLICY_CHANGED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                PolicyChangedData d = (PolicyChangedData) data;
+                // a group or a policy may be referred by many users, drop all
+                invalidate(d.getGroupUuid() == null && d.getPolicyUuid() == null ? d.getUserUuid() : null);
+            }
+        });
+
+        evtf.on(IdentityCanonicalEvents.USER_DELETED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                invalidate(((UserDeletedData) data).getUserUuid());
+            }
+        });
+
+        evtf.on(IdentityCanonicalEvents.ACCOUNT_DELETED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                invalidate(null);
+            }
+        });
+    }
+
+    @Override
+    public boolean start() {
+        setupCanonicalEvents();
+        jmxf.registerBean("PolicyDecisionEngine", this);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+
+    @Override
+    public PolicyDecisionStatistic getPolicyDecisionStatistic() {
+        long num = decisionNum.get();
+        long hit = cacheHitNum.get();
+        long miss = cacheMissNum.get();
+        return new PolicyDecisionStatistic(users.size(), num,
+                num == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(decisionTime.get() / num),
+                hit, miss, hit + miss == 0 ? 0 : (double) hit / (hit + miss));
+    }
+}
@@ -0,0 +1,7 @@
+package org.zstack.identity;
+
+/**
+ */
+public interface PolicyDecisionEngineMXBean {
+    PolicyDecisionStatistic getPolicyDecisionStatistic();
+}
@@ -0,0 +1,50 @@
+package org.zstack.identity;
+
+import java.beans.ConstructorProperties;
+
+/**
+ */
+public class PolicyDecisionStatistic {
+    private int cachedUserNum;
+    private long decisionNum;
+    private long averageDecisionTimeInMicros;
+    private long cacheHitNum;
+    private long cacheMissNum;
+    private double cacheHitRate;
+
+    @ConstructorProperties({"cachedUserNum", "decisionNum", "averageDecisionTimeInMicros", "cacheHitNum", "cacheMissNum",
+            "cacheHitRate"})
+    public PolicyDecisionStatistic(int cachedUserNum, long decisionNum, long averageDecisionTimeInMicros,
+                                   long cacheHitNum, long cacheMissNum, double cacheHitRate) {
+        this.cachedUserNum = cachedUserNum;
+        this.decisionNum = decisionNum;
+        this.averageDecisionTimeInMicros = averageDecisionTimeInMicros;
+        this.cacheHitNum = cacheHitNum;
+        this.cacheMissNum = cacheMissNum;
+        this.cacheHitRate = cacheHitRate;
+    }
+
+    public int getCachedUserNum() {
+        return cachedUserNum;
+    }
+
+    public long getDecisionNum() {
+        return decisionNum;
+    }
+
+    public long getAverageDecisionTimeInMicros() {
+        return averageDecisionTimeInMicros;
+    }
+
+    public long getCacheHitNum() {
+        return cacheHitNum;
+    }
+
+    public long getCacheMissNum() {
+        return cacheMissNum;
+    }
+
+    public double getCacheHitRate() {
+        return cacheHitRate;
+    }
+}
@@ -0,0 +1,24 @@
+package org.zstack.network.l3;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.header.network.l3.*;
+
+/**
+ * Allocates the first available IP from the bitmaps kept by BitmapIpAllocatorStrategy
+ */
+public class BitmapFirstAvailableIpAllocatorStrategy implements IpAllocatorStrategy {
+    public static final IpAllocatorType type = new IpAllocatorType(L3NetworkConstant.BITMAP_FIRST_AVAILABLE_IP_ALLOCATOR_STRATEGY);
+
+    @Autowired
+    private BitmapIpAllocatorStrategy bitmapStrategy;
+
+    @Override
+    public IpAllocatorType getType() {
+        return type;
+    }
+
+    @Override
+    public UsedIpInventory allocateIp(IpAllocateMessage msg) {
+        return bitmapStrategy.allocateIp(msg, false);
+    }
+}
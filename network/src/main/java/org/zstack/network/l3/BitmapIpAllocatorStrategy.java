@@ -0,0 +1,271 @@
+package org.zstack.network.l3;
+
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.managementnode.ManagementNodeChangeListener;
+import org.zstack.header.network.l3.*;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.network.NetworkUtils;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocates IPs from a bitmap of used IPs kept in memory for each ip range.
+ *
+ * IP allocation messages are routed to the management node owning the l3 network by
+ * consistent hash, so the bitmaps of an ip range are only kept on one node. A bitmap is
+ * lazily built from UsedIpVO on the first allocation and then updated when an IP is reserved
+ * or returned, finding a free IP costs a scan of the bitmap words instead of SQL queries.
+ *
+ * The database is still the source of truth, an IP marked free but reserved by others is
+ * marked used once reserveIp() fails on the unique key; an IP marked used but freed without
+ * returning through the l3 network is found back when the bitmap is rebuilt after the range
+ * looks full, at most once every REBUILD_INTERVAL so allocations from a full range don't load
+ * all its used IPs each time.
+ *
+ * IPs are allocated randomly like RandomIpAllocatorStrategy does, see
+ * BitmapFirstAvailableIpAllocatorStrategy for allocating the first available IP.
+ */
+public class BitmapIpAllocatorStrategy extends AbstractIpAllocatorStrategy implements IpRangeDeletionExtensionPoint,
+        ManagementNodeChangeListener {
+    private static final CLogger logger = Utils.getLogger(BitmapIpAllocatorStrategy.class);
+    public static final IpAllocatorType type = new IpAllocatorType(L3NetworkConstant.BITMAP_IP_ALLOCATOR_STRATEGY);
+
+    private static final long REBUILD_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+    private final Map<String, RangeBitmap> bitmaps = new ConcurrentHashMap<>();
+
+    private class RangeBitmap {
+        final String ipRangeUuid;
+        final long startIp;
+        final long endIp;
+        final int total;
+        BitSet used;
+        int usedNum;
+        // no free IP below it, so first-available allocation doesn't rescan the head of the range
+        int lowestFree;
+        long lastRebuildTime;
+
+        RangeBitmap(IpRangeVO vo) {
+            ipRangeUuid = vo.getUuid();
+            startIp = NetworkUtils.ipv4StringToLong(vo.getStartIp());
+            endIp = NetworkUtils.ipv4StringToLong(vo.getEndIp());
+            total = (int) (endIp - startIp + 1);
+        }
+
+        boolean isSameRange(IpRangeVO vo) {
+            return startIp == NetworkUtils.ipv4StringToLong(vo.getStartIp()) && endIp == NetworkUtils.ipv4StringToLong(vo.getEndIp());
+        }
+
+        void rebuild() {
+            BitSet bits = new BitSet(total);
+            int num = 0;
+            for (long ip : l3NwMgr.getUsedIpInRange(ipRangeUuid)) {
+                if (ip >= startIp && ip <= endIp && !bits.get((int) (ip - startIp))) {
+                    bits.set((int) (ip - startIp));
+                    num++;
+                }
+            }
+
+            used = bits;
+            usedNum = num;
+            lowestFree = bits.nextClearBit(0);
+            lastRebuildTime = System.currentTimeMillis();
+        }
+
+        private int findFree(boolean random) {
+            if (!random) {
+                int i = used.nextClearBit(lowestFree);
+                lowestFree = i;
+                return i < total ? i : -1;
+            }
+
+            int i = used.nextClearBit(ThreadLocalRandom.current().nextInt(total));
+            if (i >= total) {
+                i = used.nextClearBit(lowestFree);
+                lowestFree = i;
+            }
+            return i < total ? i : -1;
+        }
+
+        // marks the IP used before reserving it in database so concurrent allocations
+        // never pick the same one, returns -1 if the range is full
+        synchronized int acquire(boolean random) {
+            if (used == null) {
+                rebuild();
+            }
+
+            int i = usedNum < total ? findFree(random) : -1;
+            if (i < 0) {
+                if (System.currentTimeMillis() - lastRebuildTime < REBUILD_INTERVAL) {
+                    return -1;
+                }
+
+                // IPs may have been released without going through the l3 network
+                rebuild();
+                i = usedNum < total ? findFree(random) : -1;
+                if (i < 0) {
+                    return -1;
+                }
+            }
+
+            used.set(i);
+            usedNum++;
+            return i;
+        }
+
+        synchronized void markUsed(long ip) {
+            if (used == null || ip < startIp || ip > endIp) {
+                return;
+            }
+
+            int i = (int) (ip - startIp);
+            if (!used.get(i)) {
+                used.set(i);
+                usedNum++;
+            }
+        }
+
+        synchronized void release(long ip) {
+            if (used == null || ip < startIp || ip > endIp) {
+                return;
+            }
+
+            int i = (int) (ip - startIp);
+            if (used.get(i)) {
+                used.clear(i);
+                usedNum--;
+                lowestFree = Math.min(lowestFree, i);
+            }
+        }
+    }
+
+    @Override
+    public IpAllocatorType getType() {
+        return type;
+    }
+
+    private RangeBitmap getBitmap(IpRangeVO vo) {
+        RangeBitmap bitmap = bitmaps.computeIfAbsent(vo.getUuid(), k -> new RangeBitmap(vo));
+        if (!bitmap.isSameRange(vo)) {
+            RangeBitmap nb = new RangeBitmap(vo);
+            bitmaps.put(vo.getUuid(), nb);
+            bitmap = nb;
+        }
+
+        return bitmap;
+    }
+
+    private UsedIpInventory allocateIp(IpRangeVO vo, boolean random) {
+        RangeBitmap bitmap = getBitmap(vo);
+        IpRangeInventory inv = IpRangeInventory.valueOf(vo);
+
+        while (true) {
+            int i = bitmap.acquire(random);
+            if (i < 0) {
+                logger.debug(String.format("ip range[uuid:%s] has no ip available, try next one", vo.getUuid()));
+                return null;
+            }
+
+            long ip = bitmap.startIp + i;
+            UsedIpInventory ret;
+            try {
+                ret = l3NwMgr.reserveIp(inv, NetworkUtils.longToIpv4String(ip));
+            } catch (RuntimeException e) {
+                bitmap.release(ip);
+                throw e;
+            }
+
+            if (ret != null) {
+                return ret;
+            }
+
+            // the IP was reserved by others, leave it marked as used and try another one
+        }
+    }
+
+    @Override
+    public UsedIpInventory allocateIp(IpAllocateMessage msg) {
+        return allocateIp(msg, true);
+    }
+
+    UsedIpInventory allocateIp(IpAllocateMessage msg, boolean random) {
+        if (msg.getRequiredIp() != null) {
+            UsedIpInventory inv = allocateRequiredIp(msg);
+            RangeBitmap bitmap = inv == null ? null : bitmaps.get(inv.getIpRangeUuid());
+            if (bitmap != null) {
+                bitmap.markUsed(inv.getIpInLong());
+            }
+            return inv;
+        }
+
+        SimpleQuery<IpRangeVO> query = dbf.createQuery(IpRangeVO.class);
+        query.add(IpRangeVO_.l3NetworkUuid, Op.EQ, msg.getL3NetworkUuid());
+        List<IpRangeVO> ranges = query.list();
+
+        if (random) {
+            Collections.shuffle(ranges);
+        }
+
+        for (IpRangeVO r : ranges) {
+            UsedIpInventory inv = allocateIp(r, random);
+            if (inv != null) {
+                return inv;
+            }
+        }
+
+        return null;
+    }
+
+    public void returnIp(String ipRangeUuid, long ipInLong) {
+        RangeBitmap bitmap = bitmaps.get(ipRangeUuid);
+        if (bitmap != null) {
+            bitmap.release(ipInLong);
+        }
+    }
+
+    @Override
+    public void preDeleteIpRange(IpRangeInventory ipRange) {
+    }
+
+    @Override
+    public void beforeDeleteIpRange(IpRangeInventory ipRange) {
+    }
+
+    @Override
+    public void afterDeleteIpRange(IpRangeInventory ipRange) {
+        bitmaps.remove(ipRange.getUuid());
+    }
+
+    @Override
+    public void failedToDeleteIpRange(IpRangeInventory ipRange, ErrorCode errorCode) {
+    }
+
+    // the ownership of l3 networks moves when management nodes change, the bitmaps
+    // built before may miss the IPs allocated on other nodes meanwhile
+    @Override
+    public void nodeJoin(String nodeId) {
+        bitmaps.clear();
+    }
+
+    @Override
+    public void nodeLeft(String nodeId) {
+        bitmaps.clear();
+    }
+
+    @Override
+    public void iAmDead(String nodeId) {
+    }
+
+    @Override
+    public void iJoin(String nodeId) {
+    }
+}
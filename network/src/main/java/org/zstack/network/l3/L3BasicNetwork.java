@@ -72,6 +72,8 @@ public class L3BasicNetwork implements L3Network {
     protected PluginRegistry pluginRgty;
     @Autowired
     private ThreadFacade thdf;
+    @Autowired
+    private BitmapIpAllocatorStrategy bitmapIpAllocator;
 
     private L3NetworkVO self;
 
@@ -227,6 +229,8 @@ public class L3BasicNetwork implements L3Network {
 
     private void handle(ReturnIpMsg msg) {
         ReturnIpReply reply = new ReturnIpReply();
+        Tuple t = Q.New(UsedIpVO.class).select(UsedIpVO_.ipRangeUuid, UsedIpVO_.ipInLong)
+                .eq(UsedIpVO_.uuid, msg.getUsedIpUuid()).findTuple();
         new Retry<Void>() {
             String __name__ = String.format("return-ip-%s-for-l3-%s", msg.getUsedIpUuid(), msg.getL3NetworkUuid());
 
@@ -237,6 +241,9 @@ public class L3BasicNetwork implements L3Network {
                 return null;
             }
         }.run();
+        if (t != null) {
+            bitmapIpAllocator.returnIp(t.get(0, String.class), t.get(1, Long.class));
+        }
         logger.debug(String.format("Successfully released used ip[%s]", msg.getUsedIpUuid()));
         bus.reply(msg, reply);
     }
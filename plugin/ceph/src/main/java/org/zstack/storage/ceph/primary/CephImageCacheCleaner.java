@@ -35,7 +35,8 @@ public class CephImageCacheCleaner extends ImageCacheCleaner implements Manageme
     protected List<ImageCacheShadowVO> createShadowImageCacheVOs(String psUuid) {
         List<Long> staleImageCacheIds = getStaleImageCacheIds(psUuid);
         if (staleImageCacheIds == null || staleImageCacheIds.isEmpty()) {
-            return null;
+            // the evicted image caches are waiting in ImageCacheShadowVO
+            return getShadowImageCacheVOs();
         }
 
         String sql = "select ref.imageCacheId from ImageCacheVolumeRefVO ref where ref.imageCacheId in (:ids)";
@@ -46,7 +47,7 @@ public class CephImageCacheCleaner extends ImageCacheCleaner implements Manageme
         staleImageCacheIds.removeAll(existing);
 
         if (staleImageCacheIds.isEmpty()) {
-            return null;
+            return getShadowImageCacheVOs();
         }
 
         sql = "select c from ImageCacheVO c where c.id in (:ids)";
@@ -12,6 +12,7 @@ import org.zstack.network.securitygroup.SecurityGroupRuleTO;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -173,6 +174,16 @@ public class KVMAgentCommands {
 
         boolean iptablesSucc;
 
+        private boolean batchSupported;
+
+        public boolean isBatchSupported() {
+            return batchSupported;
+        }
+
+        public void setBatchSupported(boolean batchSupported) {
+            this.batchSupported = batchSupported;
+        }
+
         public String getLibvirtVersion() {
             return libvirtVersion;
         }
@@ -190,6 +201,21 @@ public class KVMAgentCommands {
         }
     }
 
+    public static class BatchCommand {
+        // the path relative to the agent's base url
+        public String path;
+        public String command;
+    }
+
+    public static class BatchCmd extends AgentCommand {
+        public List<BatchCommand> commands;
+    }
+
+    public static class BatchRsp extends AgentResponse {
+        // the responses in the order of the commands
+        public List<LinkedHashMap> responses;
+    }
+
     public static class PingCmd extends AgentCommand {
         public String hostUuid;
     }
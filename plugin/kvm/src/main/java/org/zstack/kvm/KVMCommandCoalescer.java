@@ -0,0 +1,258 @@
+package org.zstack.kvm;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpEntity;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Constants;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.rest.AsyncRESTCallback;
+import org.zstack.header.rest.RESTFacade;
+import org.zstack.kvm.KVMAgentCommands.BatchCmd;
+import org.zstack.kvm.KVMAgentCommands.BatchCommand;
+import org.zstack.kvm.KVMAgentCommands.BatchRsp;
+import org.zstack.utils.Utils;
+import org.zstack.utils.gson.JSONObjectUtil;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.zstack.core.Platform.operr;
+
+/**
+ * Coalesces commands sent to the same KVM agent within a short window into one batch request.
+ *
+ * The first command to a host opens a batch and schedules its flush after the window, the following commands
+ * join the batch until it's flushed or it's full. A batch is posted to the agent's batch path, the agent
+ * replies the responses of the commands in the order of the commands, and each response completes its own
+ * command. A batch of one command is posted to the command's own path as usual.
+ *
+ * Commands are coalesced only for agents advertising the batch support when connected. A batch is replied
+ * when all its commands complete, so callers should not submit long running commands here, they would hold
+ * the responses of the others in the batch.
+ */
+public class KVMCommandCoalescer {
+    private static final CLogger logger = Utils.getLogger(KVMCommandCoalescer.class);
+
+    @Autowired
+    private RESTFacade restf;
+    @Autowired
+    private ThreadFacade thdf;
+
+    public interface Sender {
+        /**
+         * posts the body to the agent, the completion gets the response body
+         */
+        void post(String url, String hostUuid, String body, long timeout, ReturnValueCompletion<String> completion);
+
+        void schedule(Runnable task, long delay);
+    }
+
+    private class Command {
+        String path;
+        String body;
+        long timeout;
+        ReturnValueCompletion<String> completion;
+    }
+
+    private class Batch {
+        String hostUuid;
+        String batchUrl;
+        String baseUrl;
+        List<Command> commands = new ArrayList<>();
+    }
+
+    private Sender sender;
+    private long window = KVMGlobalProperty.BATCH_COMMAND_WINDOW;
+    private int maxSize = KVMGlobalProperty.BATCH_COMMAND_MAX_SIZE;
+    private final Map<String, Boolean> batchSupported = new ConcurrentHashMap<>();
+    private final Map<String, Batch> batches = new HashMap<>();
+    private long requestNumber;
+
+    public KVMCommandCoalescer() {
+    }
+
+    /**
+     * @param window  the time a batch waits for more commands, in milliseconds, 0 disables coalescing
+     * @param maxSize the max number of commands in a batch
+     */
+    public KVMCommandCoalescer(Sender sender, long window, int maxSize) {
+        this.sender = sender;
+        this.window = window;
+        this.maxSize = maxSize;
+    }
+
+    void init() {
+        if (sender != null) {
+            return;
+        }
+
+        sender = new Sender() {
+            @Override
+            public void post(String url, String hostUuid, String body, long timeout, ReturnValueCompletion<String> completion) {
+                Map<String, String> header = new HashMap<>();
+                header.put(Constants.AGENT_HTTP_HEADER_RESOURCE_UUID, hostUuid);
+                restf.asyncJsonPost(url, body, header, new AsyncRESTCallback(completion) {
+                    @Override
+                    public void fail(ErrorCode err) {
+                        completion.fail(err);
+                    }
+
+                    @Override
+                    public void success(HttpEntity<String> responseEntity) {
+                        completion.success(responseEntity.getBody());
+                    }
+                }, TimeUnit.MILLISECONDS, timeout);
+            }
+
+            @Override
+            public void schedule(Runnable task, long delay) {
+                thdf.submitTimeoutTask(task, TimeUnit.MILLISECONDS, delay);
+            }
+        };
+    }
+
+    public void setBatchSupported(String hostUuid, boolean supported) {
+        if (supported) {
+            batchSupported.put(hostUuid, true);
+        } else {
+            batchSupported.remove(hostUuid);
+        }
+    }
+
+    public boolean isCoalescable(String hostUuid) {
+        return window > 0 && maxSize > 1 && batchSupported.containsKey(hostUuid);
+    }
+
+    /**
+     * @return the number of requests posted to agents
+     */
+    public synchronized long getRequestNumber() {
+        return requestNumber;
+    }
+
+    /**
+     * @param baseUrl the base url of the agent, the path of the command must start with it
+     * @param path    the url of the command
+     * @param timeout the timeout of the command, in milliseconds
+     */
+    public void submit(String hostUuid, String baseUrl, String path, String body, long timeout, ReturnValueCompletion<String> completion) {
+        Command cmd = new Command();
+        cmd.path = path;
+        cmd.body = body;
+        cmd.timeout = timeout;
+        cmd.completion = completion;
+
+        Batch full = null;
+        Batch stale = null;
+        Batch opened = null;
+        synchronized (this) {
+            Batch batch = batches.get(hostUuid);
+            if (batch != null && !batch.baseUrl.equals(baseUrl)) {
+                // the agent moves to another url, e.g. the host's management ip changes
+                stale = batches.remove(hostUuid);
+                batch = null;
+            }
+
+            if (batch == null) {
+                batch = new Batch();
+                batch.hostUuid = hostUuid;
+                batch.baseUrl = baseUrl;
+                batch.batchUrl = baseUrl + KVMConstant.KVM_BATCH_PATH;
+                batches.put(hostUuid, batch);
+                opened = batch;
+            }
+
+            batch.commands.add(cmd);
+            if (batch.commands.size() >= maxSize) {
+                full = batches.remove(hostUuid);
+            }
+        }
+
+        if (stale != null) {
+            send(stale);
+        }
+
+        if (full != null) {
+            send(full);
+        } else if (opened != null) {
+            final Batch b = opened;
+            sender.schedule(() -> flush(b), window);
+        }
+    }
+
+    private void flush(Batch batch) {
+        synchronized (this) {
+            // the batch may have been sent when it's full
+            if (!batches.remove(batch.hostUuid, batch)) {
+                return;
+            }
+        }
+
+        send(batch);
+    }
+
+    private void send(Batch batch) {
+        synchronized (this) {
+            requestNumber++;
+        }
+
+        if (batch.commands.size() == 1) {
+            Command cmd = batch.commands.get(0);
+            sender.post(cmd.path, batch.hostUuid, cmd.body, cmd.timeout, cmd.completion);
+            return;
+        }
+
+        BatchCmd bcmd = new BatchCmd();
+        bcmd.commands = new ArrayList<>();
+        long timeout = 0;
+        for (Command cmd : batch.commands) {
+            BatchCommand c = new BatchCommand();
+            c.path = cmd.path.substring(batch.baseUrl.length());
+            c.command = cmd.body;
+            bcmd.commands.add(c);
+            timeout = Math.max(timeout, cmd.timeout);
+        }
+
+        sender.post(batch.batchUrl, batch.hostUuid, JSONObjectUtil.toJsonString(bcmd), timeout, new ReturnValueCompletion<String>(null) {
+            @Override
+            public void success(String body) {
+                BatchRsp rsp;
+                try {
+                    rsp = JSONObjectUtil.toObject(body, BatchRsp.class);
+                } catch (Throwable t) {
+                    logger.warn(t.getMessage(), t);
+                    rsp = null;
+                }
+
+                if (rsp == null || rsp.responses == null || rsp.responses.size() != batch.commands.size()) {
+                    fail(operr("the kvm agent[uuid:%s] replies %s responses to a batch of %s commands",
+                            batch.hostUuid, rsp == null || rsp.responses == null ? 0 : rsp.responses.size(), batch.commands.size()));
+                    return;
+                }
+
+                for (int i = 0; i < batch.commands.size(); i++) {
+                    Command cmd = batch.commands.get(i);
+                    try {
+                        cmd.completion.success(JSONObjectUtil.toJsonString(rsp.responses.get(i)));
+                    } catch (Throwable t) {
+                        logger.warn(String.format("unhandled exception when completing the command[path:%s] of a batch", cmd.path), t);
+                    }
+                }
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                for (Command cmd : batch.commands) {
+                    try {
+                        cmd.completion.fail(errorCode);
+                    } catch (Throwable t) {
+                        logger.warn(String.format("unhandled exception when failing the command[path:%s] of a batch", cmd.path), t);
+                    }
+                }
+            }
+        });
+    }
+}
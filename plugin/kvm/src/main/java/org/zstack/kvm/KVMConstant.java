@@ -13,6 +13,7 @@ public interface KVMConstant {
     String KVM_CONNECT_PATH = "/host/connect";
     String KVM_PING_PATH = "/host/ping";
     String KVM_ECHO_PATH = "/host/echo";
+    String KVM_BATCH_PATH = "/host/batch";
     String KVM_CHECK_PHYSICAL_NETWORK_INTERFACE_PATH = "/network/checkphysicalnetworkinterface";
     String KVM_HOST_CAPACITY_PATH = "/host/capacity";
     String KVM_HOST_FACT_PATH = "/host/fact";
@@ -24,6 +24,7 @@ import org.zstack.core.errorcode.ErrorFacade;
 import org.zstack.core.thread.ChainTask;
 import org.zstack.core.thread.SyncTaskChain;
 import org.zstack.core.timeout.ApiTimeoutManager;
+import org.zstack.core.validation.ValidationFacade;
 import org.zstack.core.workflow.FlowChainBuilder;
 import org.zstack.core.workflow.ShareFlow;
 import org.zstack.header.Constants;
@@ -89,6 +90,10 @@ public class KVMHost extends HostBase implements Host {
     private TagManager tagmgr;
     @Autowired
     private ApiTimeoutManager timeoutManager;
+    @Autowired
+    private KVMCommandCoalescer coalescer;
+    @Autowired
+    private ValidationFacade vf;
 
     private KVMHostContext context;
 
@@ -252,6 +257,16 @@ public class KVMHost extends HostBase implements Host {
         }
 
         void call(ReturnValueCompletion<T> completion)  {
+            long timeoutInMillis = commandStr != null ? unit.toMillis(timeout) :
+                    timeoutManager.getTimeout(cmd.getClass(), CoreGlobalProperty.REST_FACADE_READ_TIMEOUT);
+            // a command with a timeout longer than the default one is long running, it's posted alone so it
+            // doesn't hold the responses of the others in a batch
+            if (timeoutInMillis <= CoreGlobalProperty.REST_FACADE_READ_TIMEOUT && path.startsWith(baseUrl)
+                    && coalescer.isCoalescable(self.getUuid())) {
+                coalesce(timeoutInMillis, completion);
+                return;
+            }
+
             Map<String, String> header = new HashMap<>();
             header.put(Constants.AGENT_HTTP_HEADER_RESOURCE_UUID, self.getUuid());
             if (commandStr != null) {
@@ -290,6 +305,34 @@ public class KVMHost extends HostBase implements Host {
                 }); // DO NOT pass unit, timeout here, they are null
             }
         }
+
+        private void coalesce(long timeoutInMillis, ReturnValueCompletion<T> completion) {
+            String body = commandStr;
+            if (body == null) {
+                // for unit test finding invocation chain
+                MessageCommandRecorder.record(cmd.getClass());
+                body = JSONObjectUtil.toJsonString(cmd);
+            }
+
+            coalescer.submit(self.getUuid(), baseUrl, path, body, timeoutInMillis, new ReturnValueCompletion<String>(completion) {
+                @Override
+                public void success(String rsp) {
+                    T ret = JSONObjectUtil.toObject(rsp, responseClass);
+                    ErrorCode err = vf.validateErrorByErrorCode(ret);
+                    if (err != null) {
+                        logger.warn(String.format("error response that causes validation failure: %s", rsp));
+                        completion.fail(err);
+                    } else {
+                        completion.success(ret);
+                    }
+                }
+
+                @Override
+                public void fail(ErrorCode errorCode) {
+                    completion.fail(errorCode);
+                }
+            });
+        }
     }
 
     @Override
@@ -2216,6 +2259,7 @@ public class KVMHost extends HostBase implements Host {
 
     @Override
     public void deleteHook() {
+        coalescer.setBatchSupported(self.getUuid(), false);
     }
 
     @Override
@@ -2390,6 +2434,8 @@ public class KVMHost extends HostBase implements Host {
                 errCode = operr("unable to connect to kvm host[uuid:%s, ip:%s, url:%s], because %s", self.getUuid(), self.getManagementIp(), connectPath,
                         rsp.getError());
             } else {
+                coalescer.setBatchSupported(self.getUuid(), rsp.isBatchSupported());
+
                 VersionComparator libvirtVersion = new VersionComparator(rsp.getLibvirtVersion());
                 VersionComparator qemuVersion = new VersionComparator(rsp.getQemuVersion());
                 boolean liveSnapshot = libvirtVersion.compare(KVMConstant.MIN_LIBVIRT_LIVESNAPSHOT_VERSION) >= 0
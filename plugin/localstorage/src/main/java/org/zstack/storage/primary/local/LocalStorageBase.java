@@ -2,6 +2,7 @@ package org.zstack.storage.primary.local;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
+import org.zstack.core.asyncbatch.While;
 import org.zstack.core.cloudbus.CloudBusCallBack;
 import org.zstack.core.cloudbus.CloudBusListCallBack;
 import org.zstack.core.componentloader.PluginRegistry;
@@ -28,6 +29,7 @@ import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.host.*;
 import org.zstack.header.image.ImageInventory;
 import org.zstack.header.image.ImageVO;
+import org.zstack.header.image.ImageVO_;
 import org.zstack.header.message.APIMessage;
 import org.zstack.header.message.Message;
 import org.zstack.header.message.MessageReply;
@@ -42,6 +44,7 @@ import org.zstack.header.volume.*;
 import org.zstack.compute.host.VolumeMigrationTargetHostFilter;
 import org.zstack.storage.primary.PrimaryStorageBase;
 import org.zstack.storage.primary.PrimaryStorageCapacityUpdater;
+import org.zstack.storage.primary.PrimaryStorageGlobalConfig;
 import org.zstack.storage.primary.PrimaryStoragePhysicalCapacityManager;
 import org.zstack.storage.primary.local.APIGetLocalStorageHostDiskCapacityReply.HostDiskCapacity;
 import org.zstack.storage.primary.local.MigrateBitsStruct.ResourceInfo;
@@ -644,6 +647,94 @@ public class LocalStorageBase extends PrimaryStorageBase {
         bus.publish(evt);
     }
 
+    @Override
+    protected void handle(APIPrewarmImageCacheOnPrimaryStorageMsg msg) {
+        APIPrewarmImageCacheOnPrimaryStorageEvent evt = new APIPrewarmImageCacheOnPrimaryStorageEvent(msg.getId());
+
+        List<String> psHostUuids = Q.New(LocalStorageHostRefVO.class).select(LocalStorageHostRefVO_.hostUuid)
+                .eq(LocalStorageHostRefVO_.primaryStorageUuid, self.getUuid()).listValues();
+        List<String> hostUuids;
+        if (msg.getHostUuids() == null || msg.getHostUuids().isEmpty()) {
+            hostUuids = psHostUuids.isEmpty() ? new ArrayList<>() : Q.New(HostVO.class).select(HostVO_.uuid)
+                    .in(HostVO_.uuid, psHostUuids).eq(HostVO_.status, HostStatus.Connected).listValues();
+        } else {
+            hostUuids = new ArrayList<>(new LinkedHashSet<>(msg.getHostUuids()));
+            for (String hostUuid : hostUuids) {
+                if (!psHostUuids.contains(hostUuid)) {
+                    throw new OperationFailureException(operr("the host[uuid:%s] is not a host of the local primary storage[uuid:%s]",
+                            hostUuid, self.getUuid()));
+                }
+            }
+        }
+
+        class PrewarmTask {
+            ImageInventory image;
+            String hostUuid;
+        }
+
+        List<ImageVO> images = Q.New(ImageVO.class).in(ImageVO_.uuid, msg.getImageUuids()).list();
+        List<PrewarmTask> tasks = new ArrayList<>();
+        for (ImageVO image : images) {
+            ImageInventory inv = ImageInventory.valueOf(image);
+            for (String hostUuid : hostUuids) {
+                PrewarmTask t = new PrewarmTask();
+                t.image = inv;
+                t.hostUuid = hostUuid;
+                tasks.add(t);
+            }
+        }
+
+        List<ErrorCode> errors = Collections.synchronizedList(new ArrayList<>());
+        new While<>(tasks).step((t, completion) -> {
+            try {
+                LocalStorageHypervisorBackend bkd = getHypervisorBackendFactoryByHostUuid(t.hostUuid).getHypervisorBackend(self);
+                bkd.prewarmImageCache(t.image, t.hostUuid, new ReturnValueCompletion<String>(completion) {
+                    @Override
+                    public void success(String returnValue) {
+                        completion.done();
+                    }
+
+                    @Override
+                    public void fail(ErrorCode errorCode) {
+                        logger.warn(String.format("failed to prewarm the image[uuid:%s] on the host[uuid:%s] of the local" +
+                                " storage[uuid:%s], %s", t.image.getUuid(), t.hostUuid, self.getUuid(), errorCode));
+                        errors.add(errorCode);
+                        completion.done();
+                    }
+                });
+            } catch (OperationFailureException e) {
+                errors.add(e.getErrorCode());
+                completion.done();
+            }
+        }, PrimaryStorageGlobalConfig.IMAGE_CACHE_PREWARM_PARALLELISM_DEGREE.value(Integer.class)).run(new NoErrorCompletion(msg) {
+            @Override
+            public void done() {
+                if (!errors.isEmpty()) {
+                    evt.setError(operr("failed to prewarm %s of %s image caches on the local primary storage[uuid:%s], %s",
+                            errors.size(), tasks.size(), self.getUuid(), errors.get(0)));
+                    bus.publish(evt);
+                    return;
+                }
+
+                List<ImageCacheInventory> invs = new ArrayList<>();
+                if (!hostUuids.isEmpty()) {
+                    List<ImageCacheVO> caches = Q.New(ImageCacheVO.class).eq(ImageCacheVO_.primaryStorageUuid, self.getUuid())
+                            .in(ImageCacheVO_.imageUuid, msg.getImageUuids()).list();
+                    for (ImageCacheVO c : caches) {
+                        LocalStorageKvmBackend.CacheInstallPath path = new LocalStorageKvmBackend.CacheInstallPath();
+                        path.fullPath = c.getInstallUrl();
+                        if (hostUuids.contains(path.disassemble().hostUuid)) {
+                            invs.add(ImageCacheInventory.valueOf(c));
+                        }
+                    }
+                }
+
+                evt.setInventories(invs);
+                bus.publish(evt);
+            }
+        });
+    }
+
 
     private void handle(final LocalStorageDeleteImageCacheOnPrimaryStorageMsg msg) {
         LocalStorageHypervisorBackend bkd = getHypervisorBackendFactoryByHostUuid(msg.getHostUuid()).getHypervisorBackend(self);
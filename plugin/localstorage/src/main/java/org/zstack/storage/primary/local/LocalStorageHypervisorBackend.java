@@ -63,6 +63,8 @@ public abstract class LocalStorageHypervisorBackend extends LocalStorageBase {
 
     abstract void downloadImageToCache(ImageInventory img, String hostUuid, ReturnValueCompletion<String> completion);
 
+    abstract void prewarmImageCache(ImageInventory img, String hostUuid, ReturnValueCompletion<String> completion);
+
     abstract void handle(LocalStorageDeleteImageCacheOnPrimaryStorageMsg msg, String hostUuid, ReturnValueCompletion<DeleteImageCacheOnPrimaryStorageReply> completion);
 
     abstract List<Flow> createMigrateBitsVolumeFlow(MigrateBitsStruct struct);
@@ -4,6 +4,7 @@ import org.springframework.transaction.annotation.Transactional;
 import org.zstack.core.cloudbus.CloudBusCallBack;
 import org.zstack.core.thread.SyncTask;
 import org.zstack.header.host.HostVO;
+import org.zstack.header.image.ImageConstant.ImageMediaType;
 import org.zstack.header.managementnode.ManagementNodeReadyExtensionPoint;
 import org.zstack.header.message.MessageReply;
 import org.zstack.header.storage.primary.ImageCacheShadowVO;
@@ -11,6 +12,7 @@ import org.zstack.header.storage.primary.ImageCacheVO;
 import org.zstack.header.storage.primary.PrimaryStorageConstant;
 import org.zstack.header.volume.VolumeVO;
 import org.zstack.storage.primary.ImageCacheCleaner;
+import org.zstack.storage.primary.ImageCacheEvictor;
 import org.zstack.storage.primary.local.LocalStorageKvmBackend.CacheInstallPath;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.Utils;
@@ -105,7 +107,36 @@ public class LocalStorageImageCleaner extends ImageCacheCleaner implements Manag
         return sq.getResultList();
     }
 
+    @Override
+    @Transactional
+    protected void evictImageCaches(String psUuid, ImageCacheEvictor evictor) {
+        String sql = "select h from LocalStorageHostRefVO h where h.primaryStorageUuid = :psUuid";
+        TypedQuery<LocalStorageHostRefVO> hq = dbf.getEntityManager().createQuery(sql, LocalStorageHostRefVO.class);
+        hq.setParameter("psUuid", psUuid);
+
+        // the capacity and the image caches of local storage are per host
+        for (LocalStorageHostRefVO h : hq.getResultList()) {
+            if (!evictor.isAboveHighWatermark(h.getTotalPhysicalCapacity(), h.getAvailablePhysicalCapacity())) {
+                continue;
+            }
+
+            sql = "select c from ImageCacheVO c where c.primaryStorageUuid = :psUuid and c.installUrl like :url and c.mediaType != :iso" +
+                    " and c.imageUuid not in (select vol.rootImageUuid from VolumeVO vol, LocalStorageResourceRefVO ref" +
+                    " where vol.uuid = ref.resourceUuid and ref.resourceType = :rtype and ref.hostUuid = :huuid and ref.primaryStorageUuid = :psUuid and vol.rootImageUuid is not null)" +
+                    " and c.id not in (select r.imageCacheId from ImageCacheVolumeRefVO r)";
+            TypedQuery<ImageCacheVO> cq = dbf.getEntityManager().createQuery(sql, ImageCacheVO.class);
+            cq.setParameter("psUuid", psUuid);
+            cq.setParameter("url", String.format("%%hostUuid://%s%%", h.getHostUuid()));
+            cq.setParameter("iso", ImageMediaType.ISO);
+            cq.setParameter("rtype", VolumeVO.class.getSimpleName());
+            cq.setParameter("huuid", h.getHostUuid());
+            evictImageCaches(psUuid, cq.getResultList(), h.getTotalPhysicalCapacity(), h.getAvailablePhysicalCapacity(), evictor);
+        }
+    }
+
     protected void doCleanup(String psUuid) {
+        evictImageCaches(psUuid);
+
         List<ImageCacheShadowVO> shadowVOs = createShadowImageCacheVOs(psUuid);
         if (shadowVOs == null || shadowVOs.isEmpty()) {
             return;
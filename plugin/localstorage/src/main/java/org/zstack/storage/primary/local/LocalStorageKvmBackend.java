@@ -45,6 +45,7 @@ import org.zstack.header.vm.VmInstanceVO_;
 import org.zstack.header.volume.*;
 import org.zstack.identity.AccountManager;
 import org.zstack.kvm.*;
+import org.zstack.storage.primary.ImageCacheAccessTracker;
 import org.zstack.storage.primary.PrimaryStoragePathMaker;
 import org.zstack.storage.primary.local.LocalStorageKvmMigrateVmFlow.CopyBitsFromRemoteCmd;
 import org.zstack.storage.primary.local.MigrateBitsStruct.ResourceInfo;
@@ -57,6 +58,7 @@ import org.zstack.utils.path.PathUtil;
 
 import javax.persistence.Tuple;
 import java.io.File;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -83,6 +85,8 @@ public class LocalStorageKvmBackend extends LocalStorageHypervisorBackend {
     private ApiTimeoutManager timeoutMgr;
     @Autowired
     private RESTFacade restf;
+    @Autowired
+    private ImageCacheAccessTracker imageCacheAccessTracker;
 
 
     public static class AgentCommand {
@@ -870,6 +874,8 @@ public class LocalStorageKvmBackend extends LocalStorageHypervisorBackend {
         String hostUuid;
         String primaryStorageInstallPath;
         String backupStorageInstallPath;
+        // downloaded before the image is used, not counted as a hit or miss
+        boolean prewarm;
 
         void download(final ReturnValueCompletion<String> completion) {
             DebugUtils.Assert(image != null, "image cannot be null");
@@ -989,6 +995,9 @@ public class LocalStorageKvmBackend extends LocalStorageHypervisorBackend {
                                     vo.setPrimaryStorageUuid(self.getUuid());
                                     vo.setSize(image.getActualSize());
                                     vo.setMd5sum("not calculated");
+                                    if (!prewarm) {
+                                        vo.setLastAccessDate(new Timestamp(System.currentTimeMillis()));
+                                    }
 
                                     CacheInstallPath path = new CacheInstallPath();
                                     path.installPath = primaryStorageInstallPath;
@@ -996,6 +1005,12 @@ public class LocalStorageKvmBackend extends LocalStorageHypervisorBackend {
                                     vo.setInstallUrl(path.makeFullPath());
                                     dbf.persist(vo);
 
+                                    if (prewarm) {
+                                        imageCacheAccessTracker.recordPrewarm(vo.getSize());
+                                    } else {
+                                        imageCacheAccessTracker.recordMiss(vo.getSize());
+                                    }
+
                                     logger.debug(String.format("downloaded image[uuid:%s, name:%s] to the image cache of local primary storage[uuid: %s, installPath: %s] on host[uuid: %s]",
                                             image.getUuid(), image.getName(), self.getUuid(), primaryStorageInstallPath, hostUuid));
 
@@ -1018,18 +1033,20 @@ public class LocalStorageKvmBackend extends LocalStorageHypervisorBackend {
                 @Override
                 public void run(final SyncTaskChain chain) {
                     SimpleQuery<ImageCacheVO> q = dbf.createQuery(ImageCacheVO.class);
-                    q.select(ImageCacheVO_.installUrl);
+                    q.select(ImageCacheVO_.id, ImageCacheVO_.installUrl, ImageCacheVO_.size);
                     q.add(ImageCacheVO_.primaryStorageUuid, Op.EQ, self.getUuid());
                     q.add(ImageCacheVO_.imageUuid, Op.EQ, image.getUuid());
                     q.add(ImageCacheVO_.installUrl, Op.LIKE, String.format("%%hostUuid://%s%%", hostUuid));
-                    String fullPath = q.findValue();
-                    if (fullPath == null) {
+                    Tuple t = q.findTuple();
+                    if (t == null) {
                         doDownload(chain);
                         return;
                     }
 
+                    final long cacheId = t.get(0, Long.class);
+                    final long cacheSize = t.get(2, Long.class);
                     CacheInstallPath path = new CacheInstallPath();
-                    path.fullPath = fullPath;
+                    path.fullPath = t.get(1, String.class);
                     final String installPath = path.disassemble().installPath;
                     CheckBitsCmd cmd = new CheckBitsCmd();
                     cmd.path = installPath;
@@ -1040,6 +1057,9 @@ public class LocalStorageKvmBackend extends LocalStorageHypervisorBackend {
                             if (rsp.existing) {
                                 logger.debug(String.format("found image[uuid: %s, name: %s] in the image cache of local primary storage[uuid:%s, installPath: %s]",
                                         image.getUuid(), image.getName(), self.getUuid(), installPath));
+                                if (!prewarm) {
+                                    imageCacheAccessTracker.recordHit(cacheId, cacheSize);
+                                }
                                 completion.success(installPath);
                                 chain.next();
                                 return;
@@ -1717,6 +1737,15 @@ public class LocalStorageKvmBackend extends LocalStorageHypervisorBackend {
 
     @Override
     void downloadImageToCache(ImageInventory img, String hostUuid, final ReturnValueCompletion<String> completion) {
+        downloadImageToCache(img, hostUuid, false, completion);
+    }
+
+    @Override
+    void prewarmImageCache(ImageInventory img, String hostUuid, ReturnValueCompletion<String> completion) {
+        downloadImageToCache(img, hostUuid, true, completion);
+    }
+
+    private void downloadImageToCache(ImageInventory img, String hostUuid, boolean prewarm, final ReturnValueCompletion<String> completion) {
         ImageBackupStorageSelector selector = new ImageBackupStorageSelector();
         selector.setZoneUuid(self.getZoneUuid());
         selector.setImageUuid(img.getUuid());
@@ -1743,6 +1772,7 @@ public class LocalStorageKvmBackend extends LocalStorageHypervisorBackend {
         cache.primaryStorageInstallPath = makeCachedImageInstallUrl(img);
         cache.backupStorage = bs;
         cache.backupStorageInstallPath = ref.getInstallPath();
+        cache.prewarm = prewarm;
         cache.download(new ReturnValueCompletion<String>(completion) {
             @Override
             public void success(String returnValue) {
@@ -22,6 +22,15 @@ public class ApiMessageDescriptor {
     private List<ApiMessageInterceptor> interceptors;
     private Class<?> clazz;
     private Map<Field, APIParam> fieldApiParams = new HashMap<Field, APIParam>();
+    private ApiMessageValidationPlan validationPlan;
+
+    public ApiMessageValidationPlan getValidationPlan() {
+        return validationPlan;
+    }
+
+    public void setValidationPlan(ApiMessageValidationPlan validationPlan) {
+        this.validationPlan = validationPlan;
+    }
 
     public Map<Field, APIParam> getFieldApiParams() {
         return fieldApiParams;
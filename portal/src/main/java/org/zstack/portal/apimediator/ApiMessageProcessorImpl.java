@@ -5,13 +5,13 @@ import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.beans.factory.annotation.Autowire;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
-import org.springframework.transaction.annotation.Transactional;
 import org.zstack.core.CoreGlobalProperty;
 import org.zstack.core.Platform;
 import org.zstack.core.cloudbus.CloudBus;
 import org.zstack.core.componentloader.ComponentLoader;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SQL;
 import org.zstack.core.errorcode.ErrorFacade;
 import org.zstack.header.apimediator.ApiMessageInterceptionException;
 import org.zstack.header.apimediator.ApiMessageInterceptor;
@@ -23,15 +23,11 @@ import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.message.*;
 import org.zstack.header.rest.RestRequest;
 import org.zstack.portal.apimediator.schema.Service;
-import org.zstack.utils.DebugUtils;
-import org.zstack.utils.FieldUtils;
 import org.zstack.utils.TypeUtils;
 import org.zstack.utils.Utils;
-import org.zstack.utils.function.FunctionNoArg;
 import org.zstack.utils.logging.CLogger;
 import org.zstack.utils.path.PathUtil;
 
-import javax.persistence.TypedQuery;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
@@ -39,7 +35,6 @@ import java.io.File;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import static org.zstack.core.Platform.argerr;
@@ -56,6 +51,11 @@ public class ApiMessageProcessorImpl implements ApiMessageProcessor {
     private Map<Class, ApiMessageDescriptor> descriptors = new HashMap<Class, ApiMessageDescriptor>();
     private Map<Class, Set<GlobalApiMessageInterceptor>> globalInterceptors = new HashMap<Class, Set<GlobalApiMessageInterceptor>>();
     private Set<GlobalApiMessageInterceptor> globalInterceptorsForAllMsg = new HashSet<GlobalApiMessageInterceptor>();
+    private static final Pattern UUID_PATTERN = Pattern.compile("[0-9a-f]{8}[0-9a-f]{4}[1-5][0-9a-f]{3}[89ab][0-9a-f]{3}[0-9a-f]{12}");
+    // the resources of an entity type referred by a message are checked by one query
+    private final ApiMessageValidationPlan.ResourceFinder resourceFinder = (entityClass, primaryKey, ids) ->
+            SQL.New(String.format("select e.%s from %s e where e.%s in (:ids)", primaryKey, entityClass.getSimpleName(), primaryKey), String.class)
+                    .param("ids", ids).list();
 
     @Autowired
     private PluginRegistry pluginRgty;
@@ -212,135 +212,74 @@ public class ApiMessageProcessorImpl implements ApiMessageProcessor {
     }
 
     private void buildApiParams(ApiMessageDescriptor desc) {
-        Class msgClz = desc.getClazz();
-        List<Field> fields = FieldUtils.getAllFields(msgClz);
+        desc.getFieldApiParams().putAll(ApiMessageValidationPlan.collectApiParams(desc.getClazz()));
+        desc.setValidationPlan(new ApiMessageValidationPlan(desc.getClazz(), desc.getFieldApiParams()));
+    }
 
-        class FP {
-            Field field;
-            APIParam param;
-        }
+    private void apiParamValidation(APIMessage msg, ApiMessageDescriptor desc) {
+        try {
+            msg.validate();
 
-        Map<String, FP> fmap = new HashMap<String, FP>();
-        for (Field f : fields) {
-            APIParam at = f.getAnnotation(APIParam.class);
-            if (at == null) {
-                continue;
+            if (desc != null) {
+                checkResources(msg, desc.getValidationPlan());
             }
+        } catch (ApiMessageInterceptionException | StopRoutingException ae) {
+            throw ae;
+        } catch (APIMessage.InvalidApiMessageException ie) {
+            throw new ApiMessageInterceptionException(argerr(ie.getMessage(), ie.getArguments()));
+        } catch (Exception e) {
+            logger.warn(e.getMessage(), e);
+            throw new ApiMessageInterceptionException(errf.throwableToInternalError(e));
+        }
+    }
 
-            FP fp = new FP();
-            fp.field = f;
-            fp.param = f.getAnnotation(APIParam.class);
-            fmap.put(f.getName(), fp);
+    private void checkResources(APIMessage msg, ApiMessageValidationPlan plan) throws IllegalAccessException {
+        ApiMessageValidationPlan.MissingResource missing = plan.check(msg, resourceFinder);
+        if (missing == null) {
+            return;
         }
 
-        OverriddenApiParams at = desc.getClazz().getAnnotation(OverriddenApiParams.class);
-        if (at != null) {
-            for (OverriddenApiParam atp : at.value()) {
-                Field f = FieldUtils.getField(atp.field(), msgClz);
-                if (f == null) {
-                    throw new CloudRuntimeException(String.format("cannot find the field[%s] specified in @OverriddenApiParam of class[%s]",
-                            atp.field(), msgClz));
-                }
+        Field f = missing.getField();
+        APIParam at = missing.getParam();
+        if (missing.isCollection()) {
+            throw new ApiMessageInterceptionException(errf.instantiateErrorCode(SysErrors.RESOURCE_NOT_FOUND,
+                    String.format("invalid field[%s], resource[uuids:%s, type:%s] not found", f.getName(), missing.getMissingIds(), at.resourceType().getSimpleName())
+            ));
+        }
 
-                FP fp = new FP();
-                fp.field = f;
-                fp.param = atp.param();
-                fmap.put(atp.field(), fp);
-            }
+        Object value = missing.getValue();
+        if (!at.successIfResourceNotExisting()) {
+            throw new ApiMessageInterceptionException(errf.instantiateErrorCode(SysErrors.RESOURCE_NOT_FOUND,
+                    String.format("invalid field[%s], resource[uuid:%s, type:%s] not found", f.getName(), value, at.resourceType().getSimpleName())
+            ));
         }
 
-        for (FP fp : fmap.values()) {
-            desc.getFieldApiParams().put(fp.field, fp.param);
+        RestRequest rat = msg.getClass().getAnnotation(RestRequest.class);
+        if (rat == null) {
+            throw new CloudRuntimeException(String.format("the API class[%s] does not have @RestRequest but it uses a successIfResourceNotExisting helper", msg.getClass()));
         }
-    }
 
+        if (!UUID_PATTERN.matcher(value.toString()).matches()) {
+            throw new ApiMessageInterceptionException(errf.instantiateErrorCode(SysErrors.RESOURCE_NOT_FOUND,
+                    String.format("invalid value[%s] of field [%s]", value, f.getName())));
+        }
 
-    private void apiParamValidation(APIMessage msg) {
+        APIEvent evt;
         try {
-            msg.validate((msg1, f, value, at) -> {
-                if (value != null && at.resourceType() != Object.class) {
-                    if (value instanceof Collection) {
-                        final Collection col = (Collection) value;
-                        if (!col.isEmpty()) {
-                            List<String> uuids = new FunctionNoArg<List<String>>() {
-                                @Override
-                                @Transactional(readOnly = true)
-                                public List<String> call() {
-                                    String sql = String.format("select e.uuid from %s e where e.uuid in (:uuids)", at.resourceType().getSimpleName());
-                                    TypedQuery<String> q = dbf.getEntityManager().createQuery(sql, String.class);
-                                    q.setParameter("uuids", col);
-                                    return q.getResultList();
-                                }
-                            }.call();
-
-                            if (uuids.size() != col.size()) {
-                                List<String> invalids = new ArrayList<>();
-                                for (Object o : col) {
-                                    String uuid = (String) o;
-                                    if (!uuids.contains(uuid)) {
-                                        invalids.add(uuid);
-                                    }
-                                }
-
-                                if (!invalids.isEmpty()) {
-                                    throw new ApiMessageInterceptionException(errf.instantiateErrorCode(SysErrors.RESOURCE_NOT_FOUND,
-                                            String.format("invalid field[%s], resource[uuids:%s, type:%s] not found", f.getName(), invalids, at.resourceType().getSimpleName())
-                                    ));
-                                }
-                            }
-                        }
-
-                    } else {
-                        DebugUtils.Assert(String.class.isAssignableFrom(f.getType()), String.format("field[%s] of message[%s] has APIParam.resourceType specified, then the field must be uuid which is a String, but actual is %s",
-                                f.getName(), msg.getClass().getName(), f.getType()));
-
-                        if (!dbf.isExist(value, at.resourceType())) {
-                            if (at.successIfResourceNotExisting()) {
-                                RestRequest rat = msg.getClass().getAnnotation(RestRequest.class);
-                                if (rat == null) {
-                                    throw new CloudRuntimeException(String.format("the API class[%s] does not have @RestRequest but it uses a successIfResourceNotExisting helper", msg.getClass()));
-                                }
-
-                                Pattern p = Pattern.compile("[0-9a-f]{8}[0-9a-f]{4}[1-5][0-9a-f]{3}[89ab][0-9a-f]{3}[0-9a-f]{12}");
-                                Matcher mt = p.matcher(value.toString());
-                                if (!mt.matches()){
-                                    throw new ApiMessageInterceptionException(errf.instantiateErrorCode(SysErrors.RESOURCE_NOT_FOUND,
-                                            String.format("invalid value[%s] of field [%s]", value, f.getName())));
-                                }
-
-                                APIEvent evt;
-                                try {
-                                    evt = (APIEvent) rat.responseClass().getConstructor(String.class).newInstance(msg.getId());
-                                } catch (Exception e) {
-                                    throw new CloudRuntimeException(e);
-                                }
-
-                                bus.publish(evt);
-                                throw new StopRoutingException();
-                            } else {
-                                throw new ApiMessageInterceptionException(errf.instantiateErrorCode(SysErrors.RESOURCE_NOT_FOUND,
-                                        String.format("invalid field[%s], resource[uuid:%s, type:%s] not found", f.getName(), value, at.resourceType().getSimpleName())
-                                ));
-                            }
-                        }
-                    }
-                }
-            });
-        } catch (ApiMessageInterceptionException | StopRoutingException ae) {
-            throw ae;
-        } catch (APIMessage.InvalidApiMessageException ie) {
-            throw new ApiMessageInterceptionException(argerr(ie.getMessage(), ie.getArguments()));
+            evt = (APIEvent) rat.responseClass().getConstructor(String.class).newInstance(msg.getId());
         } catch (Exception e) {
-            logger.warn(e.getMessage(), e);
-            throw new ApiMessageInterceptionException(errf.throwableToInternalError(e));
+            throw new CloudRuntimeException(e);
         }
+
+        bus.publish(evt);
+        throw new StopRoutingException();
     }
 
     @Override
     public APIMessage process(APIMessage msg) throws ApiMessageInterceptionException {
         ApiMessageDescriptor desc = descriptors.get(msg.getClass());
 
-        apiParamValidation(msg);
+        apiParamValidation(msg, desc);
         if (desc == null) {
             throw new CloudRuntimeException(String.format("Message[%s] has no ApiMessageDescriptor", msg.getClass().getName()));
         }
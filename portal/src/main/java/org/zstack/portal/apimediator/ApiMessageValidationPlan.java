@@ -0,0 +1,202 @@
+package org.zstack.portal.apimediator;
+
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.message.APIParam;
+import org.zstack.header.message.OverriddenApiParam;
+import org.zstack.header.message.OverriddenApiParams;
+import org.zstack.utils.DebugUtils;
+import org.zstack.utils.FieldUtils;
+
+import javax.persistence.Id;
+import java.lang.reflect.Field;
+import java.util.*;
+
+/**
+ * The resource existence checks of an API message class, compiled once when the ApiMessageDescriptor is created.
+ *
+ * The fields with APIParam.resourceType are resolved to their entity and primary key up front, and the uuids of
+ * a message are checked by one query per entity type instead of one query per field.
+ */
+public class ApiMessageValidationPlan {
+    public interface ResourceFinder {
+        /**
+         * @return the ids existing in the entity
+         */
+        Collection<String> findExisting(Class entityClass, String primaryKey, Collection<String> ids);
+    }
+
+    public static class MissingResource {
+        private Field field;
+        private APIParam param;
+        private Object value;
+        private List<String> missingIds;
+
+        public Field getField() {
+            return field;
+        }
+
+        public APIParam getParam() {
+            return param;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        public List<String> getMissingIds() {
+            return missingIds;
+        }
+
+        public boolean isCollection() {
+            return value instanceof Collection;
+        }
+    }
+
+    private static class ResourceParam {
+        Field field;
+        APIParam param;
+    }
+
+    private final Class msgClass;
+    private final List<ResourceParam> resourceParams = new ArrayList<>();
+    private final Map<Class, String> primaryKeys = new HashMap<>();
+
+    public ApiMessageValidationPlan(Class msgClass, Map<Field, APIParam> fieldApiParams) {
+        this.msgClass = msgClass;
+
+        for (Map.Entry<Field, APIParam> e : fieldApiParams.entrySet()) {
+            APIParam at = e.getValue();
+            if (at.resourceType() == Object.class) {
+                continue;
+            }
+
+            Field f = e.getKey();
+            f.setAccessible(true);
+            ResourceParam rp = new ResourceParam();
+            rp.field = f;
+            rp.param = at;
+            resourceParams.add(rp);
+
+            if (!primaryKeys.containsKey(at.resourceType())) {
+                Field pk = FieldUtils.getAnnotatedField(Id.class, at.resourceType());
+                primaryKeys.put(at.resourceType(), pk == null ? "uuid" : pk.getName());
+            }
+        }
+
+        resourceParams.sort(Comparator.comparing(rp -> rp.field.getName()));
+    }
+
+    /**
+     * @return the fields with APIParam of the message class, including the ones overridden by @OverriddenApiParams
+     */
+    public static Map<Field, APIParam> collectApiParams(Class msgClz) {
+        Map<String, Field> fields = new HashMap<>();
+        Map<String, APIParam> params = new HashMap<>();
+        for (Field f : FieldUtils.getAllFields(msgClz)) {
+            APIParam at = f.getAnnotation(APIParam.class);
+            if (at == null) {
+                continue;
+            }
+
+            fields.put(f.getName(), f);
+            params.put(f.getName(), at);
+        }
+
+        OverriddenApiParams at = (OverriddenApiParams) msgClz.getAnnotation(OverriddenApiParams.class);
+        if (at != null) {
+            for (OverriddenApiParam atp : at.value()) {
+                Field f = FieldUtils.getField(atp.field(), msgClz);
+                if (f == null) {
+                    throw new CloudRuntimeException(String.format("cannot find the field[%s] specified in @OverriddenApiParam of class[%s]",
+                            atp.field(), msgClz));
+                }
+
+                fields.put(atp.field(), f);
+                params.put(atp.field(), atp.param());
+            }
+        }
+
+        Map<Field, APIParam> ret = new HashMap<>();
+        fields.forEach((name, f) -> ret.put(f, params.get(name)));
+        return ret;
+    }
+
+    public boolean hasResourceParams() {
+        return !resourceParams.isEmpty();
+    }
+
+    /**
+     * checks the resources referred by the message exist, by one query per entity type
+     *
+     * @return the first field referring to resources not existing, or null if all resources exist
+     */
+    public MissingResource check(Object msg, ResourceFinder finder) throws IllegalAccessException {
+        if (resourceParams.isEmpty()) {
+            return null;
+        }
+
+        Map<Class, Set<String>> ids = new HashMap<>();
+        Object[] values = new Object[resourceParams.size()];
+        for (int i = 0; i < resourceParams.size(); i++) {
+            ResourceParam rp = resourceParams.get(i);
+            Object value = rp.field.get(msg);
+            values[i] = value;
+            if (value == null) {
+                continue;
+            }
+
+            Set<String> s = ids.computeIfAbsent(rp.param.resourceType(), k -> new HashSet<>());
+            if (value instanceof Collection) {
+                for (Object o : (Collection) value) {
+                    s.add((String) o);
+                }
+            } else {
+                DebugUtils.Assert(String.class.isAssignableFrom(rp.field.getType()), String.format("field[%s] of message[%s] has APIParam.resourceType specified, then the field must be uuid which is a String, but actual is %s",
+                        rp.field.getName(), msgClass.getName(), rp.field.getType()));
+                s.add((String) value);
+            }
+        }
+
+        Map<Class, Collection<String>> existing = new HashMap<>();
+        for (Map.Entry<Class, Set<String>> e : ids.entrySet()) {
+            if (e.getValue().isEmpty()) {
+                existing.put(e.getKey(), Collections.emptySet());
+                continue;
+            }
+
+            Collection<String> found = finder.findExisting(e.getKey(), primaryKeys.get(e.getKey()), e.getValue());
+            existing.put(e.getKey(), found instanceof Set ? found : new HashSet<>(found));
+        }
+
+        for (int i = 0; i < resourceParams.size(); i++) {
+            Object value = values[i];
+            if (value == null) {
+                continue;
+            }
+
+            ResourceParam rp = resourceParams.get(i);
+            Collection<String> found = existing.get(rp.param.resourceType());
+            List<String> missing = new ArrayList<>();
+            if (value instanceof Collection) {
+                for (Object o : (Collection) value) {
+                    if (!found.contains(o)) {
+                        missing.add((String) o);
+                    }
+                }
+            } else if (!found.contains(value)) {
+                missing.add((String) value);
+            }
+
+            if (!missing.isEmpty()) {
+                MissingResource ret = new MissingResource();
+                ret.field = rp.field;
+                ret.param = rp.param;
+                ret.value = value;
+                ret.missingIds = missing;
+                return ret;
+            }
+        }
+
+        return null;
+    }
+}
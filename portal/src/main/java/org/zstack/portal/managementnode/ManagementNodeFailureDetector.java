@@ -0,0 +1,216 @@
+package org.zstack.portal.managementnode;
+
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * Detects dead management nodes by the heartbeats they gossip over the message bus.
+ *
+ * The suspicion of a node is the phi of the accrual failure detector: the longer a heartbeat is late
+ * comparing to the history of heartbeat intervals of the node, the higher phi is. A node whose phi exceeds
+ * the threshold is only confirmed dead by the database: each gossip carries the database heartbeat the
+ * node has written, if the node's database heartbeat has not changed since its last gossip and is older
+ * than the heartbeat timeout, it stopped both heartbeats, and it's deleted from the database. If the node
+ * still writes heartbeats to the database, it may be alive but cannot reach us through the message bus, and
+ * it's left to the heartbeat in the database until it gossips again.
+ */
+public class ManagementNodeFailureDetector {
+    private static final CLogger logger = Utils.getLogger(ManagementNodeFailureDetector.class);
+
+    public interface HeartbeatStore {
+        /**
+         * @return the heartbeat of the node in database, or null if the node is not in database
+         */
+        Timestamp getHeartbeat(String nodeUuid);
+
+        /**
+         * @return the current time of database
+         */
+        Timestamp getCurrentTime();
+
+        /**
+         * deletes the node if its heartbeat in database is still the heartbeat
+         *
+         * @return true if the node is deleted
+         */
+        boolean deleteNode(String nodeUuid, Timestamp heartbeat);
+    }
+
+    private class History {
+        final long[] intervals = new long[MAX_SAMPLE_SIZE];
+        int index;
+        int size;
+        double sum;
+        double squareSum;
+        long lastArrival;
+        long dbHeartbeat;
+        // the time to check the database again for the node suspected
+        long nextDbCheck;
+
+        History(long now) {
+            // assume the node has gossiped twice, the intervals are the expected one +/- a quarter
+            long std = expectedInterval / 4;
+            add(expectedInterval - std);
+            add(expectedInterval + std);
+            lastArrival = now;
+        }
+
+        void add(long interval) {
+            if (size == intervals.length) {
+                long old = intervals[index];
+                sum -= old;
+                squareSum -= (double) old * old;
+            } else {
+                size++;
+            }
+
+            intervals[index] = interval;
+            index = (index + 1) % intervals.length;
+            sum += interval;
+            squareSum += (double) interval * interval;
+        }
+
+        double phi(long now) {
+            double mean = sum / size;
+            double std = Math.max(Math.sqrt(Math.max(squareSum / size - mean * mean, 0)), minStdDeviation);
+            mean += acceptablePause;
+
+            // the logistic approximation of the cumulative normal distribution
+            double y = (now - lastArrival - mean) / std;
+            double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+            if (now - lastArrival > mean) {
+                return -Math.log10(e / (1.0 + e));
+            } else {
+                return -Math.log10(1.0 - 1.0 / (1.0 + e));
+            }
+        }
+    }
+
+    private static final int MAX_SAMPLE_SIZE = 200;
+
+    private final long expectedInterval;
+    private final long acceptablePause;
+    private final double minStdDeviation;
+    private final Map<String, History> histories = new HashMap<>();
+
+    /**
+     * @param expectedInterval the interval nodes gossip heartbeats, in milliseconds
+     * @param acceptablePause  the time a node can miss heartbeats without being suspected, in milliseconds
+     */
+    public ManagementNodeFailureDetector(long expectedInterval, long acceptablePause) {
+        this.expectedInterval = expectedInterval;
+        this.acceptablePause = acceptablePause;
+        this.minStdDeviation = Math.max(expectedInterval / 10.0, 1);
+    }
+
+    public long getExpectedInterval() {
+        return expectedInterval;
+    }
+
+    public synchronized void heartbeat(String nodeUuid, long dbHeartbeat, long now) {
+        History h = histories.get(nodeUuid);
+        if (h == null) {
+            h = new History(now);
+            histories.put(nodeUuid, h);
+        } else {
+            h.add(now - h.lastArrival);
+            h.lastArrival = now;
+        }
+
+        h.dbHeartbeat = dbHeartbeat;
+        h.nextDbCheck = 0;
+    }
+
+    /**
+     * @return phi of the node, or 0 if the node has never gossiped
+     */
+    public synchronized double phi(String nodeUuid, long now) {
+        History h = histories.get(nodeUuid);
+        return h == null ? 0 : h.phi(now);
+    }
+
+    public synchronized void remove(String nodeUuid) {
+        histories.remove(nodeUuid);
+    }
+
+    /**
+     * @return nodes gossiping heartbeats in time
+     */
+    public synchronized Set<String> getHealthyNodes(double threshold, long now) {
+        Set<String> ret = new HashSet<>();
+        histories.forEach((uuid, h) -> {
+            if (h.phi(now) < threshold) {
+                ret.add(uuid);
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * checks nodes whose phi exceeds the threshold in the database, deletes the dead ones
+     *
+     * @param heartbeatTimeout the time a node can miss heartbeats in the database, it must be longer than the
+     *                         interval nodes write heartbeats to the database
+     * @return the nodes dead, including the ones deleted by others
+     */
+    public List<String> detect(HeartbeatStore store, double threshold, long heartbeatTimeout, long now) {
+        Map<String, Long> suspects = new HashMap<>();
+        synchronized (this) {
+            histories.forEach((uuid, h) -> {
+                if (h.nextDbCheck <= now && h.phi(now) >= threshold) {
+                    suspects.put(uuid, h.dbHeartbeat);
+                }
+            });
+        }
+
+        if (suspects.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        long dbNow = store.getCurrentTime().getTime();
+        List<String> dead = new ArrayList<>();
+        for (Map.Entry<String, Long> e : suspects.entrySet()) {
+            String uuid = e.getKey();
+            Timestamp heartbeat = store.getHeartbeat(uuid);
+            if (heartbeat == null) {
+                logger.debug(String.format("management node[uuid:%s] stops gossiping heartbeats and has been deleted from database", uuid));
+                remove(uuid);
+                dead.add(uuid);
+                continue;
+            }
+
+            long age = dbNow - heartbeat.getTime();
+            if (heartbeat.getTime() <= e.getValue() && age > heartbeatTimeout) {
+                if (store.deleteNode(uuid, heartbeat)) {
+                    logger.warn(String.format("management node[uuid:%s] stops gossiping heartbeats[phi:%s] and writing heartbeats" +
+                            " to database since %s, it's dead", uuid, phi(uuid, now), heartbeat));
+                    remove(uuid);
+                    dead.add(uuid);
+                }
+                continue;
+            }
+
+            long nextDbCheck;
+            if (heartbeat.getTime() > e.getValue()) {
+                logger.warn(String.format("management node[uuid:%s] stops gossiping heartbeats[phi:%s] but still writes heartbeats" +
+                        " to database, it may not reach us through the message bus", uuid, phi(uuid, now)));
+                nextDbCheck = Long.MAX_VALUE;
+            } else {
+                // check again when the heartbeat times out
+                nextDbCheck = now + heartbeatTimeout - age + 1;
+            }
+
+            synchronized (this) {
+                History h = histories.get(uuid);
+                if (h != null) {
+                    h.nextDbCheck = nextDbCheck;
+                }
+            }
+        }
+
+        return dead;
+    }
+}
@@ -14,4 +14,8 @@ public class ManagementNodeGlobalConfig {
     public static GlobalConfig NODE_HEARTBEAT_INTERVAL = new GlobalConfig(CATEGORY, "node.heartbeatInterval");
     @GlobalConfigValidation(numberGreaterThan = -1)
     public static GlobalConfig NODE_JOIN_DELAY = new GlobalConfig(CATEGORY, "node.joinDelay");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig NODE_GOSSIP_INTERVAL = new GlobalConfig(CATEGORY, "node.gossipInterval");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig NODE_PHI_THRESHOLD = new GlobalConfig(CATEGORY, "node.phiThreshold");
 }
@@ -28,6 +28,7 @@ import org.zstack.header.managementnode.*;
 import org.zstack.header.managementnode.ManagementNodeCanonicalEvent.LifeCycle;
 import org.zstack.header.managementnode.ManagementNodeCanonicalEvent.ManagementNodeLifeCycleData;
 import org.zstack.header.message.APIMessage;
+import org.zstack.header.message.Event;
 import org.zstack.header.message.Message;
 import org.zstack.portal.apimediator.ApiMediator;
 import org.zstack.utils.BootErrorLog;
@@ -41,9 +42,7 @@ import org.zstack.utils.logging.CLogger;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Timestamp;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -64,6 +63,7 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
     private static boolean stopped = false;
     private Future<Void> heartBeatTask = null;
     private HeartBeatDBSource heartBeatDBSource;
+    private volatile ManagementNodeFailureDetector failureDetector;
     private List<ManagementNodeChangeListener> lifeCycleExtension = new ArrayList<ManagementNodeChangeListener>();
 
     private static int NODE_STARTING = 0;
@@ -110,6 +110,11 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
 
         @Override
         public void nodeLeft(String nodeId) {
+            ManagementNodeFailureDetector detector = failureDetector;
+            if (detector != null) {
+                detector.remove(nodeId);
+            }
+
             if (!destinationMaker.getManagementNodesInHashRing().contains(nodeId)) {
                 logger.debug(String.format("the management node[uuid:%s] is not in our hash ring, ignore this node-left call", nodeId));
                 return;
@@ -306,6 +311,26 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
         }
     };
 
+    private CloudBusEventListener nodeHeartbeatListener = new CloudBusEventListener() {
+        @Override
+        public boolean handleEvent(Event e) {
+            if (!(e instanceof ManagementNodeHeartbeatEvent)) {
+                return false;
+            }
+
+            ManagementNodeHeartbeatEvent evt = (ManagementNodeHeartbeatEvent) e;
+            if (Platform.getManagementServerId().equals(evt.getNodeUuid())) {
+                return false;
+            }
+
+            ManagementNodeFailureDetector detector = failureDetector;
+            if (detector != null) {
+                detector.heartbeat(evt.getNodeUuid(), evt.getHeartbeat(), System.currentTimeMillis());
+            }
+            return false;
+        }
+    };
+
     @Override
     public boolean start() {
         if (started) {
@@ -474,6 +499,7 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
                 @Override
                 public void run(FlowTrigger trigger, Map data) {
                     evtf.on(ManagementNodeCanonicalEvent.NODE_LIFECYCLE_PATH, nodeLifeCycleCallback);
+                    bus.subscribeEvent(nodeHeartbeatListener, new ManagementNodeHeartbeatEvent());
                     trigger.next();
                 }
             }).then(new NoRollbackFlow() {
@@ -540,12 +566,14 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
     }
 
     private void setupHeartbeat() {
-        ManagementNodeGlobalConfig.NODE_HEARTBEAT_INTERVAL.installUpdateExtension(new GlobalConfigUpdateExtensionPoint() {
+        GlobalConfigUpdateExtensionPoint restart = new GlobalConfigUpdateExtensionPoint() {
             @Override
             public void updateGlobalConfig(GlobalConfig oldConfig, GlobalConfig newConfig) {
                 startHeartbeat();
             }
-        });
+        };
+        ManagementNodeGlobalConfig.NODE_HEARTBEAT_INTERVAL.installUpdateExtension(restart);
+        ManagementNodeGlobalConfig.NODE_GOSSIP_INTERVAL.installUpdateExtension(restart);
 
         startHeartbeat();
     }
@@ -582,25 +610,53 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
     }
 
 
+    /**
+     * Management nodes write heartbeats to the database every node.heartbeatInterval, and gossip them to each
+     * other through the message bus every node.gossipInterval. Nodes stopping gossiping are detected by
+     * {@link ManagementNodeFailureDetector} and fenced if their heartbeats in the database stopped too, so
+     * the database is only checked for suspects, and all nodes in the database are only checked every
+     * ManagementNode.fullHealthCheckRounds heartbeats or when some node in our hash ring is not gossiping.
+     */
     private void startHeartbeat() {
         if (heartBeatTask != null) {
             heartBeatTask.cancel(true);
         }
 
+        long gossipInterval = ManagementNodeGlobalConfig.NODE_GOSSIP_INTERVAL.value(Long.class);
+        failureDetector = new ManagementNodeFailureDetector(gossipInterval, 2 * gossipInterval);
+
         heartBeatTask = thdf.submit(new Task<Void>() {
             private List<ManagementNodeVO> suspects = new ArrayList<ManagementNodeVO>();
+            private Map<String, ManagementNodeVO> gossipSuspects = new HashMap<String, ManagementNodeVO>();
+            private ManagementNodeFailureDetector.HeartbeatStore heartbeatStore = new ManagementNodeFailureDetector.HeartbeatStore() {
+                @Override
+                public Timestamp getHeartbeat(String nodeUuid) {
+                    ManagementNodeVO n = getNode(nodeUuid);
+                    if (n == null) {
+                        return null;
+                    }
+
+                    gossipSuspects.put(nodeUuid, n);
+                    return n.getHeartBeat();
+                }
+
+                @Override
+                public Timestamp getCurrentTime() {
+                    return dbf.getCurrentSqlTime();
+                }
+
+                @Override
+                public boolean deleteNode(String nodeUuid, Timestamp heartbeat) {
+                    String sql = "delete from ManagementNodeVO where uuid = ? and heartBeat = ?";
+                    return heartBeatDBSource.jdbc.update(sql, nodeUuid, heartbeat) > 0;
+                }
+            };
 
             @Override
             public String getName() {
                 return String.format("managementNode-%s-heartbeat", Platform.getManagementServerId());
             }
 
-            private boolean amIalive() {
-                String sql = "select count(*) from ManagementNodeVO where uuid = ?";
-                long count = heartBeatDBSource.jdbc.queryForObject(sql, new Object[]{node.getUuid()}, Long.class);
-                return count != 0;
-            }
-
             private ManagementNodeVO getNode(String uuid) {
                 try {
                     String sql = "select * from ManagementNodeVO where uuid = ?";
@@ -646,11 +702,52 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
                 }
             }
 
-            private void updateHeartbeat() {
+            /**
+             * @return false if this node is not in the database any more
+             */
+            private boolean updateHeartbeat() {
                 String sql = "update ManagementNodeVO set heartBeat = NULL where uuid = ?";
-                if (heartBeatDBSource.jdbc.update(sql, node.getUuid()) > 0) {
-                    node = getNode(node.getUuid());
+                heartBeatDBSource.jdbc.update(sql, node.getUuid());
+                // reading back the heartbeat to gossip also tells if we are still alive
+                ManagementNodeVO n = getNode(node.getUuid());
+                if (n == null) {
+                    return false;
                 }
+
+                node = n;
+                return true;
+            }
+
+            private void gossip() {
+                bus.publish(new ManagementNodeHeartbeatEvent(node.getUuid(), node.getHeartBeat().getTime()));
+            }
+
+            private void detectByGossip(long now) {
+                long heartbeatTimeout = TimeUnit.SECONDS.toMillis(ManagementNodeGlobalConfig.NODE_HEARTBEAT_INTERVAL.value(Long.class))
+                        + ManagementNodeGlobalConfig.NODE_GOSSIP_INTERVAL.value(Long.class);
+                List<String> dead = failureDetector.detect(heartbeatStore,
+                        ManagementNodeGlobalConfig.NODE_PHI_THRESHOLD.value(Integer.class).doubleValue(), heartbeatTimeout, now);
+                for (String uuid : dead) {
+                    ManagementNodeVO n = gossipSuspects.get(uuid);
+                    if (n != null) {
+                        nodeDie(n);
+                    } else {
+                        // deleted by another node, which notifies the others
+                        nodeLifeCycle.nodeLeft(uuid);
+                    }
+                }
+                gossipSuspects.clear();
+            }
+
+            private boolean allNodesGossiping(long now) {
+                Set<String> healthy = failureDetector.getHealthyNodes(ManagementNodeGlobalConfig.NODE_PHI_THRESHOLD.value(Integer.class).doubleValue(), now);
+                for (String uuid : destinationMaker.getManagementNodesInHashRing()) {
+                    if (!uuid.equals(node.getUuid()) && !healthy.contains(uuid)) {
+                        return false;
+                    }
+                }
+
+                return true;
             }
 
             private void checkAllNodesHealth() {
@@ -659,6 +756,7 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
                 suspects.clear();
 
                 List<String> nodesInDb = new ArrayList<String>();
+                Timestamp curr = dbf.getCurrentSqlTime();
                 for (ManagementNodeVO vo : all) {
                     if (!StringDSL.isZStackUuid(vo.getUuid())) {
                         logger.warn(String.format("found a weird management node, it's UUID not a ZStack uuid, delete it. %s",
@@ -673,7 +771,6 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
                         continue;
                     }
 
-                    Timestamp curr = dbf.getCurrentSqlTime();
                     Timestamp lastHeartbeat = vo.getHeartBeat();
                     long end = lastHeartbeat.getTime() + TimeUnit.SECONDS.toMillis(2 * ManagementNodeGlobalConfig.NODE_HEARTBEAT_INTERVAL.value(Integer.class));
                     if (end < curr.getTime()) {
@@ -697,59 +794,77 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
             @Override
             public Void call() throws Exception {
                 int heartbeatFailure = 0;
+                int rounds = 0;
+                long nextHeartbeat = 0;
 
                 while (true) {
-                    try {
-                        if (!amIalive()) {
-                            logger.warn(String.format("cannot find my[uuid:%s] heartbeat in database, quit process", node.getUuid()));
-                            stop();
-                            return null;
-                        } else {
-                            updateHeartbeat();
-                            checkAllNodesHealth();
-                            fenceSuspects();
-                        }
-
-                        heartbeatFailure = 0;
-                    } catch (Throwable t) {
-                        heartbeatFailure++;
-
-                        if (heartbeatFailure > PortalGlobalProperty.MAX_HEARTBEAT_FAILURE) {
-                            logger.warn(String.format("the heartbeat has failed %s times that is greater than the max allowed value[%s]," +
-                                    " quit process", heartbeatFailure, PortalGlobalProperty.MAX_HEARTBEAT_FAILURE));
-                            stop();
-                            return null;
+                    long now = System.currentTimeMillis();
+                    if (now < nextHeartbeat) {
+                        try {
+                            gossip();
+                            detectByGossip(now);
+                        } catch (Throwable t) {
+                            logger.warn(String.format("an error happened when gossiping heartbeat, %s", t.getMessage()), t);
                         }
+                    } else {
+                        nextHeartbeat = now + TimeUnit.SECONDS.toMillis(ManagementNodeGlobalConfig.NODE_HEARTBEAT_INTERVAL.value(Long.class));
+                        try {
+                            if (!updateHeartbeat()) {
+                                logger.warn(String.format("cannot find my[uuid:%s] heartbeat in database, quit process", node.getUuid()));
+                                stop();
+                                return null;
+                            } else {
+                                gossip();
+                                detectByGossip(now);
+                                if (++rounds >= PortalGlobalProperty.FULL_HEALTH_CHECK_ROUNDS || !allNodesGossiping(now)) {
+                                    rounds = 0;
+                                    checkAllNodesHealth();
+                                    fenceSuspects();
+                                }
+                            }
 
-                        boolean databaseError = false;
+                            heartbeatFailure = 0;
+                        } catch (Throwable t) {
+                            heartbeatFailure++;
 
-                        logger.warn(String.format("an error happened when doing heartbeat, %s, it's going to recover", t.getMessage()));
+                            if (heartbeatFailure > PortalGlobalProperty.MAX_HEARTBEAT_FAILURE) {
+                                logger.warn(String.format("the heartbeat has failed %s times that is greater than the max allowed value[%s]," +
+                                        " quit process", heartbeatFailure, PortalGlobalProperty.MAX_HEARTBEAT_FAILURE));
+                                stop();
+                                return null;
+                            }
 
-                        try {
-                            heartBeatDBSource.jdbc.queryForObject("select 1", Integer.class);
-                        } catch (Throwable t1) {
-                            logger.warn(String.format("cannot communicate to the database, it's most likely the DB stopped or rebooted;" +
-                                    "try creating a new database connection. %s", t1.getMessage()), t1);
-                            databaseError = true;
-                        }
+                            boolean databaseError = false;
 
-                        if (databaseError) {
-                            if (heartBeatDBSource != null) {
-                                heartBeatDBSource.destroy();
-                            }
+                            logger.warn(String.format("an error happened when doing heartbeat, %s, it's going to recover", t.getMessage()));
 
                             try {
-                                heartBeatDBSource = new HeartBeatDBSource();
+                                heartBeatDBSource.jdbc.queryForObject("select 1", Integer.class);
                             } catch (Throwable t1) {
-                                logger.warn(String.format("unable to create a database connection, %s, will try it later", t1.getMessage()), t1);
+                                logger.warn(String.format("cannot communicate to the database, it's most likely the DB stopped or rebooted;" +
+                                        "try creating a new database connection. %s", t1.getMessage()), t1);
+                                databaseError = true;
+                            }
+
+                            if (databaseError) {
+                                if (heartBeatDBSource != null) {
+                                    heartBeatDBSource.destroy();
+                                }
+
+                                try {
+                                    heartBeatDBSource = new HeartBeatDBSource();
+                                } catch (Throwable t1) {
+                                    logger.warn(String.format("unable to create a database connection, %s, will try it later", t1.getMessage()), t1);
+                                }
+                            } else {
+                                logger.warn("unhandled exception happened", t);
                             }
-                        } else {
-                            logger.warn("unhandled exception happened", t);
                         }
                     }
 
                     try {
-                        TimeUnit.SECONDS.sleep(ManagementNodeGlobalConfig.NODE_HEARTBEAT_INTERVAL.value(Long.class));
+                        long gossipInterval = ManagementNodeGlobalConfig.NODE_GOSSIP_INTERVAL.value(Long.class);
+                        TimeUnit.MILLISECONDS.sleep(Math.max(Math.min(gossipInterval, nextHeartbeat - System.currentTimeMillis()), 0));
                     } catch (InterruptedException ie) {
                     }
 
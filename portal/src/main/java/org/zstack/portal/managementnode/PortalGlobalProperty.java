@@ -10,4 +10,6 @@ import org.zstack.core.GlobalPropertyDefinition;
 public class PortalGlobalProperty {
     @GlobalProperty(name = "ManagementNode.maxHeartbeatFailure", defaultValue = "5")
     public static int MAX_HEARTBEAT_FAILURE;
+    @GlobalProperty(name = "ManagementNode.fullHealthCheckRounds", defaultValue = "6")
+    public static int FULL_HEALTH_CHECK_ROUNDS;
 }
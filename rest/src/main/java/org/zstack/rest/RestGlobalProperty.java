@@ -10,4 +10,8 @@ import org.zstack.core.GlobalPropertyDefinition;
 public class RestGlobalProperty {
     @GlobalProperty(name="RestServer.maxCachedApiResults", defaultValue = "2000")
     public static int MAX_CACHED_API_RESULTS;
+    @GlobalProperty(name="RestServer.asyncSyncCall", defaultValue = "true")
+    public static boolean ASYNC_SYNC_CALL;
+    @GlobalProperty(name="RestServer.queryPageSize", defaultValue = "1000")
+    public static int QUERY_PAGE_SIZE;
 }
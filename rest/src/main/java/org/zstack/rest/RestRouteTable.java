@@ -0,0 +1,214 @@
+package org.zstack.rest;
+
+import org.springframework.util.AntPathMatcher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves a request path to the value registered for the path pattern matching it.
+ *
+ * Patterns are compiled into a trie of path segments, a segment is either a literal
+ * or a variable like {uuid} which matches any single segment, so resolving a path costs
+ * O(path segments) regardless of how many patterns are registered. A literal child is
+ * preferred over the variable child, and the variable child is tried when the literal
+ * branch doesn't lead to a match. Segments matched by variables are captured on the way,
+ * so callers get the URL variables with the match and don't need to extract them again.
+ *
+ * Segments the trie can't express, for example wildcards or a variable mixed with
+ * literals in one segment, are matched by AntPathMatcher as before.
+ */
+public class RestRouteTable<T> {
+    private static final Pattern VARIABLE_SEGMENT = Pattern.compile("^\\{[^/{}]+\\}$");
+    private static final Pattern VARIABLE = Pattern.compile("\\{([^/{}:]+)(:[^{}]*)?\\}");
+
+    private final AntPathMatcher matcher = new AntPathMatcher();
+    private final Node<T> root = new Node<>();
+    private final Map<String, T> fallbackRoutes = new LinkedHashMap<>();
+
+    public static class Match<T> {
+        private final T value;
+        private final List<String> variableValues;
+        private final List<String> variableNames;
+
+        Match(T value, List<String> variableNames, List<String> variableValues) {
+            this.value = value;
+            this.variableNames = variableNames;
+            this.variableValues = variableValues;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * @return values of the URL variables in the order they appear in the pattern
+         */
+        public List<String> getVariableValues() {
+            return variableValues;
+        }
+
+        /**
+         * @return the URL variables keyed by their names in the registered pattern
+         */
+        public Map<String, String> getVariables() {
+            Map<String, String> ret = new HashMap<>();
+            for (int i = 0; i < variableNames.size(); i++) {
+                ret.put(variableNames.get(i), variableValues.get(i));
+            }
+
+            return ret;
+        }
+    }
+
+    private static class Node<T> {
+        Map<String, Node<T>> literalChildren;
+        Node<T> variableChild;
+        T value;
+        List<String> variableNames;
+
+        Node<T> literalChild(String segment) {
+            if (literalChildren == null) {
+                literalChildren = new HashMap<>();
+            }
+
+            return literalChildren.computeIfAbsent(segment, k -> new Node<>());
+        }
+
+        Node<T> variableChild() {
+            if (variableChild == null) {
+                variableChild = new Node<>();
+            }
+
+            return variableChild;
+        }
+    }
+
+    private static List<String> split(String path) {
+        List<String> segments = new ArrayList<>();
+        int start = 0;
+        int len = path.length();
+        for (int i = 0; i <= len; i++) {
+            if (i == len || path.charAt(i) == '/') {
+                // empty segments are ignored the same as AntPathMatcher does
+                if (i > start) {
+                    segments.add(path.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+
+        return segments;
+    }
+
+    private static List<String> variableNames(String pattern) {
+        List<String> names = new ArrayList<>();
+        Matcher m = VARIABLE.matcher(pattern);
+        while (m.find()) {
+            names.add(m.group(1));
+        }
+
+        return names;
+    }
+
+    private static boolean isLiteral(String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c == '*' || c == '?' || c == '{' || c == '}') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public void add(String pattern, T value) {
+        // AntPathMatcher never matches a path with a trailing slash to a pattern without one
+        // or vice versa, leave such patterns to it
+        if (pattern.endsWith("/") || !pattern.startsWith("/")) {
+            fallbackRoutes.put(pattern, value);
+            return;
+        }
+
+        List<String> segments = split(pattern);
+        for (String seg : segments) {
+            if (!isLiteral(seg) && !VARIABLE_SEGMENT.matcher(seg).matches()) {
+                fallbackRoutes.put(pattern, value);
+                return;
+            }
+        }
+
+        Node<T> node = root;
+        for (String seg : segments) {
+            node = isLiteral(seg) ? node.literalChild(seg) : node.variableChild();
+        }
+        node.value = value;
+        node.variableNames = variableNames(pattern);
+    }
+
+    /**
+     * @param variableValues collects the segments matched by variables, it's restored
+     *                       when a branch doesn't lead to a match
+     */
+    private Node<T> find(Node<T> node, List<String> segments, int index, List<String> variableValues) {
+        if (index == segments.size()) {
+            return node.value == null ? null : node;
+        }
+
+        String seg = segments.get(index);
+        if (node.literalChildren != null) {
+            Node<T> child = node.literalChildren.get(seg);
+            if (child != null) {
+                Node<T> ret = find(child, segments, index + 1, variableValues);
+                if (ret != null) {
+                    return ret;
+                }
+            }
+        }
+
+        if (node.variableChild != null) {
+            variableValues.add(seg);
+            Node<T> ret = find(node.variableChild, segments, index + 1, variableValues);
+            if (ret == null) {
+                variableValues.remove(variableValues.size() - 1);
+            }
+            return ret;
+        }
+
+        return null;
+    }
+
+    public Match<T> match(String path) {
+        if (path.startsWith("/") && !path.endsWith("/")) {
+            List<String> values = new ArrayList<>();
+            Node<T> node = find(root, split(path), 0, values);
+            if (node != null) {
+                return new Match<>(node.value, node.variableNames, values);
+            }
+        }
+
+        for (Map.Entry<String, T> e : fallbackRoutes.entrySet()) {
+            if (matcher.match(e.getKey(), path)) {
+                List<String> names = variableNames(e.getKey());
+                Map<String, String> vars = matcher.extractUriTemplateVariables(e.getKey(), path);
+                List<String> values = new ArrayList<>();
+                for (String name : names) {
+                    values.add(vars.get(name));
+                }
+                return new Match<>(e.getValue(), names, values);
+            }
+        }
+
+        return null;
+    }
+
+    public T lookup(String path) {
+        Match<T> m = match(path);
+        return m == null ? null : m.getValue();
+    }
+}
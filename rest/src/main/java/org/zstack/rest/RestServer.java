@@ -17,6 +17,7 @@ import org.springframework.util.AntPathMatcher;
 import org.springframework.web.util.UriComponentsBuilder;
 import org.zstack.core.Platform;
 import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.CloudBusCallBack;
 import org.zstack.core.cloudbus.CloudBusEventListener;
 import org.zstack.core.retry.Retry;
 import org.zstack.core.retry.RetryCondition;
@@ -41,18 +42,22 @@ import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
 import org.zstack.utils.path.PathUtil;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
-import java.io.File;
-import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.*;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
 import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -260,6 +265,8 @@ public class RestServer implements Component, CloudBusEventListener {
         RestResponse responseAnnotation;
         Map<String, String> requestMappingFields;
         String path;
+        // names of the URL variables in path, in the order they appear
+        List<String> pathVariableNames;
         List<String> optionalPaths = new ArrayList<>();
         String actionName;
 
@@ -461,6 +468,8 @@ public class RestServer implements Component, CloudBusEventListener {
     private AntPathMatcher matcher = new AntPathMatcher();
 
     private Map<String, Object> apis = new HashMap<>();
+    // compiled from apis by build()
+    private RestRouteTable<Object> routes = new RestRouteTable<>();
     private Map<Class, RestResponseWrapper> responseAnnotationByClass = new HashMap<>();
 
     private HttpEntity<String> toHttpEntity(HttpServletRequest req) {
@@ -542,26 +551,19 @@ public class RestServer implements Component, CloudBusEventListener {
             return;
         }
 
-        Object api = apis.get(path);
-        if (api == null) {
-            for (String p : apis.keySet()) {
-                if (matcher.match(p, path)) {
-                    api = apis.get(p);
-                    break;
-                }
-            }
-        }
+        RestRouteTable.Match<Object> route = routes.match(path);
 
-        if (api == null) {
+        if (route == null) {
             sendResponse(HttpStatus.NOT_FOUND.value(), String.format("no api mapping to %s", path), rsp);
             return;
         }
 
         try {
+            Object api = route.getValue();
             if (api instanceof Api) {
-                handleUniqueApi((Api) api, entity, req, rsp);
+                handleUniqueApi((Api) api, route.getVariableValues(), entity, req, rsp);
             } else {
-                handleNonUniqueApi((Collection)api, entity, req, rsp);
+                handleNonUniqueApi((Collection)api, route.getVariableValues(), entity, req, rsp);
             }
         } catch (RestException e) {
             sendResponse(e.statusCode, e.error, rsp);
@@ -609,10 +611,18 @@ public class RestServer implements Component, CloudBusEventListener {
     }
 
     private void sendResponse(int statusCode, ApiResponse response, HttpServletResponse rsp) throws IOException {
-        sendResponse(statusCode, response.isEmpty() ? "" : JSONObjectUtil.toJsonString(response), rsp);
+        if (response.isEmpty() || requestLogger.isTraceEnabled()) {
+            sendResponse(statusCode, response.isEmpty() ? "" : JSONObjectUtil.toJsonString(response), rsp);
+            return;
+        }
+
+        // a large reply, e.g. a query of thousands of inventories, is written to
+        // the servlet directly instead of being built as a String first
+        rsp.setStatus(statusCode);
+        JSONObjectUtil.toJson(response, rsp.getWriter());
     }
 
-    private void handleNonUniqueApi(Collection<Api> apis, HttpEntity<String> entity, HttpServletRequest req, HttpServletResponse rsp) throws RestException, InvocationTargetException, NoSuchMethodException, InstantiationException, IllegalAccessException, IOException {
+    private void handleNonUniqueApi(Collection<Api> apis, List<String> urlVariableValues, HttpEntity<String> entity, HttpServletRequest req, HttpServletResponse rsp) throws RestException, InvocationTargetException, NoSuchMethodException, InstantiationException, IllegalAccessException, IOException {
         Map m = JSONObjectUtil.toObject(entity.getBody(), LinkedHashMap.class);
         Api api;
 
@@ -661,10 +671,24 @@ public class RestServer implements Component, CloudBusEventListener {
         }
 
         parameterName = parameterName == null ? api.requestAnnotation.parameterName() : parameterName;
-        handleApi(api, m, parameterName, entity, req, rsp);
+        handleApi(api, urlVariableValues, m, parameterName, entity, req, rsp);
     }
 
-    private void handleApi(Api api, Map body, String parameterName, HttpEntity<String> entity, HttpServletRequest req, HttpServletResponse rsp) throws RestException, IllegalAccessException, InstantiationException, InvocationTargetException, NoSuchMethodException, IOException {
+    /**
+     * @param urlVariableValues values of the URL variables captured by the route table, in the order
+     *                          they appear in the path; they're named by the path of the matched API
+     *                          since APIs sharing a route may name variables differently
+     */
+    private Map<String, String> getUrlVariables(Api api, List<String> urlVariableValues) {
+        Map<String, String> vars = new HashMap<>();
+        for (int i = 0; i < api.pathVariableNames.size(); i++) {
+            vars.put(api.pathVariableNames.get(i), urlVariableValues.get(i));
+        }
+
+        return vars;
+    }
+
+    private void handleApi(Api api, List<String> urlVariableValues, Map body, String parameterName, HttpEntity<String> entity, HttpServletRequest req, HttpServletResponse rsp) throws RestException, IllegalAccessException, InstantiationException, InvocationTargetException, NoSuchMethodException, IOException {
         if (body == null) {
             // for some POST request, the body may be null, for example, attach primary storage to a cluster
             body = new HashMap();
@@ -686,7 +710,7 @@ public class RestServer implements Component, CloudBusEventListener {
         }
 
         if (APIQueryMessage.class.isAssignableFrom(api.apiClass)) {
-            handleQueryApi(api, sessionId, req, rsp);
+            handleQueryApi(api, getUrlVariables(api, urlVariableValues), sessionId, req, rsp);
             return;
         }
 
@@ -772,7 +796,7 @@ public class RestServer implements Component, CloudBusEventListener {
             }
         }
 
-        Map<String, String> vars = matcher.extractUriTemplateVariables(api.path, getDecodedUrl(req));
+        Map<String, String> vars = getUrlVariables(api, urlVariableValues);
         for (Map.Entry<String, String> e : vars.entrySet()) {
             // set fields parsed from the URL
             String key = e.getKey();
@@ -781,7 +805,7 @@ public class RestServer implements Component, CloudBusEventListener {
         }
 
         msg.setServiceId(ApiMediatorConstant.SERVICE_ID);
-        sendMessage(msg, api, rsp);
+        sendMessage(msg, api, req, rsp);
     }
 
     private static final LinkedHashMap<String, String> QUERY_OP_MAPPING = new LinkedHashMap();
@@ -806,30 +830,45 @@ public class RestServer implements Component, CloudBusEventListener {
         QUERY_OP_MAPPING.put("not null", QueryOp.NOT_NULL.toString());
     }
 
-    private void handleQueryApi(Api api, String sessionId, HttpServletRequest req, HttpServletResponse rsp) throws IllegalAccessException, InstantiationException, RestException, IOException, NoSuchMethodException, InvocationTargetException {
-        Map<String, String[]> vars = req.getParameterMap();
-        APIQueryMessage msg = (APIQueryMessage) api.apiClass.newInstance();
-
-        SessionInventory session = new SessionInventory();
-        session.setUuid(sessionId);
-        msg.setSession(session);
-        msg.setServiceId(ApiMediatorConstant.SERVICE_ID);
-
-        Map<String, String> urlvars = matcher.extractUriTemplateVariables(api.path, getDecodedUrl(req));
+    private void handleQueryApi(Api api, Map<String, String> urlvars, String sessionId, HttpServletRequest req, HttpServletResponse rsp) throws IllegalAccessException, InstantiationException, RestException, IOException, NoSuchMethodException, InvocationTargetException {
         String uuid = urlvars.get("uuid");
         if (uuid != null) {
             // this is a GET /xxxx/uuid
             // return the resource directly
+            APIQueryMessage msg = newQueryMessage(api, sessionId);
             QueryCondition qc = new QueryCondition();
             qc.setName("uuid");
             qc.setOp("=");
             qc.setValue(uuid);
             msg.getConditions().add(qc);
 
-            sendMessage(msg, api, rsp);
+            sendMessage(msg, api, req, rsp);
             return;
         }
 
+        APIQueryMessage msg = parseQueryMessage(api, sessionId, req);
+        if (isPagedQuery(msg, api)) {
+            sendPagedQuery(msg, api, sessionId, req, rsp);
+            return;
+        }
+
+        sendMessage(msg, api, req, rsp);
+    }
+
+    private APIQueryMessage newQueryMessage(Api api, String sessionId) throws IllegalAccessException, InstantiationException {
+        APIQueryMessage msg = (APIQueryMessage) api.apiClass.newInstance();
+
+        SessionInventory session = new SessionInventory();
+        session.setUuid(sessionId);
+        msg.setSession(session);
+        msg.setServiceId(ApiMediatorConstant.SERVICE_ID);
+        return msg;
+    }
+
+    private APIQueryMessage parseQueryMessage(Api api, String sessionId, HttpServletRequest req) throws IllegalAccessException, InstantiationException, RestException {
+        Map<String, String[]> vars = req.getParameterMap();
+        APIQueryMessage msg = newQueryMessage(api, sessionId);
+
         // a query with conditions
         for (Map.Entry<String, String[]> e : vars.entrySet()) {
             String varname = e.getKey().trim();
@@ -925,11 +964,113 @@ public class RestServer implements Component, CloudBusEventListener {
             msg.setConditions(new ArrayList<>());
         }
 
-        sendMessage(msg, api, rsp);
+        return msg;
+    }
+
+    private boolean isPagedQuery(APIQueryMessage msg, Api api) {
+        int pageSize = RestGlobalProperty.QUERY_PAGE_SIZE;
+        RestResponseWrapper w = responseAnnotationByClass.get(api.apiResponseClass);
+        // the body is logged as a whole when tracing
+        return pageSize > 0 && !requestLogger.isTraceEnabled() && w != null && !w.annotation.allTo().equals("")
+                && !msg.isCount() && !msg.isFieldQuery() && msg.getGroupBy() == null
+                && (msg.getLimit() == null || msg.getLimit() > pageSize);
+    }
+
+    // a query asking for more inventories than RestGlobalProperty.QUERY_PAGE_SIZE is sent page by page, each
+    // page is written to the response before the next one is queried, so neither the replies nor the response
+    // hold the whole result. The schema of each page is spooled to a temporary file and written after the
+    // inventories. A failure after the first page leaves the JSON unterminated, so the client fails to parse
+    // it instead of taking a partial result.
+    private void sendPagedQuery(APIQueryMessage msg, Api api, String sessionId, HttpServletRequest req, HttpServletResponse rsp) throws IOException, IllegalAccessException, NoSuchMethodException, InvocationTargetException, InstantiationException, RestException {
+        String field = responseAnnotationByClass.get(api.apiResponseClass).annotation.allTo();
+        long remaining = msg.getLimit() == null ? Long.MAX_VALUE : msg.getLimit();
+        boolean replyWithCount = msg.isReplyWithCount();
+
+        File schemaFile = File.createTempFile("rest-query-schema", ".json");
+        try (Writer schema = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(schemaFile), StandardCharsets.UTF_8))) {
+            Writer out = null;
+            Long total = null;
+            String cursor = "";
+            int num = 0;
+            boolean schemaEmpty = true;
+            while (cursor != null && remaining > 0) {
+                // a new message for every page, the previous one may be changed by API interceptors
+                APIQueryMessage page = out == null ? msg : parseQueryMessage(api, sessionId, req);
+                page.setCursor(cursor);
+                page.setLimit((int) Math.min(RestGlobalProperty.QUERY_PAGE_SIZE, remaining));
+                page.setReplyWithCount(out == null && replyWithCount);
+
+                MessageReply reply = call(page);
+                if (!reply.isSuccess()) {
+                    if (out == null) {
+                        sendReplyResponse(reply, api, rsp);
+                        return;
+                    }
+
+                    throw new CloudRuntimeException(String.format("failed to query inventories after the %s ones" +
+                            " written, %s", num, reply.getError()));
+                }
+
+                APIQueryReply qr = (APIQueryReply) reply;
+                List invs = (List) PropertyUtils.getProperty(qr, field);
+                if (invs == null) {
+                    invs = new ArrayList();
+                }
+
+                if (out == null) {
+                    total = qr.getTotal();
+                    rsp.setStatus(HttpStatus.OK.value());
+                    out = rsp.getWriter();
+                    out.write(String.format("{%s:[", JSONObjectUtil.toJsonString(field)));
+                }
+
+                Map<String, Object> pageResponse = new HashMap<>();
+                pageResponse.put(field, invs);
+                for (Map.Entry<String, String> e : new JsonSchemaBuilder(pageResponse).build().entrySet()) {
+                    // paths of the page are indexed from 0, e.g. inventories[0].vmNics[1]
+                    String path = e.getKey();
+                    int end = path.indexOf(']');
+                    int index = num + Integer.valueOf(path.substring(field.length() + 1, end));
+                    path = String.format("%s[%s]%s", field, index, path.substring(end + 1));
+                    if (!schemaEmpty) {
+                        schema.write(',');
+                    }
+                    schema.write(String.format("%s:%s", JSONObjectUtil.toJsonString(path), JSONObjectUtil.toJsonString(e.getValue())));
+                    schemaEmpty = false;
+                }
+
+                for (Object inv : invs) {
+                    if (num++ > 0) {
+                        out.write(',');
+                    }
+                    JSONObjectUtil.toJson(inv, out);
+                }
+                out.flush();
+
+                remaining -= invs.size();
+                cursor = qr.getCursor();
+            }
+
+            out.write(']');
+            if (total != null) {
+                out.write(String.format(",\"total\":%s", total));
+            }
+
+            schema.flush();
+            out.write(",\"schema\":{");
+            try (Reader r = new InputStreamReader(new FileInputStream(schemaFile), StandardCharsets.UTF_8)) {
+                IOUtils.copy(r, out);
+            }
+            out.write("}}");
+        } finally {
+            if (!schemaFile.delete()) {
+                logger.warn(String.format("failed to delete the temporary file[%s]", schemaFile.getAbsolutePath()));
+            }
+        }
     }
 
-    private void handleUniqueApi(Api api, HttpEntity<String> entity, HttpServletRequest req, HttpServletResponse rsp) throws RestException, IllegalAccessException, InstantiationException, InvocationTargetException, NoSuchMethodException, IOException {
-        handleApi(api, JSONObjectUtil.toObject(entity.getBody(), LinkedHashMap.class),
+    private void handleUniqueApi(Api api, List<String> urlVariableValues, HttpEntity<String> entity, HttpServletRequest req, HttpServletResponse rsp) throws RestException, IllegalAccessException, InstantiationException, InvocationTargetException, NoSuchMethodException, IOException {
+        handleApi(api, urlVariableValues, JSONObjectUtil.toObject(entity.getBody(), LinkedHashMap.class),
                api.requestAnnotation.isAction() ? api.actionName : api.requestAnnotation.parameterName(), entity, req, rsp);
     }
 
@@ -974,10 +1115,119 @@ public class RestServer implements Component, CloudBusEventListener {
         sendResponse(HttpStatus.OK.value(), response, rsp);
     }
 
-    private void sendMessage(APIMessage msg, Api api, HttpServletResponse rsp) throws IOException, IllegalAccessException, NoSuchMethodException, InvocationTargetException {
-        if (msg instanceof APISyncCallMessage) {
-            MessageReply reply = bus.call(msg);
-            sendReplyResponse(reply, api, rsp);
+    // APISyncCallMessage sent and waiting for the reply
+    private final AtomicInteger inFlightSyncCallNum = new AtomicInteger(0);
+
+    public int getInFlightSyncCallNum() {
+        return inFlightSyncCallNum.get();
+    }
+
+    private class AsyncCall implements AsyncListener {
+        final AsyncContext context;
+        final RequestInfo info = requestInfo.get();
+        final AtomicBoolean completed = new AtomicBoolean(false);
+
+        AsyncCall(HttpServletRequest req) {
+            context = req.startAsync();
+            // the message timeout of CloudBus replies a timeout error to the callback,
+            // so the container doesn't time out the request by itself
+            context.setTimeout(0);
+            context.addListener(this);
+            inFlightSyncCallNum.incrementAndGet();
+        }
+
+        void call(APIMessage msg, Api api) {
+            try {
+                bus.send(msg, new CloudBusCallBack(null) {
+                    @Override
+                    public void run(MessageReply reply) {
+                        reply(reply, api);
+                    }
+                });
+            } catch (RuntimeException e) {
+                logger.warn(String.format("failed to send API message %s", msg.getClass().getName()), e);
+                complete(HttpStatus.INTERNAL_SERVER_ERROR.value(), e.getMessage());
+            }
+        }
+
+        private void reply(MessageReply reply, Api api) {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+
+            requestInfo.set(info);
+            HttpServletResponse rsp = (HttpServletResponse) context.getResponse();
+            try {
+                sendReplyResponse(reply, api, rsp);
+            } catch (Throwable t) {
+                logger.warn(String.format("failed to send the response of %s", api.apiClass.getName()), t);
+                try {
+                    sendResponse(HttpStatus.INTERNAL_SERVER_ERROR.value(), t.getMessage(), rsp);
+                } catch (Throwable t1) {
+                    logger.warn(t1.getMessage(), t1);
+                }
+            } finally {
+                // the callback thread is pooled, don't leak the request to its next task
+                requestInfo.remove();
+                context.complete();
+            }
+        }
+
+        private void complete(int statusCode, String body) {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+
+            try {
+                sendResponse(statusCode, body, (HttpServletResponse) context.getResponse());
+            } catch (Throwable t) {
+                logger.warn(t.getMessage(), t);
+            } finally {
+                context.complete();
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+            inFlightSyncCallNum.decrementAndGet();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            complete(HttpStatus.SERVICE_UNAVAILABLE.value(), "timeout waiting for the API reply");
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            // the client has gone, nothing to respond
+            if (completed.compareAndSet(false, true)) {
+                logger.warn(String.format("error happened on the asynchronous request to %s", info.requestUrl),
+                        event.getThrowable());
+                context.complete();
+            }
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+        }
+    }
+
+    private MessageReply call(APIMessage msg) {
+        inFlightSyncCallNum.incrementAndGet();
+        try {
+            return bus.call(msg);
+        } finally {
+            inFlightSyncCallNum.decrementAndGet();
+        }
+    }
+
+    private void sendMessage(APIMessage msg, Api api, HttpServletRequest req, HttpServletResponse rsp) throws IOException, IllegalAccessException, NoSuchMethodException, InvocationTargetException {
+        if (msg instanceof APISyncCallMessage && RestGlobalProperty.ASYNC_SYNC_CALL && req.isAsyncSupported()) {
+            // don't park the container thread waiting for the reply, the response
+            // is completed by the CloudBus callback
+            new AsyncCall(req).call(msg, api);
+        } else if (msg instanceof APISyncCallMessage) {
+            sendReplyResponse(call(msg), api, rsp);
         } else {
             RequestData d = new RequestData();
             d.apiMessage = msg;
@@ -1094,6 +1344,7 @@ public class RestServer implements Component, CloudBusEventListener {
 
                 api = new Api(clz, at);
                 api.path = path;
+                api.pathVariableNames = getVarNamesFromUrl(path);
 
                 if (!apis.containsKey(normalizedPath)) {
                     apis.put(normalizedPath, api);
@@ -1174,6 +1425,10 @@ public class RestServer implements Component, CloudBusEventListener {
                 set.put(a.actionName, a);
             }
         }
+
+        for (Map.Entry<String, Object> e : apis.entrySet()) {
+            routes.add(e.getKey(), e.getValue());
+        }
     }
 
     @Override
@@ -0,0 +1,12 @@
+package org.zstack.sdk;
+
+public class PrewarmImageCacheOnPrimaryStorageResult {
+    public java.util.List<ImageCacheInventory> inventories;
+    public void setInventories(java.util.List<ImageCacheInventory> inventories) {
+        this.inventories = inventories;
+    }
+    public java.util.List<ImageCacheInventory> getInventories() {
+        return this.inventories;
+    }
+
+}
@@ -9,6 +9,7 @@ import org.springframework.transaction.annotation.Transactional;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.core.jmx.JmxFacade;
 import org.zstack.header.Component;
 import org.zstack.header.apimediator.ApiMessageInterceptionException;
 import org.zstack.header.apimediator.GlobalApiMessageInterceptor;
@@ -37,13 +38,16 @@ import java.lang.reflect.Method;
 import java.sql.Timestamp;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import static org.zstack.utils.StringDSL.s;
 
 /**
  */
-public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalApiMessageInterceptor, PythonApiBindingWriter {
+public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalApiMessageInterceptor, PythonApiBindingWriter,
+        QueryPlanCacheMXBean {
     private static final CLogger logger = Utils.getLogger(MysqlQueryBuilderImpl3.class);
 
     @Autowired
@@ -52,11 +56,61 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
     private ErrorFacade errf;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private JmxFacade jmxf;
 
     private Objenesis objenesis = new ObjenesisStd();
 
     private static final String USER_TAG = "__userTag__";
     private static final String SYSTEM_TAG = "__systemTag__";
+    private static final String LAST_PRIMARY_KEY = "__lastPrimaryKey__";
+
+    // compiled JPQL and parameter bindings keyed by the shape of queries, see QueryContext.planKey()
+    private final Map<String, QueryPlan> planCache = new LinkedHashMap<String, QueryPlan>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, QueryPlan> eldest) {
+            if (size() > QueryGlobalProperty.PLAN_CACHE_SIZE) {
+                planCacheEvictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+    private final AtomicLong planCacheHits = new AtomicLong(0);
+    private final AtomicLong planCacheMisses = new AtomicLong(0);
+    private final AtomicLong planCacheEvictions = new AtomicLong(0);
+    private final AtomicLong planBuildNanos = new AtomicLong(0);
+
+    private static class ParameterBinding {
+        String name;
+        // index of the condition supplying the value in QueryContext.sourceConditions
+        int sourceIndex;
+        // the condition which the plan is built from, used to convert values to the entity field type
+        MetaCondition condition;
+    }
+
+    private static class QueryPlan {
+        String jpql;
+        List<ParameterBinding> bindings = new ArrayList<>();
+    }
+
+    @Override
+    public QueryPlanCacheStatistic getQueryPlanCacheStatistic() {
+        int size;
+        synchronized (planCache) {
+            size = planCache.size();
+        }
+
+        long misses = planCacheMisses.get();
+        return new QueryPlanCacheStatistic(
+                size,
+                QueryGlobalProperty.PLAN_CACHE_SIZE,
+                planCacheHits.get(),
+                misses,
+                planCacheEvictions.get(),
+                misses == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(planBuildNanos.get() / misses)
+        );
+    }
 
     @Override
     public List<Class> getMessageClassToIntercept() {
@@ -340,6 +394,7 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         String attrValueName;
         boolean skipInventoryCheck;
         int index;
+        int sourceIndex;
 
         private Field entityField;
 
@@ -381,6 +436,10 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         }
 
         Object normalizeValue() {
+            return normalizeValue(value);
+        }
+
+        Object normalizeValue(String value) {
             if (QueryOp.IS_NULL.equals(op) || QueryOp.NOT_NULL.equals(op)) {
                 return null;
             }
@@ -498,6 +557,10 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         List<QueryObject> children = new ArrayList<QueryObject>();
         SubQueryInfo subQueryInfo;
         APIQueryMessage msg;
+        // below are only for the root query fetching results in chunks
+        boolean chunked;
+        boolean afterLastPrimaryKey;
+        List<String> extraSubQueries;
 
         // NOTE: we hard code tag specific logic here because we think current query model is not sustainable,
         // it worth nothing to waste effort on making this as extension point; we will switch the entire
@@ -688,15 +751,13 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                 throw new CloudRuntimeException("cannot be here");
             } else {
                 // this is root query
-                for (MysqlQuerySubQueryExtension ext : subQueryExtensions) {
-                    String sub = ext.makeSubquery(msg, info.inventoryClass);
-                    if (sub != null) {
-                        where.add(sub);
-                    }
-                }
+                where.addAll(extraSubQueries);
 
                 String entityName = info.inventoryClass.getSimpleName().toLowerCase();
                 String entity = info.entityClass.getSimpleName();
+                if (afterLastPrimaryKey) {
+                    where.add(String.format("%s.%s > :%s", entityName, info.primaryKey, LAST_PRIMARY_KEY));
+                }
                 String condition = StringUtils.join(where, " and ").trim();
                 if (isCount) {
                     if (where.isEmpty()) {
@@ -729,6 +790,12 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                         }
 
                         ret = String.format("%s order by %s.%s %s", ret, entityName, msg.getSortBy(), msg.getSortDirection().toUpperCase());
+                        if (chunked) {
+                            // break ties so chunks neither overlap nor miss rows
+                            ret = String.format("%s, %s.%s", ret, entityName, info.primaryKey);
+                        }
+                    } else if (chunked) {
+                        ret = String.format("%s order by %s.%s", ret, entityName, info.primaryKey);
                     }
 
                     if (msg.getGroupBy() != null) {
@@ -750,9 +817,16 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         private Class inventoryClass;
         private QueryObject root;
         private Map<Class, QueryObject> tmpMap = new HashMap<Class, QueryObject>();
+        // conditions of the message followed by conditions from AddExtraConditionToQueryExtensionPoint
+        private List<QueryCondition> sourceConditions;
+        private int msgConditionNum;
+        private List<String> extraSubQueries;
+        private int currentSourceIndex;
+        private QueryPlan plan;
 
         private MetaCondition buildCondition(QueryCondition qcond, EntityInfo info) {
             MetaCondition mcond = new MetaCondition();
+            mcond.sourceIndex = currentSourceIndex;
             mcond.attr = qcond.getName();
             mcond.op = qcond.getOp();
             mcond.inventoryClass = info.inventoryClass;
@@ -850,13 +924,113 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         }
 
         private String build(boolean isCount) {
+            return build(isCount, false, false);
+        }
+
+        private void collectSources() {
+            if (sourceConditions != null) {
+                return;
+            }
+
+            sourceConditions = new ArrayList<>(msg.getConditions());
+            msgConditionNum = sourceConditions.size();
+            List<AddExtraConditionToQueryExtensionPoint> exts = extraConditionsExts.get(msg.getClass());
+            if (exts != null) {
+                for (AddExtraConditionToQueryExtensionPoint ext : exts) {
+                    try {
+                        sourceConditions.addAll(ext.getExtraQueryConditionForMessage(msg));
+                    } catch (Throwable t) {
+                        logger.warn(String.format("unhandled exception when calling %s", ext.getClass().getName()), t);
+                    }
+                }
+            }
+
+            extraSubQueries = new ArrayList<>();
+            for (MysqlQuerySubQueryExtension ext : subQueryExtensions) {
+                String sub = ext.makeSubquery(msg, inventoryClass);
+                if (sub != null) {
+                    extraSubQueries.add(sub);
+                }
+            }
+        }
+
+        private boolean isTagCondition(String name) {
+            return name.endsWith(USER_TAG) || name.endsWith(SYSTEM_TAG);
+        }
+
+        // everything deciding the JPQL except values bound as parameters; values of
+        // tag conditions and sub queries from extensions are written into the JPQL
+        private String planKey(boolean isCount, boolean chunked, boolean afterLastPrimaryKey) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(msg.getClass().getName()).append('|').append(inventoryClass.getName());
+            sb.append('|').append(isCount).append(',').append(chunked).append(',').append(afterLastPrimaryKey);
+            sb.append('|').append(msg.getSortBy()).append(',').append(msg.getSortDirection());
+            sb.append('|').append(msg.getGroupBy());
+            sb.append('|').append(msg.isFieldQuery() ? msg.getFields() : null);
+            for (QueryCondition qcond : sourceConditions) {
+                sb.append('|').append(qcond.getName()).append(' ').append(qcond.getOp());
+                if (isTagCondition(qcond.getName())) {
+                    sb.append(' ').append(qcond.getValue());
+                }
+            }
+            for (String sub : extraSubQueries) {
+                sb.append('|').append(sub);
+            }
+            return sb.toString();
+        }
+
+        private void collectBindings(QueryObject qobj, List<ParameterBinding> bindings) {
+            for (MetaCondition mcond : qobj.conditions) {
+                if (USER_TAG.equals(mcond.attr) || SYSTEM_TAG.equals(mcond.attr) || mcond.attrValueName == null) {
+                    continue;
+                }
+
+                ParameterBinding b = new ParameterBinding();
+                b.name = mcond.attrValueName;
+                b.sourceIndex = mcond.sourceIndex;
+                b.condition = mcond;
+                bindings.add(b);
+            }
+            for (QueryObject child : qobj.children) {
+                collectBindings(child, bindings);
+            }
+        }
+
+        private String build(boolean isCount, boolean chunked, boolean afterLastPrimaryKey) {
+            collectSources();
+            String key = planKey(isCount, chunked, afterLastPrimaryKey);
+            synchronized (planCache) {
+                plan = planCache.get(key);
+            }
+
+            if (plan != null) {
+                planCacheHits.incrementAndGet();
+                root = new QueryObject();
+                root.msg = msg;
+                root.info = entityInfos.get(inventoryClass);
+                return plan.jpql;
+            }
+
+            planCacheMisses.incrementAndGet();
+            long start = System.nanoTime();
+            tmpMap.clear();
             root = new QueryObject();
             root.msg = msg;
+            root.chunked = chunked;
+            root.afterLastPrimaryKey = afterLastPrimaryKey;
+            root.extraSubQueries = extraSubQueries;
             root.info = entityInfos.get(inventoryClass);
             DebugUtils.Assert(root.info != null, String.format("class[%s] is not annotated by @Inventory", inventoryClass.getName()));
             tmpMap.put(root.info.entityClass, root);
 
-            for (QueryCondition qcond : msg.getConditions()) {
+            for (currentSourceIndex = 0; currentSourceIndex < sourceConditions.size(); currentSourceIndex++) {
+                QueryCondition qcond = sourceConditions.get(currentSourceIndex);
+                if (currentSourceIndex >= msgConditionNum) {
+                    // conditions from extensions
+                    buildMetaCondition(qcond, root.info, true);
+                    continue;
+                }
+
                 if (escapeConditionNames.contains(qcond.getName())) {
                     continue;
                 }
@@ -868,36 +1042,24 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                 }
             }
 
-            List<AddExtraConditionToQueryExtensionPoint> exts = extraConditionsExts.get(msg.getClass());
-            if (exts != null) {
-                for (AddExtraConditionToQueryExtensionPoint ext : exts) {
-                    try {
-                        for (QueryCondition cond : ext.getExtraQueryConditionForMessage(msg)) {
-                            buildMetaCondition(cond, root.info, true);
-                        }
-                    } catch (Throwable t) {
-                        logger.warn(String.format("unhandled exception when calling %s", ext.getClass().getName()), t);
-                    }
-                }
-            }
+            plan = new QueryPlan();
+            plan.jpql = root.toJpql(isCount);
+            collectBindings(root, plan.bindings);
+            planBuildNanos.addAndGet(System.nanoTime() - start);
 
-            return root.toJpql(isCount);
+            synchronized (planCache) {
+                planCache.put(key, plan);
+            }
+            return plan.jpql;
         }
 
-        private void setQueryValue(Query q, QueryObject qobj) {
-            for (MetaCondition mcond : qobj.conditions) {
-                if (USER_TAG.equals(mcond.attr) || SYSTEM_TAG.equals(mcond.attr)) {
-                    continue;
-                }
-
-                Object val = mcond.normalizeValue();
+        private void setQueryValue(Query q) {
+            for (ParameterBinding b : plan.bindings) {
+                Object val = b.condition.normalizeValue(sourceConditions.get(b.sourceIndex).getValue());
                 if (val != null) {
-                    q.setParameter(mcond.attrValueName, val);
+                    q.setParameter(b.name, val);
                 }
             }
-            for (QueryObject child : qobj.children) {
-                setQueryValue(q, child);
-            }
         }
 
 
@@ -1032,12 +1194,118 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
             return ret;
         }
 
+        private boolean needChunk() {
+            int chunkSize = QueryGlobalProperty.CHUNK_SIZE;
+            return chunkSize > 0 && !msg.isFieldQuery() && msg.getGroupBy() == null
+                    && (msg.getLimit() == null || msg.getLimit() > chunkSize);
+        }
+
+        private Query createChunkQuery(boolean afterLastPrimaryKey, Object lastPrimaryKey) {
+            String jpql = build(false, true, afterLastPrimaryKey);
+            Query q = dbf.getEntityManager().createQuery(jpql);
+            if (logger.isTraceEnabled()) {
+                org.hibernate.Query hq = q.unwrap(org.hibernate.Query.class);
+                logger.trace(hq.getQueryString());
+            }
+            setQueryValue(q);
+            if (afterLastPrimaryKey) {
+                q.setParameter(LAST_PRIMARY_KEY, lastPrimaryKey);
+            }
+            return q;
+        }
+
+        // fetch a chunk of VOs. Without sortBy chunks are keyed by the primary key, the first chunk
+        // starting at the offset; otherwise chunks are paged by the offset.
+        private List fetchChunk(boolean keyset, int offset, Object lastPrimaryKey, int size) {
+            Query q = createChunkQuery(keyset && lastPrimaryKey != null, lastPrimaryKey);
+            q.setMaxResults(size);
+            if (!keyset || lastPrimaryKey == null) {
+                q.setFirstResult(offset);
+            }
+
+            return q.getResultList();
+        }
+
+        // convert VOs to inventories and detach them, so the persistence context only holds one chunk
+        private List convertChunk(List vos) {
+            List invs = convertVOsToInventories(vos);
+            for (Object vo : vos) {
+                dbf.getEntityManager().detach(vo);
+            }
+            return invs;
+        }
+
+        // fetch VOs in chunks and convert them to inventories chunk by chunk. This bounds the persistence
+        // context, but the returned list still holds every inventory; a caller that must not hold the whole
+        // result pages through it with APIQueryMessage.cursor, see queryPage()
+        private List queryInChunks() {
+            int chunkSize = QueryGlobalProperty.CHUNK_SIZE;
+            boolean keyset = msg.getSortBy() == null;
+            int offset = msg.getStart() == null ? 0 : msg.getStart();
+            long remaining = msg.getLimit() == null ? Long.MAX_VALUE : msg.getLimit();
+            Object lastPrimaryKey = null;
+            List result = new ArrayList();
+
+            while (remaining > 0) {
+                int size = (int) Math.min(chunkSize, remaining);
+                List vos = fetchChunk(keyset, offset, lastPrimaryKey, size);
+                if (vos.isEmpty()) {
+                    break;
+                }
+
+                lastPrimaryKey = root.info.getPrimaryKeyValue(vos.get(vos.size() - 1));
+                result.addAll(convertChunk(vos));
+
+                offset += vos.size();
+                remaining -= vos.size();
+                if (vos.size() < size) {
+                    break;
+                }
+            }
+
+            return result;
+        }
+
+        // one page of at most 'limit' inventories. The cursor is the primary key of the last VO of
+        // the previous page, or the offset of this page if sortBy is set; it is empty for the first page
+        @Transactional(readOnly = true)
+        List queryPage(APIQueryReply reply) {
+            if (msg.isFieldQuery() || msg.getGroupBy() != null) {
+                throw new IllegalArgumentException("a query with fields or groupBy cannot be paged by a cursor");
+            }
+
+            boolean keyset = msg.getSortBy() == null;
+            int offset = msg.getStart() == null ? 0 : msg.getStart();
+            int size = msg.getLimit() == null ? QueryGlobalProperty.CHUNK_SIZE : msg.getLimit();
+            Object lastPrimaryKey = null;
+            if (!msg.getCursor().isEmpty()) {
+                if (keyset) {
+                    Class keyType = entityInfos.get(inventoryClass).entityPrimaryKeyField.getType();
+                    lastPrimaryKey = TypeUtils.stringToValue(msg.getCursor(), keyType);
+                } else {
+                    offset = Integer.valueOf(msg.getCursor());
+                }
+            }
+
+            List vos = fetchChunk(keyset, offset, lastPrimaryKey, size);
+            if (vos.size() == size && size > 0) {
+                reply.setCursor(keyset ? String.valueOf(root.info.getPrimaryKeyValue(vos.get(vos.size() - 1)))
+                        : String.valueOf(offset + vos.size()));
+            }
+
+            return convertChunk(vos);
+        }
+
         @Transactional(readOnly = true)
         List query() {
             if (msg.isFieldQuery()) {
                 validateFields();
             }
 
+            if (needChunk()) {
+                return queryInChunks();
+            }
+
             String jpql = build(false);
             Query q = msg.isFieldQuery() ? dbf.getEntityManager().createQuery(jpql, Tuple.class) : dbf.getEntityManager().createQuery(jpql);
 
@@ -1045,7 +1313,7 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                 org.hibernate.Query hq = q.unwrap(org.hibernate.Query.class);
                 logger.trace(hq.getQueryString());
             }
-            setQueryValue(q, root);
+            setQueryValue(q);
             if (msg.getLimit() != null) {
                 q.setMaxResults(msg.getLimit());
             }
@@ -1070,7 +1338,7 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                 org.hibernate.Query hq = q.unwrap(org.hibernate.Query.class);
                 logger.trace(hq.getQueryString());
             }
-            setQueryValue(q, root);
+            setQueryValue(q);
             return (Long) q.getSingleResult();
         }
     }
@@ -1177,6 +1445,8 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                 inventoryQueryMessageMap.put(at.inventoryClass(), msgClass);
             }
 
+            jmxf.registerBean("QueryPlanCache", this);
+
             // NOTE: don't change the order
             populateExtensions();
             buildExpandedQueryAliasInfo();
@@ -1298,6 +1568,15 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         return context.query();
     }
 
+    @Override
+    public <T> List<T> queryPage(APIQueryMessage msg, Class<T> inventoryClass, APIQueryReply reply) {
+        QueryContext context = new QueryContext();
+        context.msg = msg;
+        context.inventoryClass = selectInventoryClass(msg, inventoryClass);
+
+        return context.queryPage(reply);
+    }
+
     private Class selectInventoryClass(APIQueryMessage msg, Class inventoryClass) {
         EntityInfo info = entityInfos.get(inventoryClass);
         return info.selectInventoryClass(msg);
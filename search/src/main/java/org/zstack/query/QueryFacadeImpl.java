@@ -59,6 +59,14 @@ public class QueryFacadeImpl extends AbstractService implements QueryFacade, Glo
         return builder.query(msg, inventoryClass);
     }
 
+    private <T> List<T> queryPage(APIQueryMessage msg, Class<T> inventoryClass, APIQueryReply reply) {
+        validateConditions(msg.getConditions());
+
+        QueryBuilderFactory factory = getFactory(queryBuilderType);
+        QueryBuilder builder = factory.createQueryBuilder();
+        return builder.queryPage(msg, inventoryClass, reply);
+    }
+
     @Override
     public long count(APIQueryMessage msg, Class inventoryClass) {
         validateConditions(msg.getConditions());
@@ -203,7 +211,7 @@ public class QueryFacadeImpl extends AbstractService implements QueryFacade, Glo
                 reply.setTotal(count);
                 bus.reply(msg, reply);
             } else {
-                List invs = query(msg, inventoryClass);
+                List invs = msg.getCursor() == null ? query(msg, inventoryClass) : queryPage(msg, inventoryClass, reply);
                 setter.invoke(reply, invs);
                 //TODO: merge this into mysql query builder
                 if (msg.isReplyWithCount()) {
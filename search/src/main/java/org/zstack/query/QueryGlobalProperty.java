@@ -0,0 +1,14 @@
+package org.zstack.query;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+/**
+ */
+@GlobalPropertyDefinition
+public class QueryGlobalProperty {
+    @GlobalProperty(name="Query.chunkSize", defaultValue = "1000")
+    public static int CHUNK_SIZE;
+    @GlobalProperty(name="Query.planCacheSize", defaultValue = "2000")
+    public static int PLAN_CACHE_SIZE;
+}
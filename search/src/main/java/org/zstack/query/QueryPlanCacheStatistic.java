@@ -0,0 +1,49 @@
+package org.zstack.query;
+
+import java.beans.ConstructorProperties;
+
+/**
+ */
+public class QueryPlanCacheStatistic {
+    private int size;
+    private int maxSize;
+    private long hitNum;
+    private long missNum;
+    private long evictionNum;
+    private long averageBuildTimeInMicros;
+
+    @ConstructorProperties({"size", "maxSize", "hitNum", "missNum", "evictionNum", "averageBuildTimeInMicros"})
+    public QueryPlanCacheStatistic(int size, int maxSize, long hitNum, long missNum, long evictionNum,
+                                   long averageBuildTimeInMicros) {
+        this.size = size;
+        this.maxSize = maxSize;
+        this.hitNum = hitNum;
+        this.missNum = missNum;
+        this.evictionNum = evictionNum;
+        this.averageBuildTimeInMicros = averageBuildTimeInMicros;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHitNum() {
+        return hitNum;
+    }
+
+    public long getMissNum() {
+        return missNum;
+    }
+
+    public long getEvictionNum() {
+        return evictionNum;
+    }
+
+    public long getAverageBuildTimeInMicros() {
+        return averageBuildTimeInMicros;
+    }
+}
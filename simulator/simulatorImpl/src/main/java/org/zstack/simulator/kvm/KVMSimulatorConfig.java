@@ -18,6 +18,8 @@ public class KVMSimulatorConfig {
     public volatile String simulatorHostUuid;
     public Map<String, String> connectHostUuids = new HashMap<String, String>();
     public volatile boolean connectException = false;
+    public volatile boolean batchSupported = false;
+    public volatile List<BatchCmd> batchCmds = new ArrayList<>();
     public volatile boolean pingSuccess = true;
     public volatile Map<String, Boolean> pingSuccessMap = new HashMap<String, Boolean>();
     public volatile boolean mountSuccess = true;
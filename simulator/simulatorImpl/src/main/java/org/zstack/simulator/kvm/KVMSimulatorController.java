@@ -20,8 +20,10 @@ import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
 
 import javax.servlet.http.HttpServletRequest;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class KVMSimulatorController {
     private static final CLogger logger = Utils.getLogger(KVMSimulatorController.class);
@@ -42,27 +44,85 @@ public class KVMSimulatorController {
 
     private AsyncRESTReplyer replyer = new AsyncRESTReplyer();
 
+    /*
+     * handlers of commands in a batch, keyed by the path relative to the agent url,
+     * a handler replies by reply() which completes the batched command's future
+     * instead of calling back the management server
+     */
+    private Map<String, Consumer<HttpEntity<String>>> batchHandlers = new HashMap<>();
+    private Map<HttpEntity<String>, CompletableFuture<AgentResponse>> batchedReplies =
+            Collections.synchronizedMap(new IdentityHashMap<>());
+
+    {
+        batchHandlers.put(KVMConstant.KVM_HARDEN_CONSOLE_PATH, this::doHardenVmConsole);
+        batchHandlers.put(KVMConstant.KVM_DELETE_CONSOLE_FIREWALL_PATH, this::doDeleteVmConsole);
+        batchHandlers.put(KVMConstant.KVM_VM_CHECK_STATE, this::doCheckVmState);
+        batchHandlers.put(KVMConstant.KVM_ATTACH_NIC_PATH, this::doAttachNic);
+        batchHandlers.put(KVMConstant.KVM_ATTACH_ISO_PATH, this::doAttachIso);
+        batchHandlers.put(KVMConstant.KVM_DETACH_ISO_PATH, this::doDetachIso);
+        batchHandlers.put(KVMConstant.KVM_DETACH_NIC_PATH, this::doDetachNic);
+        batchHandlers.put(KVMConstant.KVM_MERGE_SNAPSHOT_PATH, this::doMergeSnapshot);
+        batchHandlers.put(KVMConstant.KVM_TAKE_VOLUME_SNAPSHOT_PATH, this::doTakeSnapshot);
+        batchHandlers.put(KVMConstant.KVM_PING_PATH, this::ping);
+        batchHandlers.put(KVMConstant.KVM_CONNECT_PATH, e -> reply(e, JSONObjectUtil.toObject(connect(e.getBody()), ConnectResponse.class)));
+        batchHandlers.put(KVMConstant.KVM_DETACH_VOLUME, this::doDetachDataVolume);
+        batchHandlers.put(KVMConstant.KVM_VM_SYNC_PATH, this::doVmSync);
+        batchHandlers.put(KVMSecurityGroupBackend.SECURITY_GROUP_REFRESH_RULE_ON_HOST_PATH, this::doRefreshSecurityGroupRulesOnHost);
+        batchHandlers.put(KVMSecurityGroupBackend.SECURITY_GROUP_APPLY_RULE_PATH, this::doApplySecurityGroupRules);
+        batchHandlers.put(KVMConstant.KVM_ATTACH_VOLUME, this::doAttachDataVolume);
+        batchHandlers.put(KVMConstant.KVM_HOST_CAPACITY_PATH, e -> reply(e, JSONObjectUtil.toObject(hostCapacity(e.getBody()), HostCapacityResponse.class)));
+        batchHandlers.put(KVMConstant.KVM_CHECK_PHYSICAL_NETWORK_INTERFACE_PATH,
+                e -> reply(e, JSONObjectUtil.toObject(checkPhysicalInterface(e.getBody()), CheckPhysicalNetworkInterfaceResponse.class)));
+        batchHandlers.put(KVMConstant.KVM_REALIZE_L2NOVLAN_NETWORK_PATH, this::createBridge);
+        batchHandlers.put(KVMConstant.KVM_MIGRATE_VM_PATH, this::migrateVm);
+        batchHandlers.put(KVMConstant.KVM_CHECK_L2NOVLAN_NETWORK_PATH, this::checkNoVlanBridge);
+        batchHandlers.put(KVMConstant.KVM_CHECK_L2VLAN_NETWORK_PATH, this::checkVlanBridge);
+        batchHandlers.put(KVMConstant.KVM_REALIZE_L2VLAN_NETWORK_PATH, this::createVlanBridge);
+        batchHandlers.put(KVMConstant.KVM_START_VM_PATH, this::createVm);
+        batchHandlers.put(KVMConstant.KVM_STOP_VM_PATH, this::stopVm);
+        batchHandlers.put(KVMConstant.KVM_PAUSE_VM_PATH, this::suspendVm);
+        batchHandlers.put(KVMConstant.KVM_RESUME_VM_PATH, this::resumeVm);
+        batchHandlers.put(KVMConstant.KVM_REBOOT_VM_PATH, this::rebootVm);
+        batchHandlers.put(KVMConstant.KVM_DESTROY_VM_PATH, this::destroyVm);
+        batchHandlers.put(KVMConstant.KVM_GET_VNC_PORT_PATH, this::getVncPort);
+        batchHandlers.put(KVMConstant.KVM_LOGOUT_ISCSI_PATH, this::logoutIscsiTarget);
+        batchHandlers.put(KVMConstant.KVM_LOGIN_ISCSI_PATH, this::loginIscsiTarget);
+    }
+
     @RequestMapping(value=KVMConstant.KVM_HARDEN_CONSOLE_PATH, method=RequestMethod.POST)
     public @ResponseBody String hardenVmConsole(HttpServletRequest req) {
         HttpEntity<String> entity = restf.httpServletRequestToHttpEntity(req);
+        doHardenVmConsole(entity);
+        return null;
+    }
+
+    private void doHardenVmConsole(HttpEntity<String> entity) {
         HardenVmConsoleCmd cmd = JSONObjectUtil.toObject(entity.getBody(), HardenVmConsoleCmd.class);
         config.hardenVmConsoleCmds.add(cmd);
-        replyer.reply(entity, new AgentResponse());
-        return null;
+        reply(entity, new AgentResponse());
     }
 
     @RequestMapping(value=KVMConstant.KVM_DELETE_CONSOLE_FIREWALL_PATH, method=RequestMethod.POST)
     public @ResponseBody String deleteVmConsole(HttpServletRequest req) {
         HttpEntity<String> entity = restf.httpServletRequestToHttpEntity(req);
+        doDeleteVmConsole(entity);
+        return null;
+    }
+
+    private void doDeleteVmConsole(HttpEntity<String> entity) {
         DeleteVmConsoleFirewallCmd cmd = JSONObjectUtil.toObject(entity.getBody(), DeleteVmConsoleFirewallCmd.class);
         config.deleteVmConsoleFirewallCmds.add(cmd);
-        replyer.reply(entity, new AgentResponse());
-        return null;
+        reply(entity, new AgentResponse());
     }
 
     @RequestMapping(value=KVMConstant.KVM_VM_CHECK_STATE, method=RequestMethod.POST)
     public @ResponseBody String checkVmState(HttpServletRequest req) {
         HttpEntity<String> entity = restf.httpServletRequestToHttpEntity(req);
+        doCheckVmState(entity);
+        return null;
+    }
+
+    private void doCheckVmState(HttpEntity<String> entity) {
         CheckVmStateCmd cmd = JSONObjectUtil.toObject(entity.getBody(), CheckVmStateCmd.class);
         CheckVmStateRsp rsp = new CheckVmStateRsp();
         Map<String, String> m = new HashMap<String, String>();
@@ -74,8 +134,7 @@ public class KVMSimulatorController {
         }
         rsp.states = m;
         config.checkVmStateCmds.add(cmd);
-        replyer.reply(entity, rsp);
-        return null;
+        reply(entity, rsp);
     }
 
     @RequestMapping(value=KVMConstant.KVM_ATTACH_NIC_PATH, method=RequestMethod.POST)
@@ -97,25 +156,33 @@ public class KVMSimulatorController {
             config.attachedNics.put(cmd.getNic().getNicInternalName(), cmd.getNic());
         }
 
-        replyer.reply(entity, rsp);
+        reply(entity, rsp);
     }
 
     @RequestMapping(value=KVMConstant.KVM_ATTACH_ISO_PATH, method=RequestMethod.POST)
     public @ResponseBody String attachIso(HttpServletRequest req) {
         HttpEntity<String> entity = restf.httpServletRequestToHttpEntity(req);
+        doAttachIso(entity);
+        return null;
+    }
+
+    private void doAttachIso(HttpEntity<String> entity) {
         AttachIsoCmd cmd = JSONObjectUtil.toObject(entity.getBody(), AttachIsoCmd.class);
         config.attachIsoCmds.add(cmd);
         reply(entity, new AttachIsoRsp());
-        return null;
     }
 
     @RequestMapping(value=KVMConstant.KVM_DETACH_ISO_PATH, method=RequestMethod.POST)
     public @ResponseBody String detachIso(HttpServletRequest req) {
         HttpEntity<String> entity = restf.httpServletRequestToHttpEntity(req);
+        doDetachIso(entity);
+        return null;
+    }
+
+    private void doDetachIso(HttpEntity<String> entity) {
         DetachIsoCmd cmd = JSONObjectUtil.toObject(entity.getBody(), DetachIsoCmd.class);
         config.detachIsoCmds.add(cmd);
         reply(entity, new DetachIsoRsp());
-        return null;
     }
 
     @RequestMapping(value=KVMConstant.KVM_DETACH_NIC_PATH, method=RequestMethod.POST)
@@ -136,12 +203,17 @@ public class KVMSimulatorController {
             config.detachNicCommands.add(cmd);
         }
 
-        replyer.reply(entity, rsp);
+        reply(entity, rsp);
     }
 
     @RequestMapping(value=KVMConstant.KVM_MERGE_SNAPSHOT_PATH, method=RequestMethod.POST)
     public @ResponseBody String mergeSnapshot(HttpServletRequest req) {
         HttpEntity<String> entity = restf.httpServletRequestToHttpEntity(req);
+        doMergeSnapshot(entity);
+        return null;
+    }
+
+    private void doMergeSnapshot(HttpEntity<String> entity) {
         MergeSnapshotCmd cmd = JSONObjectUtil.toObject(entity.getBody(), MergeSnapshotCmd.class);
         MergeSnapshotRsp rsp = new MergeSnapshotRsp();
         if (!config.mergeSnapshotSuccess) {
@@ -153,13 +225,17 @@ public class KVMSimulatorController {
             logger.debug(entity.getBody());
         }
 
-        replyer.reply(entity, rsp);
-        return null;
+        reply(entity, rsp);
     }
 
     @RequestMapping(value=KVMConstant.KVM_TAKE_VOLUME_SNAPSHOT_PATH, method=RequestMethod.POST)
     public @ResponseBody String takeSnapshot(HttpServletRequest req) {
         HttpEntity<String> entity = restf.httpServletRequestToHttpEntity(req);
+        doTakeSnapshot(entity);
+        return null;
+    }
+
+    private void doTakeSnapshot(HttpEntity<String> entity) {
         TakeSnapshotCmd cmd = JSONObjectUtil.toObject(entity.getBody(), TakeSnapshotCmd.class);
         TakeSnapshotResponse rsp = new TakeSnapshotResponse();
         if (config.snapshotSuccess) {
@@ -172,8 +248,7 @@ public class KVMSimulatorController {
             rsp.setError("on purpose");
             rsp.setSuccess(false);
         }
-        replyer.reply(entity, rsp);
-        return null;
+        reply(entity, rsp);
     }
 
     @RequestMapping(value=KVMConstant.KVM_PING_PATH, method=RequestMethod.POST)
@@ -199,7 +274,7 @@ public class KVMSimulatorController {
         }
 
         rsp.setHostUuid(config.connectHostUuids.get(cmd.hostUuid));
-        replyer.reply(entity, rsp);
+        reply(entity, rsp);
     }
 
     @RequestMapping(value=KVMConstant.KVM_CONNECT_PATH, method=RequestMethod.POST)
@@ -220,6 +295,7 @@ public class KVMSimulatorController {
             rsp.setLibvirtVersion("1.0.0");
             rsp.setQemuVersion("1.3.0");
             rsp.setIptablesSucc(true);
+            rsp.setBatchSupported(config.batchSupported);
             logger.debug("KVM connected");
         } else {
             rsp.setSuccess(false);
@@ -228,6 +304,61 @@ public class KVMSimulatorController {
         return JSONObjectUtil.toJsonString(rsp);
     }
     
+    @RequestMapping(value=KVMConstant.KVM_BATCH_PATH, method=RequestMethod.POST)
+    public @ResponseBody String batch(HttpServletRequest req) {
+        HttpEntity<String> entity = restf.httpServletRequestToHttpEntity(req);
+        doBatch(entity);
+        return null;
+    }
+
+    @AsyncThread
+    private void doBatch(HttpEntity<String> entity) {
+        BatchCmd cmd = JSONObjectUtil.toObject(entity.getBody(), BatchCmd.class);
+        config.batchCmds.add(cmd);
+
+        List<CompletableFuture<AgentResponse>> futures = new ArrayList<>();
+        for (BatchCommand c : cmd.commands) {
+            CompletableFuture<AgentResponse> future = new CompletableFuture<>();
+            futures.add(future);
+
+            Consumer<HttpEntity<String>> handler = batchHandlers.get(c.path);
+            if (handler == null) {
+                future.complete(batchError(String.format("no handler for the batch command[path:%s]", c.path)));
+                continue;
+            }
+
+            HttpEntity<String> centity = new HttpEntity<>(c.command);
+            batchedReplies.put(centity, future);
+            try {
+                handler.accept(centity);
+            } catch (Throwable t) {
+                logger.warn(String.format("batch command[path:%s] fails", c.path), t);
+                batchedReplies.remove(centity);
+                future.complete(batchError(t.getMessage()));
+            }
+        }
+
+        BatchRsp rsp = new BatchRsp();
+        rsp.responses = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            AgentResponse r;
+            try {
+                r = futures.get(i).get(5, TimeUnit.MINUTES);
+            } catch (Exception e) {
+                r = batchError(String.format("no response to the batch command[path:%s], %s", cmd.commands.get(i).path, e));
+            }
+            rsp.responses.add(JSONObjectUtil.rehashObject(r, LinkedHashMap.class));
+        }
+        replyer.reply(entity, rsp);
+    }
+
+    private AgentResponse batchError(String error) {
+        AgentResponse rsp = new AgentResponse();
+        rsp.setSuccess(false);
+        rsp.setError(error);
+        return rsp;
+    }
+
     @RequestMapping(value=KVMConstant.KVM_ECHO_PATH, method=RequestMethod.POST)
     public @ResponseBody String echo() {
         return "";
@@ -389,6 +520,12 @@ public class KVMSimulatorController {
     }
     
     private void reply(HttpEntity<String> entity, AgentResponse rsp) {
+        CompletableFuture<AgentResponse> future = batchedReplies.remove(entity);
+        if (future != null) {
+            future.complete(rsp);
+            return;
+        }
+
         if (replyer == null) {
             replyer = new AsyncRESTReplyer();
         }
@@ -531,7 +668,7 @@ public class KVMSimulatorController {
     		rsp.setError(err);
     		rsp.setSuccess(false);
     	}
-    	replyer.reply(entity, rsp);
+    	reply(entity, rsp);
 	}
     
     @RequestMapping(value=KVMConstant.KVM_STOP_VM_PATH, method=RequestMethod.POST)
@@ -555,7 +692,7 @@ public class KVMSimulatorController {
     		rsp.setError(err);
     		rsp.setSuccess(false);
         }
-    	replyer.reply(entity, rsp);
+    	reply(entity, rsp);
     }
 
     @RequestMapping(value = KVMConstant.KVM_PAUSE_VM_PATH, method = RequestMethod.POST)
@@ -579,7 +716,7 @@ public class KVMSimulatorController {
             rsp.setError(err);
             rsp.setSuccess(false);
         }
-        replyer.reply(entity, rsp);
+        reply(entity, rsp);
     }
 
     @RequestMapping(value = KVMConstant.KVM_RESUME_VM_PATH, method = RequestMethod.POST)
@@ -603,7 +740,7 @@ public class KVMSimulatorController {
             rsp.setError(err);
             rsp.setSuccess(false);
         }
-        replyer.reply(entity, rsp);
+        reply(entity, rsp);
     }
     
     @RequestMapping(value=KVMConstant.KVM_REBOOT_VM_PATH, method=RequestMethod.POST)
@@ -627,7 +764,7 @@ public class KVMSimulatorController {
     		rsp.setError(err);
     		rsp.setSuccess(false);
         }
-    	replyer.reply(entity, rsp);
+    	reply(entity, rsp);
     }
     
     @RequestMapping(value=KVMConstant.KVM_DESTROY_VM_PATH, method=RequestMethod.POST)
@@ -652,7 +789,7 @@ public class KVMSimulatorController {
     		rsp.setError(err);
     		rsp.setSuccess(false);
         }
-    	replyer.reply(entity, rsp);
+    	reply(entity, rsp);
     }
 
     @RequestMapping(value=KVMConstant.KVM_GET_VNC_PORT_PATH, method=RequestMethod.POST)
@@ -667,7 +804,7 @@ public class KVMSimulatorController {
         KVMAgentCommands.GetVncPortResponse rsp = new KVMAgentCommands.GetVncPortResponse();
         rsp.setPort(config.consolePort);
         logger.debug(String.format("successfully get console port[port:%s] for vm[uuid:%s]", rsp.getPort(), cmd.getVmUuid()));
-        replyer.reply(entity, rsp);
+        reply(entity, rsp);
     }
 
     @RequestMapping(value=KVMConstant.KVM_LOGOUT_ISCSI_PATH, method=RequestMethod.POST)
@@ -684,7 +821,7 @@ public class KVMSimulatorController {
             config.logoutIscsiTargetCmds.add(cmd);
         }
         logger.debug(String.format("logout iscsi target: %s", cmd.getTarget()));
-        replyer.reply(entity, rsp);
+        reply(entity, rsp);
     }
 
     @RequestMapping(value=KVMConstant.KVM_LOGIN_ISCSI_PATH, method=RequestMethod.POST)
@@ -701,7 +838,7 @@ public class KVMSimulatorController {
             config.loginIscsiTargetCmds.add(cmd);
         }
         logger.debug(String.format("login iscsi  target: %s", cmd.getTarget()));
-        replyer.reply(entity, rsp);
+        reply(entity, rsp);
     }
 
     @ExceptionHandler(Exception.class)
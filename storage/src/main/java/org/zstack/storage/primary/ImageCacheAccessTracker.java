@@ -0,0 +1,182 @@
+package org.zstack.storage.primary;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+import org.zstack.core.config.GlobalConfig;
+import org.zstack.core.config.GlobalConfigUpdateExtensionPoint;
+import org.zstack.core.db.SQL;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the hits and misses of image caches on primary storage.
+ *
+ * The access recency and hit counts of image caches are kept in memory and periodically added to ImageCacheVO
+ * by one update per accessed cache, for ImageCacheCleaner evicting image caches by LRU/LFU; the hit ratio and
+ * the bytes not downloaded from backup storage thanks to the hits are exported by JMX.
+ */
+public class ImageCacheAccessTracker implements Component, ImageCacheAccessTrackerMXBean {
+    private static final CLogger logger = Utils.getLogger(ImageCacheAccessTracker.class);
+
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private JmxFacade jmxf;
+
+    private static class Access {
+        long hits;
+        long lastAccessTime;
+    }
+
+    private Map<Long, Access> pending = new HashMap<>();
+    private Future<Void> flushTask;
+
+    private final AtomicLong hitNum = new AtomicLong();
+    private final AtomicLong missNum = new AtomicLong();
+    private final AtomicLong savedBytes = new AtomicLong();
+    private final AtomicLong downloadedBytes = new AtomicLong();
+    private final AtomicLong prewarmNum = new AtomicLong();
+    private final AtomicLong prewarmedBytes = new AtomicLong();
+    private final AtomicLong evictionNum = new AtomicLong();
+    private final AtomicLong evictedBytes = new AtomicLong();
+
+    /**
+     * an image is found in the image cache
+     */
+    public void recordHit(long cacheId, long size) {
+        hitNum.incrementAndGet();
+        savedBytes.addAndGet(size);
+
+        synchronized (this) {
+            Access a = pending.computeIfAbsent(cacheId, k -> new Access());
+            a.hits++;
+            a.lastAccessTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * an image is downloaded to the image cache because it's not there
+     */
+    public void recordMiss(long size) {
+        missNum.incrementAndGet();
+        downloadedBytes.addAndGet(size);
+    }
+
+    /**
+     * an image is downloaded to the image cache before it's used
+     */
+    public void recordPrewarm(long size) {
+        prewarmNum.incrementAndGet();
+        prewarmedBytes.addAndGet(size);
+    }
+
+    public void recordEviction(long size) {
+        evictionNum.incrementAndGet();
+        evictedBytes.addAndGet(size);
+    }
+
+    /**
+     * writes the access records kept in memory to ImageCacheVO
+     */
+    public void flush() {
+        Map<Long, Access> records;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+
+            records = pending;
+            pending = new HashMap<>();
+        }
+
+        try {
+            writeAccessRecords(records);
+        } catch (Throwable t) {
+            logger.warn(String.format("unable to write the access records of %s image caches", records.size()), t);
+        }
+    }
+
+    @Transactional
+    protected void writeAccessRecords(Map<Long, Access> records) {
+        for (Map.Entry<Long, Access> e : records.entrySet()) {
+            SQL.New("update ImageCacheVO c set c.hitCount = c.hitCount + :hits, c.lastAccessDate = :date where c.id = :id")
+                    .param("hits", e.getValue().hits)
+                    .param("date", new Timestamp(e.getValue().lastAccessTime))
+                    .param("id", e.getKey())
+                    .execute();
+        }
+    }
+
+    private void startFlushTask() {
+        if (flushTask != null) {
+            flushTask.cancel(true);
+        }
+
+        flushTask = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return PrimaryStorageGlobalConfig.IMAGE_CACHE_ACCESS_RECORD_FLUSH_INTERVAL.value(Long.class);
+            }
+
+            @Override
+            public String getName() {
+                return "image-cache-access-record-flush";
+            }
+
+            @Override
+            public void run() {
+                flush();
+            }
+        });
+    }
+
+    @Override
+    public boolean start() {
+        startFlushTask();
+        PrimaryStorageGlobalConfig.IMAGE_CACHE_ACCESS_RECORD_FLUSH_INTERVAL.installUpdateExtension(new GlobalConfigUpdateExtensionPoint() {
+            @Override
+            public void updateGlobalConfig(GlobalConfig oldConfig, GlobalConfig newConfig) {
+                startFlushTask();
+            }
+        });
+
+        jmxf.registerBean("ImageCache", this);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (flushTask != null) {
+            flushTask.cancel(true);
+        }
+        flush();
+        return true;
+    }
+
+    @Override
+    public ImageCacheStatistic getImageCacheStatistic() {
+        int pendingNum;
+        synchronized (this) {
+            pendingNum = pending.size();
+        }
+
+        return new ImageCacheStatistic(hitNum.get(), missNum.get(), savedBytes.get(), downloadedBytes.get(),
+                prewarmNum.get(), prewarmedBytes.get(), evictionNum.get(), evictedBytes.get(), pendingNum);
+    }
+}
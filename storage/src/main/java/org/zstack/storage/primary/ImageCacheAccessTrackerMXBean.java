@@ -0,0 +1,7 @@
+package org.zstack.storage.primary;
+
+/**
+ */
+public interface ImageCacheAccessTrackerMXBean {
+    ImageCacheStatistic getImageCacheStatistic();
+}
@@ -8,20 +8,22 @@ import org.zstack.core.cloudbus.ResourceDestinationMaker;
 import org.zstack.core.config.GlobalConfig;
 import org.zstack.core.config.GlobalConfigUpdateExtensionPoint;
 import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.Q;
 import org.zstack.core.thread.PeriodicTask;
 import org.zstack.core.thread.SyncTask;
 import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.image.ImageConstant.ImageMediaType;
 import org.zstack.header.message.MessageReply;
-import org.zstack.header.storage.primary.DeleteImageCacheOnPrimaryStorageMsg;
-import org.zstack.header.storage.primary.ImageCacheShadowVO;
-import org.zstack.header.storage.primary.ImageCacheVO;
-import org.zstack.header.storage.primary.PrimaryStorageConstant;
+import org.zstack.header.storage.primary.*;
 import org.zstack.header.volume.VolumeType;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
 import javax.persistence.TypedQuery;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
@@ -39,6 +41,8 @@ public abstract class ImageCacheCleaner {
     protected CloudBus bus;
     @Autowired
     protected ResourceDestinationMaker destMaker;
+    @Autowired
+    protected ImageCacheAccessTracker accessTracker;
 
     protected Future<Void> gcThread;
 
@@ -94,6 +98,8 @@ public abstract class ImageCacheCleaner {
     }
 
     protected void doCleanup(String psUuid) {
+        evictImageCaches(psUuid);
+
         List<ImageCacheShadowVO> shadowVOs = createShadowImageCacheVOs(psUuid);
         if (shadowVOs == null || shadowVOs.isEmpty()) {
             return;
@@ -152,33 +158,101 @@ public abstract class ImageCacheCleaner {
         });
     }
 
-    @Transactional
-    protected List<Long> getStaleImageCacheIds(String psUuid) {
-        String sql;
+    /**
+     * moves the image caches chosen by imageCache.eviction.policy to ImageCacheShadowVO, for primary storage whose
+     * used physical capacity is above imageCache.eviction.highWatermark; they are deleted as stale image caches then
+     */
+    protected void evictImageCaches(String psUuid) {
+        ImageCacheEvictor evictor = ImageCacheEvictor.fromGlobalConfig();
+        if (!evictor.isEnabled()) {
+            return;
+        }
+
+        // the access records decide which caches are evicted
+        accessTracker.flush();
+
+        List<String> psUuids;
         if (psUuid == null) {
-            sql = "select count(*) from VolumeVO vol, PrimaryStorageVO pri where vol.primaryStorageUuid = pri.uuid" +
-                    " and vol.type = :volType and vol.rootImageUuid is null and pri.type = :psType";
+            psUuids = Q.New(PrimaryStorageVO.class).select(PrimaryStorageVO_.uuid)
+                    .eq(PrimaryStorageVO_.type, getPrimaryStorageType()).listValues();
         } else {
-            sql = "select count(*) from VolumeVO vol, PrimaryStorageVO pri where vol.primaryStorageUuid = pri.uuid" +
-                    " and vol.type = :volType and vol.rootImageUuid is null and pri.type = :psType and pri.uuid = :psUuid";
+            psUuids = new ArrayList<>();
+            psUuids.add(psUuid);
         }
 
-        TypedQuery<Long> q = dbf.getEntityManager().createQuery(sql, Long.class);
-        q.setParameter("volType", VolumeType.Root);
-        q.setParameter("psType", getPrimaryStorageType());
-        if (psUuid != null) {
-            q.setParameter("psUuid", psUuid);
+        for (String uuid : psUuids) {
+            if (!destMaker.isManagedByUs(uuid)) {
+                continue;
+            }
+
+            // a cache used by a volume with NULL rootImageUuid cannot be told from others
+            if (hasRootVolumesWithoutImageUuid(uuid)) {
+                continue;
+            }
+
+            try {
+                evictImageCaches(uuid, evictor);
+            } catch (Throwable t) {
+                logger.warn(String.format("unable to evict image caches on the primary storage[uuid:%s]", uuid), t);
+            }
         }
+    }
 
-        Long count = q.getSingleResult();
-        if (count != 0) {
-            logger.warn(String.format("found %s volumes on the primary storage[type:%s] has NULL rootImageUuid. Please do following:\n" +
-                    "1. zstack-ctl stop_node\n" +
-                    "2. zstack-ctl start_node -DfixImageCacheUuid=true -DrootVolumeFindMissingImageUuid=true\n" +
-                    "to fix the problem. For the data safety, we won't clean the image cache of the primary storage", count, getPrimaryStorageType()));
+    @Transactional
+    protected void evictImageCaches(String psUuid, ImageCacheEvictor evictor) {
+        PrimaryStorageCapacityVO cap = dbf.getEntityManager().find(PrimaryStorageCapacityVO.class, psUuid);
+        if (cap == null || !evictor.isAboveHighWatermark(cap.getTotalPhysicalCapacity(), cap.getAvailablePhysicalCapacity())) {
+            return;
+        }
+
+        // ISO caches may be attached to VMs, they are only deleted as stale caches
+        String sql = "select c from ImageCacheVO c where c.primaryStorageUuid = :psUuid and c.mediaType != :iso" +
+                " and c.imageUuid not in (select vol.rootImageUuid from VolumeVO vol where vol.rootImageUuid is not null)" +
+                " and c.id not in (select r.imageCacheId from ImageCacheVolumeRefVO r)";
+        TypedQuery<ImageCacheVO> cq = dbf.getEntityManager().createQuery(sql, ImageCacheVO.class);
+        cq.setParameter("psUuid", psUuid);
+        cq.setParameter("iso", ImageMediaType.ISO);
+        evictImageCaches(psUuid, cq.getResultList(), cap.getTotalPhysicalCapacity(), cap.getAvailablePhysicalCapacity(), evictor);
+    }
+
+    @Transactional
+    protected void evictImageCaches(String psUuid, List<ImageCacheVO> caches, long totalPhysicalCapacity,
+                                    long availablePhysicalCapacity, ImageCacheEvictor evictor) {
+        Map<Long, ImageCacheVO> vos = new HashMap<>();
+        List<ImageCacheEvictor.Candidate> candidates = new ArrayList<>(caches.size());
+        for (ImageCacheVO c : caches) {
+            vos.put(c.getId(), c);
+            long lastAccessTime = c.getLastAccessDate() != null ? c.getLastAccessDate().getTime() : c.getCreateDate().getTime();
+            candidates.add(new ImageCacheEvictor.Candidate(c.getId(), c.getSize(), lastAccessTime, c.getHitCount()));
+        }
+
+        List<ImageCacheEvictor.Candidate> evicted = evictor.select(totalPhysicalCapacity, availablePhysicalCapacity,
+                candidates, System.currentTimeMillis());
+        if (evicted.isEmpty()) {
+            return;
+        }
+
+        long size = 0;
+        for (ImageCacheEvictor.Candidate c : evicted) {
+            ImageCacheVO vo = vos.get(c.getId());
+            dbf.getEntityManager().persist(new ImageCacheShadowVO(vo));
+            dbf.getEntityManager().remove(vo);
+            accessTracker.recordEviction(vo.getSize());
+            size += vo.getSize();
+        }
+
+        logger.debug(String.format("evicted %s image caches of %s bytes on the primary storage[uuid:%s] whose used physical" +
+                " capacity is %s of %s bytes, they are about to be cleaned up", evicted.size(), size, psUuid,
+                totalPhysicalCapacity - availablePhysicalCapacity, totalPhysicalCapacity));
+    }
+
+    @Transactional
+    protected List<Long> getStaleImageCacheIds(String psUuid) {
+        if (hasRootVolumesWithoutImageUuid(psUuid)) {
             return null;
         }
 
+        String sql;
         if (psUuid == null) {
             sql = "select c.id from ImageCacheVO c, PrimaryStorageVO pri, ImageEO i where c.primaryStorageUuid = pri.uuid and i.uuid = c.imageUuid and i.deleted is not null and pri.type = :ptype";
         } else  {
@@ -214,6 +288,40 @@ public abstract class ImageCacheCleaner {
         return deleted;
     }
 
+    /**
+     * for the data safety, no image cache of the primary storage is cleaned up or evicted when any root volume
+     * of the primary storage has NULL rootImageUuid
+     */
+    @Transactional(readOnly = true)
+    protected boolean hasRootVolumesWithoutImageUuid(String psUuid) {
+        String sql;
+        if (psUuid == null) {
+            sql = "select count(*) from VolumeVO vol, PrimaryStorageVO pri where vol.primaryStorageUuid = pri.uuid" +
+                    " and vol.type = :volType and vol.rootImageUuid is null and pri.type = :psType";
+        } else {
+            sql = "select count(*) from VolumeVO vol, PrimaryStorageVO pri where vol.primaryStorageUuid = pri.uuid" +
+                    " and vol.type = :volType and vol.rootImageUuid is null and pri.type = :psType and pri.uuid = :psUuid";
+        }
+
+        TypedQuery<Long> q = dbf.getEntityManager().createQuery(sql, Long.class);
+        q.setParameter("volType", VolumeType.Root);
+        q.setParameter("psType", getPrimaryStorageType());
+        if (psUuid != null) {
+            q.setParameter("psUuid", psUuid);
+        }
+
+        Long count = q.getSingleResult();
+        if (count != 0) {
+            logger.warn(String.format("found %s volumes on the primary storage[type:%s] has NULL rootImageUuid. Please do following:\n" +
+                    "1. zstack-ctl stop_node\n" +
+                    "2. zstack-ctl start_node -DfixImageCacheUuid=true -DrootVolumeFindMissingImageUuid=true\n" +
+                    "to fix the problem. For the data safety, we won't clean the image cache of the primary storage", count, getPrimaryStorageType()));
+            return true;
+        }
+
+        return false;
+    }
+
     @Transactional
     protected List<ImageCacheShadowVO> createShadowImageCacheVOsForNewDeletedAndOld(String psUuid) {
         List<Long> staleImageCacheIds = getStaleImageCacheIds(psUuid);
@@ -249,12 +357,17 @@ public abstract class ImageCacheCleaner {
         List<ImageCacheShadowVO> newDeletedAndOld = createShadowImageCacheVOsForNewDeletedAndOld(psUuid);
         if (newDeletedAndOld == null) {
             // no new deleted images, let's check if there any old that failed to be deleted last time
-            String sql = "select s from ImageCacheShadowVO s, PrimaryStorageVO p where p.uuid = s.primaryStorageUuid and p.type = :ptype";
-            TypedQuery<ImageCacheShadowVO> sq = dbf.getEntityManager().createQuery(sql, ImageCacheShadowVO.class);
-            sq.setParameter("ptype", getPrimaryStorageType());
-            return sq.getResultList();
+            return getShadowImageCacheVOs();
         } else {
             return newDeletedAndOld;
         }
     }
+
+    @Transactional(readOnly = true)
+    protected List<ImageCacheShadowVO> getShadowImageCacheVOs() {
+        String sql = "select s from ImageCacheShadowVO s, PrimaryStorageVO p where p.uuid = s.primaryStorageUuid and p.type = :ptype";
+        TypedQuery<ImageCacheShadowVO> sq = dbf.getEntityManager().createQuery(sql, ImageCacheShadowVO.class);
+        sq.setParameter("ptype", getPrimaryStorageType());
+        return sq.getResultList();
+    }
 }
@@ -0,0 +1,122 @@
+package org.zstack.storage.primary;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Selects the image caches to evict from a storage whose used physical capacity is above the high watermark,
+ * until the used capacity falls to the low watermark.
+ *
+ * The least recently accessed caches are evicted first by LRU, and the least hit caches are evicted first by LFU;
+ * caches accessed within the min idle time are never evicted.
+ */
+public class ImageCacheEvictor {
+    public enum Policy {
+        None,
+        LRU,
+        LFU
+    }
+
+    public static class Candidate {
+        private final long id;
+        private final long size;
+        // the last access time, or the create time if never accessed, in milliseconds
+        private final long lastAccessTime;
+        private final long hitCount;
+
+        public Candidate(long id, long size, long lastAccessTime, long hitCount) {
+            this.id = id;
+            this.size = size;
+            this.lastAccessTime = lastAccessTime;
+            this.hitCount = hitCount;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastAccessTime() {
+            return lastAccessTime;
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+    }
+
+    private static final Comparator<Candidate> LRU = Comparator.comparingLong(Candidate::getLastAccessTime)
+            .thenComparingLong(Candidate::getHitCount);
+    private static final Comparator<Candidate> LFU = Comparator.comparingLong(Candidate::getHitCount)
+            .thenComparingLong(Candidate::getLastAccessTime);
+
+    private final Policy policy;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final long minIdleTimeInMillis;
+
+    /**
+     * @param highWatermark the used capacity in percentage above which caches are evicted
+     * @param lowWatermark the used capacity in percentage caches are evicted down to
+     */
+    public ImageCacheEvictor(Policy policy, int highWatermark, int lowWatermark, long minIdleTimeInMillis) {
+        this.policy = policy;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = Math.min(lowWatermark, highWatermark);
+        this.minIdleTimeInMillis = minIdleTimeInMillis;
+    }
+
+    public static ImageCacheEvictor fromGlobalConfig() {
+        return new ImageCacheEvictor(
+                Policy.valueOf(PrimaryStorageGlobalConfig.IMAGE_CACHE_EVICTION_POLICY.value()),
+                PrimaryStorageGlobalConfig.IMAGE_CACHE_EVICTION_HIGH_WATERMARK.value(Integer.class),
+                PrimaryStorageGlobalConfig.IMAGE_CACHE_EVICTION_LOW_WATERMARK.value(Integer.class),
+                PrimaryStorageGlobalConfig.IMAGE_CACHE_EVICTION_MIN_IDLE_TIME.value(Long.class) * 1000
+        );
+    }
+
+    public boolean isEnabled() {
+        return policy != Policy.None;
+    }
+
+    public boolean isAboveHighWatermark(long totalCapacity, long availableCapacity) {
+        return isEnabled() && totalCapacity > 0 && (totalCapacity - availableCapacity) * 100 > totalCapacity * highWatermark;
+    }
+
+    /**
+     * @param candidates the caches not used by any volume
+     * @return the caches to evict, in the order of eviction
+     */
+    public List<Candidate> select(long totalCapacity, long availableCapacity, Collection<Candidate> candidates, long now) {
+        List<Candidate> ret = new ArrayList<>();
+        if (!isAboveHighWatermark(totalCapacity, availableCapacity)) {
+            return ret;
+        }
+
+        long toFree = (totalCapacity - availableCapacity) - totalCapacity * lowWatermark / 100;
+        List<Candidate> idle = new ArrayList<>(candidates.size());
+        for (Candidate c : candidates) {
+            if (now - c.lastAccessTime >= minIdleTimeInMillis) {
+                idle.add(c);
+            }
+        }
+        idle.sort(policy == Policy.LFU ? LFU : LRU);
+
+        long freed = 0;
+        for (Candidate c : idle) {
+            if (freed >= toFree) {
+                break;
+            }
+
+            ret.add(c);
+            freed += c.size;
+        }
+
+        return ret;
+    }
+}
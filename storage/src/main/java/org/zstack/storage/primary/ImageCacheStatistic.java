@@ -0,0 +1,79 @@
+package org.zstack.storage.primary;
+
+import java.beans.ConstructorProperties;
+
+/**
+ */
+public class ImageCacheStatistic {
+    private long hitNum;
+    private long missNum;
+    private long savedBytes;
+    private long downloadedBytes;
+    private long prewarmNum;
+    private long prewarmedBytes;
+    private long evictionNum;
+    private long evictedBytes;
+    private int pendingAccessRecordNum;
+
+    @ConstructorProperties({"hitNum", "missNum", "savedBytes", "downloadedBytes", "prewarmNum", "prewarmedBytes",
+            "evictionNum", "evictedBytes", "pendingAccessRecordNum"})
+    public ImageCacheStatistic(long hitNum, long missNum, long savedBytes, long downloadedBytes, long prewarmNum,
+                               long prewarmedBytes, long evictionNum, long evictedBytes, int pendingAccessRecordNum) {
+        this.hitNum = hitNum;
+        this.missNum = missNum;
+        this.savedBytes = savedBytes;
+        this.downloadedBytes = downloadedBytes;
+        this.prewarmNum = prewarmNum;
+        this.prewarmedBytes = prewarmedBytes;
+        this.evictionNum = evictionNum;
+        this.evictedBytes = evictedBytes;
+        this.pendingAccessRecordNum = pendingAccessRecordNum;
+    }
+
+    public long getHitNum() {
+        return hitNum;
+    }
+
+    public long getMissNum() {
+        return missNum;
+    }
+
+    /**
+     * @return the percentage of image cache lookups finding the image in the cache
+     */
+    public double getHitRatio() {
+        long total = hitNum + missNum;
+        return total == 0 ? 0 : hitNum * 100.0 / total;
+    }
+
+    /**
+     * @return the bytes not downloaded from backup storage because the images are found in the cache
+     */
+    public long getSavedBytes() {
+        return savedBytes;
+    }
+
+    public long getDownloadedBytes() {
+        return downloadedBytes;
+    }
+
+    public long getPrewarmNum() {
+        return prewarmNum;
+    }
+
+    public long getPrewarmedBytes() {
+        return prewarmedBytes;
+    }
+
+    public long getEvictionNum() {
+        return evictionNum;
+    }
+
+    public long getEvictedBytes() {
+        return evictedBytes;
+    }
+
+    public int getPendingAccessRecordNum() {
+        return pendingAccessRecordNum;
+    }
+}
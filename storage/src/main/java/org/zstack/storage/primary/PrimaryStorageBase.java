@@ -594,6 +594,8 @@ public abstract class PrimaryStorageBase extends AbstractPrimaryStorage {
             handle((APISyncPrimaryStorageCapacityMsg) msg);
         } else if (msg instanceof APICleanUpImageCacheOnPrimaryStorageMsg) {
             handle((APICleanUpImageCacheOnPrimaryStorageMsg) msg);
+        } else if (msg instanceof APIPrewarmImageCacheOnPrimaryStorageMsg) {
+            handle((APIPrewarmImageCacheOnPrimaryStorageMsg) msg);
         } else {
             bus.dealWithUnknownMessage(msg);
         }
@@ -603,6 +605,10 @@ public abstract class PrimaryStorageBase extends AbstractPrimaryStorage {
         throw new OperationFailureException(operr("operation not supported"));
     }
 
+    protected void handle(APIPrewarmImageCacheOnPrimaryStorageMsg msg) {
+        throw new OperationFailureException(operr("operation not supported"));
+    }
+
     private void handle(final APISyncPrimaryStorageCapacityMsg msg) {
         final APISyncPrimaryStorageCapacityEvent evt = new APISyncPrimaryStorageCapacityEvent(msg.getId());
 
@@ -18,4 +18,16 @@ public class PrimaryStorageGlobalConfig {
     public static GlobalConfig PING_INTERVAL = new GlobalConfig(CATEGORY, "ping.interval");
     @GlobalConfigValidation(numberGreaterThan = 0)
     public static GlobalConfig PING_PARALLELISM_DEGREE = new GlobalConfig(CATEGORY, "ping.parallelismDegree");
+    @GlobalConfigValidation(validValues = {"None", "LRU", "LFU"})
+    public static GlobalConfig IMAGE_CACHE_EVICTION_POLICY = new GlobalConfig(CATEGORY, "imageCache.eviction.policy");
+    @GlobalConfigValidation(inNumberRange = {1, 100})
+    public static GlobalConfig IMAGE_CACHE_EVICTION_HIGH_WATERMARK = new GlobalConfig(CATEGORY, "imageCache.eviction.highWatermark");
+    @GlobalConfigValidation(inNumberRange = {0, 100})
+    public static GlobalConfig IMAGE_CACHE_EVICTION_LOW_WATERMARK = new GlobalConfig(CATEGORY, "imageCache.eviction.lowWatermark");
+    @GlobalConfigValidation(numberGreaterThan = -1)
+    public static GlobalConfig IMAGE_CACHE_EVICTION_MIN_IDLE_TIME = new GlobalConfig(CATEGORY, "imageCache.eviction.minIdleTime");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig IMAGE_CACHE_ACCESS_RECORD_FLUSH_INTERVAL = new GlobalConfig(CATEGORY, "imageCache.accessRecord.flushInterval");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig IMAGE_CACHE_PREWARM_PARALLELISM_DEGREE = new GlobalConfig(CATEGORY, "imageCache.prewarm.parallelismDegree");
 }
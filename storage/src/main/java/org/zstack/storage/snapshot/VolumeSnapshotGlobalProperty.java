@@ -0,0 +1,12 @@
+package org.zstack.storage.snapshot;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+/**
+ */
+@GlobalPropertyDefinition
+public class VolumeSnapshotGlobalProperty {
+    @GlobalProperty(name="VolumeSnapshot.treeCacheSize", defaultValue = "1000")
+    public static int TREE_CACHE_SIZE;
+}
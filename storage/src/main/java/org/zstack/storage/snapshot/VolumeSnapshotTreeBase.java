@@ -111,6 +111,8 @@ public class VolumeSnapshotTreeBase {
     private PluginRegistry pluginRgty;
     @Autowired
     private PrimaryStorageOverProvisioningManager psRaitoMgr;
+    @Autowired
+    private VolumeSnapshotTreeCache treeCache;
 
     public VolumeSnapshotTreeBase(VolumeSnapshotVO vo, boolean syncOnVolume) {
         currentRoot = vo;
@@ -140,12 +142,11 @@ public class VolumeSnapshotTreeBase {
 
         currentRoot = vo;
         buildFullSnapshotTree();
-        currentLeaf = fullTree.findSnapshot(new Function<Boolean, VolumeSnapshotInventory>() {
-            @Override
-            public Boolean call(VolumeSnapshotInventory arg) {
-                return arg.getUuid().equals(currentRoot.getUuid());
-            }
-        });
+        currentLeaf = fullTree == null ? null : fullTree.findSnapshotByUuid(currentRoot.getUuid());
+        if (currentLeaf == null) {
+            throw new OperationFailureException(operr("cannot find volume snapshot[uuid:%s, name:%s] in the snapshot tree[uuid:%s], it may have been deleted by previous operation",
+                    currentRoot.getUuid(), currentRoot.getName(), currentRoot.getTreeUuid()));
+        }
     }
 
     private VolumeSnapshotInventory getSelfInventory() {
@@ -153,11 +154,7 @@ public class VolumeSnapshotTreeBase {
     }
 
     private void buildFullSnapshotTree() {
-        SimpleQuery<VolumeSnapshotVO> q = dbf.createQuery(VolumeSnapshotVO.class);
-        q.add(VolumeSnapshotVO_.treeUuid, SimpleQuery.Op.EQ, currentRoot.getTreeUuid());
-        List<VolumeSnapshotVO> vos = q.list();
-
-        fullTree = VolumeSnapshotTree.fromVOs(vos);
+        fullTree = treeCache.getTree(currentRoot.getTreeUuid());
     }
 
     @MessageSafe
@@ -0,0 +1,331 @@
+package org.zstack.storage.snapshot;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SQL;
+import org.zstack.header.storage.snapshot.*;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.Query;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Caches the volume snapshot trees on this management node, so the snapshot operations don't reload and rebuild
+ * the whole tree for every message.
+ *
+ * A cached tree is checked by a marker read from the database by one aggregate query: the number of snapshots in
+ * the tree, their latest lastOpDate which the database sets when a snapshot is inserted or updated, and the number
+ * and the max id of their backup storage refs. When the marker changes, e.g. snapshots are created, deleted or
+ * reverted to by this or another management node, only the snapshots changed since the cached marker are loaded
+ * and merged into the cached ones, the deleted snapshots are found by their uuids only when the number of snapshots
+ * doesn't add up.
+ *
+ * lastOpDate is stored in seconds, a snapshot changed in the same second as the marker is read can't be told by the
+ * marker, so a tree whose latest change is in that second is synced again by the next read anyway.
+ *
+ * The cached trees are shared by the messages being handled, they must not be modified.
+ */
+public class VolumeSnapshotTreeCache {
+    private static final CLogger logger = Utils.getLogger(VolumeSnapshotTreeCache.class);
+
+    @Autowired
+    private DatabaseFacade dbf;
+
+    public static class Marker {
+        private final long snapshotCount;
+        private final Timestamp lastOpDate;
+        private final long backupStorageRefCount;
+        private final long lastBackupStorageRefId;
+        private final Timestamp readDate;
+
+        /**
+         * @param lastOpDate the latest lastOpDate of the snapshots
+         * @param readDate   the database time when the marker is read
+         */
+        public Marker(long snapshotCount, Timestamp lastOpDate, long backupStorageRefCount, long lastBackupStorageRefId, Timestamp readDate) {
+            this.snapshotCount = snapshotCount;
+            this.lastOpDate = lastOpDate;
+            this.backupStorageRefCount = backupStorageRefCount;
+            this.lastBackupStorageRefId = lastBackupStorageRefId;
+            this.readDate = readDate;
+        }
+
+        public long getSnapshotCount() {
+            return snapshotCount;
+        }
+
+        public Timestamp getLastOpDate() {
+            return lastOpDate;
+        }
+
+        boolean isSameSnapshots(Marker other) {
+            return snapshotCount == other.snapshotCount && Objects.equals(lastOpDate, other.lastOpDate);
+        }
+
+        boolean isSameBackupStorageRefs(Marker other) {
+            return backupStorageRefCount == other.backupStorageRefCount && lastBackupStorageRefId == other.lastBackupStorageRefId;
+        }
+
+        /**
+         * @return true if any change after the marker is read makes a different marker
+         */
+        boolean isSettled() {
+            if (lastOpDate == null || readDate == null) {
+                return false;
+            }
+
+            long readSecond = readDate.getTime() - readDate.getTime() % TimeUnit.SECONDS.toMillis(1);
+            return lastOpDate.getTime() < readSecond;
+        }
+    }
+
+    public interface Store {
+        /**
+         * the marker must be read before the snapshots it checks
+         */
+        Marker getMarker(String treeUuid);
+
+        List<VolumeSnapshotInventory> listSnapshots(String treeUuid);
+
+        /**
+         * @return the snapshots whose lastOpDate is not before the date
+         */
+        List<VolumeSnapshotInventory> listSnapshotsChangedSince(String treeUuid, Timestamp date);
+
+        List<VolumeSnapshotInventory> listSnapshots(Collection<String> uuids);
+
+        List<String> listSnapshotUuids(String treeUuid);
+
+        List<VolumeSnapshotBackupStorageRefInventory> listBackupStorageRefs(String treeUuid);
+    }
+
+    private static class Entry {
+        Marker marker;
+        // sorted by uuid, the order the database returns the snapshots of a tree
+        TreeMap<String, VolumeSnapshotInventory> snapshots;
+        VolumeSnapshotTree tree;
+    }
+
+    private Store store;
+    private int capacity = VolumeSnapshotGlobalProperty.TREE_CACHE_SIZE;
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > capacity;
+        }
+    };
+    private long hitCount;
+    private long syncCount;
+    private long loadCount;
+
+    public VolumeSnapshotTreeCache() {
+    }
+
+    /**
+     * @param capacity the max number of cached trees, 0 disables the cache
+     */
+    public VolumeSnapshotTreeCache(Store store, int capacity) {
+        this.store = store;
+        this.capacity = capacity;
+    }
+
+    void init() {
+        if (store == null) {
+            store = new DatabaseStore();
+        }
+    }
+
+    private class DatabaseStore implements Store {
+        @Override
+        @Transactional(readOnly = true)
+        public Marker getMarker(String treeUuid) {
+            // one statement reads a consistent view of the snapshots and their backup storage refs
+            String sql = "select count(distinct s.uuid), max(s.lastOpDate), count(r.id), max(r.id), current_timestamp()" +
+                    " from VolumeSnapshotVO s left join VolumeSnapshotBackupStorageRefVO r on r.volumeSnapshotUuid = s.uuid" +
+                    " where s.treeUuid = :treeUuid";
+            Query q = dbf.getEntityManager().createNativeQuery(sql);
+            q.setParameter("treeUuid", treeUuid);
+            Object[] ret = (Object[]) q.getSingleResult();
+
+            return new Marker(toLong(ret[0]), (Timestamp) ret[1], toLong(ret[2]), toLong(ret[3]), (Timestamp) ret[4]);
+        }
+
+        private long toLong(Object o) {
+            return o == null ? 0 : ((Number) o).longValue();
+        }
+
+        @Override
+        public List<VolumeSnapshotInventory> listSnapshots(String treeUuid) {
+            List<VolumeSnapshotVO> vos = SQL.New("select s from VolumeSnapshotVO s where s.treeUuid = :treeUuid", VolumeSnapshotVO.class)
+                    .param("treeUuid", treeUuid)
+                    .list();
+            return VolumeSnapshotInventory.valueOf(vos);
+        }
+
+        @Override
+        public List<VolumeSnapshotInventory> listSnapshotsChangedSince(String treeUuid, Timestamp date) {
+            List<VolumeSnapshotVO> vos = SQL.New("select s from VolumeSnapshotVO s where s.treeUuid = :treeUuid" +
+                    " and s.lastOpDate >= :date", VolumeSnapshotVO.class)
+                    .param("treeUuid", treeUuid)
+                    .param("date", date)
+                    .list();
+            return VolumeSnapshotInventory.valueOf(vos);
+        }
+
+        @Override
+        public List<VolumeSnapshotInventory> listSnapshots(Collection<String> uuids) {
+            List<VolumeSnapshotVO> vos = SQL.New("select s from VolumeSnapshotVO s where s.uuid in (:uuids)", VolumeSnapshotVO.class)
+                    .param("uuids", uuids)
+                    .list();
+            return VolumeSnapshotInventory.valueOf(vos);
+        }
+
+        @Override
+        public List<String> listSnapshotUuids(String treeUuid) {
+            return SQL.New("select s.uuid from VolumeSnapshotVO s where s.treeUuid = :treeUuid", String.class)
+                    .param("treeUuid", treeUuid)
+                    .list();
+        }
+
+        @Override
+        public List<VolumeSnapshotBackupStorageRefInventory> listBackupStorageRefs(String treeUuid) {
+            List<VolumeSnapshotBackupStorageRefVO> vos = SQL.New("select r from VolumeSnapshotBackupStorageRefVO r, VolumeSnapshotVO s" +
+                    " where r.volumeSnapshotUuid = s.uuid and s.treeUuid = :treeUuid", VolumeSnapshotBackupStorageRefVO.class)
+                    .param("treeUuid", treeUuid)
+                    .list();
+            return VolumeSnapshotBackupStorageRefInventory.valueOf(vos);
+        }
+    }
+
+    /**
+     * @return the tree, or null if the tree has no snapshot
+     */
+    public VolumeSnapshotTree getTree(String treeUuid) {
+        if (capacity <= 0) {
+            List<VolumeSnapshotInventory> invs = store.listSnapshots(treeUuid);
+            return invs.isEmpty() ? null : VolumeSnapshotTree.fromInventories(invs);
+        }
+
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.computeIfAbsent(treeUuid, k -> new Entry());
+        }
+
+        synchronized (entry) {
+            Marker marker = store.getMarker(treeUuid);
+            if (marker.getSnapshotCount() == 0) {
+                synchronized (entries) {
+                    entries.remove(treeUuid, entry);
+                }
+
+                entry.tree = null;
+                return null;
+            }
+
+            if (entry.tree != null && entry.marker.isSettled() && entry.marker.isSameSnapshots(marker)
+                    && entry.marker.isSameBackupStorageRefs(marker)) {
+                synchronized (this) {
+                    hitCount++;
+                }
+                return entry.tree;
+            }
+
+            TreeMap<String, VolumeSnapshotInventory> snapshots = entry.tree == null ? null : sync(treeUuid, entry, marker);
+            if (snapshots == null) {
+                snapshots = new TreeMap<>();
+                for (VolumeSnapshotInventory inv : store.listSnapshots(treeUuid)) {
+                    snapshots.put(inv.getUuid(), inv);
+                }
+
+                synchronized (this) {
+                    loadCount++;
+                }
+            } else {
+                synchronized (this) {
+                    syncCount++;
+                }
+            }
+
+            if (snapshots.isEmpty()) {
+                entry.tree = null;
+                return null;
+            }
+
+            entry.marker = marker;
+            entry.snapshots = snapshots;
+            entry.tree = VolumeSnapshotTree.fromInventories(snapshots.values());
+            return entry.tree;
+        }
+    }
+
+    private Set<String> refKeys(List<VolumeSnapshotBackupStorageRefInventory> refs) {
+        if (refs == null || refs.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        return refs.stream().map(r -> r.getBackupStorageUuid() + ":" + r.getInstallPath()).collect(Collectors.toSet());
+    }
+
+    /**
+     * merges the snapshots changed since the cached marker into a copy of the cached snapshots, the cached
+     * snapshots are not touched as the cached tree may be in use
+     *
+     * @return the snapshots of the tree, or null if the tree needs to be reloaded
+     */
+    private TreeMap<String, VolumeSnapshotInventory> sync(String treeUuid, Entry entry, Marker marker) {
+        if (entry.marker.getLastOpDate() == null) {
+            return null;
+        }
+
+        TreeMap<String, VolumeSnapshotInventory> snapshots = new TreeMap<>(entry.snapshots);
+        if (!entry.marker.isSettled() || !entry.marker.isSameSnapshots(marker)) {
+            for (VolumeSnapshotInventory inv : store.listSnapshotsChangedSince(treeUuid, entry.marker.getLastOpDate())) {
+                snapshots.put(inv.getUuid(), inv);
+            }
+        }
+
+        if (!entry.marker.isSameBackupStorageRefs(marker)) {
+            Map<String, List<VolumeSnapshotBackupStorageRefInventory>> refs = store.listBackupStorageRefs(treeUuid).stream()
+                    .collect(Collectors.groupingBy(VolumeSnapshotBackupStorageRefInventory::getVolumeSnapshotUuid));
+            List<String> uuids = snapshots.values().stream()
+                    .filter(inv -> !refKeys(inv.getBackupStorageRefs()).equals(refKeys(refs.get(inv.getUuid()))))
+                    .map(VolumeSnapshotInventory::getUuid)
+                    .collect(Collectors.toList());
+            if (!uuids.isEmpty()) {
+                for (VolumeSnapshotInventory inv : store.listSnapshots(uuids)) {
+                    snapshots.put(inv.getUuid(), inv);
+                }
+            }
+        }
+
+        // every snapshot in the tree is either cached or changed since the cached marker, so the snapshots are
+        // more than the marker counts only if some are deleted
+        if (snapshots.size() != marker.getSnapshotCount()) {
+            snapshots.keySet().retainAll(new HashSet<>(store.listSnapshotUuids(treeUuid)));
+        }
+
+        if (snapshots.values().stream().noneMatch(inv -> inv.getParentUuid() == null)) {
+            logger.debug(String.format("the root of the volume snapshot tree[uuid:%s] is not found after synced, reload the tree", treeUuid));
+            return null;
+        }
+
+        return snapshots;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getSyncCount() {
+        return syncCount;
+    }
+
+    public synchronized long getLoadCount() {
+        return loadCount;
+    }
+}
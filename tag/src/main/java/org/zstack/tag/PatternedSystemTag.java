@@ -11,12 +11,15 @@ import org.zstack.utils.TagUtils;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 import static org.zstack.utils.StringDSL.s;
 
 /**
  */
 public class PatternedSystemTag extends SystemTag {
+    private volatile Pattern queryPattern;
+
     public PatternedSystemTag(String tagFormat, Class resourceClass) {
         super(tagFormat, resourceClass);
     }
@@ -36,6 +39,15 @@ public class PatternedSystemTag extends SystemTag {
         return TagUtils.isMatch(tagFormat, tag);
     }
 
+    @Override
+    boolean isQueryMatch(String tag) {
+        if (queryPattern == null) {
+            queryPattern = SystemTagCache.likeToPattern(useTagFormat());
+        }
+
+        return queryPattern.matcher(tag).matches();
+    }
+
     @Override
     public void delete(String resourceUuid, Class resourceClass) {
         tagMgr.deleteSystemTagUseLike(useTagFormat(), resourceUuid, resourceClass.getSimpleName(), false);
@@ -77,6 +89,12 @@ public class PatternedSystemTag extends SystemTag {
     }
 
     public Map<String, String> getTokensByResourceUuid(String resourceUuid, Class resourceClass) {
+        SystemTagCache cache = getCache();
+        if (cache != null) {
+            List<Map<String, String>> tokens = cache.getTokens(this, resourceUuid, resourceClass.getSimpleName());
+            return tokens.isEmpty() ? null : tokens.get(0);
+        }
+
         String tag = getTag(resourceUuid, resourceClass);
         if (tag == null) {
             return null;
@@ -90,6 +108,11 @@ public class PatternedSystemTag extends SystemTag {
     }
 
     public List<Map<String, String>> getTokensOfTagsByResourceUuid(String resourceUuid, Class resourceClass) {
+        SystemTagCache cache = getCache();
+        if (cache != null) {
+            return cache.getTokens(this, resourceUuid, resourceClass.getSimpleName());
+        }
+
         List<Map<String, String>> res = new ArrayList<>();
 
         List<String> tags = getTags(resourceUuid, resourceClass);
@@ -107,11 +107,26 @@ public class SystemTag {
         return Op.EQ;
     }
 
+    // matches a tag read from database as the query by useOp() and useTagFormat() does
+    boolean isQueryMatch(String tag) {
+        return useTagFormat().equalsIgnoreCase(tag);
+    }
+
+    protected SystemTagCache getCache() {
+        SystemTagCache cache = tagMgr == null ? null : tagMgr.getSystemTagCache();
+        return cache != null && cache.isEnabled() ? cache : null;
+    }
+
     public boolean hasTag(String resourceUuid) {
         return hasTag(resourceUuid, resourceClass);
     }
 
     public boolean hasTag(String resourceUuid, Class resourceClass) {
+        SystemTagCache cache = getCache();
+        if (cache != null) {
+            return cache.hasTag(this, resourceUuid, resourceClass.getSimpleName());
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
         q.add(SystemTagVO_.resourceUuid, Op.EQ, resourceUuid);
@@ -137,6 +152,11 @@ public class SystemTag {
     }
 
     public List<String> getTags(String resourceUuid, Class resourceClass) {
+        SystemTagCache cache = getCache();
+        if (cache != null) {
+            return cache.getTags(this, resourceUuid, resourceClass.getSimpleName());
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.select(SystemTagVO_.tag);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
@@ -162,6 +182,11 @@ public class SystemTag {
     }
 
     public Map<String, List<String>> getTags(List<String> resourceUuids, Class resourceClass) {
+        SystemTagCache cache = getCache();
+        if (cache != null) {
+            return cache.getTags(this, resourceUuids, resourceClass.getSimpleName());
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.select(SystemTagVO_.tag, SystemTagVO_.resourceUuid);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
@@ -0,0 +1,243 @@
+package org.zstack.tag;
+
+import org.zstack.core.db.Q;
+import org.zstack.header.tag.SystemTagVO;
+import org.zstack.header.tag.SystemTagVO_;
+
+import javax.persistence.Tuple;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Caches system tags by resource uuid for SystemTag and PatternedSystemTag.
+ *
+ * All system tags of a resource are loaded by one query, and the tags matching a system tag and the
+ * tokens parsed from them are remembered with the resource, so repeated lookups on hot paths like
+ * allocator flows don't query SystemTagVO again. Resources are evicted in least recently used order
+ * once the cache is full, and reloaded after SystemTag.cacheTimeoutInSeconds in case tags are changed
+ * without TagManagerImpl, e.g. deleted by database foreign keys.
+ *
+ * TagManagerImpl invalidates a resource when its tags are created, updated or deleted, again after
+ * the transaction completes, and on other management nodes by a canonical event. A load overlapping
+ * an invalidation is not cached.
+ */
+public class SystemTagCache implements SystemTagCacheMXBean {
+    private static class CachedTag {
+        final String resourceType;
+        final String tag;
+
+        CachedTag(String resourceType, String tag) {
+            this.resourceType = resourceType;
+            this.tag = tag;
+        }
+    }
+
+    private static class ResourceTags {
+        final List<CachedTag> tags = new ArrayList<>();
+        final long loadTime = System.nanoTime();
+        // keyed by resource type and system tag
+        final Map<String, List<String>> matched = new ConcurrentHashMap<>();
+        final Map<String, List<Map<String, String>>> tokens = new ConcurrentHashMap<>();
+
+        boolean isExpired() {
+            return System.nanoTime() - loadTime > TimeUnit.SECONDS.toNanos(TagGlobalProperty.SYSTEM_TAG_CACHE_TIMEOUT);
+        }
+
+        private String key(SystemTag stag, String resourceType) {
+            return resourceType + "/" + stag.useOp() + "/" + stag.getTagFormat();
+        }
+
+        List<String> getTags(SystemTag stag, String resourceType) {
+            return matched.computeIfAbsent(key(stag, resourceType), k -> {
+                List<String> ret = new ArrayList<>();
+                for (CachedTag t : tags) {
+                    if (t.resourceType.equals(resourceType) && stag.isQueryMatch(t.tag)) {
+                        ret.add(t.tag);
+                    }
+                }
+                return Collections.unmodifiableList(ret);
+            });
+        }
+
+        List<Map<String, String>> getTokens(PatternedSystemTag stag, String resourceType) {
+            return tokens.computeIfAbsent(key(stag, resourceType), k -> {
+                List<Map<String, String>> ret = new ArrayList<>();
+                for (String tag : getTags(stag, resourceType)) {
+                    ret.add(stag.getTokensByTag(tag));
+                }
+                return Collections.unmodifiableList(ret);
+            });
+        }
+    }
+
+    private final Map<String, ResourceTags> resources = new LinkedHashMap<String, ResourceTags>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ResourceTags> eldest) {
+            if (size() > TagGlobalProperty.SYSTEM_TAG_CACHE_SIZE) {
+                evictionNum.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    // bumped on every invalidation, resources loaded across an invalidation are not cached
+    private final AtomicLong version = new AtomicLong();
+
+    private final AtomicLong hitNum = new AtomicLong();
+    private final AtomicLong missNum = new AtomicLong();
+    private final AtomicLong evictionNum = new AtomicLong();
+    private final AtomicLong invalidationNum = new AtomicLong();
+    private final AtomicLong loadTime = new AtomicLong();
+
+    /**
+     * converts a pattern of sql LIKE to a regular expression matching the same strings,
+     * case-insensitively as the collation of SystemTagVO.tag does
+     */
+    static Pattern likeToPattern(String like) {
+        StringBuilder sb = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < like.length(); i++) {
+            char c = like.charAt(i);
+            if (c == '\\' && i + 1 < like.length()) {
+                literal.append(like.charAt(++i));
+                continue;
+            }
+
+            if (c != '%' && c != '_') {
+                literal.append(c);
+                continue;
+            }
+
+            if (literal.length() > 0) {
+                sb.append(Pattern.quote(literal.toString()));
+                literal.setLength(0);
+            }
+            sb.append(c == '%' ? ".*" : ".");
+        }
+
+        if (literal.length() > 0) {
+            sb.append(Pattern.quote(literal.toString()));
+        }
+
+        return Pattern.compile(sb.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.DOTALL);
+    }
+
+    public boolean isEnabled() {
+        return TagGlobalProperty.SYSTEM_TAG_CACHE_SIZE > 0;
+    }
+
+    private Map<String, ResourceTags> get(Collection<String> resourceUuids) {
+        Map<String, ResourceTags> ret = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        synchronized (resources) {
+            for (String uuid : resourceUuids) {
+                ResourceTags rt = resources.get(uuid);
+                if (rt == null || rt.isExpired()) {
+                    missing.add(uuid);
+                } else {
+                    ret.put(uuid, rt);
+                }
+            }
+        }
+
+        hitNum.addAndGet(ret.size());
+        if (missing.isEmpty()) {
+            return ret;
+        }
+
+        missNum.addAndGet(missing.size());
+        long v = version.get();
+        long start = System.nanoTime();
+        for (String uuid : missing) {
+            ret.put(uuid, new ResourceTags());
+        }
+        List<Tuple> ts = load(missing);
+        for (Tuple t : ts) {
+            ret.get(t.get(0, String.class)).tags.add(new CachedTag(t.get(1, String.class), t.get(2, String.class)));
+        }
+        loadTime.addAndGet(System.nanoTime() - start);
+
+        synchronized (resources) {
+            if (version.get() == v) {
+                for (String uuid : missing) {
+                    resources.put(uuid, ret.get(uuid));
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    protected List<Tuple> load(List<String> resourceUuids) {
+        return Q.New(SystemTagVO.class)
+                .select(SystemTagVO_.resourceUuid, SystemTagVO_.resourceType, SystemTagVO_.tag)
+                .in(SystemTagVO_.resourceUuid, resourceUuids)
+                .listTuple();
+    }
+
+    private ResourceTags get(String resourceUuid) {
+        return get(Collections.singletonList(resourceUuid)).get(resourceUuid);
+    }
+
+    boolean hasTag(SystemTag stag, String resourceUuid, String resourceType) {
+        return !get(resourceUuid).getTags(stag, resourceType).isEmpty();
+    }
+
+    List<String> getTags(SystemTag stag, String resourceUuid, String resourceType) {
+        return new ArrayList<>(get(resourceUuid).getTags(stag, resourceType));
+    }
+
+    Map<String, List<String>> getTags(SystemTag stag, Collection<String> resourceUuids, String resourceType) {
+        Map<String, List<String>> ret = new HashMap<>();
+        for (Map.Entry<String, ResourceTags> e : get(new HashSet<>(resourceUuids)).entrySet()) {
+            List<String> tags = e.getValue().getTags(stag, resourceType);
+            if (!tags.isEmpty()) {
+                ret.put(e.getKey(), new ArrayList<>(tags));
+            }
+        }
+        return ret;
+    }
+
+    List<Map<String, String>> getTokens(PatternedSystemTag stag, String resourceUuid, String resourceType) {
+        List<Map<String, String>> ret = new ArrayList<>();
+        for (Map<String, String> tokens : get(resourceUuid).getTokens(stag, resourceType)) {
+            ret.add(tokens == null ? null : new HashMap<>(tokens));
+        }
+        return ret;
+    }
+
+    public void invalidate(Collection<String> resourceUuids) {
+        synchronized (resources) {
+            version.incrementAndGet();
+            for (String uuid : resourceUuids) {
+                resources.remove(uuid);
+            }
+        }
+
+        invalidationNum.addAndGet(resourceUuids.size());
+    }
+
+    public void invalidateAll() {
+        synchronized (resources) {
+            version.incrementAndGet();
+            resources.clear();
+        }
+    }
+
+    @Override
+    public SystemTagCacheStatistic getSystemTagCacheStatistic() {
+        int size;
+        synchronized (resources) {
+            size = resources.size();
+        }
+
+        long misses = missNum.get();
+        return new SystemTagCacheStatistic(size, TagGlobalProperty.SYSTEM_TAG_CACHE_SIZE, hitNum.get(), misses,
+                evictionNum.get(), invalidationNum.get(),
+                misses == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(loadTime.get() / misses));
+    }
+}
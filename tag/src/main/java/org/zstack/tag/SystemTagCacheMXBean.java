@@ -0,0 +1,7 @@
+package org.zstack.tag;
+
+/**
+ */
+public interface SystemTagCacheMXBean {
+    SystemTagCacheStatistic getSystemTagCacheStatistic();
+}
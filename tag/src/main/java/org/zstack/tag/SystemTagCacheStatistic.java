@@ -0,0 +1,56 @@
+package org.zstack.tag;
+
+import java.beans.ConstructorProperties;
+
+/**
+ */
+public class SystemTagCacheStatistic {
+    private int size;
+    private int maxSize;
+    private long hitNum;
+    private long missNum;
+    private long evictionNum;
+    private long invalidationNum;
+    private long averageLoadTimeInMicros;
+
+    @ConstructorProperties({"size", "maxSize", "hitNum", "missNum", "evictionNum", "invalidationNum",
+            "averageLoadTimeInMicros"})
+    public SystemTagCacheStatistic(int size, int maxSize, long hitNum, long missNum, long evictionNum,
+                                   long invalidationNum, long averageLoadTimeInMicros) {
+        this.size = size;
+        this.maxSize = maxSize;
+        this.hitNum = hitNum;
+        this.missNum = missNum;
+        this.evictionNum = evictionNum;
+        this.invalidationNum = invalidationNum;
+        this.averageLoadTimeInMicros = averageLoadTimeInMicros;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHitNum() {
+        return hitNum;
+    }
+
+    public long getMissNum() {
+        return missNum;
+    }
+
+    public long getEvictionNum() {
+        return evictionNum;
+    }
+
+    public long getInvalidationNum() {
+        return invalidationNum;
+    }
+
+    public long getAverageLoadTimeInMicros() {
+        return averageLoadTimeInMicros;
+    }
+}
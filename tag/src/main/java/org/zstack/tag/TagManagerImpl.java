@@ -2,8 +2,12 @@ package org.zstack.tag;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.zstack.core.Platform;
 import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
 import org.zstack.core.cloudbus.MessageSafe;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.*;
@@ -11,6 +15,8 @@ import org.zstack.core.db.SimpleQuery.Op;
 import org.zstack.core.defer.Defer;
 import org.zstack.core.defer.Deferred;
 import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.core.thread.AsyncThread;
 import org.zstack.header.AbstractService;
 import org.zstack.header.apimediator.ApiMessageInterceptionException;
 import org.zstack.header.apimediator.GlobalApiMessageInterceptor;
@@ -21,6 +27,7 @@ import org.zstack.header.message.APIMessage;
 import org.zstack.header.message.Message;
 import org.zstack.header.query.APIQueryReply;
 import org.zstack.header.tag.*;
+import org.zstack.header.tag.SystemTagCanonicalEvents.SystemTagChangedData;
 import org.zstack.query.QueryFacade;
 import org.zstack.utils.*;
 import org.zstack.utils.function.Function;
@@ -32,6 +39,7 @@ import javax.persistence.metamodel.EntityType;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.stream.Collectors;
 
 import static org.zstack.core.Platform.argerr;
 import static org.zstack.core.Platform.operr;
@@ -53,6 +61,10 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     protected ErrorFacade errf;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private EventFacade evtf;
+    @Autowired
+    private JmxFacade jmxf;
 
     private List<SystemTag> systemTags = new ArrayList<>();
     private Map<String, List<SystemTag>> resourceTypeSystemTagMap = new HashMap<>();
@@ -61,6 +73,20 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     private Map<String, List<SystemTagCreateMessageValidator>> createMessageValidators = new HashMap<>();
     private Map<String, List<SystemTagLifeCycleExtension>> lifeCycleExtensions = new HashMap<>();
     private List<Class> autoDeleteTagClasses;
+    private SystemTagCache systemTagCache = new SystemTagCache();
+
+    // collects resources whose tags are changed in a transaction, to invalidate them again after the
+    // transaction completes, other threads may have cached the tags not committed yet
+    private class TagChangeSynchronization extends TransactionSynchronizationAdapter {
+        final Set<String> resourceUuids = new HashSet<>();
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(TagManagerImpl.this);
+            systemTagCache.invalidate(resourceUuids);
+            fireSystemTagChangedEvent(new ArrayList<>(resourceUuids));
+        }
+    }
 
 
     private void initSystemTags() throws IllegalAccessException {
@@ -370,6 +396,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
             ntag.setResourceUuid(dstResourceUuid);
             dbf.getEntityManager().persist(ntag);
         }
+
+        invalidateSystemTagCache(list(dstResourceUuid));
     }
 
     @Override
@@ -478,7 +506,41 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         deleteSystemTag(tag, resourceUuid, resourceType, inherit, true);
     }
 
+    public SystemTagCache getSystemTagCache() {
+        return systemTagCache;
+    }
+
+    private void invalidateSystemTagCache(Collection<String> resourceUuids) {
+        systemTagCache.invalidate(resourceUuids);
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            fireSystemTagChangedEvent(new ArrayList<>(resourceUuids));
+            return;
+        }
+
+        TagChangeSynchronization sync = (TagChangeSynchronization) TransactionSynchronizationManager.getResource(this);
+        if (sync == null) {
+            sync = new TagChangeSynchronization();
+            TransactionSynchronizationManager.bindResource(this, sync);
+            TransactionSynchronizationManager.registerSynchronization(sync);
+        }
+        sync.resourceUuids.addAll(resourceUuids);
+    }
+
+    @AsyncThread
+    private void fireSystemTagChangedEvent(List<String> resourceUuids) {
+        SystemTagChangedData d = new SystemTagChangedData();
+        d.setResourceUuids(resourceUuids);
+        evtf.fire(SystemTagCanonicalEvents.SYSTEM_TAG_CHANGED_PATH, d);
+    }
+
+    private List<String> getResourceUuids(List<SystemTagInventory> tags) {
+        return tags.stream().map(SystemTagInventory::getResourceUuid).distinct().collect(Collectors.toList());
+    }
+
     void fireTagDeleted(List<SystemTagInventory> tags) {
+        invalidateSystemTagCache(getResourceUuids(tags));
+
         for (SystemTagInventory tag : tags) {
             List<SystemTagLifeCycleExtension> exts = lifeCycleExtensions.get(tag.getResourceType());
             if (exts != null) {
@@ -494,6 +556,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     }
 
     void fireTagCreated(List<SystemTagInventory> tags) {
+        invalidateSystemTagCache(getResourceUuids(tags));
+
         for (SystemTagInventory tag : tags) {
             List<SystemTagLifeCycleExtension> exts = lifeCycleExtensions.get(tag.getResourceType());
             if (exts != null) {
@@ -509,6 +573,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     }
 
     private void fireTagUpdated(SystemTagInventory old, SystemTagInventory newTag) {
+        invalidateSystemTagCache(list(old.getResourceUuid()));
+
         List<SystemTagLifeCycleExtension> exts = lifeCycleExtensions.get(old.getResourceType());
         if (exts != null) {
             for (SystemTagLifeCycleExtension ext : exts) {
@@ -653,6 +719,17 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     @Override
     public boolean start() {
         populateExtensions();
+
+        evtf.on(SystemTagCanonicalEvents.SYSTEM_TAG_CHANGED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                if (!evtf.isFromThisManagementNode(tokens)) {
+                    systemTagCache.invalidate(((SystemTagChangedData) data).getResourceUuids());
+                }
+            }
+        });
+
+        jmxf.registerBean("SystemTagCache", systemTagCache);
         return true;
     }
 
@@ -686,6 +763,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         q.setParameter("resourceUuids", entityIds);
         q.executeUpdate();
 
+        invalidateSystemTagCache(entityIds);
+
         sql = "delete from UserTagVO s" +
                 " where s.resourceType in (:resourceTypes)" +
                 " and s.resourceUuid in (:resourceUuids)";
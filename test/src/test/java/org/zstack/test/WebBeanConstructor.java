@@ -3,6 +3,7 @@ package org.zstack.test;
 import org.apache.commons.io.FileUtils;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eclipse.jetty.webapp.WebAppContext;
 import org.springframework.web.util.UriComponentsBuilder;
 import org.zstack.appliancevm.ApplianceVmGlobalProperty;
@@ -21,6 +22,8 @@ public class WebBeanConstructor extends BeanConstructor {
     private static final String BASE_DIR = "target/test-classes/tomcat";
     private static final String APP_NAME = "zstack";
     private int port = 8989;
+    // 0 means the default thread pool of jetty
+    private int maxThreads;
     private UriComponentsBuilder ub;
     private String siteUrl;
 
@@ -47,7 +50,7 @@ public class WebBeanConstructor extends BeanConstructor {
 
         generateWarFile();
 
-        jetty = new Server();
+        jetty = maxThreads > 0 ? new Server(new QueuedThreadPool(maxThreads)) : new Server();
         ServerConnector http = new ServerConnector(jetty);
         http.setHost("0.0.0.0");
         http.setPort(port);
@@ -102,6 +105,14 @@ public class WebBeanConstructor extends BeanConstructor {
         this.port = port;
     }
 
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
     public String buildUrl(String... path) {
         UriComponentsBuilder ubb = UriComponentsBuilder.fromHttpUrl(getSiteUrl());
         for (String p : path) {
@@ -0,0 +1,88 @@
+package org.zstack.test.compute.zone;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.query.QueryCondition;
+import org.zstack.header.query.QueryOp;
+import org.zstack.header.zone.APIQueryZoneMsg;
+import org.zstack.header.zone.APIQueryZoneReply;
+import org.zstack.query.MysqlQueryBuilderImpl3;
+import org.zstack.query.QueryPlanCacheStatistic;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. query zones of the same shape with different values
+ *
+ * confirm the plan is built once and reused with the right values bound
+ */
+public class TestQueryPlanCache {
+    CLogger logger = Utils.getLogger(TestQueryPlanCache.class);
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    MysqlQueryBuilderImpl3 builder;
+    int benchmarkTimes = 1000;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/zone/TestQueryZone.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        builder = loader.getComponent(MysqlQueryBuilderImpl3.class);
+    }
+
+    private APIQueryZoneReply query(String op, String value) throws ApiSenderException {
+        APIQueryZoneMsg msg = new APIQueryZoneMsg();
+        QueryCondition cond = new QueryCondition();
+        cond.setName("name");
+        cond.setOp(op);
+        cond.setValue(value);
+        msg.getConditions().add(cond);
+        return api.query(msg, APIQueryZoneReply.class);
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        query(QueryOp.EQ.toString(), "Zone1");
+        QueryPlanCacheStatistic before = builder.getQueryPlanCacheStatistic();
+
+        for (int i = 1; i <= 5; i++) {
+            APIQueryZoneReply reply = query(QueryOp.EQ.toString(), "Zone" + i);
+            Assert.assertEquals(1, reply.getInventories().size());
+            Assert.assertEquals("Zone" + i, reply.getInventories().get(0).getName());
+        }
+
+        QueryPlanCacheStatistic after = builder.getQueryPlanCacheStatistic();
+        Assert.assertEquals(before.getMissNum(), after.getMissNum());
+        Assert.assertEquals(before.getHitNum() + 5, after.getHitNum());
+
+        // a different op is a different plan
+        APIQueryZoneReply reply = query(QueryOp.IN.toString(), "Zone1,Zone2,Zone3");
+        Assert.assertEquals(3, reply.getInventories().size());
+        reply = query(QueryOp.IN.toString(), "Zone4,Zone5");
+        Assert.assertEquals(2, reply.getInventories().size());
+        Assert.assertEquals(after.getMissNum() + 1, builder.getQueryPlanCacheStatistic().getMissNum());
+
+        long s = System.nanoTime();
+        for (int i = 0; i < benchmarkTimes; i++) {
+            query(QueryOp.EQ.toString(), "Zone" + (i % 5 + 1));
+        }
+        long cost = System.nanoTime() - s;
+
+        QueryPlanCacheStatistic statistic = builder.getQueryPlanCacheStatistic();
+        logger.info(String.format("%s queries: %s ms; plan cache size: %s, hits: %s, misses: %s, average build time: %s us",
+                benchmarkTimes, TimeUnit.NANOSECONDS.toMillis(cost), statistic.getSize(), statistic.getHitNum(),
+                statistic.getMissNum(), statistic.getAverageBuildTimeInMicros()));
+    }
+}
@@ -0,0 +1,138 @@
+package org.zstack.test.compute.zone;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.zone.APIQueryZoneMsg;
+import org.zstack.header.zone.APIQueryZoneReply;
+import org.zstack.header.zone.ZoneInventory;
+import org.zstack.header.zone.ZoneVO;
+import org.zstack.query.QueryGlobalProperty;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.Utils;
+import org.zstack.utils.gson.JSONObjectUtil;
+import org.zstack.utils.logging.CLogger;
+
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 1. generate a large number of zones
+ * 2. query them with and without fetching in chunks
+ *
+ * confirm the results are the same, and compare the cost including the JSON serialization
+ */
+public class TestQueryZoneInChunks {
+    CLogger logger = Utils.getLogger(TestQueryZoneInChunks.class);
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    int zoneNum = 20000;
+    int chunkSize = 1000;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/zone/TestQueryZone.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        dbf = loader.getComponent(DatabaseFacade.class);
+    }
+
+    private void generateZones() {
+        List<ZoneVO> vos = new ArrayList<>();
+        for (int i = 0; i < zoneNum; i++) {
+            ZoneVO vo = new ZoneVO();
+            vo.setUuid(Platform.getUuid());
+            vo.setName(String.format("zone-%s", i % 100));
+            vo.setDescription("generated for querying in chunks");
+            vo.setType("zstack");
+            vos.add(vo);
+
+            if (vos.size() == 1000) {
+                dbf.persistCollection(vos);
+                vos = new ArrayList<>();
+            }
+        }
+
+        if (!vos.isEmpty()) {
+            dbf.persistCollection(vos);
+        }
+    }
+
+    private List<String> query(int chunkSize, Integer start, Integer limit, String sortBy) throws ApiSenderException {
+        QueryGlobalProperty.CHUNK_SIZE = chunkSize;
+        APIQueryZoneMsg msg = new APIQueryZoneMsg();
+        msg.setStart(start);
+        msg.setLimit(limit);
+        if (sortBy != null) {
+            msg.setSortBy(sortBy);
+            msg.setSortDirection("asc");
+        }
+
+        long s = System.nanoTime();
+        APIQueryZoneReply reply = api.query(msg, APIQueryZoneReply.class);
+        long queryCost = System.nanoTime() - s;
+
+        s = System.nanoTime();
+        JSONObjectUtil.toJson(reply, new NullWriter());
+        long jsonCost = System.nanoTime() - s;
+
+        logger.info(String.format("query %s zones[chunk size: %s, start: %s, limit: %s, sortBy: %s]: query %s ms, writing JSON %s ms",
+                reply.getInventories().size(), chunkSize, start, limit, sortBy,
+                TimeUnit.NANOSECONDS.toMillis(queryCost), TimeUnit.NANOSECONDS.toMillis(jsonCost)));
+        return reply.getInventories().stream().map(ZoneInventory::getUuid).collect(Collectors.toList());
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        generateZones();
+        int total = zoneNum + 5;
+
+        List<String> whole = query(0, null, total, null);
+        List<String> chunked = query(chunkSize, null, total, null);
+        Assert.assertEquals(total, whole.size());
+        Assert.assertEquals(total, chunked.size());
+        Assert.assertTrue(chunked.containsAll(whole));
+
+        whole = query(0, null, total, "name");
+        chunked = query(chunkSize, null, total, "name");
+        Assert.assertEquals(total, chunked.size());
+        Assert.assertTrue(chunked.containsAll(whole));
+
+        // start and limit crossing chunk boundaries
+        whole = query(0, 1500, 2500, "uuid");
+        chunked = query(chunkSize, 1500, 2500, "uuid");
+        Assert.assertEquals(2500, chunked.size());
+        Assert.assertEquals(whole, chunked);
+
+        chunked = query(chunkSize, 1500, 2500, null);
+        Assert.assertEquals(2500, chunked.size());
+        Assert.assertEquals(whole, chunked);
+    }
+
+    private static class NullWriter extends Writer {
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.zstack.test.compute.zone;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.message.AbstractBeforeDeliveryMessageInterceptor;
+import org.zstack.header.message.Message;
+import org.zstack.header.zone.APIQueryZoneMsg;
+import org.zstack.rest.RestConstants;
+import org.zstack.rest.RestServer;
+import org.zstack.sdk.*;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 1. limit the jetty thread pool to a few threads
+ * 2. slow down query APIs and send a lot of them concurrently
+ *
+ * confirm the number of queries waiting for the reply exceeds the number of container threads
+ */
+public class TestQueryZoneRestConcurrency {
+    CLogger logger = Utils.getLogger(TestQueryZoneRestConcurrency.class);
+
+    Api api;
+    ComponentLoader loader;
+    CloudBus bus;
+    RestServer restServer;
+    int jettyThreadNum = 20;
+    int queryNum = 100;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        con.setMaxThreads(jettyThreadNum);
+        loader = con.addXml("PortalForUnitTest.xml")
+                .addXml("ZoneManager.xml")
+                .addXml("AccountManager.xml")
+                .addXml("rest.xml")
+                .build();
+        bus = loader.getComponent(CloudBus.class);
+        restServer = loader.getComponent(RestServer.class);
+        api = new Api();
+        api.startServer();
+    }
+
+    @Test
+    public void test() throws ApiSenderException, InterruptedException {
+        api.loginAsAdmin();
+
+        ZSClient.configure(
+                new ZSConfig.Builder()
+                        .setHostname("127.0.0.1")
+                        .setPort(8989)
+                        .setWebHook(String.format("http://127.0.0.1:8989%s", RestConstants.UNIT_TEST_WEBHOOK_PATH))
+                        .build()
+        );
+
+        bus.installBeforeDeliveryMessageInterceptor(new AbstractBeforeDeliveryMessageInterceptor() {
+            @Override
+            public void intercept(Message msg) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(100);
+                } catch (InterruptedException e) {
+                    logger.warn(e.getMessage(), e);
+                }
+            }
+        }, APIQueryZoneMsg.class);
+
+        String sessionUuid = api.getAdminSession().getUuid();
+        CountDownLatch latch = new CountDownLatch(queryNum);
+        AtomicInteger failures = new AtomicInteger(0);
+        for (int i = 0; i < queryNum; i++) {
+            new Thread(() -> {
+                try {
+                    QueryZoneAction action = new QueryZoneAction();
+                    action.sessionId = sessionUuid;
+                    QueryZoneAction.Result r = action.call();
+                    if (r.error != null) {
+                        failures.incrementAndGet();
+                    }
+                } catch (Throwable t) {
+                    logger.warn(t.getMessage(), t);
+                    failures.incrementAndGet();
+                } finally {
+                    latch.countDown();
+                }
+            }).start();
+        }
+
+        int peak = 0;
+        while (!latch.await(10, TimeUnit.MILLISECONDS)) {
+            peak = Math.max(peak, restServer.getInFlightSyncCallNum());
+        }
+
+        logger.info(String.format("%s concurrent queries with %s jetty threads, %s queries in flight at peak",
+                queryNum, jettyThreadNum, peak));
+        Assert.assertEquals(0, failures.get());
+        Assert.assertTrue(String.format("only %s queries in flight at peak", peak), peak > jettyThreadNum);
+    }
+}
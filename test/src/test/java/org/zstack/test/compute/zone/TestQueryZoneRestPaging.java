@@ -0,0 +1,233 @@
+package org.zstack.test.compute.zone;
+
+import com.google.gson.stream.JsonReader;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.message.AbstractBeforeDeliveryMessageInterceptor;
+import org.zstack.header.message.Message;
+import org.zstack.header.rest.RESTFacade;
+import org.zstack.header.zone.APIQueryZoneMsg;
+import org.zstack.header.zone.ZoneVO;
+import org.zstack.rest.RestConstants;
+import org.zstack.rest.RestGlobalProperty;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 1. generate a large number of zones
+ * 2. query them all through the REST server with and without paging, reading the response as a stream
+ *
+ * confirm the results are the same, the schema is indexed across pages and no query message asks for
+ * more than a page; compare the peak heap usage and the cost
+ */
+public class TestQueryZoneRestPaging {
+    CLogger logger = Utils.getLogger(TestQueryZoneRestPaging.class);
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    RESTFacade restf;
+    CloudBus bus;
+    int zoneNum = 50000;
+    int pageSize = 1000;
+    int originalPageSize;
+    AtomicInteger maxLimit = new AtomicInteger(0);
+    AtomicInteger messageNum = new AtomicInteger(0);
+
+    @Before
+    public void setUp() throws Exception {
+        originalPageSize = RestGlobalProperty.QUERY_PAGE_SIZE;
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        loader = con.addXml("PortalForUnitTest.xml")
+                .addXml("ZoneManager.xml")
+                .addXml("AccountManager.xml")
+                .addXml("rest.xml")
+                .build();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        restf = loader.getComponent(RESTFacade.class);
+        bus = loader.getComponent(CloudBus.class);
+        api = new Api();
+        api.startServer();
+    }
+
+    @After
+    public void tearDown() {
+        RestGlobalProperty.QUERY_PAGE_SIZE = originalPageSize;
+    }
+
+    private void generateZones() {
+        List<ZoneVO> vos = new ArrayList<>();
+        for (int i = 0; i < zoneNum; i++) {
+            ZoneVO vo = new ZoneVO();
+            vo.setUuid(Platform.getUuid());
+            vo.setName(String.format("zone-%s", i % 100));
+            vo.setDescription("generated for querying through the REST server");
+            vo.setType("zstack");
+            vos.add(vo);
+
+            if (vos.size() == 1000) {
+                dbf.persistCollection(vos);
+                vos = new ArrayList<>();
+            }
+        }
+
+        if (!vos.isEmpty()) {
+            dbf.persistCollection(vos);
+        }
+    }
+
+    private static class Result {
+        List<String> uuids = new ArrayList<>();
+        Long total;
+        Set<String> schemaPaths = new HashSet<>();
+    }
+
+    private long heapPeak() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private void resetHeapPeak() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private Result query(int pageSize, String sort) throws IOException {
+        RestGlobalProperty.QUERY_PAGE_SIZE = pageSize;
+        maxLimit.set(0);
+        messageNum.set(0);
+
+        UriComponentsBuilder ub = UriComponentsBuilder.fromHttpUrl(restf.getBaseUrl());
+        ub.path(RestConstants.API_VERSION);
+        ub.path("/zones");
+        ub.queryParam("limit", zoneNum + pageSize);
+        ub.queryParam("replyWithCount", true);
+        if (sort != null) {
+            ub.queryParam("sort", sort);
+        }
+
+        resetHeapPeak();
+        long before = heapPeak();
+        long s = System.nanoTime();
+
+        HttpURLConnection conn = (HttpURLConnection) new URL(ub.build().toUriString()).openConnection();
+        conn.setRequestProperty("Authorization", String.format("OAuth %s", api.getAdminSession().getUuid()));
+        Assert.assertEquals(200, conn.getResponseCode());
+
+        // read the response as a stream so the client doesn't hold the body
+        Result ret = new Result();
+        try (JsonReader reader = new JsonReader(new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("inventories".equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if ("uuid".equals(reader.nextName())) {
+                                ret.uuids.add(reader.nextString());
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    }
+                    reader.endArray();
+                } else if ("total".equals(name)) {
+                    ret.total = reader.nextLong();
+                } else if ("schema".equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        ret.schemaPaths.add(reader.nextName());
+                        reader.skipValue();
+                    }
+                    reader.endObject();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+
+        long cost = System.nanoTime() - s;
+        logger.info(String.format("query %s zones through REST[page size: %s, sort: %s]: %s query messages, %s ms," +
+                        " heap peak increased by %s MB", ret.uuids.size(), pageSize, sort, messageNum.get(),
+                TimeUnit.NANOSECONDS.toMillis(cost), (heapPeak() - before) / 1024 / 1024));
+        return ret;
+    }
+
+    private void checkResult(Result ret) {
+        Assert.assertEquals(zoneNum, ret.uuids.size());
+        Assert.assertEquals(zoneNum, new HashSet<>(ret.uuids).size());
+        Assert.assertEquals(zoneNum, ret.total.longValue());
+        Assert.assertEquals(zoneNum, ret.schemaPaths.size());
+        Assert.assertTrue(ret.schemaPaths.contains(String.format("inventories[%s]", zoneNum - 1)));
+    }
+
+    @Test
+    public void test() throws ApiSenderException, IOException {
+        api.loginAsAdmin();
+        generateZones();
+
+        bus.installBeforeDeliveryMessageInterceptor(new AbstractBeforeDeliveryMessageInterceptor() {
+            @Override
+            public void intercept(Message msg) {
+                APIQueryZoneMsg qmsg = (APIQueryZoneMsg) msg;
+                messageNum.incrementAndGet();
+                maxLimit.accumulateAndGet(qmsg.getLimit(), Math::max);
+            }
+        }, APIQueryZoneMsg.class);
+
+        Result whole = query(0, null);
+        checkResult(whole);
+        Assert.assertEquals(1, messageNum.get());
+
+        Result paged = query(pageSize, null);
+        checkResult(paged);
+        Assert.assertTrue(messageNum.get() > 1);
+        Assert.assertEquals(pageSize, maxLimit.get());
+        Assert.assertEquals(new HashSet<>(whole.uuids), new HashSet<>(paged.uuids));
+
+        // sorted by a field with duplicate values, pages are taken by offset
+        paged = query(pageSize, "+name");
+        checkResult(paged);
+        Assert.assertEquals(pageSize, maxLimit.get());
+        Assert.assertEquals(new HashSet<>(whole.uuids), new HashSet<>(paged.uuids));
+    }
+}
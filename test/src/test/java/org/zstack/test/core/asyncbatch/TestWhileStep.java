@@ -0,0 +1,112 @@
+package org.zstack.test.core.asyncbatch;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.core.asyncbatch.While;
+import org.zstack.header.core.NoErrorCompletion;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 1. run While.step() over 100 items with 5 workers, each item done asynchronously
+ * 2. call allDone() on the 10th item
+ * 3. run While.step() over no item
+ *
+ * confirm the completion is called exactly once, at most 5 items run at the same time, no worker takes items
+ * after allDone() and an empty While completes
+ */
+public class TestWhileStep {
+    ExecutorService executor = Executors.newFixedThreadPool(10);
+
+    private List<Integer> items(int num) {
+        List<Integer> ret = new ArrayList<>();
+        for (int i = 0; i < num; i++) {
+            ret.add(i);
+        }
+        return ret;
+    }
+
+    @Test
+    public void test() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        AtomicInteger doneNum = new AtomicInteger();
+        AtomicInteger completionNum = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(1);
+
+        new While<>(items(100)).step((item, completion) -> {
+            int r = running.incrementAndGet();
+            maxRunning.accumulateAndGet(r, Math::max);
+            executor.submit(() -> {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(2);
+                } catch (InterruptedException ignored) {
+                }
+                running.decrementAndGet();
+                doneNum.incrementAndGet();
+                completion.done();
+            });
+        }, 5).run(new NoErrorCompletion() {
+            @Override
+            public void done() {
+                completionNum.incrementAndGet();
+                latch.countDown();
+            }
+        });
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        TimeUnit.MILLISECONDS.sleep(50);
+        Assert.assertEquals(1, completionNum.get());
+        Assert.assertEquals(100, doneNum.get());
+        Assert.assertTrue(maxRunning.get() <= 5);
+
+        // allDone
+        List<Integer> taken = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger completionNum1 = new AtomicInteger();
+        CountDownLatch latch1 = new CountDownLatch(1);
+        new While<>(items(100)).step((item, completion) -> {
+            taken.add(item);
+            executor.submit(() -> {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(2);
+                } catch (InterruptedException ignored) {
+                }
+                if (item == 9) {
+                    completion.allDone();
+                } else {
+                    completion.done();
+                }
+            });
+        }, 5).run(new NoErrorCompletion() {
+            @Override
+            public void done() {
+                completionNum1.incrementAndGet();
+                latch1.countDown();
+            }
+        });
+
+        Assert.assertTrue(latch1.await(10, TimeUnit.SECONDS));
+        int takenNum = taken.size();
+        TimeUnit.MILLISECONDS.sleep(50);
+        Assert.assertEquals(1, completionNum1.get());
+        // only the items taken by other workers before allDone() run
+        Assert.assertEquals(takenNum, taken.size());
+        Assert.assertTrue(taken.size() < 15);
+
+        // empty
+        AtomicInteger completionNum2 = new AtomicInteger();
+        new While<>(new ArrayList<Integer>()).step((item, completion) -> completion.done(), 5).run(new NoErrorCompletion() {
+            @Override
+            public void done() {
+                completionNum2.incrementAndGet();
+            }
+        });
+        Assert.assertEquals(1, completionNum2.get());
+
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,208 @@
+package org.zstack.test.core.cascade;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Test;
+import org.zstack.core.cascade.*;
+import org.zstack.core.config.GlobalConfig;
+import org.zstack.header.core.Completion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 1. build a cascade graph of zone, cluster, host, l2, l3, vip, eip, vm, primary storage, volume, backup storage
+ * and image, vm has host and l3 as parents, volume has vm and primary storage, eip has vip and vm
+ * 2. every cascade extension completes after a delay like waiting for agents
+ * 3. cascade from zone serially and in parallel, then make the vm cascade fail
+ *
+ * confirm in parallel a resource type is never cascaded by two branches at the same time, all children
+ * are cascaded before their parents, all branches are cascaded, and the parallel cascade is faster.
+ * After a failure, no parents of the failed branch are cascaded.
+ */
+public class TestParallelAsyncCascade {
+    CLogger logger = Utils.getLogger(TestParallelAsyncCascade.class);
+    long delay = 100;
+    ScheduledExecutorService executor = Executors.newScheduledThreadPool(8);
+
+    // resource -> its parents
+    Map<String, List<String>> edges = new LinkedHashMap<>();
+    // resource -> all resources under it
+    Map<String, Set<String>> descendants = new HashMap<>();
+
+    final Map<String, Integer> running = new HashMap<>();
+    final List<String> called = new ArrayList<>();
+    final List<String> errors = new ArrayList<>();
+    String failedResource;
+
+    {
+        edges.put("zone", Collections.emptyList());
+        edges.put("cluster", Collections.singletonList("zone"));
+        edges.put("host", Collections.singletonList("cluster"));
+        edges.put("l2", Collections.singletonList("zone"));
+        edges.put("l3", Collections.singletonList("l2"));
+        edges.put("vip", Collections.singletonList("l3"));
+        edges.put("eip", Arrays.asList("vip", "vm"));
+        edges.put("vm", Arrays.asList("host", "l3"));
+        edges.put("primaryStorage", Collections.singletonList("zone"));
+        edges.put("volume", Arrays.asList("vm", "primaryStorage"));
+        edges.put("backupStorage", Collections.singletonList("zone"));
+        edges.put("image", Collections.singletonList("backupStorage"));
+
+        for (String r : edges.keySet()) {
+            descendants.put(r, new HashSet<>());
+        }
+        for (String r : edges.keySet()) {
+            addDescendant(r, r);
+        }
+    }
+
+    private void addDescendant(String resource, String descendant) {
+        for (String p : edges.get(resource)) {
+            descendants.get(p).add(descendant);
+            addDescendant(p, descendant);
+        }
+    }
+
+    private CascadeExtensionPoint createExtension(String resource) {
+        return new AbstractAsyncCascadeExtension() {
+            @Override
+            public void asyncCascade(CascadeAction action, Completion completion) {
+                synchronized (running) {
+                    called.add(resource);
+                    if (running.containsKey(resource)) {
+                        errors.add(String.format("%s is cascaded by two branches at the same time", resource));
+                    }
+                    for (String d : descendants.get(resource)) {
+                        if (running.containsKey(d)) {
+                            errors.add(String.format("%s is cascaded before its child %s completes", resource, d));
+                        }
+                    }
+                    running.merge(resource, 1, Integer::sum);
+                }
+
+                executor.schedule(() -> {
+                    synchronized (running) {
+                        running.computeIfPresent(resource, (k, v) -> v == 1 ? null : v - 1);
+                    }
+
+                    if (resource.equals(failedResource)) {
+                        completion.fail(new ErrorCode("TEST.1000", "on purpose"));
+                    } else {
+                        completion.success();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public List<String> getEdgeNames() {
+                return edges.get(resource);
+            }
+
+            @Override
+            public String getCascadeResourceName() {
+                return resource;
+            }
+
+            @Override
+            public CascadeAction createActionForChildResource(CascadeAction action) {
+                return action.copy().setParentIssuer(resource);
+            }
+        };
+    }
+
+    private CascadeFacadeImpl createCascadeFacade() throws Exception {
+        Map<String, CascadeExtensionPoint> exts = new HashMap<>();
+        for (String r : edges.keySet()) {
+            exts.put(r, createExtension(r));
+        }
+
+        CascadeFacadeImpl casf = new CascadeFacadeImpl();
+        Method method = CascadeFacadeImpl.class.getDeclaredMethod("populateCascadeNodes", Map.class);
+        method.setAccessible(true);
+        method.invoke(casf, exts);
+
+        method = CascadeFacadeImpl.class.getDeclaredMethod("populateTree");
+        method.setAccessible(true);
+        method.invoke(casf);
+        return casf;
+    }
+
+    private void setParallelism(int parallelism) throws Exception {
+        Field f = GlobalConfig.class.getDeclaredField("value");
+        f.setAccessible(true);
+        f.set(CascadeGlobalConfig.PARALLELISM, String.valueOf(parallelism));
+    }
+
+    private ErrorCode cascade(CascadeFacadeImpl casf) throws Exception {
+        synchronized (running) {
+            called.clear();
+        }
+
+        CompletableFuture<ErrorCode> future = new CompletableFuture<>();
+        casf.asyncCascade(CascadeConstant.DELETION_DELETE_CODE, "zone", "zone-uuid", new Completion(null) {
+            @Override
+            public void success() {
+                future.complete(null);
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                future.complete(errorCode);
+            }
+        });
+
+        return future.get(30, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        setParallelism(1);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void test() throws Exception {
+        CascadeFacadeImpl casf = createCascadeFacade();
+
+        setParallelism(1);
+        // warm up
+        Assert.assertNull(cascade(casf));
+
+        long start = System.currentTimeMillis();
+        Assert.assertNull(cascade(casf));
+        long serialCost = System.currentTimeMillis() - start;
+        List<String> serialCalled = new ArrayList<>(called);
+
+        setParallelism(4);
+        start = System.currentTimeMillis();
+        Assert.assertNull(cascade(casf));
+        long parallelCost = System.currentTimeMillis() - start;
+        List<String> parallelCalled = new ArrayList<>(called);
+
+        Assert.assertTrue(errors.toString(), errors.isEmpty());
+        Collections.sort(serialCalled);
+        Collections.sort(parallelCalled);
+        Assert.assertEquals(serialCalled, parallelCalled);
+        Assert.assertEquals("zone", called.get(called.size() - 1));
+        Assert.assertTrue(String.format("serial %sms, parallel %sms", serialCost, parallelCost), parallelCost < serialCost);
+
+        logger.info(String.format("cascade %s branches from zone, %sms per branch: serially %sms, in parallel %sms",
+                serialCalled.size(), delay, serialCost, parallelCost));
+
+        failedResource = "vm";
+        ErrorCode err = cascade(casf);
+        Assert.assertNotNull(err);
+        Assert.assertEquals("TEST.1000", err.getCode());
+        synchronized (running) {
+            Assert.assertFalse(called.contains("zone"));
+            Assert.assertFalse(called.contains("host") && called.indexOf("host") > called.indexOf("vm"));
+            Assert.assertTrue(running.isEmpty());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.zstack.test.core.cloudbus;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.core.cloudbus.BinaryMessageCodec;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.errorcode.SysErrors;
+import org.zstack.header.message.Message;
+import org.zstack.header.message.MessageReply;
+import org.zstack.header.vm.APICreateVmInstanceMsg;
+import org.zstack.header.vm.APIQueryVmInstanceReply;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.utils.Utils;
+import org.zstack.utils.gson.JSONObjectUtil;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * round trip representative messages through BinaryMessageCodec and compare
+ * the cost with the JSON encoding
+ */
+public class TestBinaryMessageCodec {
+    CLogger logger = Utils.getLogger(TestBinaryMessageCodec.class);
+    BinaryMessageCodec codec = new BinaryMessageCodec();
+    int benchmarkTimes = 20000;
+
+    private List<Message> messages() {
+        APICreateVmInstanceMsg cmsg = APICreateVmInstanceMsg.__example__();
+        cmsg.putHeaderEntry("correlationId", cmsg.getId());
+        cmsg.putHeaderEntry("timeout", 1800000L);
+
+        MessageReply error = new MessageReply();
+        ErrorCode err = new ErrorCode(SysErrors.OPERATION_ERROR.toString(), "operation error", "on purpose");
+        err.setCause(new ErrorCode(SysErrors.INTERNAL.toString(), "internal error", "cause"));
+        error.setError(err);
+
+        return Arrays.asList(cmsg, APIQueryVmInstanceReply.__example__(), error);
+    }
+
+    @Test
+    public void test() {
+        for (Message msg : messages()) {
+            byte[] data = codec.encode(msg);
+            Message ret = codec.decode(data);
+            Assert.assertEquals(msg.getClass(), ret.getClass());
+            Assert.assertEquals(JSONObjectUtil.toJsonString(msg), JSONObjectUtil.toJsonString(ret));
+
+            if (ret instanceof APIQueryVmInstanceReply) {
+                List<VmInstanceInventory> invs = ((APIQueryVmInstanceReply) ret).getInventories();
+                // runtime types are kept without the JSON schema
+                Assert.assertEquals(VmInstanceInventory.class, invs.get(0).getClass());
+            }
+
+            logger.info(String.format("%s: binary %s bytes, json %s bytes", msg.getClass().getSimpleName(),
+                    data.length, JSONObjectUtil.toJsonString(msg).getBytes().length));
+        }
+
+        benchmark();
+    }
+
+    private void benchmark() {
+        for (Message msg : messages()) {
+            long s = System.nanoTime();
+            for (int i = 0; i < benchmarkTimes; i++) {
+                codec.decode(codec.encode(msg));
+            }
+            long binary = System.nanoTime() - s;
+
+            s = System.nanoTime();
+            for (int i = 0; i < benchmarkTimes; i++) {
+                JSONObjectUtil.toObject(JSONObjectUtil.toJsonString(msg), msg.getClass());
+            }
+            long json = System.nanoTime() - s;
+
+            logger.info(String.format("round trip %s %s times: binary %s ms, json %s ms", msg.getClass().getSimpleName(),
+                    benchmarkTimes, TimeUnit.NANOSECONDS.toMillis(binary), TimeUnit.NANOSECONDS.toMillis(json)));
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.zstack.test.core.cloudbus;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.CloudBusGlobalProperty;
+import org.zstack.core.cloudbus.CloudBusIN;
+import org.zstack.core.cloudbus.CloudBusImpl2;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.AbstractService;
+import org.zstack.header.Service;
+import org.zstack.header.message.Message;
+import org.zstack.header.message.MessageReply;
+import org.zstack.header.message.NeedReplyMessage;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. enable CloudBus.localDelivery
+ * 2. register a service by a node-local service id and a shared alias, like the API portal
+ * 3. call the service 1000 times by each id
+ *
+ * confirm only the calls to the node-local id are delivered locally, the calls to the shared alias go through
+ * RabbitMQ, and the local calls take less time
+ */
+public class TestCloudBusLocalDelivery {
+    CLogger logger = Utils.getLogger(TestCloudBusLocalDelivery.class);
+    ComponentLoader loader;
+    CloudBusIN bus;
+    Service serv;
+    boolean localDelivery;
+    int num = 1000;
+    static final String SHARED_SERVICE_ID = "TestCloudBusLocalDelivery.shared";
+
+    public static class HelloWorldMsg extends NeedReplyMessage {
+    }
+
+    public static class HelloWorldReply extends MessageReply {
+    }
+
+    class FakeService extends AbstractService {
+        @Override
+        public boolean start() {
+            bus.registerService(this);
+            bus.activeService(this);
+            return true;
+        }
+
+        @Override
+        public boolean stop() {
+            bus.deActiveService(this);
+            bus.unregisterService(this);
+            return true;
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg.getClass() == HelloWorldMsg.class) {
+                bus.reply(msg, new HelloWorldReply());
+            }
+        }
+
+        @Override
+        public String getId() {
+            return bus.makeLocalServiceId(FakeService.class.getCanonicalName());
+        }
+
+        @Override
+        public List<String> getAliasIds() {
+            return Collections.singletonList(SHARED_SERVICE_ID);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        // initialize properties
+        Platform.getUuid();
+        localDelivery = CloudBusGlobalProperty.LOCAL_DELIVERY;
+        CloudBusGlobalProperty.LOCAL_DELIVERY = true;
+
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        bus = loader.getComponent(CloudBusIN.class);
+        serv = new FakeService();
+        serv.start();
+    }
+
+    @After
+    public void tearDown() {
+        serv.stop();
+        CloudBusGlobalProperty.LOCAL_DELIVERY = localDelivery;
+    }
+
+    private long call(String serviceId) {
+        long start = System.nanoTime();
+        for (int i = 0; i < num; i++) {
+            HelloWorldMsg msg = new HelloWorldMsg();
+            msg.setServiceId(serviceId);
+            msg.setTimeout(TimeUnit.SECONDS.toMillis(10));
+            MessageReply r = bus.call(msg);
+            Assert.assertTrue(r.isSuccess());
+        }
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void test() {
+        CloudBusImpl2 impl = (CloudBusImpl2) bus;
+        // warm up
+        call(serv.getId());
+        call(SHARED_SERVICE_ID);
+
+        long delivered = impl.getLocallyDeliveredMessageNum();
+        long sharedCost = call(SHARED_SERVICE_ID);
+        // only the replies of the shared alias calls to our own reply queue can be delivered locally
+        long sharedDelivered = impl.getLocallyDeliveredMessageNum() - delivered;
+        Assert.assertTrue(sharedDelivered <= num);
+
+        delivered = impl.getLocallyDeliveredMessageNum();
+        long localCost = call(serv.getId());
+        Assert.assertEquals(sharedDelivered + num, impl.getLocallyDeliveredMessageNum() - delivered);
+
+        logger.info(String.format("%s calls: %sus per call to a node-local service id, %sus per call to a shared" +
+                        " service id through RabbitMQ", num, TimeUnit.NANOSECONDS.toMicros(localCost) / num,
+                TimeUnit.NANOSECONDS.toMicros(sharedCost) / num));
+        Assert.assertTrue(localCost < sharedCost);
+    }
+}
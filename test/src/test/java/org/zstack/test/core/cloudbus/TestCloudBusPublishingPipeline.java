@@ -0,0 +1,266 @@
+package org.zstack.test.core.cloudbus;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.*;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.AbstractService;
+import org.zstack.header.Service;
+import org.zstack.header.errorcode.SysErrors;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.message.Message;
+import org.zstack.header.message.MessageReply;
+import org.zstack.header.message.NeedReplyMessage;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.FieldUtils;
+import org.zstack.utils.ShellUtils;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * 1. enable CloudBus.publishingPipeline with 200 messages queued at most per publisher
+ * 2. send 2000 messages to a service at once
+ * 3. send a message to a queue rejecting all messages, so rabbitmq nacks it
+ * 4. make rabbitmq close the channels of publishers by publishing to an exchange not existing, send 2000 messages
+ * 5. stop rabbitmq by rabbitmqctl, send 220 messages, start rabbitmq
+ *
+ * confirm all messages are replied, published in batches and confirmed; the rejected message is published again
+ * CloudBus.publishRetryTimes times and then fails with an error reply; publishers rebuild closed channels;
+ * sending fails when 200 messages are waiting for the stopped rabbitmq, and the others are all replied after
+ * rabbitmq starts
+ *
+ * the test needs rabbitmqctl controlling the rabbitmq on the same host, set -Drabbitmqctl to its path if it's
+ * not in PATH
+ */
+public class TestCloudBusPublishingPipeline {
+    CLogger logger = Utils.getLogger(TestCloudBusPublishingPipeline.class);
+    ComponentLoader loader;
+    CloudBusIN bus;
+    Service serv;
+    boolean pipeline;
+    int queueSize;
+    int queueTimeout;
+    int num = 2000;
+    String rabbitmqctl = System.getProperty("rabbitmqctl", "rabbitmqctl");
+    static final String FULL_SERVICE_ID = "TestCloudBusPublishingPipeline.full";
+
+    public static class HelloWorldMsg extends NeedReplyMessage {
+    }
+
+    public static class HelloWorldReply extends MessageReply {
+    }
+
+    class FakeService extends AbstractService {
+        @Override
+        public boolean start() {
+            bus.registerService(this);
+            bus.activeService(this);
+            return true;
+        }
+
+        @Override
+        public boolean stop() {
+            bus.deActiveService(this);
+            bus.unregisterService(this);
+            return true;
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg.getClass() == HelloWorldMsg.class) {
+                bus.reply(msg, new HelloWorldReply());
+            }
+        }
+
+        @Override
+        public String getId() {
+            return FakeService.class.getCanonicalName();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        // initialize properties
+        Platform.getUuid();
+        pipeline = CloudBusGlobalProperty.PUBLISHING_PIPELINE;
+        queueSize = CloudBusGlobalProperty.PUBLISH_QUEUE_SIZE;
+        queueTimeout = CloudBusGlobalProperty.PUBLISH_QUEUE_TIMEOUT;
+        CloudBusGlobalProperty.PUBLISHING_PIPELINE = true;
+        CloudBusGlobalProperty.PUBLISH_QUEUE_SIZE = 200;
+        CloudBusGlobalProperty.PUBLISH_QUEUE_TIMEOUT = 30;
+
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        bus = loader.getComponent(CloudBusIN.class);
+        serv = new FakeService();
+        serv.start();
+    }
+
+    @After
+    public void tearDown() {
+        serv.stop();
+        CloudBusGlobalProperty.PUBLISHING_PIPELINE = pipeline;
+        CloudBusGlobalProperty.PUBLISH_QUEUE_SIZE = queueSize;
+        CloudBusGlobalProperty.PUBLISH_QUEUE_TIMEOUT = queueTimeout;
+    }
+
+    private PublishingStatistic statistic() {
+        return ((CloudBusMXBean) bus).getPublishingStatistic();
+    }
+
+    private Channel createChannel() throws Exception {
+        Field f = CloudBusImpl2.class.getDeclaredField("conn");
+        f.setAccessible(true);
+        return ((Connection) f.get(bus)).createChannel();
+    }
+
+    private List<Channel> publisherChannels() {
+        Object pipeline = FieldUtils.getFieldValue("publishingPipeline", bus);
+        List<Object> publishers = FieldUtils.getFieldValue("publishers", pipeline);
+        return publishers.stream().map(p -> (Channel) FieldUtils.getFieldValue("chan", p)).collect(Collectors.toList());
+    }
+
+    private int sendAndWait(int num, long timeoutInSeconds) throws InterruptedException {
+        return sendAndWait(num, timeoutInSeconds, () -> {
+        });
+    }
+
+    /**
+     * @param afterSent called after all messages are sent, before waiting for the replies
+     * @return the number of messages failing to send
+     */
+    private int sendAndWait(int num, long timeoutInSeconds, Runnable afterSent) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(num);
+        AtomicInteger success = new AtomicInteger();
+        int failed = 0;
+        for (int i = 0; i < num; i++) {
+            HelloWorldMsg msg = new HelloWorldMsg();
+            msg.setServiceId(serv.getId());
+            msg.setTimeout(TimeUnit.SECONDS.toMillis(timeoutInSeconds));
+            try {
+                bus.send(msg, new CloudBusCallBack(null) {
+                    @Override
+                    public void run(MessageReply reply) {
+                        if (reply.isSuccess()) {
+                            success.incrementAndGet();
+                        }
+                        latch.countDown();
+                    }
+                });
+            } catch (CloudRuntimeException e) {
+                logger.debug(e.getMessage());
+                failed++;
+                latch.countDown();
+            }
+        }
+
+        afterSent.run();
+        Assert.assertTrue(latch.await(timeoutInSeconds, TimeUnit.SECONDS));
+        Assert.assertEquals(num - failed, success.get());
+        return failed;
+    }
+
+    private void rabbitmqctl(String cmd) {
+        logger.info(ShellUtils.run(String.format("%s %s", rabbitmqctl, cmd), false));
+    }
+
+    @Test
+    public void test() throws Exception {
+        long start = System.nanoTime();
+        Assert.assertEquals(0, sendAndWait(num, 30));
+
+        PublishingStatistic s = statistic();
+        for (int i = 0; i < 100 && s.getUnconfirmedMessageNum() != 0; i++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+            s = statistic();
+        }
+        logger.info(String.format("%s messages replied in %sms: %s published in %s batches, %s at most in a batch," +
+                        " %s confirmed", num, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                s.getPublishedMessageNum(), s.getBatchNum(), s.getMaxBatchSize(), s.getConfirmedMessageNum()));
+        // the requests and the replies
+        Assert.assertTrue(s.getPublishedMessageNum() >= 2 * num);
+        Assert.assertTrue(s.getBatchNum() < s.getPublishedMessageNum());
+        Assert.assertEquals(0, s.getUnconfirmedMessageNum());
+        Assert.assertEquals(0, s.getQueuedMessageNum());
+        Assert.assertEquals(s.getPublishedMessageNum(), s.getConfirmedMessageNum());
+        Assert.assertEquals(0, s.getNackedMessageNum());
+
+        // rabbitmq nacks messages to a full queue rejecting new ones
+        String queueName = String.format("zstack.message.%s", FULL_SERVICE_ID);
+        Channel chan = createChannel();
+        Map<String, Object> args = new HashMap<>();
+        args.put("x-max-length", 0);
+        args.put("x-overflow", "reject-publish");
+        chan.queueDeclare(queueName, false, false, true, args);
+        chan.queueBind(queueName, BusExchange.P2P.toString(), queueName);
+
+        try {
+            AtomicReference<MessageReply> failure = new AtomicReference<>();
+            CountDownLatch latch1 = new CountDownLatch(1);
+            HelloWorldMsg msg = new HelloWorldMsg();
+            msg.setServiceId(FULL_SERVICE_ID);
+            msg.setTimeout(TimeUnit.SECONDS.toMillis(30));
+            bus.send(msg, new CloudBusCallBack(null) {
+                @Override
+                public void run(MessageReply reply) {
+                    failure.set(reply);
+                    latch1.countDown();
+                }
+            });
+
+            Assert.assertTrue(latch1.await(10, TimeUnit.SECONDS));
+            Assert.assertFalse(failure.get().isSuccess());
+            Assert.assertEquals(SysErrors.UNDELIVERABLE_ERROR.toString(), failure.get().getError().getCode());
+            Assert.assertEquals(CloudBusGlobalProperty.PUBLISH_RETRY_TIMES + 1, statistic().getNackedMessageNum());
+        } finally {
+            chan.queueDelete(queueName);
+            chan.close();
+        }
+
+        // rabbitmq closes a channel publishing to an exchange not existing, connection recovery doesn't repair it
+        List<Channel> closed = publisherChannels();
+        for (Channel c : closed) {
+            c.basicPublish(String.format("no-such-exchange-%s", Platform.getUuid()), "", null, new byte[0]);
+        }
+        for (int i = 0; i < 100 && closed.stream().anyMatch(Channel::isOpen); i++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        Assert.assertEquals(0, sendAndWait(num, 30));
+        for (Channel c : publisherChannels()) {
+            Assert.assertTrue(c.isOpen());
+            Assert.assertFalse(closed.contains(c));
+        }
+
+        // stop rabbitmq, messages are queued until no room is left, then start it after all are sent
+        rabbitmqctl("stop_app");
+        int failed;
+        try {
+            CloudBusGlobalProperty.PUBLISH_QUEUE_TIMEOUT = 1;
+            failed = sendAndWait(CloudBusGlobalProperty.PUBLISH_QUEUE_SIZE + 20, TimeUnit.MINUTES.toSeconds(3),
+                    () -> rabbitmqctl("start_app"));
+        } finally {
+            CloudBusGlobalProperty.PUBLISH_QUEUE_TIMEOUT = 30;
+            rabbitmqctl("start_app");
+        }
+
+        logger.info(String.format("%s messages failed to send while rabbitmq was stopped", failed));
+        Assert.assertTrue(failed > 0);
+        Assert.assertEquals(0, sendAndWait(num, 30));
+        Assert.assertEquals(0, statistic().getQueuedMessageNum());
+    }
+}
@@ -0,0 +1,168 @@
+package org.zstack.test.core.cloudbus;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.EventFacadeImpl;
+import org.zstack.core.cloudbus.EventSubscriptionIndex;
+import org.zstack.core.cloudbus.EventSubscriptionIndex.Match;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. subscribe 10000 literal, wildcard and token paths like in-flight operations waiting for events do
+ * 2. match events against the index and against every subscription's glob as regular expression
+ * 3. unsubscribe half of them and match again
+ *
+ * confirm the same subscribers and tokens are matched, and compare the cost
+ */
+public class TestEventSubscriptionIndex {
+    CLogger logger = Utils.getLogger(TestEventSubscriptionIndex.class);
+    int subscriberNum = 10000;
+    int eventNum = 500;
+    String[] resources = {"vm", "host", "volume", "primaryStorage", "snap"};
+    String[] changes = {"state", "status"};
+    EventFacadeImpl evtf = new EventFacadeImpl();
+
+    // the subscription paths of the identities
+    Map<String, String> subscriptions = new HashMap<>();
+
+    private String randomSubscriptionPath(Random random) {
+        String resource = resources[random.nextInt(resources.length)];
+        String change = changes[random.nextInt(changes.length)];
+        switch (random.nextInt(10)) {
+            case 0:
+                return String.format("/%s/*/change", resource);
+            case 1:
+                return String.format("/%s/?tat?s/change", resource);
+            case 2:
+                return String.format("/globalConfig/update/%s/%s/{nodeUuid}", resource, change);
+            case 3:
+                return String.format("/%s/{change}/change", resource);
+            default:
+                return String.format("/%s/%s/change", resource, change);
+        }
+    }
+
+    private String randomEventPath(Random random) {
+        String resource = resources[random.nextInt(resources.length)];
+        String change = changes[random.nextInt(changes.length)];
+        if (random.nextInt(5) == 0) {
+            return String.format("/globalConfig/update/%s/%s/%s", resource, change, Platform.getUuid());
+        }
+
+        return String.format("/%s/%s/change", resource, change);
+    }
+
+    // how EventFacadeImpl tokenized a path before subscriptions are indexed
+    private Map<String, String> tokenize(String str1, String str2) {
+        StringTokenizer token = new StringTokenizer(str1, "/");
+        List<String> origins = new ArrayList<>();
+        while (token.hasMoreElements()) {
+            origins.add(token.nextToken());
+        }
+
+        token = new StringTokenizer(str2, "/");
+        List<String> t = new ArrayList<>();
+        while (token.hasMoreElements()) {
+            t.add(token.nextToken());
+        }
+
+        Map<String, String> ret = new HashMap<>();
+        for (int i = 0; i < t.size(); i++) {
+            String key = t.get(i);
+            if (!key.startsWith("{") || !key.endsWith("}")) {
+                continue;
+            }
+
+            key = key.replaceAll("\\{", "").replaceAll("\\}", "");
+            ret.put(key, origins.get(i));
+        }
+
+        return ret;
+    }
+
+    // how EventFacadeImpl matched an event before subscriptions are indexed
+    private Map<String, Map<String, String>> matchByGlob(String evtPath) {
+        Map<String, Map<String, String>> ret = new HashMap<>();
+        for (Map.Entry<String, String> e : new HashMap<>(subscriptions).entrySet()) {
+            if (evtPath.matches(evtf.createRegexFromGlob(e.getValue().replaceAll("\\{.*\\}", ".*")))) {
+                ret.put(e.getKey(), tokenize(evtPath, e.getValue()));
+            }
+        }
+        return ret;
+    }
+
+    private Map<String, Map<String, String>> matchByIndex(EventSubscriptionIndex<String> index, String evtPath) {
+        Map<String, Map<String, String>> ret = new HashMap<>();
+        for (Match<String> m : index.match(evtPath)) {
+            ret.put(m.getSubscriber(), m.getTokens());
+        }
+        return ret;
+    }
+
+    @Test
+    public void test() {
+        Random random = new Random(100);
+        EventSubscriptionIndex<String> index = new EventSubscriptionIndex<>();
+        for (int i = 0; i < subscriberNum; i++) {
+            String identity = Platform.getUuid();
+            String path = randomSubscriptionPath(random);
+            subscriptions.put(identity, path);
+            index.add(identity, path, identity);
+        }
+        Assert.assertEquals(subscriberNum, index.size());
+
+        List<String> events = new ArrayList<>();
+        for (int i = 0; i < eventNum; i++) {
+            events.add(randomEventPath(random));
+        }
+        events.add("/vm/state");
+        events.add("/vm/state/change/more");
+        events.add("/zone/state/change");
+
+        for (String e : events) {
+            Assert.assertEquals(e, matchByGlob(e), matchByIndex(index, e));
+        }
+        Map<String, Map<String, String>> tokens = matchByIndex(index, "/vm/status/change");
+        Assert.assertTrue(tokens.values().contains(Collections.singletonMap("change", "status")));
+
+        List<String> identities = new ArrayList<>(subscriptions.keySet());
+        for (String identity : identities.subList(0, subscriberNum / 2)) {
+            Assert.assertEquals(identity, index.remove(identity));
+            subscriptions.remove(identity);
+        }
+        Assert.assertNull(index.remove(identities.get(0)));
+        Assert.assertEquals(subscriberNum / 2, index.size());
+
+        // a subscription of the same identity replaces the old one
+        String identity = identities.get(subscriberNum - 1);
+        subscriptions.put(identity, "/zone/state/change");
+        index.add(identity, "/zone/state/change", identity);
+        Assert.assertEquals(subscriberNum / 2, index.size());
+
+        for (String e : events) {
+            Assert.assertEquals(e, matchByGlob(e), matchByIndex(index, e));
+        }
+
+        long s = System.nanoTime();
+        int matched = 0;
+        for (String e : events) {
+            matched += matchByGlob(e).size();
+        }
+        long globCost = System.nanoTime() - s;
+
+        s = System.nanoTime();
+        for (String e : events) {
+            index.match(e);
+        }
+        long indexCost = System.nanoTime() - s;
+
+        logger.info(String.format("dispatch %s events to %s subscribers, %s matched: matching every glob %s ms," +
+                        " matching the index %s ms", events.size(), subscriptions.size(), matched,
+                TimeUnit.NANOSECONDS.toMillis(globCost), TimeUnit.NANOSECONDS.toMillis(indexCost)));
+    }
+}
@@ -0,0 +1,231 @@
+package org.zstack.test.core.db;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.db.*;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 1. put the lease backend on a fake DistributedLockLeaseVO table and acquire locks through the facade
+ * 2. acquire one lock from many threads of this node
+ * 3. acquire locks held by another node, until their leases expire or the timeout
+ * 4. renew the leases held and lose a lease to another node
+ *
+ * confirm the lock is exclusive, fencing tokens increase on every take, threads of this node don't poll
+ * the table while waiting for each other, leases are renewed by one update, and the wait time, contention
+ * and timeouts are counted per lock name
+ */
+public class TestLeaseLockBackend {
+    CLogger logger = Utils.getLogger(TestLeaseLockBackend.class);
+    int threadNum = 20;
+    int lockNum = 50;
+    String otherNode = Platform.getUuid();
+
+    static class Lease {
+        String owner;
+        String managementNodeId;
+        long fencingToken;
+        long expireDate;
+    }
+
+    // the fake DistributedLockLeaseVO table
+    final Map<String, Lease> table = new HashMap<>();
+    AtomicInteger takeNum = new AtomicInteger();
+    AtomicInteger failedTakeNum = new AtomicInteger();
+    AtomicInteger renewNum = new AtomicInteger();
+
+    class MemLeaseLockBackend extends LeaseLockBackend {
+        @Override
+        protected Long takeLease(String name, String owner, long leaseTimeout) {
+            takeNum.incrementAndGet();
+            synchronized (table) {
+                Lease l = table.computeIfAbsent(name, k -> new Lease());
+                if (l.owner != null && l.expireDate >= System.currentTimeMillis()) {
+                    failedTakeNum.incrementAndGet();
+                    return null;
+                }
+
+                l.owner = owner;
+                l.managementNodeId = Platform.getManagementServerId();
+                l.fencingToken++;
+                l.expireDate = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(leaseTimeout);
+                return l.fencingToken;
+            }
+        }
+
+        @Override
+        protected boolean releaseLease(String name, String owner) {
+            synchronized (table) {
+                Lease l = table.get(name);
+                if (l == null || !owner.equals(l.owner)) {
+                    return false;
+                }
+
+                l.owner = null;
+                l.managementNodeId = null;
+                return true;
+            }
+        }
+
+        @Override
+        protected int renewLeases(long leaseTimeout) {
+            renewNum.incrementAndGet();
+            int num = 0;
+            synchronized (table) {
+                for (Lease l : table.values()) {
+                    if (Platform.getManagementServerId().equals(l.managementNodeId)) {
+                        l.expireDate = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(leaseTimeout);
+                        num++;
+                    }
+                }
+            }
+            return num;
+        }
+
+        @Override
+        protected void releaseStaleLeases() {
+        }
+
+        @Override
+        protected void startRenewTask() {
+        }
+
+        void renew() {
+            renewHeldLeases();
+        }
+    }
+
+    MemLeaseLockBackend backend = new MemLeaseLockBackend();
+    DistributedLockFacadeImpl lockf = new DistributedLockFacadeImpl();
+
+    @Before
+    public void setUp() throws Exception {
+        DatabaseGlobalProperty.GLockLeaseTimeoutInSeconds = 30;
+        Field f = DistributedLockFacadeImpl.class.getDeclaredField("backend");
+        f.setAccessible(true);
+        f.set(lockf, backend);
+    }
+
+    private void holdByOtherNode(String name, long millis) {
+        synchronized (table) {
+            Lease l = table.computeIfAbsent(name, k -> new Lease());
+            l.owner = Platform.getUuid();
+            l.managementNodeId = otherNode;
+            l.fencingToken++;
+            l.expireDate = System.currentTimeMillis() + millis;
+        }
+    }
+
+    @Test
+    public void test() throws Exception {
+        // threads of this node
+        ExecutorService executor = Executors.newFixedThreadPool(threadNum);
+        AtomicInteger holders = new AtomicInteger();
+        List<Long> tokens = Collections.synchronizedList(new ArrayList<>());
+        CyclicBarrier barrier = new CyclicBarrier(threadNum);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < threadNum; i++) {
+            futures.add(executor.submit(() -> {
+                barrier.await();
+                for (int j = 0; j < lockNum; j++) {
+                    DistributedLock lock = lockf.acquire("local", 10);
+                    Assert.assertEquals(1, holders.incrementAndGet());
+                    tokens.add(lock.getFencingToken());
+                    TimeUnit.MICROSECONDS.sleep(100);
+                    holders.decrementAndGet();
+                    lockf.release(lock);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        Assert.assertEquals(threadNum * lockNum, tokens.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            Assert.assertEquals(i + 1, tokens.get(i).longValue());
+        }
+        Assert.assertEquals(threadNum * lockNum, takeNum.get());
+        Assert.assertEquals(0, failedTakeNum.get());
+
+        DistributedLockStatistic stat = lockf.getDistributedLockStatistics().get("local");
+        Assert.assertEquals(threadNum * lockNum, stat.getAcquireNum());
+        Assert.assertTrue(stat.getContentionNum() > 0);
+        Assert.assertEquals(threadNum * lockNum, stat.getLastFencingToken());
+        logger.info(String.format("%s threads acquired a lock %s times: %s contended, average wait %sms, max wait %sms",
+                threadNum, stat.getAcquireNum(), stat.getContentionNum(), stat.getAverageWaitTimeInMillis(),
+                stat.getMaxWaitTimeInMillis()));
+
+        // the lease of another node expires
+        holdByOtherNode("remote", 300);
+        long start = System.currentTimeMillis();
+        DistributedLock lock = lockf.acquire("remote", 10);
+        Assert.assertTrue(System.currentTimeMillis() - start >= 300);
+        Assert.assertTrue(lock.isContended());
+        Assert.assertEquals(2, lock.getFencingToken());
+        lockf.release(lock);
+
+        // timeout
+        holdByOtherNode("remote", TimeUnit.MINUTES.toMillis(1));
+        try {
+            lockf.acquire("remote", 1);
+            Assert.fail("the lock is held by another node");
+        } catch (DistributedLockTimeoutException e) {
+            logger.info(e.getMessage());
+        }
+        stat = lockf.getDistributedLockStatistics().get("remote");
+        Assert.assertEquals(1, stat.getAcquireNum());
+        Assert.assertEquals(2, stat.getContentionNum());
+        Assert.assertEquals(1, stat.getTimeoutNum());
+        Assert.assertTrue(stat.getMaxWaitTimeInMillis() >= 1000);
+
+        // a timeout doesn't leave the lock held locally
+        synchronized (table) {
+            table.get("remote").owner = null;
+        }
+        lockf.release(lockf.acquire("remote", 1));
+
+        // leases are renewed together
+        List<DistributedLock> held = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            held.add(lockf.acquire("renew-" + i, 1));
+        }
+        synchronized (table) {
+            for (int i = 0; i < 3; i++) {
+                table.get("renew-" + i).expireDate = 0;
+            }
+        }
+        backend.renew();
+        Assert.assertEquals(1, renewNum.get());
+        synchronized (table) {
+            for (int i = 0; i < 3; i++) {
+                Assert.assertTrue(table.get("renew-" + i).expireDate > System.currentTimeMillis());
+            }
+        }
+
+        // the lease is expired and taken by another node, releasing it doesn't release the other's lease
+        holdByOtherNode("renew-0", TimeUnit.MINUTES.toMillis(1));
+        for (DistributedLock l : held) {
+            lockf.release(l);
+        }
+        synchronized (table) {
+            Assert.assertEquals(otherNode, table.get("renew-0").managementNodeId);
+            Assert.assertEquals(2, table.get("renew-0").fencingToken);
+            Assert.assertNull(table.get("renew-1").owner);
+        }
+
+        // nothing is renewed when no lock is held
+        backend.renew();
+        Assert.assertEquals(1, renewNum.get());
+    }
+}
@@ -0,0 +1,97 @@
+package org.zstack.test.core.job;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.core.job.*;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. run jobs in 10 queues by the database job queue engine
+ * 2. run the same jobs by the in-memory job queue engine, with and without RestartableJob
+ *
+ * confirm all jobs complete and compare jobs per second of the engines
+ */
+public class TestJobQueueThroughput {
+    CLogger logger = Utils.getLogger(TestJobQueueThroughput.class);
+    ComponentLoader loader;
+    JobQueueFacade jobf;
+    DatabaseFacade dbf;
+    MemoryJobQueueEngine memoryEngine;
+    int queueNum = 10;
+    int jobNum = 1000;
+
+    public static class NopJob implements Job {
+        @Override
+        public void run(ReturnValueCompletion<Object> completion) {
+            completion.success(null);
+        }
+    }
+
+    @RestartableJob
+    public static class RestartableNopJob extends NopJob {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        jobf = loader.getComponent(JobQueueFacade.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+        memoryEngine = new MemoryJobQueueEngine(dbf, loader.getComponent(ThreadFacade.class), loader.getComponent(ErrorFacade.class));
+    }
+
+    private interface Submitter {
+        void submit(String queueName, Job job, ReturnValueCompletion<Object> completion);
+    }
+
+    private long jobsPerSecond(Submitter submitter, Class<? extends Job> jobClass) throws Exception {
+        CountDownLatch latch = new CountDownLatch(jobNum);
+        long start = System.nanoTime();
+        for (int i = 0; i < jobNum; i++) {
+            submitter.submit("throughput-" + i % queueNum, jobClass.newInstance(), new ReturnValueCompletion<Object>(null) {
+                @Override
+                public void success(Object returnValue) {
+                    latch.countDown();
+                }
+
+                @Override
+                public void fail(ErrorCode errorCode) {
+                    logger.warn(errorCode.toString());
+                    latch.countDown();
+                }
+            });
+        }
+        Assert.assertTrue(latch.await(10, TimeUnit.MINUTES));
+        return jobNum * TimeUnit.SECONDS.toNanos(1) / (System.nanoTime() - start);
+    }
+
+    @Test
+    public void test() throws Exception {
+        long database = jobsPerSecond((queueName, job, completion) -> jobf.execute(queueName, "owner", job, completion, Object.class), NopJob.class);
+        long memory = jobsPerSecond((queueName, job, completion) -> memoryEngine.submit(queueName, "owner", job, completion), NopJob.class);
+        long restartable = jobsPerSecond((queueName, job, completion) -> memoryEngine.submit(queueName, "owner", job, completion), RestartableNopJob.class);
+
+        // the write-ahead records are removed after jobs complete
+        SimpleQuery<JobQueueEntryVO> q = dbf.createQuery(JobQueueEntryVO.class);
+        q.add(JobQueueEntryVO_.restartable, SimpleQuery.Op.EQ, true);
+        Assert.assertEquals(0, q.count().longValue());
+        logger.info(String.format("ran %s jobs in %s queues: the database engine %s jobs per second, the in-memory engine" +
+                " %s jobs per second, %s jobs per second for restartable jobs", jobNum, queueNum, database, memory, restartable));
+        Assert.assertTrue(memory > database);
+    }
+}
@@ -0,0 +1,205 @@
+package org.zstack.test.core.job;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.core.job.Job;
+import org.zstack.core.job.MemoryJobQueueEngine;
+import org.zstack.core.job.RestartableJob;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 1. submit jobs to many queues from many threads, some jobs complete later in other threads,
+ * some fail or throw exceptions, and some are restartable
+ * 2. submit jobs to queues serially and measure jobs per second
+ *
+ * confirm jobs of a queue run one by one in the submitted order, queues run in parallel, every completion
+ * is called once, only restartable jobs are written ahead and their records are removed after completion,
+ * and no queue is left after all jobs complete
+ */
+public class TestMemoryJobQueueEngine {
+    CLogger logger = Utils.getLogger(TestMemoryJobQueueEngine.class);
+    int queueNum = 50;
+    int jobNum = 200;
+    int benchmarkJobNum = 200000;
+    ExecutorService executor = Executors.newFixedThreadPool(16);
+    ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
+
+    static final ErrorFacade errf = Mockito.mock(ErrorFacade.class);
+    static {
+        Mockito.when(errf.throwableToInternalError(Mockito.any(Throwable.class))).thenReturn(new ErrorCode("TEST.1001", "exception"));
+    }
+
+    static final Map<Long, String> records = new ConcurrentHashMap<>();
+    static final AtomicLong recordId = new AtomicLong();
+
+    class TestEngine extends MemoryJobQueueEngine {
+        TestEngine() {
+            super(null, null, errf);
+        }
+
+        @Override
+        protected void runAsync(Runnable runnable) {
+            executor.execute(runnable);
+        }
+
+        @Override
+        protected Long writeAheadRecord(String queueName, String owner, Job job) {
+            long id = recordId.incrementAndGet();
+            records.put(id, queueName);
+            return id;
+        }
+
+        @Override
+        protected void removeWriteAheadRecord(long id) {
+            Assert.assertNotNull(records.remove(id));
+        }
+    }
+
+    final Map<String, List<Integer>> ran = new ConcurrentHashMap<>();
+    final Set<String> running = ConcurrentHashMap.newKeySet();
+    final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    AtomicInteger maxRunningQueues = new AtomicInteger();
+
+    class TestJob implements Job {
+        final String queueName;
+        final int index;
+
+        TestJob(String queueName, int index) {
+            this.queueName = queueName;
+            this.index = index;
+        }
+
+        @Override
+        public void run(ReturnValueCompletion<Object> completion) {
+            if (!running.add(queueName)) {
+                errors.add(String.format("two jobs of queue[%s] run at the same time", queueName));
+            }
+            maxRunningQueues.accumulateAndGet(running.size(), Math::max);
+            ran.computeIfAbsent(queueName, k -> Collections.synchronizedList(new ArrayList<>())).add(index);
+
+            Runnable complete = () -> {
+                running.remove(queueName);
+                if (index % 7 == 0) {
+                    completion.fail(new ErrorCode("TEST.1000", "on purpose"));
+                } else {
+                    completion.success(index);
+                }
+            };
+
+            if (index % 11 == 0) {
+                running.remove(queueName);
+                throw new RuntimeException("on purpose");
+            } else if (index % 3 == 0) {
+                scheduler.schedule(complete, 1, TimeUnit.MILLISECONDS);
+            } else {
+                complete.run();
+            }
+        }
+    }
+
+    @RestartableJob
+    class TestRestartableJob extends TestJob {
+        TestRestartableJob(String queueName, int index) {
+            super(queueName, index);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void test() throws Exception {
+        TestEngine engine = new TestEngine();
+        CountDownLatch latch = new CountDownLatch(queueNum * jobNum);
+        AtomicInteger successNum = new AtomicInteger();
+        AtomicInteger failureNum = new AtomicInteger();
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < queueNum; i++) {
+            String queueName = "queue-" + i;
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < jobNum; j++) {
+                    Job job = j % 5 == 0 ? new TestRestartableJob(queueName, j) : new TestJob(queueName, j);
+                    engine.submit(queueName, "owner", job, new ReturnValueCompletion<Object>(null) {
+                        @Override
+                        public void success(Object returnValue) {
+                            successNum.incrementAndGet();
+                            latch.countDown();
+                        }
+
+                        @Override
+                        public void fail(ErrorCode errorCode) {
+                            failureNum.incrementAndGet();
+                            latch.countDown();
+                        }
+                    });
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get(30, TimeUnit.SECONDS);
+        }
+
+        Assert.assertTrue(latch.await(30, TimeUnit.SECONDS));
+        Assert.assertTrue(errors.toString(), errors.isEmpty());
+        Assert.assertEquals(queueNum, ran.size());
+        for (List<Integer> indexes : ran.values()) {
+            Assert.assertEquals(jobNum, indexes.size());
+            for (int j = 0; j < jobNum; j++) {
+                Assert.assertEquals(j, indexes.get(j).intValue());
+            }
+        }
+
+        int failures = 0;
+        for (int j = 0; j < jobNum; j++) {
+            if (j % 11 == 0 || j % 7 == 0) {
+                failures++;
+            }
+        }
+        Assert.assertEquals(failures * queueNum, failureNum.get());
+        Assert.assertEquals((jobNum - failures) * queueNum, successNum.get());
+        Assert.assertTrue(maxRunningQueues.get() > 1);
+        Assert.assertEquals(jobNum / 5 * queueNum, recordId.get());
+        Assert.assertTrue(records.isEmpty());
+        // a queue is removed right after its last job completes
+        for (int i = 0; i < 100 && engine.getQueueNumber() > 0; i++) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        Assert.assertEquals(0, engine.getQueueNumber());
+
+        // jobs per second
+        CountDownLatch benchmarkLatch = new CountDownLatch(benchmarkJobNum);
+        long start = System.nanoTime();
+        for (int i = 0; i < benchmarkJobNum; i++) {
+            engine.submit("queue-" + i % queueNum, "owner", completion -> completion.success(null), new ReturnValueCompletion<Object>(null) {
+                @Override
+                public void success(Object returnValue) {
+                    benchmarkLatch.countDown();
+                }
+
+                @Override
+                public void fail(ErrorCode errorCode) {
+                    benchmarkLatch.countDown();
+                }
+            });
+        }
+        Assert.assertTrue(benchmarkLatch.await(60, TimeUnit.SECONDS));
+        long cost = System.nanoTime() - start;
+        logger.info(String.format("ran %s jobs in %s queues in memory: %s jobs per second", benchmarkJobNum, queueNum,
+                benchmarkJobNum * TimeUnit.SECONDS.toNanos(1) / cost));
+    }
+}
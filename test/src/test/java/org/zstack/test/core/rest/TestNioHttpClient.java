@@ -0,0 +1,268 @@
+package org.zstack.test.core.rest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestTemplate;
+import org.zstack.core.rest.NioHttpClient;
+import org.zstack.header.rest.RESTFacade;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 1. start a fake agent replying requests after a delay, replying by chunks, closing connections and never replying
+ * 2. post 1000 requests to the agent by the nio http client and by RestTemplate in a thread per request
+ * 3. restart the agent to make the idle connections stale, post a request to a port nobody listens
+ *
+ * confirm all requests are replied, the nio http client holds one thread and at most maxConnectionsPerHost
+ * connections for 1000 requests in flight while RestTemplate holds a thread per request, stale connections are
+ * replaced, and errors and timeouts are reported to handlers
+ */
+public class TestNioHttpClient {
+    CLogger logger = Utils.getLogger(TestNioHttpClient.class);
+    int requestNum = 1000;
+    int maxConnectionsPerHost = 50;
+    long agentDelay = 20;
+    int port;
+    HttpServer server;
+    ExecutorService serverExecutor = Executors.newFixedThreadPool(200);
+    ThreadPoolExecutor callbackExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(4);
+    NioHttpClient client;
+
+    static class Response {
+        int status;
+        String body;
+        IOException error;
+    }
+
+    class Handler implements NioHttpClient.ResponseHandler {
+        CountDownLatch latch;
+        List<Response> responses;
+
+        Handler(CountDownLatch latch, List<Response> responses) {
+            this.latch = latch;
+            this.responses = responses;
+        }
+
+        @Override
+        public void response(int status, Map<String, String> headers, String body) {
+            Response r = new Response();
+            r.status = status;
+            r.body = body;
+            responses.add(r);
+            latch.countDown();
+        }
+
+        @Override
+        public void fail(IOException e) {
+            Response r = new Response();
+            r.error = e;
+            responses.add(r);
+            latch.countDown();
+        }
+    }
+
+    private void startAgent() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        server.setExecutor(serverExecutor);
+        server.createContext("/agent", ex -> {
+            String body = read(ex);
+            sleep(agentDelay);
+            reply(ex, 200, body, false);
+        });
+        server.createContext("/chunked", ex -> reply(ex, 200, read(ex), true));
+        server.createContext("/error", ex -> {
+            read(ex);
+            reply(ex, 503, "unavailable", false);
+        });
+        server.createContext("/close", ex -> {
+            read(ex);
+            ex.getResponseHeaders().set("Connection", "close");
+            reply(ex, 200, "closed", false);
+        });
+        server.createContext("/never", ex -> {
+            read(ex);
+            sleep(TimeUnit.SECONDS.toMillis(3));
+            reply(ex, 200, "late", false);
+        });
+        server.start();
+    }
+
+    private String read(HttpExchange ex) throws IOException {
+        InputStream in = ex.getRequestBody();
+        byte[] buf = new byte[4096];
+        StringBuilder sb = new StringBuilder();
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            sb.append(new String(buf, 0, n, StandardCharsets.UTF_8));
+        }
+        return sb.toString();
+    }
+
+    private void reply(HttpExchange ex, int status, String body, boolean chunked) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.sendResponseHeaders(status, chunked ? 0 : bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private String url(String path) {
+        return String.format("http://127.0.0.1:%s%s", port, path);
+    }
+
+    private Map<String, String> headers() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/json; charset=utf-8");
+        return headers;
+    }
+
+    private Response post(String path, String body, long timeout) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        List<Response> responses = Collections.synchronizedList(new ArrayList<>());
+        client.post(url(path), headers(), body, timeout, new Handler(latch, responses));
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        return responses.get(0);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        try (ServerSocket s = new ServerSocket(0)) {
+            port = s.getLocalPort();
+        }
+        startAgent();
+        client = new NioHttpClient(maxConnectionsPerHost, TimeUnit.MINUTES.toMillis(1), 5000, callbackExecutor);
+    }
+
+    @After
+    public void tearDown() {
+        client.stop();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        callbackExecutor.shutdownNow();
+    }
+
+    @Test
+    public void test() throws Exception {
+        // 1000 requests in flight
+        CountDownLatch latch = new CountDownLatch(requestNum);
+        List<Response> responses = Collections.synchronizedList(new ArrayList<>());
+        int threadsBefore = Thread.activeCount();
+        int maxConnections = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < requestNum; i++) {
+            client.post(url("/agent"), headers(), String.format("{\"index\":%s,\"name\":\"中文\"}", i), 10000, new Handler(latch, responses));
+        }
+        while (!latch.await(10, TimeUnit.MILLISECONDS)) {
+            maxConnections = Math.max(maxConnections, client.getConnectionNumber());
+        }
+        long nioCost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Assert.assertEquals(requestNum, responses.size());
+        Set<String> bodies = new HashSet<>();
+        for (Response r : responses) {
+            Assert.assertNull(r.error);
+            Assert.assertEquals(200, r.status);
+            bodies.add(r.body);
+        }
+        Assert.assertEquals(requestNum, bodies.size());
+        Assert.assertTrue(bodies.contains("{\"index\":7,\"name\":\"中文\"}"));
+        Assert.assertTrue(maxConnections <= maxConnectionsPerHost);
+        Assert.assertEquals(0, client.getRequestNumber());
+        // the client holds no thread other than the selector thread and the callback threads
+        int nioThreads = 1 + callbackExecutor.getLargestPoolSize();
+
+        // the same requests by RestTemplate, a thread is held by each request in flight
+        RestTemplate template = RESTFacade.createRestTemplate(10000, 5000);
+        ThreadPoolExecutor blocking = (ThreadPoolExecutor) Executors.newCachedThreadPool();
+        HttpHeaders requestHeaders = new HttpHeaders();
+        requestHeaders.setContentType(MediaType.APPLICATION_JSON);
+        start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < requestNum; i++) {
+            HttpEntity<String> req = new HttpEntity<>(String.format("{\"index\":%s}", i), requestHeaders);
+            futures.add(blocking.submit(() -> template.exchange(url("/agent"), HttpMethod.POST, req, String.class)));
+        }
+        for (Future<?> f : futures) {
+            f.get(5, TimeUnit.MINUTES);
+        }
+        long blockingCost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        int blockingThreads = blocking.getLargestPoolSize();
+        blocking.shutdown();
+
+        logger.info(String.format("%s agent requests in flight: the nio http client holds %s threads and at most %s connections," +
+                " replied in %sms; RestTemplate holds %s threads, replied in %sms; %s threads alive before the test",
+                requestNum, nioThreads, maxConnections, nioCost, blockingThreads, blockingCost, threadsBefore));
+        Assert.assertTrue(nioThreads * 10 < blockingThreads);
+
+        // responses of other kinds
+        Response r = post("/chunked", "chunked body", 5000);
+        Assert.assertEquals(200, r.status);
+        Assert.assertEquals("chunked body", r.body);
+        r = post("/error", "", 5000);
+        Assert.assertEquals(503, r.status);
+        Assert.assertEquals("unavailable", r.body);
+        int connections = client.getConnectionNumber();
+        r = post("/close", "", 5000);
+        Assert.assertEquals("closed", r.body);
+        Assert.assertEquals(connections - 1, client.getConnectionNumber());
+
+        // the idle connections become stale after the agent restarts
+        server.stop(0);
+        startAgent();
+        for (int i = 0; i < 3; i++) {
+            r = post("/agent", "after restart", 5000);
+            Assert.assertNull(r.error);
+            Assert.assertEquals("after restart", r.body);
+        }
+
+        // timeout
+        r = post("/never", "", 300);
+        Assert.assertTrue(r.error instanceof SocketTimeoutException);
+
+        // nobody listens
+        int closedPort;
+        try (ServerSocket s = new ServerSocket(0)) {
+            closedPort = s.getLocalPort();
+        }
+        CountDownLatch refused = new CountDownLatch(1);
+        List<Response> refusedResponses = Collections.synchronizedList(new ArrayList<>());
+        client.post(String.format("http://127.0.0.1:%s/agent", closedPort), headers(), "", 5000, new Handler(refused, refusedResponses));
+        Assert.assertTrue(refused.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(refusedResponses.get(0).error instanceof ConnectException);
+
+        // scheduled tasks run in the callback executor
+        CountDownLatch scheduled = new CountDownLatch(1);
+        long scheduleTime = System.nanoTime();
+        client.schedule(scheduled::countDown, 200, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(scheduled.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - scheduleTime) >= 200);
+    }
+}
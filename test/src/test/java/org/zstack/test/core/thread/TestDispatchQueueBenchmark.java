@@ -0,0 +1,116 @@
+package org.zstack.test.core.thread;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.thread.*;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * compare chainSubmit()/syncSubmit() throughput of DispatchQueueImpl and ShardedDispatchQueueImpl
+ * with 1/8/64 submitting threads spread over many sync signatures
+ */
+public class TestDispatchQueueBenchmark {
+    CLogger logger = Utils.getLogger(TestDispatchQueueBenchmark.class);
+    ComponentLoader loader;
+    ThreadFacade thdf;
+    int taskNumPerThread = 5000;
+    int signatureNum = 1000;
+    int[] submitterNums = {1, 8, 64};
+
+    @Before
+    public void setUp() throws Exception {
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        thdf = loader.getComponent(ThreadFacade.class);
+    }
+
+    private long run(DispatchQueue queue, int submitterNum) throws InterruptedException {
+        int total = submitterNum * taskNumPerThread;
+        CountDownLatch latch = new CountDownLatch(total * 2);
+        CountDownLatch start = new CountDownLatch(1);
+
+        for (int i = 0; i < submitterNum; i++) {
+            final int submitter = i;
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                for (int j = 0; j < taskNumPerThread; j++) {
+                    final String signature = "benchmark-" + ((submitter * taskNumPerThread + j) % signatureNum);
+                    queue.chainSubmit(new ChainTask(null) {
+                        @Override
+                        public String getSyncSignature() {
+                            return signature;
+                        }
+
+                        @Override
+                        public void run(SyncTaskChain chain) {
+                            latch.countDown();
+                            chain.next();
+                        }
+
+                        @Override
+                        public String getName() {
+                            return signature;
+                        }
+                    });
+
+                    queue.syncSubmit(new SyncTask<Void>() {
+                        @Override
+                        public String getSyncSignature() {
+                            return signature;
+                        }
+
+                        @Override
+                        public int getSyncLevel() {
+                            return 1;
+                        }
+
+                        @Override
+                        public String getName() {
+                            return signature;
+                        }
+
+                        @Override
+                        public Void call() throws Exception {
+                            latch.countDown();
+                            return null;
+                        }
+                    });
+                }
+            });
+            t.start();
+        }
+
+        long s = System.nanoTime();
+        start.countDown();
+        Assert.assertTrue(latch.await(5, TimeUnit.MINUTES));
+        long cost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - s);
+        Assert.assertTrue(queue.getChainTaskStatistics().isEmpty());
+        return cost;
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        // warm up
+        run(new DispatchQueueImpl(), 8);
+        run(new ShardedDispatchQueueImpl(), 8);
+
+        for (int submitterNum : submitterNums) {
+            long defaultCost = run(new DispatchQueueImpl(), submitterNum);
+            long shardedCost = run(new ShardedDispatchQueueImpl(), submitterNum);
+            logger.info(String.format("[%s submitters, %s tasks] DispatchQueueImpl: %s ms, ShardedDispatchQueueImpl: %s ms",
+                    submitterNum, submitterNum * taskNumPerThread * 2, defaultCost, shardedCost));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.zstack.test.core.thread;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.core.thread.HashedWheelTimer;
+import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
+import org.zstack.core.thread.TimingWheelStatistic;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 1. expired timeouts run, cancelled ones don't
+ * 2. compare the cost of scheduling and cancelling long timeouts with java.util.Timer
+ */
+public class TestHashedWheelTimer {
+    CLogger logger = Utils.getLogger(TestHashedWheelTimer.class);
+    int timeoutNum = 200000;
+
+    @Test
+    public void test() throws InterruptedException {
+        HashedWheelTimer wheel = new HashedWheelTimer("test-timing-wheel", 10, TimeUnit.MILLISECONDS, 64, Runnable::run);
+
+        int num = 1000;
+        CountDownLatch latch = new CountDownLatch(num);
+        AtomicInteger cancelledRun = new AtomicInteger(0);
+        for (int i = 0; i < num; i++) {
+            // some of them take more than one round of the wheel
+            wheel.newTimeout(latch::countDown, TimeUnit.MILLISECONDS, i % 1500);
+            TimeoutTaskReceipt r = wheel.newTimeout(cancelledRun::incrementAndGet, TimeUnit.MILLISECONDS, i % 1500);
+            Assert.assertTrue(r.cancel());
+            Assert.assertFalse(r.cancel());
+        }
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        TimeUnit.MILLISECONDS.sleep(100);
+        Assert.assertEquals(0, cancelledRun.get());
+
+        TimingWheelStatistic statistic = wheel.getStatistic();
+        Assert.assertEquals(0, statistic.getPendingTimeoutNum());
+        Assert.assertEquals(num, statistic.getExpiredTimeoutNum());
+        Assert.assertEquals(num, statistic.getCancelledTimeoutNum());
+        Assert.assertEquals(0, statistic.getOccupiedBucketNum());
+
+        benchmark(wheel);
+        wheel.stop();
+    }
+
+    private void benchmark(HashedWheelTimer wheel) {
+        List<TimeoutTaskReceipt> receipts = new ArrayList<>(timeoutNum);
+        long s = System.nanoTime();
+        for (int i = 0; i < timeoutNum; i++) {
+            receipts.add(wheel.newTimeout(() -> {}, TimeUnit.MINUTES, 30));
+        }
+        for (TimeoutTaskReceipt r : receipts) {
+            r.cancel();
+        }
+        long wheelCost = System.nanoTime() - s;
+
+        Timer timer = new Timer();
+        List<TimerTask> tasks = new ArrayList<>(timeoutNum);
+        s = System.nanoTime();
+        for (int i = 0; i < timeoutNum; i++) {
+            TimerTask t = new TimerTask() {
+                @Override
+                public void run() {
+                }
+            };
+            timer.schedule(t, TimeUnit.MINUTES.toMillis(30));
+            tasks.add(t);
+        }
+        for (TimerTask t : tasks) {
+            t.cancel();
+        }
+        timer.purge();
+        long timerCost = System.nanoTime() - s;
+        timer.cancel();
+
+        logger.info(String.format("schedule and cancel %s 30-minute timeouts: timing wheel %s ms, java.util.Timer %s ms",
+                timeoutNum, TimeUnit.NANOSECONDS.toMillis(wheelCost), TimeUnit.NANOSECONDS.toMillis(timerCost)));
+    }
+}
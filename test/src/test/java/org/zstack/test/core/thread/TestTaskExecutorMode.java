@@ -0,0 +1,117 @@
+package org.zstack.test.core.thread;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.core.thread.ElasticThreadPoolExecutor;
+import org.zstack.core.thread.ScheduledThreadPoolExecutorExt;
+import org.zstack.core.thread.ThreadAroundHook;
+import org.zstack.core.thread.VirtualThreadExecutor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 1. run 200 tasks blocking for 5ms on the executor of the Elastic mode with at most 20 threads
+ * 2. run the same tasks on the executor of the Virtual mode with at most 20 tasks at the same time,
+ * on a JVM without virtual threads, confirm the executor is not created so ThreadFacade falls back to the Elastic mode
+ *
+ * confirm all tasks complete, no more than 20 tasks run at the same time, ThreadAroundHooks are called around
+ * every task, and tasks of the Virtual mode run in virtual threads
+ */
+public class TestTaskExecutorMode {
+    CLogger logger = Utils.getLogger(TestTaskExecutorMode.class);
+    int taskNum = 200;
+    int maxConcurrency = 20;
+
+    AtomicInteger beforeNum = new AtomicInteger();
+    AtomicInteger afterNum = new AtomicInteger();
+    ScheduledThreadPoolExecutorExt pool = new ScheduledThreadPoolExecutorExt(2, Thread::new, (r, e) -> {
+    });
+
+    {
+        pool.registerHook(new ThreadAroundHook() {
+            @Override
+            public void beforeExecute(Thread t, Runnable r) {
+                beforeNum.incrementAndGet();
+            }
+
+            @Override
+            public void afterExecute(Runnable r, Throwable t) {
+                afterNum.incrementAndGet();
+            }
+        });
+    }
+
+    private static boolean isVirtual(Thread t) {
+        try {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(t);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    private void run(ExecutorService executor, boolean virtual) throws Exception {
+        beforeNum.set(0);
+        afterNum.set(0);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        AtomicInteger virtualNum = new AtomicInteger();
+        List<Future<Integer>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < taskNum; i++) {
+            final int index = i;
+            futures.add(executor.submit(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                if (isVirtual(Thread.currentThread())) {
+                    virtualNum.incrementAndGet();
+                }
+                TimeUnit.MILLISECONDS.sleep(5);
+                running.decrementAndGet();
+                return index;
+            }));
+        }
+
+        for (int i = 0; i < taskNum; i++) {
+            Assert.assertEquals(i, (int) futures.get(i).get(10, TimeUnit.SECONDS));
+        }
+        logger.info(String.format("%s: %s tasks completed in %sms, %s running at most", executor.getClass().getSimpleName(),
+                taskNum, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), maxRunning.get()));
+
+        Assert.assertTrue(maxRunning.get() <= maxConcurrency);
+        Assert.assertEquals(virtual ? taskNum : 0, virtualNum.get());
+        Assert.assertEquals(taskNum, beforeNum.get());
+        // the after hooks run after the future is done
+        for (int i = 0; i < 100 && afterNum.get() < taskNum; i++) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        Assert.assertEquals(taskNum, afterNum.get());
+
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void test() throws Exception {
+        run(new ElasticThreadPoolExecutor(maxConcurrency, 1, Thread::new, (r, e) -> {
+        }, pool), false);
+
+        VirtualThreadExecutor executor = VirtualThreadExecutor.create(maxConcurrency, (r, e) -> {
+        }, pool);
+        boolean supported = Double.parseDouble(System.getProperty("java.specification.version")) >= 21;
+        if (!supported) {
+            logger.info(String.format("virtual threads are not supported by the JVM[%s], skip the Virtual mode",
+                    System.getProperty("java.version")));
+            Assert.assertNull(executor);
+        } else {
+            Assert.assertNotNull(executor);
+            run(executor, true);
+            Assert.assertEquals(0, executor.getThreadNum());
+        }
+
+        pool.shutdown();
+    }
+}
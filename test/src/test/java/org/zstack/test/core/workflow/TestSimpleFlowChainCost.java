@@ -0,0 +1,149 @@
+package org.zstack.test.core.workflow;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.core.workflow.SimpleFlowChain;
+import org.zstack.header.core.workflow.*;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.config.Configurator;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. run a chain of 30 flows having names, __skip__ and @AfterDone/@AfterError/@AfterFinal fields,
+ * the last flow fails and all flows roll back
+ * 2. warm up, then run the chain many times
+ *
+ * confirm all flows run and roll back, the after-runnables are called, and the bytes allocated
+ * per chain are within the budget when debug logs are off
+ */
+public class TestSimpleFlowChainCost {
+    CLogger logger = Utils.getLogger(TestSimpleFlowChainCost.class);
+    int flowNum = 30;
+    int warmUpNum = 2000;
+    int chainNum = 5000;
+    // bytes allocated by running the chain, not counting the flows and the chain themselves
+    long allocationBudget = 16 * 1024;
+
+    ErrorCode error = new ErrorCode("TEST.1000", "on purpose");
+
+    int runNum;
+    int rollbackNum;
+    int afterNum;
+    int errorNum;
+
+    class TestFlow implements Flow {
+        String __name__;
+        boolean __skip__;
+
+        @AfterDone
+        List<Runnable> afterDone = new ArrayList<>();
+        @AfterError
+        List<Runnable> afterError = new ArrayList<>();
+        @AfterFinal
+        List<Runnable> afterFinal = new ArrayList<>();
+
+        final boolean fail;
+
+        TestFlow(int index, boolean fail) {
+            __name__ = "flow-" + index;
+            __skip__ = index % 10 == 9;
+            this.fail = fail;
+            afterError.add(() -> afterNum++);
+        }
+
+        @Override
+        public void run(FlowTrigger trigger, Map data) {
+            runNum++;
+            if (fail) {
+                trigger.fail(error);
+            } else {
+                trigger.next();
+            }
+        }
+
+        @Override
+        public void rollback(FlowRollback trigger, Map data) {
+            rollbackNum++;
+            trigger.rollback();
+        }
+    }
+
+    private SimpleFlowChain newChain() {
+        SimpleFlowChain chain = new SimpleFlowChain();
+        chain.setName("test-chain");
+        for (int i = 0; i < flowNum; i++) {
+            chain.then(new TestFlow(i, i == flowNum - 1));
+        }
+        chain.error(new FlowErrorHandler(null) {
+            @Override
+            public void handle(ErrorCode errCode, Map data) {
+                errorNum++;
+            }
+        });
+        return chain;
+    }
+
+    private long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private long[] measure() {
+        List<SimpleFlowChain> chains = new ArrayList<>();
+        for (int i = 0; i < chainNum; i++) {
+            chains.add(newChain());
+        }
+
+        errorNum = 0;
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (SimpleFlowChain c : chains) {
+            c.start();
+        }
+        long cost = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+        Assert.assertEquals(chainNum, errorNum);
+
+        return new long[]{TimeUnit.NANOSECONDS.toMicros(cost / chainNum), bytes / chainNum};
+    }
+
+    @Test
+    public void test() {
+        SimpleFlowChain chain = newChain();
+        chain.start();
+        // flow-9 and flow-19 are skipped
+        Assert.assertEquals(flowNum - 2, runNum);
+        Assert.assertEquals(flowNum - 2, rollbackNum);
+        Assert.assertEquals(flowNum - 2, afterNum);
+        Assert.assertEquals(1, errorNum);
+
+        for (int i = 0; i < warmUpNum; i++) {
+            newChain().start();
+        }
+
+        long[] debug = measure();
+
+        String loggerName = SimpleFlowChain.class.getName();
+        Level level = LogManager.getLogger(loggerName).getLevel();
+        Configurator.setLevel(loggerName, Level.INFO);
+        long[] info;
+        try {
+            info = measure();
+        } finally {
+            Configurator.setLevel(loggerName, level);
+        }
+
+        logger.info(String.format("run %s chains of %s flows with rollback: %s us and %s bytes allocated per chain" +
+                        " with debug logs, %s us and %s bytes allocated per chain without debug logs",
+                chainNum, flowNum, debug[0], debug[1], info[0], info[1]));
+        Assert.assertTrue(String.format("%s bytes allocated per chain", info[1]), info[1] < allocationBudget);
+    }
+}
@@ -0,0 +1,144 @@
+package org.zstack.test.identity;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.header.identity.AccountConstant.StatementEffect;
+import org.zstack.header.identity.PolicyInventory;
+import org.zstack.header.identity.PolicyInventory.Statement;
+import org.zstack.identity.PolicyDecisionEngine.CompiledPolicies;
+import org.zstack.identity.PolicyDecisionEngine.Rule;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * 1. generate policies having exact, wildcard and regular expression actions
+ * 2. match API actions against the compiled policies and by compiling every action as regular expression
+ *
+ * confirm the same statement actions are matched, and compare the cost
+ */
+public class TestPolicyDecisionEngine {
+    CLogger logger = Utils.getLogger(TestPolicyDecisionEngine.class);
+    int policyNum = 30;
+    int statementNum = 5;
+    int decisionNum = 20000;
+    String[] categories = {"vm", "volume", "image", "host", "l3Network", "securityGroup", "eip", "identity"};
+    String[] apis = {"APICreate%sMsg", "APIDelete%sMsg", "APIUpdate%sMsg", "APIQuery%sMsg", "APIAttach%sMsg"};
+
+    private String randomApi(Random random, String category) {
+        return String.format(apis[random.nextInt(apis.length)], category.substring(0, 1).toUpperCase() + category.substring(1));
+    }
+
+    private String randomActionRule(Random random) {
+        String category = categories[random.nextInt(categories.length)];
+        switch (random.nextInt(5)) {
+            case 0:
+                return String.format("%s:.*", category);
+            case 1:
+                return String.format("%s:APIQuery.*", category);
+            case 2:
+                return String.format("%s:API(Create|Delete).*Msg", category);
+            default:
+                return String.format("%s:%s", category, randomApi(random, category));
+        }
+    }
+
+    private List<PolicyInventory> generatePolicies(Random random) {
+        List<PolicyInventory> policies = new ArrayList<>();
+        for (int i = 0; i < policyNum; i++) {
+            PolicyInventory p = new PolicyInventory();
+            p.setUuid(Platform.getUuid());
+            p.setName(String.format("policy-%s", i));
+            List<Statement> statements = new ArrayList<>();
+            for (int j = 0; j < statementNum; j++) {
+                Statement s = new Statement();
+                s.setName(String.format("statement-%s", j));
+                s.setEffect(random.nextBoolean() ? StatementEffect.Allow : StatementEffect.Deny);
+                List<String> actions = new ArrayList<>();
+                for (int k = 0; k < 3; k++) {
+                    actions.add(randomActionRule(random));
+                }
+                s.setActions(actions);
+                statements.add(s);
+            }
+            p.setStatements(statements);
+            policies.add(p);
+        }
+
+        return policies;
+    }
+
+    // how the API permission check matched actions before policies are compiled
+    private String matchByRegex(List<PolicyInventory> policies, String action) {
+        for (PolicyInventory p : policies) {
+            for (Statement s : p.getStatements()) {
+                for (String ac : s.getActions()) {
+                    if (Pattern.compile(ac).matcher(action).matches()) {
+                        return String.format("%s/%s/%s", p.getUuid(), s.getName(), ac);
+                    }
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private String matchByCompiled(CompiledPolicies compiled, String action) {
+        Rule rule = compiled.match(action);
+        return rule == null ? null : String.format("%s/%s/%s", rule.getPolicy().getUuid(), rule.getStatement().getName(), rule.getActionRule());
+    }
+
+    @Test
+    public void test() {
+        Random random = new Random(300);
+        List<PolicyInventory> policies = generatePolicies(random);
+        CompiledPolicies compiled = new CompiledPolicies(policies);
+        Assert.assertEquals(policyNum * statementNum * 3, compiled.getRuleNum());
+
+        List<String> actions = new ArrayList<>();
+        for (int i = 0; i < decisionNum; i++) {
+            String category = categories[random.nextInt(categories.length)];
+            actions.add(String.format("%s:%s", category, randomApi(random, category)));
+        }
+        actions.add("zone:APICreateZoneMsg");
+        actions.add("vm:");
+
+        int matched = 0;
+        for (String a : actions) {
+            String expected = matchByRegex(policies, a);
+            Assert.assertEquals(a, expected, matchByCompiled(compiled, a));
+            // the second match is answered by the remembered result
+            Assert.assertEquals(a, expected, matchByCompiled(compiled, a));
+            if (expected != null) {
+                matched++;
+            }
+        }
+        Assert.assertTrue(matched > 0);
+        Assert.assertNull(compiled.match("zone:APICreateZoneMsg"));
+
+        long s = System.nanoTime();
+        for (String a : actions) {
+            matchByRegex(policies, a);
+        }
+        long regexCost = System.nanoTime() - s;
+
+        s = System.nanoTime();
+        compiled = new CompiledPolicies(policies);
+        long compileCost = System.nanoTime() - s;
+
+        s = System.nanoTime();
+        for (String a : actions) {
+            compiled.match(a);
+        }
+        long compiledCost = System.nanoTime() - s;
+
+        logger.info(String.format("decide %s actions against %s policies: compiling every action %s ms," +
+                        " compiling the policies once %s us and matching %s ms",
+                actions.size(), policyNum, TimeUnit.NANOSECONDS.toMillis(regexCost),
+                TimeUnit.NANOSECONDS.toMicros(compileCost), TimeUnit.NANOSECONDS.toMillis(compiledCost)));
+    }
+}
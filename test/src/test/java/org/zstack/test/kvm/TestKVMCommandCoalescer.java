@@ -0,0 +1,233 @@
+package org.zstack.test.kvm;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Test;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.kvm.KVMAgentCommands.BatchCmd;
+import org.zstack.kvm.KVMAgentCommands.BatchCommand;
+import org.zstack.kvm.KVMAgentCommands.BatchRsp;
+import org.zstack.kvm.KVMCommandCoalescer;
+import org.zstack.kvm.KVMConstant;
+import org.zstack.utils.Utils;
+import org.zstack.utils.gson.JSONObjectUtil;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 1. simulate 10 kvm agents each handling a request at a time, a request costs 1ms plus 0.1ms per command in it
+ * 2. submit 500 commands to each agent from 20 threads, with coalescing and without coalescing
+ * 3. submit commands to an agent not supporting batch, submit commands to an agent failing requests
+ *
+ * confirm each command gets its own response, agents get far fewer requests with coalescing, commands to an agent not supporting batch are posted one by one, and a failed batch
+ * fails all its commands
+ */
+public class TestKVMCommandCoalescer {
+    CLogger logger = Utils.getLogger(TestKVMCommandCoalescer.class);
+    int hostNum = 10;
+    int commandNumPerHost = 500;
+    long requestCost = TimeUnit.MILLISECONDS.toNanos(1);
+    long commandCost = TimeUnit.MICROSECONDS.toNanos(100);
+    String failingHostUuid = "failing-host";
+
+    Map<String, ExecutorService> agents = new ConcurrentHashMap<>();
+    ScheduledExecutorService timer = Executors.newScheduledThreadPool(2);
+    ExecutorService callers = Executors.newFixedThreadPool(20);
+    AtomicInteger requestNum = new AtomicInteger();
+    AtomicInteger batchRequestNum = new AtomicInteger();
+
+    static class IndexCmd {
+        int index;
+    }
+
+    static class IndexRsp {
+        boolean success;
+        int index;
+    }
+
+    class Result {
+        List<Integer> replied = Collections.synchronizedList(new ArrayList<>());
+        List<ErrorCode> errors = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    private String baseUrl(String hostUuid) {
+        return String.format("http://%s:7070", hostUuid);
+    }
+
+    private String reply(IndexCmd cmd) {
+        IndexRsp rsp = new IndexRsp();
+        rsp.success = true;
+        rsp.index = cmd.index;
+        return JSONObjectUtil.toJsonString(rsp);
+    }
+
+    KVMCommandCoalescer.Sender sender = new KVMCommandCoalescer.Sender() {
+        @Override
+        public void post(String url, String hostUuid, String body, long timeout, ReturnValueCompletion<String> completion) {
+            requestNum.incrementAndGet();
+            ExecutorService agent = agents.computeIfAbsent(hostUuid, k -> Executors.newSingleThreadExecutor());
+            agent.submit(() -> {
+                if (failingHostUuid.equals(hostUuid)) {
+                    ErrorCode err = new ErrorCode();
+                    err.setCode("HTTP_ERROR");
+                    err.setDetails("the agent is down");
+                    completion.fail(err);
+                    return;
+                }
+
+                if (!url.endsWith(KVMConstant.KVM_BATCH_PATH)) {
+                    LockSupport.parkNanos(requestCost + commandCost);
+                    completion.success(reply(JSONObjectUtil.toObject(body, IndexCmd.class)));
+                    return;
+                }
+
+                batchRequestNum.incrementAndGet();
+                BatchCmd cmd = JSONObjectUtil.toObject(body, BatchCmd.class);
+                LockSupport.parkNanos(requestCost + commandCost * cmd.commands.size());
+                BatchRsp rsp = new BatchRsp();
+                rsp.responses = new ArrayList<>();
+                for (BatchCommand c : cmd.commands) {
+                    Assert.assertEquals("/vm/start", c.path);
+                    rsp.responses.add(JSONObjectUtil.toObject(reply(JSONObjectUtil.toObject(c.command, IndexCmd.class)), LinkedHashMap.class));
+                }
+                completion.success(JSONObjectUtil.toJsonString(rsp));
+            });
+        }
+
+        @Override
+        public void schedule(Runnable task, long delay) {
+            timer.schedule(task, delay, TimeUnit.MILLISECONDS);
+        }
+    };
+
+    private void submit(KVMCommandCoalescer coalescer, String hostUuid, int index, Result result, CountDownLatch latch) {
+        IndexCmd cmd = new IndexCmd();
+        cmd.index = index;
+        String path = baseUrl(hostUuid) + "/vm/start";
+        ReturnValueCompletion<String> completion = new ReturnValueCompletion<String>(null) {
+            @Override
+            public void success(String rsp) {
+                IndexRsp r = JSONObjectUtil.toObject(rsp, IndexRsp.class);
+                Assert.assertTrue(r.success);
+                result.replied.add(r.index);
+                latch.countDown();
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                result.errors.add(errorCode);
+                latch.countDown();
+            }
+        };
+
+        if (coalescer.isCoalescable(hostUuid)) {
+            coalescer.submit(hostUuid, baseUrl(hostUuid), path, JSONObjectUtil.toJsonString(cmd), 300000, completion);
+        } else {
+            sender.post(path, hostUuid, JSONObjectUtil.toJsonString(cmd), 300000, completion);
+        }
+    }
+
+    private long run(KVMCommandCoalescer coalescer, List<String> hostUuids, Result result) throws InterruptedException {
+        int total = hostUuids.size() * commandNumPerHost;
+        CountDownLatch latch = new CountDownLatch(total);
+        long start = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            final int index = i;
+            callers.submit(() -> submit(coalescer, hostUuids.get(index % hostUuids.size()), index, result, latch));
+        }
+        Assert.assertTrue(latch.await(2, TimeUnit.MINUTES));
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private void checkReplied(Result result, int total) {
+        Assert.assertEquals(0, result.errors.size());
+        Assert.assertEquals(total, result.replied.size());
+        Assert.assertEquals(total, new HashSet<>(result.replied).size());
+    }
+
+    @After
+    public void tearDown() {
+        agents.values().forEach(ExecutorService::shutdownNow);
+        timer.shutdownNow();
+        callers.shutdownNow();
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        List<String> hostUuids = new ArrayList<>();
+        for (int i = 0; i < hostNum; i++) {
+            hostUuids.add(String.format("host%s", i));
+        }
+        int total = hostNum * commandNumPerHost;
+
+        // without coalescing, agents don't support batch
+        KVMCommandCoalescer coalescer = new KVMCommandCoalescer(sender, 10, 64);
+        Result result = new Result();
+        long singleCost = run(coalescer, hostUuids, result);
+        checkReplied(result, total);
+        int singleRequestNum = requestNum.getAndSet(0);
+        Assert.assertEquals(total, singleRequestNum);
+        Assert.assertEquals(0, batchRequestNum.get());
+        Assert.assertEquals(0, coalescer.getRequestNumber());
+
+        // with coalescing
+        hostUuids.forEach(uuid -> coalescer.setBatchSupported(uuid, true));
+        result = new Result();
+        long batchCost = run(coalescer, hostUuids, result);
+        checkReplied(result, total);
+        int batchedRequestNum = requestNum.getAndSet(0);
+        Assert.assertEquals(batchedRequestNum, coalescer.getRequestNumber());
+        Assert.assertTrue(batchRequestNum.get() > 0);
+        // each batch holds at most 64 commands
+        Assert.assertTrue(batchedRequestNum >= total / 64);
+
+        logger.info(String.format("%s commands to %s kvm agents: %s requests in %sms without coalescing, %s requests" +
+                        " (%s batches) in %sms with coalescing", total, hostNum, singleRequestNum, singleCost,
+                batchedRequestNum, batchRequestNum.get(), batchCost));
+        // the costs are only logged, wall-clock time is not reliable on a loaded machine
+        Assert.assertTrue(batchedRequestNum * 10 < singleRequestNum);
+
+        // a batch flushed as soon as it's full, without waiting the window
+        KVMCommandCoalescer full = new KVMCommandCoalescer(sender, TimeUnit.MINUTES.toMillis(10), 4);
+        full.setBatchSupported("host0", true);
+        result = new Result();
+        CountDownLatch latch = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            submit(full, "host0", i, result, latch);
+        }
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        checkReplied(result, 4);
+        Assert.assertEquals(1, full.getRequestNumber());
+
+        // a lone command is posted to its own path
+        requestNum.set(0);
+        batchRequestNum.set(0);
+        result = new Result();
+        latch = new CountDownLatch(1);
+        submit(coalescer, "host0", 0, result, latch);
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        checkReplied(result, 1);
+        Assert.assertEquals(1, requestNum.get());
+        Assert.assertEquals(0, batchRequestNum.get());
+
+        // a failed batch fails all its commands
+        coalescer.setBatchSupported(failingHostUuid, true);
+        result = new Result();
+        latch = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) {
+            submit(coalescer, failingHostUuid, i, result, latch);
+        }
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(10, result.errors.size());
+        Assert.assertEquals(0, result.replied.size());
+
+        // the agent stops supporting batch after reconnected
+        coalescer.setBatchSupported("host0", false);
+        Assert.assertFalse(coalescer.isCoalescable("host0"));
+    }
+}
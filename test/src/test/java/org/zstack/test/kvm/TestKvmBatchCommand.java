@@ -0,0 +1,162 @@
+package org.zstack.test.kvm;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.CloudBusCallBack;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.host.HostConstant;
+import org.zstack.header.identity.SessionInventory;
+import org.zstack.header.message.MessageReply;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.kvm.KVMAgentCommands.*;
+import org.zstack.kvm.KVMConstant;
+import org.zstack.kvm.KVMConstant.KvmVmState;
+import org.zstack.kvm.KVMHostAsyncHttpCallMsg;
+import org.zstack.kvm.KVMHostAsyncHttpCallReply;
+import org.zstack.simulator.kvm.KVMSimulatorConfig;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. make the kvm simulator advertise the batch support and reconnect the host
+ * 2. send 100 async http calls to the host at the same time
+ * 3. send 100 calls checking states of different VMs
+ * 4. make attaching nic fail and send 100 calls attaching nics
+ *
+ * confirm all calls succeed, the calls are coalesced into batches, each command is handled by the agent once,
+ * each call gets the response of its own command and failures of batched commands are returned to their callers
+ *
+ * NOTE: the test needs a MySQL database and RabbitMQ to run
+ */
+public class TestKvmBatchCommand {
+    CLogger logger = Utils.getLogger(TestKvmBatchCommand.class);
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    CloudBus bus;
+    DatabaseFacade dbf;
+    SessionInventory session;
+    KVMSimulatorConfig config;
+    int callNum = 100;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/kvm/TestCreateVmOnKvm.xml", con);
+        deployer.addSpringConfig("KVMRelated.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        bus = loader.getComponent(CloudBus.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+        config = loader.getComponent(KVMSimulatorConfig.class);
+        session = api.loginAsAdmin();
+    }
+
+    private List<MessageReply> call(String hostUuid, String path, List<? extends AgentCommand> cmds) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(cmds.size());
+        MessageReply[] replies = new MessageReply[cmds.size()];
+        for (int i = 0; i < cmds.size(); i++) {
+            final int index = i;
+            KVMHostAsyncHttpCallMsg msg = new KVMHostAsyncHttpCallMsg();
+            msg.setHostUuid(hostUuid);
+            msg.setCommand(cmds.get(i));
+            msg.setCommandTimeout(TimeUnit.MINUTES.toMillis(5));
+            msg.setPath(path);
+            bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, hostUuid);
+            bus.send(msg, new CloudBusCallBack(null) {
+                @Override
+                public void run(MessageReply reply) {
+                    replies[index] = reply;
+                    latch.countDown();
+                }
+            });
+        }
+
+        Assert.assertTrue(latch.await(1, TimeUnit.MINUTES));
+        return Arrays.asList(replies);
+    }
+
+    @Test
+    public void test() throws ApiSenderException, InterruptedException {
+        VmInstanceInventory vm = deployer.vms.get("TestVm");
+        String hostUuid = vm.getHostUuid();
+        config.batchSupported = true;
+        api.reconnectHost(hostUuid);
+        config.batchCmds.clear();
+        config.hardenVmConsoleCmds.clear();
+
+        List<HardenVmConsoleCmd> hcmds = new ArrayList<>();
+        for (int i = 0; i < callNum; i++) {
+            HardenVmConsoleCmd cmd = new HardenVmConsoleCmd();
+            cmd.vmUuid = vm.getUuid();
+            cmd.vmInternalId = vm.getInternalId();
+            cmd.hostManagementIp = "127.0.0.1";
+            hcmds.add(cmd);
+        }
+        for (MessageReply reply : call(hostUuid, KVMConstant.KVM_HARDEN_CONSOLE_PATH, hcmds)) {
+            Assert.assertTrue(reply.isSuccess());
+        }
+
+        int batchedNum = 0;
+        for (BatchCmd cmd : config.batchCmds) {
+            Assert.assertTrue(cmd.commands.size() > 1);
+            batchedNum += cmd.commands.size();
+        }
+        logger.info(String.format("%s calls are sent in %s batches and %s single requests", callNum,
+                config.batchCmds.size(), callNum - batchedNum));
+        Assert.assertFalse(config.batchCmds.isEmpty());
+        // the batched commands are handled by the handler of their path as well
+        Assert.assertEquals(callNum, config.hardenVmConsoleCmds.size());
+
+        // each batched command gets the response of its own handler
+        config.batchCmds.clear();
+        Map<String, String> states = new HashMap<>();
+        List<CheckVmStateCmd> ccmds = new ArrayList<>();
+        for (int i = 0; i < callNum; i++) {
+            String vmUuid = Platform.getUuid();
+            states.put(vmUuid, i % 2 == 0 ? KvmVmState.Running.toString() : KvmVmState.Shutdown.toString());
+            CheckVmStateCmd cmd = new CheckVmStateCmd();
+            cmd.hostUuid = hostUuid;
+            cmd.vmUuids = Collections.singletonList(vmUuid);
+            ccmds.add(cmd);
+        }
+        config.checkVmStatesConfig.put(hostUuid, states);
+        List<MessageReply> replies = call(hostUuid, KVMConstant.KVM_VM_CHECK_STATE, ccmds);
+        Assert.assertFalse(config.batchCmds.isEmpty());
+        for (int i = 0; i < callNum; i++) {
+            Assert.assertTrue(replies.get(i).isSuccess());
+            CheckVmStateRsp rsp = ((KVMHostAsyncHttpCallReply) replies.get(i)).toResponse(CheckVmStateRsp.class);
+            String vmUuid = ccmds.get(i).vmUuids.get(0);
+            Assert.assertEquals(1, rsp.states.size());
+            Assert.assertEquals(states.get(vmUuid), rsp.states.get(vmUuid));
+        }
+
+        // the failure of a batched command is returned to its caller
+        config.batchCmds.clear();
+        config.attachNicSuccess = false;
+        List<AttachNicCommand> ncmds = new ArrayList<>();
+        for (int i = 0; i < callNum; i++) {
+            ncmds.add(new AttachNicCommand());
+        }
+        replies = call(hostUuid, KVMConstant.KVM_ATTACH_NIC_PATH, ncmds);
+        Assert.assertFalse(config.batchCmds.isEmpty());
+        for (MessageReply reply : replies) {
+            Assert.assertTrue(!reply.isSuccess() || !((KVMHostAsyncHttpCallReply) reply).toResponse(AgentResponse.class).isSuccess());
+        }
+    }
+}
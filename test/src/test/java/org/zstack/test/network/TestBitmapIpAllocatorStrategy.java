@@ -0,0 +1,114 @@
+package org.zstack.test.network;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.Q;
+import org.zstack.header.network.l2.L2NetworkInventory;
+import org.zstack.header.network.l3.*;
+import org.zstack.header.zone.ZoneInventory;
+import org.zstack.test.*;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.network.NetworkUtils;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. add a /16 ip range
+ * 2. allocate 60000 IPs by the bitmap allocator
+ * 3. allocate more IPs from the nearly full range by the random allocator and the bitmap allocator
+ * 4. return an IP and allocate the first available IP
+ *
+ * confirm all IPs are unique and the returned IP is allocated again, and compare the cost of the allocators
+ */
+public class TestBitmapIpAllocatorStrategy {
+    CLogger logger = Utils.getLogger(TestBitmapIpAllocatorStrategy.class);
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    CloudBus bus;
+    int ipNum = 60000;
+    int compareNum = 500;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new WebBeanConstructor();
+        /* This loads spring application context */
+        loader = con.addXml("PortalForUnitTest.xml").addXml("ZoneManager.xml").addXml("NetworkManager.xml").addXml("AccountManager.xml").build();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        bus = loader.getComponent(CloudBus.class);
+        api = new Api();
+        api.startServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        api.stopServer();
+    }
+
+    private UsedIpInventory allocate(String l3Uuid, String strategy) {
+        AllocateIpMsg msg = new AllocateIpMsg();
+        msg.setL3NetworkUuid(l3Uuid);
+        msg.setServiceId(bus.makeLocalServiceId(L3NetworkConstant.SERVICE_ID));
+        msg.setAllocateStrategy(strategy);
+        AllocateIpReply reply = (AllocateIpReply) bus.call(msg);
+        Assert.assertTrue(reply.isSuccess());
+        return reply.getIpInventory();
+    }
+
+    private long allocate(String l3Uuid, String strategy, int num, Set<String> ips) {
+        long s = System.nanoTime();
+        for (int i = 0; i < num; i++) {
+            UsedIpInventory inv = allocate(l3Uuid, strategy);
+            Assert.assertTrue(String.format("duplicate ip %s", inv.getIp()), ips.add(inv.getIp()));
+        }
+        return System.nanoTime() - s;
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        ZoneInventory zone = api.createZones(1).get(0);
+        L2NetworkInventory linv = api.createNoVlanL2Network(zone.getUuid(), "eth0");
+        L3NetworkInventory l3inv = api.createL3BasicNetwork(linv.getUuid());
+        String startIp = "10.10.0.2";
+        String endIp = "10.10.255.254";
+        api.addIpRange(l3inv.getUuid(), startIp, endIp, "10.10.0.1", "255.255.0.0");
+
+        Set<String> ips = new HashSet<>();
+        long cost = allocate(l3inv.getUuid(), L3NetworkConstant.BITMAP_IP_ALLOCATOR_STRATEGY, ipNum, ips);
+        logger.info(String.format("bitmap allocator allocates %s IPs in %s ms", ipNum, TimeUnit.NANOSECONDS.toMillis(cost)));
+
+        long randomCost = allocate(l3inv.getUuid(), L3NetworkConstant.RANDOM_IP_ALLOCATOR_STRATEGY, compareNum, ips);
+        long bitmapCost = allocate(l3inv.getUuid(), L3NetworkConstant.BITMAP_IP_ALLOCATOR_STRATEGY, compareNum, ips);
+        logger.info(String.format("allocate %s IPs from a range of %s IPs with %s used: random allocator %s ms, bitmap allocator %s ms",
+                compareNum, NetworkUtils.getTotalIpInRange(startIp, endIp), ipNum,
+                TimeUnit.NANOSECONDS.toMillis(randomCost), TimeUnit.NANOSECONDS.toMillis(bitmapCost)));
+
+        long used = Q.New(UsedIpVO.class).eq(UsedIpVO_.l3NetworkUuid, l3inv.getUuid()).count();
+        Assert.assertEquals(ips.size(), used);
+
+        UsedIpVO first = Q.New(UsedIpVO.class).eq(UsedIpVO_.l3NetworkUuid, l3inv.getUuid())
+                .eq(UsedIpVO_.ip, startIp).find();
+        if (first == null) {
+            first = dbf.findByUuid(allocate(l3inv.getUuid(), L3NetworkConstant.BITMAP_FIRST_AVAILABLE_IP_ALLOCATOR_STRATEGY).getUuid(), UsedIpVO.class);
+        }
+        Assert.assertEquals(startIp, first.getIp());
+
+        ReturnIpMsg rmsg = new ReturnIpMsg();
+        rmsg.setL3NetworkUuid(l3inv.getUuid());
+        rmsg.setUsedIpUuid(first.getUuid());
+        bus.makeLocalServiceId(rmsg, L3NetworkConstant.SERVICE_ID);
+        Assert.assertTrue(bus.call(rmsg).isSuccess());
+
+        UsedIpInventory inv = allocate(l3inv.getUuid(), L3NetworkConstant.BITMAP_FIRST_AVAILABLE_IP_ALLOCATOR_STRATEGY);
+        Assert.assertEquals(startIp, inv.getIp());
+    }
+}
@@ -0,0 +1,205 @@
+package org.zstack.test.portal;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.header.configuration.DiskOfferingVO;
+import org.zstack.header.message.APIMessage;
+import org.zstack.header.message.APIParam;
+import org.zstack.header.vm.APICreateVmInstanceMsg;
+import org.zstack.portal.apimediator.ApiMessageValidationPlan;
+import org.zstack.utils.BeanUtils;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 1. build validation plans for all API messages, fill the resource uuid fields of each message
+ * 2. check the resources by the plans and by one query per field as before, with a fake database taking 100us
+ * per query
+ * 3. delete some resources referred by APICreateVmInstanceMsg
+ *
+ * confirm every API message is checked by at most as many queries as before, messages referring to several
+ * resources of the same type are checked by fewer queries and faster, and the missing resources are reported
+ * by the fields referring to them
+ */
+public class TestApiMessageValidationPlan {
+    CLogger logger = Utils.getLogger(TestApiMessageValidationPlan.class);
+    long queryCost = TimeUnit.MICROSECONDS.toNanos(100);
+    int rounds = 20;
+    int queryNum;
+    Set<String> deleted = new HashSet<>();
+
+    ApiMessageValidationPlan.ResourceFinder finder = (entityClass, primaryKey, ids) -> {
+        queryNum++;
+        LockSupport.parkNanos(queryCost);
+        Set<String> ret = new HashSet<>(ids);
+        ret.removeAll(deleted);
+        return ret;
+    };
+
+    static class Cost {
+        String name;
+        int resourceParamNum;
+        int queryNum;
+        int oldQueryNum;
+        long nanos;
+        long oldNanos;
+    }
+
+    private boolean fill(APIMessage msg, Map<Field, APIParam> params) throws IllegalAccessException {
+        boolean filled = false;
+        for (Map.Entry<Field, APIParam> e : params.entrySet()) {
+            if (e.getValue().resourceType() == Object.class) {
+                continue;
+            }
+
+            Field f = e.getKey();
+            f.setAccessible(true);
+            if (f.getType() == String.class) {
+                f.set(msg, Platform.getUuid());
+            } else if (f.getType().isAssignableFrom(ArrayList.class)) {
+                f.set(msg, new ArrayList<>(Arrays.asList(Platform.getUuid(), Platform.getUuid(), Platform.getUuid())));
+            } else if (f.getType().isAssignableFrom(HashSet.class)) {
+                f.set(msg, new HashSet<>(Arrays.asList(Platform.getUuid(), Platform.getUuid(), Platform.getUuid())));
+            } else {
+                continue;
+            }
+            filled = true;
+        }
+        return filled;
+    }
+
+    // checks each field by its own query as ApiMessageProcessorImpl did
+    private void checkByField(APIMessage msg, Map<Field, APIParam> params) throws IllegalAccessException {
+        for (Map.Entry<Field, APIParam> e : params.entrySet()) {
+            APIParam at = e.getValue();
+            if (at.resourceType() == Object.class) {
+                continue;
+            }
+
+            Object value = e.getKey().get(msg);
+            if (value == null) {
+                continue;
+            }
+
+            Collection<String> ids = value instanceof Collection ? (Collection<String>) value : Collections.singletonList((String) value);
+            Assert.assertEquals(new HashSet<>(ids).size(), finder.findExisting(at.resourceType(), "uuid", ids).size());
+        }
+    }
+
+    @Test
+    public void test() throws Exception {
+        List<Cost> costs = new ArrayList<>();
+        for (Class clz : BeanUtils.reflections.getSubTypesOf(APIMessage.class)) {
+            if (Modifier.isAbstract(clz.getModifiers()) || Modifier.isStatic(clz.getModifiers())) {
+                continue;
+            }
+
+            Map<Field, APIParam> params = ApiMessageValidationPlan.collectApiParams(clz);
+            ApiMessageValidationPlan plan = new ApiMessageValidationPlan(clz, params);
+            if (!plan.hasResourceParams()) {
+                continue;
+            }
+
+            APIMessage msg;
+            try {
+                msg = (APIMessage) clz.newInstance();
+            } catch (Exception e) {
+                continue;
+            }
+            if (!fill(msg, params)) {
+                continue;
+            }
+
+            Cost cost = new Cost();
+            cost.name = clz.getSimpleName();
+            cost.resourceParamNum = (int) params.values().stream().filter(at -> at.resourceType() != Object.class).count();
+
+            queryNum = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                Assert.assertNull(plan.check(msg, finder));
+            }
+            cost.nanos = (System.nanoTime() - start) / rounds;
+            cost.queryNum = queryNum / rounds;
+
+            queryNum = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                checkByField(msg, params);
+            }
+            cost.oldNanos = (System.nanoTime() - start) / rounds;
+            cost.oldQueryNum = queryNum / rounds;
+
+            Assert.assertTrue(cost.name, cost.queryNum <= cost.oldQueryNum);
+            costs.add(cost);
+        }
+
+        costs.sort((a, b) -> Long.compare(b.oldNanos, a.oldNanos));
+        StringBuilder sb = new StringBuilder();
+        int queries = 0;
+        int oldQueries = 0;
+        long nanos = 0;
+        long oldNanos = 0;
+        int reduced = 0;
+        for (Cost c : costs) {
+            queries += c.queryNum;
+            oldQueries += c.oldQueryNum;
+            nanos += c.nanos;
+            oldNanos += c.oldNanos;
+            if (c.queryNum < c.oldQueryNum) {
+                reduced++;
+            }
+        }
+        for (Cost c : costs.subList(0, Math.min(10, costs.size()))) {
+            sb.append(String.format("\n%s: %s resource params, %s queries in %sus, %s queries in %sus by field", c.name,
+                    c.resourceParamNum, c.queryNum, TimeUnit.NANOSECONDS.toMicros(c.nanos), c.oldQueryNum,
+                    TimeUnit.NANOSECONDS.toMicros(c.oldNanos)));
+        }
+        logger.info(String.format("resource checks of %s API messages: %s queries in %sus, %s queries in %sus by field," +
+                " %s messages need fewer queries; the most expensive ones:%s", costs.size(), queries,
+                TimeUnit.NANOSECONDS.toMicros(nanos), oldQueries, TimeUnit.NANOSECONDS.toMicros(oldNanos), reduced, sb));
+        Assert.assertFalse(costs.isEmpty());
+        Assert.assertTrue(reduced > 0);
+        Assert.assertTrue(queries < oldQueries);
+
+        // missing resources
+        Map<Field, APIParam> params = ApiMessageValidationPlan.collectApiParams(APICreateVmInstanceMsg.class);
+        ApiMessageValidationPlan plan = new ApiMessageValidationPlan(APICreateVmInstanceMsg.class, params);
+        APICreateVmInstanceMsg msg = new APICreateVmInstanceMsg();
+        msg.setImageUuid(Platform.getUuid());
+        msg.setInstanceOfferingUuid(Platform.getUuid());
+        msg.setL3NetworkUuids(Arrays.asList(Platform.getUuid(), Platform.getUuid()));
+        msg.setRootDiskOfferingUuid(Platform.getUuid());
+        msg.setDataDiskOfferingUuids(Arrays.asList(Platform.getUuid(), Platform.getUuid()));
+        queryNum = 0;
+        Assert.assertNull(plan.check(msg, finder));
+        // images, instance offerings, l3 networks and disk offerings
+        Assert.assertEquals(4, queryNum);
+
+        deleted.add(msg.getL3NetworkUuids().get(1));
+        ApiMessageValidationPlan.MissingResource missing = plan.check(msg, finder);
+        Assert.assertEquals("l3NetworkUuids", missing.getField().getName());
+        Assert.assertTrue(missing.isCollection());
+        Assert.assertEquals(Collections.singletonList(msg.getL3NetworkUuids().get(1)), missing.getMissingIds());
+
+        deleted.clear();
+        deleted.add(msg.getDataDiskOfferingUuids().get(0));
+        deleted.add(msg.getRootDiskOfferingUuid());
+        missing = plan.check(msg, finder);
+        Assert.assertEquals(DiskOfferingVO.class, missing.getParam().resourceType());
+        Assert.assertEquals("dataDiskOfferingUuids", missing.getField().getName());
+
+        deleted.remove(msg.getDataDiskOfferingUuids().get(0));
+        missing = plan.check(msg, finder);
+        Assert.assertEquals("rootDiskOfferingUuid", missing.getField().getName());
+        Assert.assertFalse(missing.isCollection());
+        Assert.assertEquals(msg.getRootDiskOfferingUuid(), missing.getValue());
+    }
+}
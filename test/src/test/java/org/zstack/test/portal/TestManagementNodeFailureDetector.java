@@ -0,0 +1,249 @@
+package org.zstack.test.portal;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.portal.managementnode.ManagementNodeFailureDetector;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * 1. simulate 10 management nodes gossiping heartbeats every second with jitter and bus latency,
+ * and writing heartbeats to a fake ManagementNodeVO table every 5 seconds
+ * 2. kill a node, it stops both heartbeats, repeat with the node killed at different time in a heartbeat interval
+ * 3. partition another node from the message bus, it still writes heartbeats to the database
+ *
+ * confirm the killed node is fenced once it misses a heartbeat in the database, much faster than by the
+ * heartbeats in the database only, the partitioned node and the nodes it can't hear are never fenced, and the database
+ * is queried less than half as often as by checking all nodes in the database every heartbeat before the partition,
+ * counting all queries of heartbeats, health checks and fencing
+ */
+public class TestManagementNodeFailureDetector {
+    CLogger logger = Utils.getLogger(TestManagementNodeFailureDetector.class);
+    int nodeNum = 10;
+    long gossipInterval = 1000;
+    long heartbeatInterval = 5000;
+    int heartbeatRoundsPerFullCheck = 6;
+    double phiThreshold = 8;
+    long killTime;
+    long partitionTime = 30300;
+    long endTime = 200000;
+    Random random;
+
+    // the fake ManagementNodeVO table
+    Map<String, Timestamp> table = new HashMap<>();
+    long dbNow;
+    int queryNum;
+
+    ManagementNodeFailureDetector.HeartbeatStore store = new ManagementNodeFailureDetector.HeartbeatStore() {
+        @Override
+        public Timestamp getHeartbeat(String nodeUuid) {
+            queryNum++;
+            return table.get(nodeUuid);
+        }
+
+        @Override
+        public Timestamp getCurrentTime() {
+            queryNum++;
+            return new Timestamp(dbNow);
+        }
+
+        @Override
+        public boolean deleteNode(String nodeUuid, Timestamp heartbeat) {
+            queryNum++;
+            if (heartbeat.equals(table.get(nodeUuid))) {
+                table.remove(nodeUuid);
+                return true;
+            }
+            return false;
+        }
+    };
+
+    class Node {
+        String uuid = Platform.getUuid();
+        ManagementNodeFailureDetector detector = new ManagementNodeFailureDetector(gossipInterval, 2 * gossipInterval);
+        Set<String> hashRing = new HashSet<>();
+        long nextTick = random.nextInt((int) gossipInterval);
+        long nextHeartbeat = nextTick;
+        long dbHeartbeat;
+        int rounds;
+        boolean dead;
+        boolean partitioned;
+    }
+
+    static class Gossip {
+        long arrival;
+        String from;
+        long dbHeartbeat;
+    }
+
+    class Result {
+        long detection;
+        long oldDetection;
+        int queryNum;
+        int oldQueryNum;
+        int steadyQueryNum;
+        int steadyOldQueryNum;
+    }
+
+    private Result simulate(long killTime) {
+        this.killTime = killTime;
+        random = new Random(killTime);
+        table.clear();
+        queryNum = 0;
+
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < nodeNum; i++) {
+            nodes.add(new Node());
+        }
+        for (Node n : nodes) {
+            table.put(n.uuid, new Timestamp(0));
+            for (Node o : nodes) {
+                n.hashRing.add(o.uuid);
+            }
+        }
+        Node victim = nodes.get(0);
+        Node partitioned = nodes.get(1);
+
+        PriorityQueue<Gossip> inflight = new PriorityQueue<>(Comparator.comparingLong(g -> g.arrival));
+        long detectedTime = -1;
+        long oldDetectedTime = -1;
+        int fullCheckQueryNum = 0;
+        int oldQueryNum = 0;
+        int steadyQueryNum = -1;
+        int steadyOldQueryNum = -1;
+
+        for (long now = 0; now < endTime; now++) {
+            dbNow = now;
+            victim.dead = now >= killTime;
+            partitioned.partitioned = now >= partitionTime;
+            if (now == partitionTime) {
+                steadyQueryNum = queryNum + fullCheckQueryNum;
+                steadyOldQueryNum = oldQueryNum;
+            }
+
+            while (!inflight.isEmpty() && inflight.peek().arrival <= now) {
+                Gossip g = inflight.poll();
+                for (Node n : nodes) {
+                    if (!n.dead && !n.partitioned && !n.uuid.equals(g.from)) {
+                        n.detector.heartbeat(g.from, g.dbHeartbeat, now);
+                    }
+                }
+            }
+
+            for (Node n : nodes) {
+                if (n.dead || n.nextTick > now) {
+                    continue;
+                }
+
+                boolean heartbeatRound = n.nextHeartbeat <= now;
+                if (heartbeatRound) {
+                    // updating the heartbeat and reading it back
+                    queryNum += 2;
+                    n.dbHeartbeat = now;
+                    table.put(n.uuid, new Timestamp(now));
+                    n.nextHeartbeat = now + heartbeatInterval;
+                }
+
+                // gossips are published on the message bus and query no database
+
+                if (!n.partitioned) {
+                    for (int i = 0; i < nodeNum - 1; i++) {
+                        Gossip g = new Gossip();
+                        g.arrival = now + 1 + random.nextInt(50);
+                        g.from = n.uuid;
+                        g.dbHeartbeat = n.dbHeartbeat;
+                        inflight.add(g);
+                    }
+                }
+
+                for (String uuid : n.detector.detect(store, phiThreshold, heartbeatInterval + gossipInterval, now)) {
+                    Assert.assertEquals(victim.uuid, uuid);
+                    if (detectedTime < 0) {
+                        detectedTime = now;
+                    }
+                    for (Node o : nodes) {
+                        o.hashRing.remove(uuid);
+                        o.detector.remove(uuid);
+                    }
+                }
+
+                if (heartbeatRound) {
+                    // checking all nodes in the database every heartbeat, a node is dead if its heartbeat is
+                    // older than two heartbeat intervals; checking itself alive, updating and reading back the
+                    // heartbeat, loading all nodes and the database time
+                    oldQueryNum += 5;
+                    if (oldDetectedTime < 0 && victim.dead && now - victim.dbHeartbeat > 2 * heartbeatInterval) {
+                        oldDetectedTime = now;
+                    }
+
+                    Set<String> healthy = n.detector.getHealthyNodes(phiThreshold, now);
+                    boolean allGossiping = true;
+                    for (String uuid : n.hashRing) {
+                        allGossiping = allGossiping && (uuid.equals(n.uuid) || healthy.contains(uuid));
+                    }
+                    if (++n.rounds >= heartbeatRoundsPerFullCheck || !allGossiping) {
+                        n.rounds = 0;
+                        // loading all nodes and the database time
+                        fullCheckQueryNum += 2;
+                    }
+                }
+
+                long sleep = Math.min(gossipInterval, n.nextHeartbeat - now);
+                n.nextTick = now + Math.max(sleep + random.nextInt(200) - 100, 1);
+            }
+        }
+
+        Assert.assertTrue(detectedTime > 0);
+        Assert.assertTrue(oldDetectedTime > 0);
+
+        // the partitioned node and the others are alive
+        Assert.assertFalse(table.containsKey(victim.uuid));
+        Assert.assertEquals(nodeNum - 1, table.size());
+        for (Node n : nodes) {
+            if (n != victim) {
+                Assert.assertTrue(table.containsKey(n.uuid));
+                Assert.assertFalse(n.hashRing.contains(victim.uuid));
+            }
+        }
+
+        Result ret = new Result();
+        ret.detection = detectedTime - killTime;
+        ret.oldDetection = oldDetectedTime - killTime;
+        ret.queryNum = queryNum + fullCheckQueryNum;
+        ret.oldQueryNum = oldQueryNum;
+        ret.steadyQueryNum = steadyQueryNum;
+        ret.steadyOldQueryNum = steadyOldQueryNum;
+        return ret;
+    }
+
+    @Test
+    public void test() {
+        int runs = 10;
+        long detection = 0;
+        long oldDetection = 0;
+        long maxDetection = 0;
+        Result r = null;
+        for (int i = 0; i < runs; i++) {
+            r = simulate(60000 + i * heartbeatInterval / runs);
+            logger.info(String.format("killed at %sms: detected in %sms by gossip, %sms by heartbeats in database only",
+                    killTime, r.detection, r.oldDetection));
+            Assert.assertTrue(String.format("detected in %sms", r.detection), r.detection <= heartbeatInterval + 2 * gossipInterval);
+            Assert.assertTrue(r.oldDetection >= heartbeatInterval);
+            detection += r.detection;
+            oldDetection += r.oldDetection;
+            maxDetection = Math.max(maxDetection, r.detection);
+        }
+
+        logger.info(String.format("%s management nodes, a dead node is detected in %sms on average and %sms at most by gossip," +
+                " %sms on average by heartbeats in database only; database queries in %ss before the partition:" +
+                " %s by gossip, %s by heartbeats in database only; in %ss: %s by gossip, %s by heartbeats in database only",
+                nodeNum, detection / runs, maxDetection, oldDetection / runs, partitionTime / 1000, r.steadyQueryNum,
+                r.steadyOldQueryNum, endTime / 1000, r.queryNum, r.oldQueryNum));
+        Assert.assertTrue(detection * 3 < oldDetection * 2);
+        Assert.assertTrue(r.steadyQueryNum * 2 < r.steadyOldQueryNum);
+    }
+}
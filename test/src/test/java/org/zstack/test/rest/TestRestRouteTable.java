@@ -0,0 +1,123 @@
+package org.zstack.test.rest;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.springframework.util.AntPathMatcher;
+import org.zstack.header.rest.RestRequest;
+import org.zstack.rest.RestConstants;
+import org.zstack.rest.RestRouteTable;
+import org.zstack.utils.BeanUtils;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * resolve request paths of all APIs annotated by @RestRequest with RestRouteTable
+ * and compare the cost with scanning the patterns and extracting URL variables by AntPathMatcher
+ *
+ * confirm every path is resolved to a matching pattern and the captured URL variables are the
+ * same as extracted by AntPathMatcher
+ */
+public class TestRestRouteTable {
+    CLogger logger = Utils.getLogger(TestRestRouteTable.class);
+    AntPathMatcher matcher = new AntPathMatcher();
+    int benchmarkTimes = 20;
+
+    private Set<String> patterns() {
+        Set<String> patterns = new HashSet<>();
+        for (Class<?> clz : BeanUtils.reflections.getTypesAnnotatedWith(RestRequest.class)) {
+            RestRequest at = clz.getAnnotation(RestRequest.class);
+            if (at == null) {
+                continue;
+            }
+
+            if (!"null".equals(at.path())) {
+                patterns.add(RestConstants.API_VERSION + at.path());
+            }
+            for (String p : at.optionalPaths()) {
+                patterns.add(RestConstants.API_VERSION + p);
+            }
+        }
+
+        return patterns;
+    }
+
+    private String linearLookup(Set<String> patterns, String path) {
+        if (patterns.contains(path)) {
+            return path;
+        }
+
+        for (String p : patterns) {
+            if (matcher.match(p, path)) {
+                return p;
+            }
+        }
+
+        return null;
+    }
+
+    @Test
+    public void test() {
+        Set<String> patterns = patterns();
+        RestRouteTable<String> routes = new RestRouteTable<>();
+        for (String p : patterns) {
+            routes.add(p, p);
+        }
+
+        List<String> paths = new ArrayList<>();
+        for (String p : patterns) {
+            paths.add(p.replaceAll("\\{[^/{}]+\\}", UUID.randomUUID().toString().replace("-", "")));
+        }
+
+        for (String path : paths) {
+            RestRouteTable.Match<String> m = routes.match(path);
+            Assert.assertNotNull(String.format("no route for %s", path), m);
+            String p = m.getValue();
+            Assert.assertTrue(String.format("%s is resolved to %s", path, p), matcher.match(p, path));
+            Assert.assertEquals(matcher.extractUriTemplateVariables(p, path), m.getVariables());
+        }
+
+        // a literal branch not leading to a match doesn't leave its variables behind
+        RestRouteTable<String> table = new RestRouteTable<>();
+        table.add("/a/{x}/b/c", "1");
+        table.add("/a/{y}/{z}/d", "2");
+        table.add("/a/e/{w}", "3");
+        RestRouteTable.Match<String> m = table.match("/a/e/f/d");
+        Assert.assertEquals("2", m.getValue());
+        Assert.assertEquals(Arrays.asList("e", "f"), m.getVariableValues());
+        m = table.match("/a/e/f");
+        Assert.assertEquals("3", m.getValue());
+        Assert.assertEquals(Collections.singletonMap("w", "f"), m.getVariables());
+
+        Assert.assertNull(routes.lookup(RestConstants.API_VERSION + "/no-such-resources/xxx"));
+        Assert.assertNull(routes.lookup("/"));
+
+        // warm up
+        for (String path : paths) {
+            routes.match(path);
+            linearLookup(patterns, path);
+        }
+
+        long s = System.nanoTime();
+        for (int i = 0; i < benchmarkTimes; i++) {
+            for (String path : paths) {
+                routes.match(path).getVariableValues();
+            }
+        }
+        long trie = System.nanoTime() - s;
+
+        s = System.nanoTime();
+        for (int i = 0; i < benchmarkTimes; i++) {
+            for (String path : paths) {
+                matcher.extractUriTemplateVariables(linearLookup(patterns, path), path);
+            }
+        }
+        long linear = System.nanoTime() - s;
+
+        logger.info(String.format("resolve %s paths of %s patterns %s times: route table %s ms, AntPathMatcher scan %s ms",
+                paths.size(), patterns.size(), benchmarkTimes, TimeUnit.NANOSECONDS.toMillis(trie),
+                TimeUnit.NANOSECONDS.toMillis(linear)));
+    }
+}
@@ -0,0 +1,263 @@
+package org.zstack.test.storage.primary;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.storage.primary.ImageCacheAccessTracker;
+import org.zstack.storage.primary.ImageCacheEvictor;
+import org.zstack.storage.primary.ImageCacheEvictor.Candidate;
+import org.zstack.storage.primary.ImageCacheEvictor.Policy;
+import org.zstack.storage.primary.ImageCacheStatistic;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 1. check the image caches selected by the evictor for LRU, LFU, watermarks and min idle time
+ * 2. simulate a host of local storage with 2000G capacity, 1000G used by volumes, creating a VM per minute from
+ * 300 images of 2G - 10G picked by a zipf distribution whose popular images change halfway, and evicting image
+ * caches every 20 VMs by no policy, LRU and LFU
+ * 3. prewarm the 20 most popular images before creating VMs
+ *
+ * confirm image caches are evicted down to the low watermark so VMs never fail for no capacity to download
+ * images, while no eviction fails VMs once the storage is full; prewarming avoids the misses of the popular
+ * images; the hit ratio and bytes saved tracked match the simulation
+ */
+public class TestImageCacheEviction {
+    CLogger logger = Utils.getLogger(TestImageCacheEviction.class);
+    static final long G = 1024L * 1024 * 1024;
+
+    long total = 2000 * G;
+    long usedByVolumes = 1000 * G;
+    int imageNum = 300;
+    int requestNum = 20000;
+    int evictionInterval = 20;
+    long requestIntervalInMillis = TimeUnit.MINUTES.toMillis(1);
+    long minIdleTimeInMillis = TimeUnit.MINUTES.toMillis(10);
+
+    long[] imageSizes = new long[imageNum];
+    int[] requests = new int[requestNum];
+
+    static class Cache {
+        long id;
+        long size;
+        long createTime;
+        long lastAccessTime;
+        long hitCount;
+    }
+
+    static class Result {
+        Policy policy;
+        long hits;
+        long misses;
+        long failures;
+        long downloadedBytes;
+        long savedBytes;
+        long evictions;
+        long evictionNanos;
+        ImageCacheStatistic statistic;
+    }
+
+    private void prepare() {
+        Random random = new Random(7);
+        for (int i = 0; i < imageNum; i++) {
+            imageSizes[i] = (2 + random.nextInt(9)) * G;
+        }
+
+        double[] cdf = new double[imageNum];
+        double sum = 0;
+        for (int i = 0; i < imageNum; i++) {
+            sum += 1 / Math.pow(i + 1, 1.1);
+            cdf[i] = sum;
+        }
+
+        for (int i = 0; i < requestNum; i++) {
+            double r = random.nextDouble() * sum;
+            int rank = Arrays.binarySearch(cdf, r);
+            rank = rank < 0 ? -rank - 1 : rank;
+            // the popular images change halfway
+            requests[i] = i < requestNum / 2 ? rank : (rank + imageNum / 2) % imageNum;
+        }
+    }
+
+    private Result simulate(Policy policy, List<Integer> prewarmed, int num) {
+        ImageCacheEvictor evictor = new ImageCacheEvictor(policy, 85, 75, minIdleTimeInMillis);
+        ImageCacheAccessTracker tracker = new ImageCacheAccessTracker();
+        Map<Integer, Cache> caches = new HashMap<>();
+        long cacheUsed = 0;
+        long now = 0;
+
+        Result ret = new Result();
+        ret.policy = policy;
+        for (int image : prewarmed) {
+            Cache c = new Cache();
+            c.id = image;
+            c.size = imageSizes[image];
+            c.createTime = now;
+            caches.put(image, c);
+            cacheUsed += c.size;
+            tracker.recordPrewarm(c.size);
+        }
+
+        for (int i = 0; i < num; i++) {
+            now += requestIntervalInMillis;
+            if (i % evictionInterval == 0 && evictor.isEnabled()) {
+                List<Candidate> candidates = new ArrayList<>();
+                for (Cache c : caches.values()) {
+                    candidates.add(new Candidate(c.id, c.size, c.hitCount == 0 ? c.createTime : c.lastAccessTime, c.hitCount));
+                }
+
+                long start = System.nanoTime();
+                List<Candidate> evicted = evictor.select(total, total - usedByVolumes - cacheUsed, candidates, now);
+                ret.evictionNanos += System.nanoTime() - start;
+                for (Candidate c : evicted) {
+                    caches.remove((int) c.getId());
+                    cacheUsed -= c.getSize();
+                    tracker.recordEviction(c.getSize());
+                    ret.evictions++;
+                }
+            }
+
+            int image = requests[i];
+            Cache c = caches.get(image);
+            if (c != null) {
+                c.hitCount++;
+                c.lastAccessTime = now;
+                tracker.recordHit(c.id, c.size);
+                ret.hits++;
+                ret.savedBytes += c.size;
+                continue;
+            }
+
+            if (total - usedByVolumes - cacheUsed < imageSizes[image]) {
+                // no capacity to download the image, the VM fails
+                ret.failures++;
+                continue;
+            }
+
+            c = new Cache();
+            c.id = image;
+            c.size = imageSizes[image];
+            c.createTime = now;
+            caches.put(image, c);
+            cacheUsed += c.size;
+            tracker.recordMiss(c.size);
+            ret.misses++;
+            ret.downloadedBytes += c.size;
+        }
+
+        ret.statistic = tracker.getImageCacheStatistic();
+        return ret;
+    }
+
+    private List<Candidate> candidates(long... values) {
+        List<Candidate> ret = new ArrayList<>();
+        for (int i = 0; i < values.length; i += 3) {
+            ret.add(new Candidate(ret.size(), values[i] * G, values[i + 1], values[i + 2]));
+        }
+        return ret;
+    }
+
+    private List<Long> ids(List<Candidate> candidates) {
+        return candidates.stream().map(Candidate::getId).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testEvictor() {
+        long now = TimeUnit.DAYS.toMillis(1);
+        long hour = TimeUnit.HOURS.toMillis(1);
+        // size in G, last access time, hit count
+        List<Candidate> cs = candidates(
+                10, now - 5 * hour, 100,
+                10, now - 10 * hour, 1,
+                10, now - 3 * hour, 0,
+                10, now - 8 * hour, 50,
+                10, now - 10 * 60 * 1000, 0
+        );
+
+        ImageCacheEvictor lru = new ImageCacheEvictor(Policy.LRU, 85, 75, hour);
+        ImageCacheEvictor lfu = new ImageCacheEvictor(Policy.LFU, 85, 75, hour);
+        ImageCacheEvictor none = new ImageCacheEvictor(Policy.None, 85, 75, hour);
+
+        // below the high watermark
+        Assert.assertTrue(lru.select(100 * G, 20 * G, cs, now).isEmpty());
+        Assert.assertTrue(lru.select(100 * G, 15 * G, cs, now).isEmpty());
+        // 90G used, 15G to free for the low watermark
+        Assert.assertEquals(Arrays.asList(1L, 3L), ids(lru.select(100 * G, 10 * G, cs, now)));
+        Assert.assertEquals(Arrays.asList(2L, 1L), ids(lfu.select(100 * G, 10 * G, cs, now)));
+        Assert.assertTrue(none.select(100 * G, 10 * G, cs, now).isEmpty());
+        // 100G used, 25G to free
+        Assert.assertEquals(Arrays.asList(1L, 3L, 0L), ids(lru.select(100 * G, 0, cs, now)));
+        Assert.assertEquals(Arrays.asList(2L, 1L, 3L), ids(lfu.select(100 * G, 0, cs, now)));
+        // the cache accessed 10 minutes ago is never evicted
+        Assert.assertEquals(Arrays.asList(1L, 3L, 0L, 2L), ids(new ImageCacheEvictor(Policy.LRU, 85, 0, hour).select(100 * G, 0, cs, now)));
+        Assert.assertTrue(lru.select(0, 0, cs, now).isEmpty());
+
+        // 10000 caches
+        Random random = new Random(3);
+        List<Candidate> many = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            many.add(new Candidate(i, (1 + random.nextInt(20)) * G, now - random.nextInt(1000) * hour / 10, random.nextInt(1000)));
+        }
+        long start = System.nanoTime();
+        int rounds = 100;
+        for (int i = 0; i < rounds; i++) {
+            lru.select(200000 * G, 0, many, now);
+        }
+        logger.info(String.format("selected image caches to evict from 10000 caches in %sus",
+                TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) / rounds));
+    }
+
+    @Test
+    public void testSimulation() {
+        prepare();
+
+        List<Result> results = new ArrayList<>();
+        for (Policy p : Policy.values()) {
+            results.add(simulate(p, Collections.emptyList(), requestNum));
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (Result r : results) {
+            sb.append(String.format("\n%s: hit ratio %.1f%%, %s hits, %s misses, %s VMs failed, %sG downloaded, %sG saved," +
+                            " %s evicted in %sus", r.policy, r.statistic.getHitRatio(), r.hits, r.misses, r.failures,
+                    r.downloadedBytes / G, r.savedBytes / G, r.evictions, TimeUnit.NANOSECONDS.toMicros(r.evictionNanos)));
+
+            Assert.assertEquals(r.hits, r.statistic.getHitNum());
+            Assert.assertEquals(r.misses, r.statistic.getMissNum());
+            Assert.assertEquals(r.savedBytes, r.statistic.getSavedBytes());
+            Assert.assertEquals(r.downloadedBytes, r.statistic.getDownloadedBytes());
+            Assert.assertEquals(r.evictions, r.statistic.getEvictionNum());
+            Assert.assertEquals(r.hits + r.misses + r.failures, requestNum);
+        }
+        logger.info(String.format("%s VMs created from %s images on a host of %sG, %sG used by volumes:%s", requestNum,
+                imageNum, total / G, usedByVolumes / G, sb));
+
+        Result none = results.get(0);
+        Result lru = results.get(1);
+        Result lfu = results.get(2);
+        Assert.assertEquals(0, none.evictions);
+        Assert.assertTrue(none.failures > 0);
+        Assert.assertEquals(0, lru.failures);
+        Assert.assertEquals(0, lfu.failures);
+        Assert.assertTrue(lru.hits > none.hits);
+        Assert.assertTrue(lru.evictions > 0);
+
+        // prewarm the most popular images
+        int num = 500;
+        List<Integer> popular = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            popular.add(i);
+        }
+        Result cold = simulate(Policy.LRU, Collections.emptyList(), num);
+        Result warm = simulate(Policy.LRU, popular, num);
+        logger.info(String.format("the first %s VMs: %s misses, %sG downloaded when they are created; %s misses, %sG" +
+                        " downloaded after prewarming %s images of %sG", num, cold.misses, cold.downloadedBytes / G,
+                warm.misses, warm.downloadedBytes / G, popular.size(), warm.statistic.getPrewarmedBytes() / G));
+        Assert.assertTrue(warm.misses < cold.misses);
+        Assert.assertTrue(warm.statistic.getHitRatio() > cold.statistic.getHitRatio());
+        Assert.assertEquals(popular.size(), warm.statistic.getPrewarmNum());
+    }
+}
@@ -0,0 +1,291 @@
+package org.zstack.test.storage.snapshot;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.header.storage.snapshot.VolumeSnapshotBackupStorageRefInventory;
+import org.zstack.header.storage.snapshot.VolumeSnapshotInventory;
+import org.zstack.header.storage.snapshot.VolumeSnapshotTree;
+import org.zstack.header.storage.snapshot.VolumeSnapshotTree.SnapshotLeaf;
+import org.zstack.storage.snapshot.VolumeSnapshotTreeCache;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+/**
+ * 1. create a snapshot tree of 1000 snapshots in a fake database taking 100us per query and 2us per row, a chain of
+ * 800 snapshots with 200 snapshots branching from it
+ * 2. find 500 snapshots in the tree by reloading and rebuilding the tree as before, and by the tree cache
+ * 3. create snapshots, revert to a snapshot, back up a snapshot, change a snapshot in the same second the tree is
+ * read, and delete a branch of the tree
+ *
+ * confirm the cached tree is read by one marker query when the tree doesn't change, it's much cheaper and faster
+ * than rebuilding the tree, and after each change the cached tree is synced by loading only the changed snapshots
+ * and is the same as the tree rebuilt from the database
+ */
+public class TestVolumeSnapshotTreeCache {
+    CLogger logger = Utils.getLogger(TestVolumeSnapshotTreeCache.class);
+    long queryCost = TimeUnit.MICROSECONDS.toNanos(100);
+    long rowCost = TimeUnit.MICROSECONDS.toNanos(2);
+    int chainLength = 800;
+    int branchNum = 200;
+    int rounds = 500;
+    String treeUuid = Platform.getUuid();
+
+    // the database time in milliseconds, lastOpDate is stored in seconds
+    long now = TimeUnit.DAYS.toMillis(10000);
+    Map<String, VolumeSnapshotInventory> snapshots = new HashMap<>();
+    Map<String, List<VolumeSnapshotBackupStorageRefInventory>> refs = new HashMap<>();
+    long lastRefId;
+    int queryNum;
+    int rowNum;
+
+    private void query(int rows) {
+        queryNum++;
+        rowNum += rows;
+        LockSupport.parkNanos(queryCost + rowCost * rows);
+    }
+
+    private Timestamp lastOpDate() {
+        return new Timestamp(now - now % 1000);
+    }
+
+    // a row read from the database is a new inventory
+    private VolumeSnapshotInventory read(VolumeSnapshotInventory row) {
+        VolumeSnapshotInventory inv = new VolumeSnapshotInventory();
+        inv.setUuid(row.getUuid());
+        inv.setTreeUuid(row.getTreeUuid());
+        inv.setParentUuid(row.getParentUuid());
+        inv.setLatest(row.isLatest());
+        inv.setStatus(row.getStatus());
+        inv.setLastOpDate(row.getLastOpDate());
+        inv.setBackupStorageRefs(new ArrayList<>(refs.getOrDefault(row.getUuid(), Collections.emptyList())));
+        return inv;
+    }
+
+    VolumeSnapshotTreeCache.Store store = new VolumeSnapshotTreeCache.Store() {
+        @Override
+        public VolumeSnapshotTreeCache.Marker getMarker(String treeUuid) {
+            query(1);
+            Timestamp last = snapshots.values().stream().map(VolumeSnapshotInventory::getLastOpDate).max(Timestamp::compareTo).orElse(null);
+            long refCount = refs.values().stream().mapToLong(List::size).sum();
+            return new VolumeSnapshotTreeCache.Marker(snapshots.size(), last, refCount, lastRefId, new Timestamp(now));
+        }
+
+        @Override
+        public List<VolumeSnapshotInventory> listSnapshots(String treeUuid) {
+            query(snapshots.size());
+            return snapshots.values().stream().map(TestVolumeSnapshotTreeCache.this::read).collect(Collectors.toList());
+        }
+
+        @Override
+        public List<VolumeSnapshotInventory> listSnapshotsChangedSince(String treeUuid, Timestamp date) {
+            List<VolumeSnapshotInventory> ret = snapshots.values().stream().filter(s -> !s.getLastOpDate().before(date))
+                    .map(TestVolumeSnapshotTreeCache.this::read).collect(Collectors.toList());
+            query(ret.size());
+            return ret;
+        }
+
+        @Override
+        public List<VolumeSnapshotInventory> listSnapshots(Collection<String> uuids) {
+            List<VolumeSnapshotInventory> ret = uuids.stream().filter(snapshots::containsKey)
+                    .map(uuid -> read(snapshots.get(uuid))).collect(Collectors.toList());
+            query(ret.size());
+            return ret;
+        }
+
+        @Override
+        public List<String> listSnapshotUuids(String treeUuid) {
+            query(snapshots.size());
+            return new ArrayList<>(snapshots.keySet());
+        }
+
+        @Override
+        public List<VolumeSnapshotBackupStorageRefInventory> listBackupStorageRefs(String treeUuid) {
+            List<VolumeSnapshotBackupStorageRefInventory> ret = refs.values().stream().flatMap(List::stream).collect(Collectors.toList());
+            query(ret.size());
+            return ret;
+        }
+    };
+
+    private VolumeSnapshotInventory createSnapshot(String parentUuid) {
+        VolumeSnapshotInventory inv = new VolumeSnapshotInventory();
+        inv.setUuid(Platform.getUuid());
+        inv.setTreeUuid(treeUuid);
+        inv.setParentUuid(parentUuid);
+        inv.setLatest(false);
+        inv.setStatus("Ready");
+        inv.setLastOpDate(lastOpDate());
+        snapshots.put(inv.getUuid(), inv);
+        return inv;
+    }
+
+    private void update(String uuid, boolean latest) {
+        VolumeSnapshotInventory inv = snapshots.get(uuid);
+        inv.setLatest(latest);
+        inv.setLastOpDate(lastOpDate());
+    }
+
+    private void addRef(String uuid) {
+        VolumeSnapshotBackupStorageRefInventory ref = new VolumeSnapshotBackupStorageRefInventory();
+        ref.setVolumeSnapshotUuid(uuid);
+        ref.setBackupStorageUuid(Platform.getUuid());
+        ref.setInstallPath("/backup/" + uuid);
+        refs.computeIfAbsent(uuid, k -> new ArrayList<>()).add(ref);
+        lastRefId++;
+    }
+
+    private void tick() {
+        now += TimeUnit.SECONDS.toMillis(5);
+    }
+
+    // the tree rebuilt from the database as VolumeSnapshotTreeBase did for every message
+    private VolumeSnapshotTree rebuild() {
+        return VolumeSnapshotTree.fromInventories(store.listSnapshots(treeUuid));
+    }
+
+    private String dump(VolumeSnapshotTree tree) {
+        StringBuilder sb = new StringBuilder();
+        Deque<SnapshotLeaf> leafs = new ArrayDeque<>();
+        leafs.push(tree.getRoot());
+        while (!leafs.isEmpty()) {
+            SnapshotLeaf leaf = leafs.pop();
+            VolumeSnapshotInventory inv = leaf.getInventory();
+            sb.append(String.format("%s:%s:%s:%s:%s;", inv.getUuid(), leaf.getParent() == null ? null : leaf.getParent().getUuid(),
+                    inv.isLatest(), inv.getBackupStorageRefs().size(),
+                    leaf.getChildren().stream().map(SnapshotLeaf::getUuid).sorted().collect(Collectors.toList())));
+            leaf.getChildren().stream().sorted(Comparator.comparing(SnapshotLeaf::getUuid)).forEach(leafs::push);
+        }
+        return sb.toString();
+    }
+
+    private void checkSynced(VolumeSnapshotTreeCache cache, int maxRows) {
+        queryNum = 0;
+        rowNum = 0;
+        VolumeSnapshotTree tree = cache.getTree(treeUuid);
+        int rows = rowNum;
+        Assert.assertTrue(String.format("%s rows loaded", rows), rows <= maxRows);
+        Assert.assertEquals(dump(rebuild()), dump(tree));
+        Assert.assertEquals(snapshots.size(), tree.getRoot().getDescendants().size());
+    }
+
+    @Test
+    public void test() {
+        String rootUuid = createSnapshot(null).getUuid();
+        List<String> chain = new ArrayList<>();
+        chain.add(rootUuid);
+        // scheduled snapshots, one per second
+        for (int i = 1; i < chainLength; i++) {
+            now += TimeUnit.SECONDS.toMillis(1);
+            chain.add(createSnapshot(chain.get(i - 1)).getUuid());
+        }
+        Random random = new Random(7);
+        for (int i = 0; i < branchNum; i++) {
+            now += TimeUnit.SECONDS.toMillis(1);
+            createSnapshot(chain.get(random.nextInt(chain.size())));
+        }
+        update(chain.get(chain.size() - 1), true);
+        tick();
+        List<String> uuids = new ArrayList<>(snapshots.keySet());
+
+        // find the snapshots as before
+        queryNum = 0;
+        rowNum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            String uuid = uuids.get(random.nextInt(uuids.size()));
+            SnapshotLeaf leaf = rebuild().findSnapshot(arg -> arg.getUuid().equals(uuid));
+            Assert.assertEquals(uuid, leaf.getUuid());
+        }
+        long rebuildCost = System.nanoTime() - start;
+        int rebuildQueryNum = queryNum;
+        int rebuildRowNum = rowNum;
+
+        // find the snapshots by the cache
+        VolumeSnapshotTreeCache cache = new VolumeSnapshotTreeCache(store, 100);
+        queryNum = 0;
+        rowNum = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            String uuid = uuids.get(random.nextInt(uuids.size()));
+            SnapshotLeaf leaf = cache.getTree(treeUuid).findSnapshotByUuid(uuid);
+            Assert.assertEquals(uuid, leaf.getUuid());
+        }
+        long cacheCost = System.nanoTime() - start;
+        Assert.assertEquals(1, cache.getLoadCount());
+        Assert.assertEquals(rounds - 1, cache.getHitCount());
+        // a marker query for each read, plus the first load
+        Assert.assertEquals(rounds + 1, queryNum);
+
+        logger.info(String.format("find %s snapshots in a tree of %s snapshots: %s queries, %s rows in %sms by rebuilding the tree," +
+                        " %s queries, %s rows in %sms by the tree cache", rounds, snapshots.size(), rebuildQueryNum, rebuildRowNum,
+                TimeUnit.NANOSECONDS.toMillis(rebuildCost), queryNum, rowNum, TimeUnit.NANOSECONDS.toMillis(cacheCost)));
+        Assert.assertTrue(rowNum * 100 < rebuildRowNum);
+        Assert.assertTrue(cacheCost * 5 < rebuildCost);
+
+        // create snapshots on the latest one
+        String latest = chain.get(chain.size() - 1);
+        for (int i = 0; i < 3; i++) {
+            update(latest, false);
+            latest = createSnapshot(latest).getUuid();
+            update(latest, true);
+        }
+        tick();
+        checkSynced(cache, 10);
+        Assert.assertNotNull(cache.getTree(treeUuid).findSnapshotByUuid(latest));
+        Assert.assertEquals(1, cache.getLoadCount());
+
+        // revert to a snapshot in the middle of the chain
+        update(latest, false);
+        update(chain.get(chainLength / 2), true);
+        tick();
+        checkSynced(cache, 10);
+        Assert.assertTrue(cache.getTree(treeUuid).findSnapshotByUuid(chain.get(chainLength / 2)).getInventory().isLatest());
+
+        // back up a snapshot, the snapshot itself doesn't change
+        addRef(chain.get(10));
+        tick();
+        checkSynced(cache, 10);
+        Assert.assertEquals(1, cache.getTree(treeUuid).findSnapshotByUuid(chain.get(10)).getInventory().getBackupStorageRefs().size());
+
+        // a snapshot changed in the same second after the tree is read
+        update(chain.get(20), true);
+        Assert.assertNotNull(cache.getTree(treeUuid));
+        now += 100;
+        update(chain.get(20), false);
+        tick();
+        checkSynced(cache, 10);
+        Assert.assertFalse(cache.getTree(treeUuid).findSnapshotByUuid(chain.get(20)).getInventory().isLatest());
+
+        // delete the snapshots from the middle of the chain
+        VolumeSnapshotTree tree = cache.getTree(treeUuid);
+        List<String> deleted = tree.findSnapshotByUuid(chain.get(chainLength - 100)).getDescendants().stream()
+                .map(VolumeSnapshotInventory::getUuid).collect(Collectors.toList());
+        deleted.forEach(uuid -> {
+            snapshots.remove(uuid);
+            refs.remove(uuid);
+        });
+        tick();
+        // the uuids of the snapshots are loaded to find the deleted ones
+        checkSynced(cache, snapshots.size() + 10);
+        Assert.assertNull(cache.getTree(treeUuid).findSnapshotByUuid(deleted.get(0)));
+        Assert.assertEquals(1, cache.getLoadCount());
+        // the tree in use is not changed by the sync
+        Assert.assertNotNull(tree.findSnapshotByUuid(deleted.get(0)));
+
+        // delete the whole tree
+        snapshots.clear();
+        Assert.assertNull(cache.getTree(treeUuid));
+
+        // the cache disabled
+        createSnapshot(null);
+        VolumeSnapshotTreeCache disabled = new VolumeSnapshotTreeCache(store, 0);
+        Assert.assertNotNull(disabled.getTree(treeUuid));
+        Assert.assertEquals(0, disabled.getHitCount() + disabled.getLoadCount());
+    }
+}
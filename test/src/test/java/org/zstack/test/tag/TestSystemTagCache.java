@@ -0,0 +1,211 @@
+package org.zstack.test.tag;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.zstack.core.Platform;
+import org.zstack.header.host.HostVO;
+import org.zstack.header.vm.VmInstanceVO;
+import org.zstack.tag.*;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.Tuple;
+import javax.persistence.TupleElement;
+import java.lang.reflect.Field;
+import java.util.*;
+
+/**
+ * 1. put hostname, static ip and capability tags of 1000 VMs and hosts in a fake SystemTagVO table
+ * 2. look them up repeatedly through SystemTag and PatternedSystemTag backed by the cache
+ * 3. change tags and invalidate the cache, shrink the cache and the timeout
+ *
+ * confirm lookups return the same tags as the queries do, only load each resource once,
+ * and see the changes after invalidation and timeout
+ */
+public class TestSystemTagCache {
+    CLogger logger = Utils.getLogger(TestSystemTagCache.class);
+    int resourceNum = 1000;
+    int lookupNum = 10;
+
+    // resourceUuid -> [resourceType, tag]
+    Map<String, List<String[]>> table = new HashMap<>();
+    List<String> vmUuids = new ArrayList<>();
+    List<String> hostUuids = new ArrayList<>();
+    int loadNum;
+
+    SystemTagCache cache = new SystemTagCache() {
+        @Override
+        protected List<Tuple> load(List<String> resourceUuids) {
+            loadNum += resourceUuids.size();
+            List<Tuple> ret = new ArrayList<>();
+            for (String uuid : resourceUuids) {
+                for (String[] t : table.getOrDefault(uuid, Collections.emptyList())) {
+                    ret.add(new TagTuple(uuid, t[0], t[1]));
+                }
+            }
+            return ret;
+        }
+    };
+
+    PatternedSystemTag hostname = new PatternedSystemTag("hostname::{hostname}", VmInstanceVO.class);
+    PatternedSystemTag staticIp = new PatternedSystemTag("staticIp::{l3NetworkUuid}::{staticIp}", VmInstanceVO.class);
+    SystemTag liveSnapshot = new SystemTag("capability::liveSnapshot", HostVO.class);
+
+    static class TagTuple implements Tuple {
+        Object[] values;
+
+        TagTuple(Object... values) {
+            this.values = values;
+        }
+
+        @Override
+        public <X> X get(TupleElement<X> tupleElement) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <X> X get(String alias, Class<X> type) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object get(String alias) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <X> X get(int i, Class<X> type) {
+            return type.cast(values[i]);
+        }
+
+        @Override
+        public Object get(int i) {
+            return values[i];
+        }
+
+        @Override
+        public Object[] toArray() {
+            return values;
+        }
+
+        @Override
+        public List<TupleElement<?>> getElements() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private void addTag(String resourceUuid, Class resourceType, String tag) {
+        table.computeIfAbsent(resourceUuid, k -> new ArrayList<>()).add(new String[]{resourceType.getSimpleName(), tag});
+    }
+
+    // the properties are static and shared by the test classes running in the same JVM
+    int cacheSize = TagGlobalProperty.SYSTEM_TAG_CACHE_SIZE;
+    long cacheTimeout = TagGlobalProperty.SYSTEM_TAG_CACHE_TIMEOUT;
+
+    @Before
+    public void setUp() throws Exception {
+        TagGlobalProperty.SYSTEM_TAG_CACHE_SIZE = 50000;
+        TagGlobalProperty.SYSTEM_TAG_CACHE_TIMEOUT = 300;
+
+        TagManagerImpl tagMgr = Mockito.mock(TagManagerImpl.class);
+        Mockito.when(tagMgr.getSystemTagCache()).thenReturn(cache);
+        Field f = SystemTag.class.getDeclaredField("tagMgr");
+        f.setAccessible(true);
+        for (SystemTag stag : Arrays.asList(hostname, staticIp, liveSnapshot)) {
+            f.set(stag, tagMgr);
+        }
+
+        for (int i = 0; i < resourceNum; i++) {
+            String vmUuid = Platform.getUuid();
+            vmUuids.add(vmUuid);
+            addTag(vmUuid, VmInstanceVO.class, String.format("hostname::vm-%s", i));
+            addTag(vmUuid, VmInstanceVO.class, String.format("staticIp::l3-%s::10.0.%s.%s", i % 2, i / 256, i % 256));
+            if (i % 2 == 0) {
+                addTag(vmUuid, VmInstanceVO.class, String.format("staticIp::l3-2::10.1.%s.%s", i / 256, i % 256));
+            }
+
+            String hostUuid = Platform.getUuid();
+            hostUuids.add(hostUuid);
+            if (i % 3 == 0) {
+                addTag(hostUuid, HostVO.class, "capability::liveSnapshot");
+            }
+            addTag(hostUuid, HostVO.class, "capability::virtio");
+        }
+    }
+
+    @After
+    public void tearDown() {
+        TagGlobalProperty.SYSTEM_TAG_CACHE_SIZE = cacheSize;
+        TagGlobalProperty.SYSTEM_TAG_CACHE_TIMEOUT = cacheTimeout;
+    }
+
+    @Test
+    public void test() {
+        for (int n = 0; n < lookupNum; n++) {
+            for (int i = 0; i < resourceNum; i++) {
+                String vmUuid = vmUuids.get(i);
+                Assert.assertEquals(String.format("vm-%s", i), hostname.getTokenByResourceUuid(vmUuid, "hostname"));
+                Assert.assertEquals(i % 2 == 0 ? 2 : 1, staticIp.getTokensOfTagsByResourceUuid(vmUuid).size());
+                Assert.assertEquals(String.format("l3-%s", i % 2), staticIp.getTokensOfTagsByResourceUuid(vmUuid).get(0).get("l3NetworkUuid"));
+                // tags are matched by resource type as the query does
+                Assert.assertFalse(hostname.hasTag(vmUuid, HostVO.class));
+
+                String hostUuid = hostUuids.get(i);
+                Assert.assertEquals(i % 3 == 0, liveSnapshot.hasTag(hostUuid));
+                Assert.assertNull(hostname.getTag(hostUuid));
+            }
+        }
+
+        Map<String, List<String>> tags = hostname.getTags(vmUuids.subList(0, 10));
+        Assert.assertEquals(10, tags.size());
+        Assert.assertEquals(Collections.singletonList("hostname::vm-3"), tags.get(vmUuids.get(3)));
+
+        Assert.assertEquals(resourceNum * 2, loadNum);
+        SystemTagCacheStatistic stat = cache.getSystemTagCacheStatistic();
+        Assert.assertEquals(resourceNum * 2, stat.getSize());
+        Assert.assertEquals(resourceNum * 2, stat.getMissNum());
+        logger.info(String.format("looked up tags of %s resources %s times: %s hits, %s misses",
+                resourceNum * 2, lookupNum, stat.getHitNum(), stat.getMissNum()));
+
+        // tags are matched as sql LIKE and '=' do, case-insensitively
+        String vmUuid = vmUuids.get(0);
+        addTag(vmUuid, VmInstanceVO.class, "HOSTNAME::upper");
+        addTag(vmUuid, VmInstanceVO.class, "hostname::a::b");
+        Assert.assertEquals(1, hostname.getTags(vmUuid).size());
+        cache.invalidate(Collections.singletonList(vmUuid));
+        Assert.assertEquals(3, hostname.getTags(vmUuid).size());
+        Assert.assertEquals(3, hostname.getTokensOfTagsByResourceUuid(vmUuid).size());
+        Assert.assertNull(hostname.getTokensOfTagsByResourceUuid(vmUuid).get(2));
+
+        String hostUuid = hostUuids.get(1);
+        addTag(hostUuid, HostVO.class, "Capability::LiveSnapshot");
+        Assert.assertFalse(liveSnapshot.hasTag(hostUuid));
+        cache.invalidate(Collections.singletonList(hostUuid));
+        Assert.assertTrue(liveSnapshot.hasTag(hostUuid));
+
+        // returned tokens are copies
+        hostname.getTokensByResourceUuid(vmUuids.get(1)).put("hostname", "changed");
+        Assert.assertEquals("vm-1", hostname.getTokenByResourceUuid(vmUuids.get(1), "hostname"));
+
+        // expired resources are loaded again
+        TagGlobalProperty.SYSTEM_TAG_CACHE_TIMEOUT = 0;
+        loadNum = 0;
+        liveSnapshot.hasTag(hostUuids.get(2));
+        liveSnapshot.hasTag(hostUuids.get(2));
+        Assert.assertEquals(2, loadNum);
+
+        // the cache is bounded
+        TagGlobalProperty.SYSTEM_TAG_CACHE_TIMEOUT = 300;
+        TagGlobalProperty.SYSTEM_TAG_CACHE_SIZE = 100;
+        cache.invalidateAll();
+        for (String uuid : vmUuids) {
+            hostname.getTag(uuid);
+        }
+        stat = cache.getSystemTagCacheStatistic();
+        Assert.assertEquals(100, stat.getSize());
+        Assert.assertTrue(stat.getEvictionNum() >= resourceNum - 100);
+    }
+}
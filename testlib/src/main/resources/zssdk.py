@@ -7933,6 +7933,32 @@ class CleanUpImageCacheOnPrimaryStorageAction(AbstractAction):
         self.sessionId = None
 
 
+class PrewarmImageCacheOnPrimaryStorageAction(AbstractAction):
+    HTTP_METHOD = 'PUT'
+    PATH = '/primary-storage/{uuid}/actions'
+    NEED_SESSION = True
+    NEED_POLL = True
+    PARAM_NAME = 'prewarmImageCacheOnPrimaryStorage'
+
+    PARAMS = {
+        'uuid': ParamAnnotation(required=True,non_empty=False,null_elements=False,empty_string=True,no_trim=False),
+        'imageUuids': ParamAnnotation(required=True,non_empty=True,null_elements=False,empty_string=True,no_trim=False),
+        'hostUuids': ParamAnnotation(required=False,non_empty=False,null_elements=False,empty_string=True,no_trim=False),
+        'systemTags': ParamAnnotation(),
+        'userTags': ParamAnnotation(),
+        'sessionId': ParamAnnotation(required=True)
+    }
+
+    def __init__(self):
+        super(PrewarmImageCacheOnPrimaryStorageAction, self).__init__()
+        self.uuid = None
+        self.imageUuids = None
+        self.hostUuids = None
+        self.systemTags = None
+        self.userTags = None
+        self.sessionId = None
+
+
 class SetImageQgaAction(AbstractAction):
     HTTP_METHOD = 'PUT'
     PATH = '/images/{uuid}/actions'
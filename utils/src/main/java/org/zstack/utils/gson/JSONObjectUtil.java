@@ -49,6 +49,11 @@ public class JSONObjectUtil {
         return gson.toJson(obj);
     }
 
+    // serialize to the writer directly without building the whole JSON string
+    public static void toJson(Object obj, Appendable writer) {
+        gson.toJson(obj, writer);
+    }
+
     public static <T> T rehashObject(Object obj, Class<T> clazz) {
         String str = toJsonString(obj);
         return toObject(str, clazz);
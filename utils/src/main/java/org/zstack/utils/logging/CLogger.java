@@ -37,4 +37,6 @@ public interface CLogger {
     void fatal(String msg);
     
     boolean isTraceEnabled();
+
+    boolean isDebugEnabled();
 }
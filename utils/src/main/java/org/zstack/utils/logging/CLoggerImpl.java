@@ -102,4 +102,8 @@ public class CLoggerImpl implements CLogger {
     public boolean isTraceEnabled() {
         return logger.isTraceEnabled();
     }
+
+    public boolean isDebugEnabled() {
+        return logger.isDebugEnabled();
+    }
 }